@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.data.ShapeFeature;
+import parsing.ParseFeed;
+
+/** CsvJmh
+ * CsvBenchmark under JMH: the bundled airports, routes and life expectancy
+ * files, held in memory, parsed by the regex split the parsers used before
+ * and by the CsvReader based parsers of ParseFeed.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvJmh {
+
+	private byte[] airports;
+	private byte[] routes;
+	private byte[] lifeExpectancy;
+
+	@Setup
+	public void readFiles() throws IOException {
+		airports = Files.readAllBytes(Paths.get("data", "airports.dat"));
+		routes = Files.readAllBytes(Paths.get("data", "routes.dat"));
+		lifeExpectancy = Files.readAllBytes(Paths.get("data", "LifeExpectancyWorldBank.csv"));
+	}
+
+	@Benchmark
+	public List<PointFeature> airportsRegexSplit() {
+		return CsvBenchmark.legacyAirports(airports);
+	}
+
+	@Benchmark
+	public List<PointFeature> airportsCsvReader() {
+		return ParseFeed.parseAirports(new ByteArrayInputStream(airports));
+	}
+
+	@Benchmark
+	public List<ShapeFeature> routesSplit() {
+		return CsvBenchmark.legacyRoutes(routes);
+	}
+
+	@Benchmark
+	public List<ShapeFeature> routesCsvReader() {
+		return ParseFeed.parseRoutes(new ByteArrayInputStream(routes));
+	}
+
+	@Benchmark
+	public HashMap<String, Float> lifeExpectancyRegexSplit() {
+		return CsvBenchmark.legacyLifeExpectancy(lifeExpectancy);
+	}
+
+	@Benchmark
+	public HashMap<String, Float> lifeExpectancyCsvReader() {
+		return ParseFeed.loadLifeExpectancyFromCSV(new ByteArrayInputStream(lifeExpectancy));
+	}
+}
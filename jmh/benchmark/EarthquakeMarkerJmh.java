@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import earthquakemap.EarthquakeMarker;
+
+/** EarthquakeMarkerJmh
+ * EarthquakeMarkerBenchmark under JMH: what a frame reads from n quake
+ * markers, and sorting them by magnitude, through the property map and
+ * through the typed fields.  Run with -prof gc for the allocation.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EarthquakeMarkerJmh {
+
+	@Param({ "10000" })
+	public int count;
+
+	private EarthquakeMarker[] markers;
+
+	@Setup
+	public void createMarkers() {
+		markers = EarthquakeMarkerBenchmark.createMarkers(count, new Random(42));
+	}
+
+	@Benchmark
+	public Object framePropertyLookups() {
+		return EarthquakeMarkerBenchmark.propertyFrame(markers);
+	}
+
+	@Benchmark
+	public Object frameTypedFields() {
+		return EarthquakeMarkerBenchmark.typedFrame(markers);
+	}
+
+	@Benchmark
+	public EarthquakeMarker[] sortPropertyLookups() {
+		EarthquakeMarker[] copy = markers.clone();
+		Arrays.sort(copy, EarthquakeMarkerBenchmark.PROPERTY_ORDER);
+		return copy;
+	}
+
+	@Benchmark
+	public EarthquakeMarker[] sortTypedFields() {
+		EarthquakeMarker[] copy = markers.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+}
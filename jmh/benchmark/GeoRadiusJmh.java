@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.SimplePointMarker;
+import earthquakemap.GeoRadiusIndex;
+
+/** GeoRadiusJmh
+ * GeoRadiusBenchmark under JMH: the markers within a radius of a random
+ * point, found by measuring every marker and by GeoRadiusIndex.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoRadiusJmh {
+
+	private static final int POINTS = 50_000;
+	private static final int QUERIES = 1024;
+
+	@Param({ "100", "1000" })
+	public double radiusKm;
+
+	private List<Marker> markers;
+	private GeoRadiusIndex index;
+	private final Location[] centers = new Location[QUERIES];
+	private int next;
+
+	@Setup
+	public void createMarkers() {
+		Random random = new Random(6);
+		markers = new ArrayList<>(POINTS);
+		for (int i = 0; i < POINTS; i++) {
+			markers.add(new SimplePointMarker(new Location(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180)));
+		}
+		for (int i = 0; i < QUERIES; i++) {
+			centers[i] = new Location(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180);
+		}
+		index = new GeoRadiusIndex(markers);
+	}
+
+	@Benchmark
+	public List<Marker> scan() {
+		Location center = centers[next = (next + 1) % QUERIES];
+		List<Marker> found = new ArrayList<>();
+		for (Marker marker : markers) {
+			if (!(marker.getDistanceTo(center) > radiusKm)) {
+				found.add(marker);
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public List<Marker> index() {
+		return index.within(centers[next = (next + 1) % QUERIES], radiusKm);
+	}
+}
@@ -0,0 +1,108 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import earthquakemap.CommonMarker;
+import earthquakemap.MarkerHitIndex;
+import earthquakemap.QuakeTable;
+
+/** HitTestJmh
+ * HitTestBenchmark under JMH: a hover over n markers, as a scan over
+ * every marker and as a MarkerHitIndex query, and the index rebuild after
+ * a pan or zoom.  The index is also timed over the rows of a quake table,
+ * as the map uses it, where positions and hit radii come from the table's
+ * columns and markers are only created for the rows near the cursor.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitTestJmh {
+
+	private static final float WIDTH = 900;
+	private static final float HEIGHT = 700;
+	private static final int QUERIES = 1024;
+
+	private static final Function<Location, ScreenPosition> PROJECTION = location ->
+			new ScreenPosition((location.getLon() + 180) / 360 * WIDTH, (90 - location.getLat()) / 180 * HEIGHT);
+
+	@Param({ "1000", "10000", "100000" })
+	public int count;
+
+	private List<Marker> markers;
+	private MarkerHitIndex index;
+	private MarkerHitIndex rowIndex;
+	private final float[] mouse = new float[2 * QUERIES];
+	private int next;
+
+	@Setup
+	public void createMarkers() {
+		Random random = new Random(7);
+		markers = Arrays.asList((Marker[]) EarthquakeMarkerBenchmark.createMarkers(count, random));
+		for (int i = 0; i < mouse.length; i++) {
+			mouse[i] = random.nextFloat() * (i % 2 == 0 ? WIDTH : HEIGHT);
+		}
+		index = new MarkerHitIndex(markers, WIDTH, HEIGHT);
+		index.rebuild(PROJECTION);
+		rowIndex = new MarkerHitIndex(ClusterBenchmark.createQuakes(new QuakeTable(), count, random), WIDTH, HEIGHT);
+		rowIndex.rebuild(PROJECTION);
+	}
+
+	@Benchmark
+	public CommonMarker scan() {
+		int i = next = (next + 2) % mouse.length;
+		for (Marker m : markers) {
+			CommonMarker marker = (CommonMarker) m;
+			ScreenPosition position = PROJECTION.apply(marker.getLocation());
+			if (marker.isInside(mouse[i], mouse[i + 1], position.x, position.y)) {
+				return marker;
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public CommonMarker indexQuery() {
+		int i = next = (next + 2) % mouse.length;
+		return index.query(mouse[i], mouse[i + 1], true);
+	}
+
+	@Benchmark
+	public MarkerHitIndex indexRebuild() {
+		index.rebuild(PROJECTION);
+		return index;
+	}
+
+	@Benchmark
+	public CommonMarker rowIndexQuery() {
+		int i = next = (next + 2) % mouse.length;
+		return rowIndex.query(mouse[i], mouse[i + 1], true);
+	}
+
+	@Benchmark
+	public MarkerHitIndex rowIndexRebuild() {
+		rowIndex.rebuild(PROJECTION);
+		return rowIndex;
+	}
+}
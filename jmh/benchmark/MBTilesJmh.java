@@ -0,0 +1,133 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import earthquakemap.MBTilesTileProvider;
+import processing.core.PImage;
+
+/** MBTilesJmh
+ * MBTilesBenchmark under JMH: a view of 3x3 tiles at zoom level 3 of
+ * blankLight-1-3.mbtiles read one query per tile by MBTilesMapProvider,
+ * with one range query by MBTilesTileProvider, and from its preloaded tile
+ * set.  Warm views reuse open providers and step across the map; a cold
+ * view is a single shot that opens a fresh copy of the file first.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MBTilesJmh {
+
+	private static final int ZOOM = MBTilesBenchmark.ZOOM;
+	private static final int VIEW = MBTilesBenchmark.VIEW;
+
+	private MBTilesMapProvider source;
+	private MBTilesTileProvider pooled;
+	private MBTilesTileProvider inMemory;
+	private int step;
+
+	/** A copy of the tile set per invocation, so no connection is reused. */
+	@State(Scope.Thread)
+	public static class ColdFile {
+
+		Path file;
+		MBTilesTileProvider provider;
+
+		@Setup(Level.Invocation)
+		public void copy() throws IOException {
+			file = Files.createTempFile("mbtiles", ".mbtiles");
+			Files.copy(tiles().toPath(), file, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		@TearDown(Level.Invocation)
+		public void delete() throws IOException {
+			if (provider != null) {
+				provider.close();
+				provider = null;
+			}
+			Files.delete(file);
+		}
+	}
+
+	@Setup
+	public void openProviders() throws SQLException {
+		String file = tiles().getAbsolutePath();
+		source = new MBTilesMapProvider(file);
+		pooled = new MBTilesTileProvider(file, 4, false);
+		inMemory = new MBTilesTileProvider(file, 4, true);
+	}
+
+	@TearDown
+	public void closeProviders() {
+		pooled.close();
+		inMemory.close();
+	}
+
+	@Benchmark
+	public List<PImage> warmTileByTile() {
+		return MBTilesBenchmark.viewTileByTile(source, step++ % (1 << ZOOM), step % VIEW);
+	}
+
+	@Benchmark
+	public Object warmRangeQuery() {
+		return MBTilesBenchmark.view(pooled, step++ % (1 << ZOOM), step % VIEW);
+	}
+
+	@Benchmark
+	public Object warmPreloaded() {
+		return MBTilesBenchmark.view(inMemory, step++ % (1 << ZOOM), step % VIEW);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public List<PImage> coldTileByTile(ColdFile cold) {
+		return MBTilesBenchmark.viewTileByTile(new MBTilesMapProvider(cold.file.toString()), 0, 0);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public Object coldRangeQuery(ColdFile cold) throws SQLException {
+		cold.provider = new MBTilesTileProvider(cold.file.toString(), 4, false);
+		return MBTilesBenchmark.view(cold.provider, 0, 0);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public Object coldPreloaded(ColdFile cold) throws SQLException {
+		cold.provider = new MBTilesTileProvider(cold.file.toString(), 4, true);
+		return MBTilesBenchmark.view(cold.provider, 0, 0);
+	}
+
+	private static File tiles() {
+		return new File("data", "blankLight-1-3.mbtiles");
+	}
+}
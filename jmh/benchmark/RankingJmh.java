@@ -0,0 +1,64 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import earthquakemap.QuakeAge;
+import earthquakemap.QuakeRanking;
+import earthquakemap.QuakeTable;
+
+/** RankingJmh
+ * RankingBenchmark under JMH: the 20 largest of n synthetic quakes by a
+ * full sort and by top-K selection.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankingJmh {
+
+	private static final int K = 20;
+	private static final QuakeAge[] AGES = QuakeAge.values();
+
+	@Param({ "10000", "100000", "1000000" })
+	public int count;
+
+	private QuakeTable table;
+
+	@Setup
+	public void createTable() {
+		Random random = new Random(13);
+		table = new QuakeTable();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			float magnitude = 2.5f + (int) (random.nextFloat() * 60) / 10f;
+			table.add(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180, magnitude,
+					(int) (random.nextFloat() * 7000) / 10f, now - random.nextInt(7 * 24 * 3600) * 1000L,
+					AGES[random.nextInt(AGES.length)], "M " + magnitude + " - synthetic quake " + i);
+		}
+	}
+
+	@Benchmark
+	public int[] fullSort() {
+		return table.sortByMagnitude();
+	}
+
+	@Benchmark
+	public int[] topK() {
+		return QuakeRanking.topRows(table, QuakeRanking.By.MAGNITUDE, K);
+	}
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import airports.RouteGraph;
+import airports.RouteSearch;
+
+/** RouteGraphJmh
+ * RouteGraphBenchmark under JMH: building the route graph from the bundled
+ * OpenFlights files held in memory, and fewest-hops, shortest-distance and
+ * reachable-within-2-legs queries between the same random airport pairs.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteGraphJmh {
+
+	private static final int PAIRS = RouteGraphBenchmark.PAIRS;
+
+	private byte[] airports;
+	private byte[] routes;
+	private RouteSearch search;
+	private final int[] sources = new int[PAIRS];
+	private final int[] destinations = new int[PAIRS];
+	private int next;
+
+	@Setup
+	public void loadGraph() throws IOException {
+		airports = Files.readAllBytes(Paths.get("data", "airports.dat"));
+		routes = Files.readAllBytes(Paths.get("data", "routes.dat"));
+		RouteGraph graph = RouteGraphBenchmark.load(airports, routes);
+		Random random = new Random(11);
+		for (int i = 0; i < PAIRS; i++) {
+			sources[i] = RouteGraphBenchmark.connectedAirport(graph, random);
+			destinations[i] = RouteGraphBenchmark.connectedAirport(graph, random);
+		}
+		search = graph.newSearch();
+	}
+
+	@Benchmark
+	public RouteGraph build() {
+		return RouteGraphBenchmark.load(airports, routes);
+	}
+
+	@Benchmark
+	public int[] fewestHops() {
+		int i = next = (next + 1) % PAIRS;
+		return search.fewestHops(sources[i], destinations[i]);
+	}
+
+	@Benchmark
+	public int[] shortestDistance() {
+		int i = next = (next + 1) % PAIRS;
+		return search.shortestDistance(sources[i], destinations[i]);
+	}
+
+	@Benchmark
+	public int[] reachableWithin2() {
+		int i = next = (next + 1) % PAIRS;
+		return search.reachableWithin(sources[i], 2);
+	}
+}
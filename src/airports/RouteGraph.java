@@ -0,0 +1,248 @@
+package airports;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.data.ShapeFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.utils.GeoUtils;
+import parsing.CsvReader;
+
+/** RouteGraph
+ * The OpenFlights route network as a compact directed graph.  Airports are
+ * mapped to dense int ids and the routes leaving each airport are stored in
+ * compressed sparse row form: the destinations of airport a are
+ * targets[offsets[a]] to targets[offsets[a + 1] - 1], with the great-circle
+ * distance of each leg next to it in distances.  Routes flown by several
+ * airlines appear once.
+ *
+ * The graph is immutable; queries run through a {@link RouteSearch}, which
+ * holds the scratch arrays for one thread.
+ * */
+public class RouteGraph {
+
+	private final String[] airportIds;
+	private final String[] codes;
+	private final float[] lat;
+	private final float[] lon;
+	// unit vectors of the airports, for quick great-circle lower bounds
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final HashMap<String, Integer> denseIds;
+
+	private final int[] offsets;
+	private final int[] targets;
+	private final float[] distances;
+
+	private RouteGraph(String[] airportIds, String[] codes, float[] lat, float[] lon,
+			HashMap<String, Integer> denseIds, int[] offsets, int[] targets, float[] distances) {
+		this.airportIds = airportIds;
+		this.codes = codes;
+		this.lat = lat;
+		this.lon = lon;
+		this.denseIds = denseIds;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.distances = distances;
+
+		x = new double[lat.length];
+		y = new double[lat.length];
+		z = new double[lat.length];
+		for (int a = 0; a < lat.length; a++) {
+			double phi = Math.toRadians(lat[a]);
+			double lambda = Math.toRadians(lon[a]);
+			x[a] = Math.cos(phi) * Math.cos(lambda);
+			y[a] = Math.cos(phi) * Math.sin(lambda);
+			z[a] = Math.sin(phi);
+		}
+	}
+
+	/**
+	 * Builds the graph from the features of ParseFeed.parseAirports and
+	 * ParseFeed.parseRoutes.  Routes to airports that are not in the list
+	 * are skipped.
+	 */
+	public static RouteGraph build(List<PointFeature> airports, List<ShapeFeature> routes) {
+		Builder builder = new Builder(airports.size());
+		for (PointFeature airport : airports) {
+			Location location = airport.getLocation();
+			builder.addAirport(airport.getId(), airport.getStringProperty("code"), location.getLat(), location.getLon());
+		}
+		for (ShapeFeature route : routes) {
+			builder.addRoute(route.getStringProperty("source"), route.getStringProperty("destination"));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Builds the graph straight from airports.dat and routes.dat without
+	 * creating a feature per row.  Both streams are closed.
+	 */
+	public static RouteGraph load(InputStream airportsInput, InputStream routesInput) {
+		try (CsvReader airports = new CsvReader(airportsInput); CsvReader routes = new CsvReader(routesInput)) {
+			Builder builder = new Builder(8192);
+			while (airports.next()) {
+				String code = !airports.isEmpty(4) ? airports.getString(4)
+						: !airports.isEmpty(5) ? airports.getString(5) : null;
+				builder.addAirport(airports.getString(0), code, airports.getFloat(6), airports.getFloat(7));
+			}
+			while (routes.next()) {
+				if (!routes.fieldEquals(3, "\\N") && !routes.fieldEquals(5, "\\N")) {
+					builder.addRoute(routes.getString(3), routes.getString(5));
+				}
+			}
+			return builder.build();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public int airportCount() {
+		return airportIds.length;
+	}
+
+	public int routeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * @return the dense id of an OpenFlights airport id, or -1
+	 */
+	public int denseId(String airportId) {
+		Integer id = denseIds.get(airportId);
+		return id == null ? -1 : id;
+	}
+
+	public String getAirportId(int airport) {
+		return airportIds[airport];
+	}
+
+	/**
+	 * @return the IATA/FAA code, the ICAO code if there is none, or null
+	 */
+	public String getCode(int airport) {
+		return codes[airport];
+	}
+
+	public Location getLocation(int airport) {
+		return new Location(lat[airport], lon[airport]);
+	}
+
+	public int firstRoute(int airport) {
+		return offsets[airport];
+	}
+
+	public int endRoute(int airport) {
+		return offsets[airport + 1];
+	}
+
+	public int routeTarget(int route) {
+		return targets[route];
+	}
+
+	/**
+	 * @return great-circle length of the route in km
+	 */
+	public float routeDistance(int route) {
+		return distances[route];
+	}
+
+	/**
+	 * @return the great-circle distance in km between two airports
+	 */
+	public double greatCircle(int from, int to) {
+		double dot = x[from] * x[to] + y[from] * y[to] + z[from] * z[to];
+		return GeoUtils.EARTH_RADIUS_KM * Math.acos(Math.max(-1, Math.min(1, dot)));
+	}
+
+	public RouteSearch newSearch() {
+		return new RouteSearch(this);
+	}
+
+	private static class Builder {
+
+		private final HashMap<String, Integer> denseIds;
+		private String[] airportIds;
+		private String[] codes;
+		private float[] lat;
+		private float[] lon;
+		private int airportCount;
+
+		private long[] edges = new long[1024];
+		private int edgeCount;
+
+		Builder(int expectedAirports) {
+			denseIds = new HashMap<>(expectedAirports * 2);
+			airportIds = new String[expectedAirports];
+			codes = new String[expectedAirports];
+			lat = new float[expectedAirports];
+			lon = new float[expectedAirports];
+		}
+
+		void addAirport(String airportId, String code, float latitude, float longitude) {
+			if (denseIds.containsKey(airportId)) {
+				return;
+			}
+			if (airportCount == airportIds.length) {
+				int capacity = Math.max(16, airportCount * 2);
+				airportIds = Arrays.copyOf(airportIds, capacity);
+				codes = Arrays.copyOf(codes, capacity);
+				lat = Arrays.copyOf(lat, capacity);
+				lon = Arrays.copyOf(lon, capacity);
+			}
+			denseIds.put(airportId, airportCount);
+			airportIds[airportCount] = airportId;
+			codes[airportCount] = code;
+			lat[airportCount] = latitude;
+			lon[airportCount] = longitude;
+			airportCount++;
+		}
+
+		void addRoute(String source, String destination) {
+			Integer from = denseIds.get(source);
+			Integer to = denseIds.get(destination);
+			if (from == null || to == null) {
+				return;
+			}
+			if (edgeCount == edges.length) {
+				edges = Arrays.copyOf(edges, edgeCount * 2);
+			}
+			edges[edgeCount++] = ((long) from << 32) | to;
+		}
+
+		RouteGraph build() {
+			// sorting by (from, to) groups each airport's routes and puts duplicates side by side
+			long[] sorted = Arrays.copyOf(edges, edgeCount);
+			Arrays.sort(sorted);
+
+			int[] offsets = new int[airportCount + 1];
+			int[] targets = new int[edgeCount];
+			float[] distances = new float[edgeCount];
+			int count = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i > 0 && sorted[i] == sorted[i - 1]) {
+					continue;
+				}
+				int from = (int) (sorted[i] >>> 32);
+				int to = (int) sorted[i];
+				offsets[from + 1]++;
+				targets[count] = to;
+				distances[count] = (float) GeoUtils.getDistance(lat[from], lon[from], lat[to], lon[to]);
+				count++;
+			}
+			for (int a = 0; a < airportCount; a++) {
+				offsets[a + 1] += offsets[a];
+			}
+
+			return new RouteGraph(Arrays.copyOf(airportIds, airportCount), Arrays.copyOf(codes, airportCount),
+					Arrays.copyOf(lat, airportCount), Arrays.copyOf(lon, airportCount), denseIds,
+					offsets, Arrays.copyOf(targets, count), Arrays.copyOf(distances, count));
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package airports;
+
+import java.util.Arrays;
+
+/** RouteSearch
+ * Breadth-first and Dijkstra searches over a {@link RouteGraph}.  The
+ * per-airport scratch arrays are allocated once and reset in O(1) between
+ * queries with a generation stamp, so a query only pays for the airports it
+ * actually visits.  A RouteSearch must only be used by one thread at a time.
+ * */
+public class RouteSearch {
+
+	public static final int[] NO_PATH = new int[0];
+
+	private static final double LOWER_BOUND_SCALE = 0.999;
+
+	private final RouteGraph graph;
+
+	// visited[a] == generation marks airport a as seen in the current query
+	private final int[] visited;
+	private int generation;
+	// whether the current query is a shortestDistance, the only one that sets distance[]
+	private boolean distanceQuery;
+
+	private final int[] parent;
+	private final int[] legs;
+	private final float[] distance;
+	private final int[] queue;
+
+	// binary heap of airports keyed by estimated total distance, with the
+	// distance flown so far alongside; stale entries are skipped
+	private int[] heapAirport = new int[64];
+	private float[] heapCost = new float[64];
+	private float[] heapKey = new float[64];
+	private int heapSize;
+
+	RouteSearch(RouteGraph graph) {
+		this.graph = graph;
+		int count = graph.airportCount();
+		visited = new int[count];
+		parent = new int[count];
+		legs = new int[count];
+		distance = new float[count];
+		queue = new int[count];
+	}
+
+	/**
+	 * @return the airports of a route with the fewest legs, from source to
+	 * destination inclusive, or {@link #NO_PATH}
+	 */
+	public int[] fewestHops(int source, int destination) {
+		startQuery();
+		visit(source, -1);
+		legs[source] = 0;
+		if (source == destination) {
+			return path(destination);
+		}
+
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			int airport = queue[head++];
+			for (int r = graph.firstRoute(airport); r < graph.endRoute(airport); r++) {
+				int next = graph.routeTarget(r);
+				if (visited[next] != generation) {
+					visit(next, airport);
+					legs[next] = legs[airport] + 1;
+					if (next == destination) {
+						return path(destination);
+					}
+					queue[tail++] = next;
+				}
+			}
+		}
+		return NO_PATH;
+	}
+
+	/**
+	 * @return the airports of the route with the shortest great-circle
+	 * distance, from source to destination inclusive, or {@link #NO_PATH}
+	 */
+	public int[] shortestDistance(int source, int destination) {
+		// A* search: the straight great-circle distance to the destination
+		// never exceeds the remaining flown distance, so the first time the
+		// destination is taken off the heap its path is the shortest
+		startQuery();
+		distanceQuery = true;
+		heapSize = 0;
+		visit(source, -1);
+		distance[source] = 0;
+		push(source, 0, (float) lowerBound(source, destination));
+
+		while (heapSize > 0) {
+			float current = heapCost[0];
+			int airport = pop();
+			if (current > distance[airport]) {
+				continue;
+			}
+			if (airport == destination) {
+				return path(destination);
+			}
+			for (int r = graph.firstRoute(airport); r < graph.endRoute(airport); r++) {
+				int next = graph.routeTarget(r);
+				float through = current + graph.routeDistance(r);
+				if (visited[next] != generation || through < distance[next]) {
+					visit(next, airport);
+					distance[next] = through;
+					push(next, through, through + (float) lowerBound(next, destination));
+				}
+			}
+		}
+		return NO_PATH;
+	}
+
+	/*
+	 * Slightly shrunk so float rounding of the leg lengths can never make it
+	 * overestimate.
+	 */
+	private double lowerBound(int airport, int destination) {
+		return graph.greatCircle(airport, destination) * LOWER_BOUND_SCALE;
+	}
+
+	/**
+	 * @return the length in km of the route to the airport found by the last
+	 * query if that was {@link #shortestDistance(int, int)}: the shortest one
+	 * for its destination, possibly a longer one for other airports it
+	 * reached.  Positive infinity for airports it did not reach, or after
+	 * any other query.
+	 */
+	public float distanceTo(int airport) {
+		return distanceQuery && visited[airport] == generation ? distance[airport] : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return every airport reachable from source in at most maxLegs flights,
+	 * excluding source, in order of legs
+	 */
+	public int[] reachableWithin(int source, int maxLegs) {
+		startQuery();
+		visit(source, -1);
+		legs[source] = 0;
+
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			int airport = queue[head++];
+			if (legs[airport] == maxLegs) {
+				continue;
+			}
+			for (int r = graph.firstRoute(airport); r < graph.endRoute(airport); r++) {
+				int next = graph.routeTarget(r);
+				if (visited[next] != generation) {
+					visit(next, airport);
+					legs[next] = legs[airport] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return Arrays.copyOfRange(queue, 1, tail);
+	}
+
+	private void startQuery() {
+		distanceQuery = false;
+		generation++;
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			generation = 1;
+		}
+	}
+
+	private void visit(int airport, int from) {
+		visited[airport] = generation;
+		parent[airport] = from;
+	}
+
+	private int[] path(int destination) {
+		int length = 0;
+		for (int a = destination; a != -1; a = parent[a]) {
+			length++;
+		}
+		int[] path = new int[length];
+		for (int a = destination; a != -1; a = parent[a]) {
+			path[--length] = a;
+		}
+		return path;
+	}
+
+	private void push(int airport, float cost, float key) {
+		if (heapSize == heapAirport.length) {
+			heapAirport = Arrays.copyOf(heapAirport, heapSize * 2);
+			heapCost = Arrays.copyOf(heapCost, heapSize * 2);
+			heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (heapKey[up] <= key) {
+				break;
+			}
+			move(up, i);
+			i = up;
+		}
+		heapAirport[i] = airport;
+		heapCost[i] = cost;
+		heapKey[i] = key;
+	}
+
+	private int pop() {
+		int top = heapAirport[0];
+		int last = --heapSize;
+		float lastKey = heapKey[last];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+				child++;
+			}
+			if (heapKey[child] >= lastKey) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		move(last, i);
+		return top;
+	}
+
+	private void move(int from, int to) {
+		heapAirport[to] = heapAirport[from];
+		heapCost[to] = heapCost[from];
+		heapKey[to] = heapKey[from];
+	}
+}
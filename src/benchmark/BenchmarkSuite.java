@@ -0,0 +1,240 @@
+package benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import earthquakemap.CommonMarker;
+import earthquakemap.CountryIndex;
+import earthquakemap.EarthquakeCityMap;
+import earthquakemap.MarkerHitIndex;
+import earthquakemap.QuakeAge;
+import earthquakemap.QuakeTable;
+import earthquakemap.SpriteBatch;
+import parsing.ParseFeed;
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+import processing.core.PImage;
+
+/** BenchmarkSuite
+ * Every hot path of the map in one headless run, for numbers that can be
+ * compared between builds: parsing the bundled quake feeds, airports and
+ * routes, classifying quakes by country, hover hit-testing, and drawing the
+ * quake markers one by one and batched onto an offscreen Java2D canvas.
+ * Each file is also parsed scaled up, with its records repeated, and the
+ * other paths run on the feed and on synthetic quakes of the same scale.
+ *
+ *   java -Djava.awt.headless=true -Dbenchmark.json=results.json
+ *        -cp "build:lib/*" benchmark.BenchmarkSuite [data directory] [scale]
+ *
+ * The results file can be compared with an earlier one by CompareResults.
+ * */
+public class BenchmarkSuite {
+
+	private static final int WIDTH = 900;
+	private static final int HEIGHT = 700;
+	private static final int QUERIES = 1024;
+	private static final int SYNTHETIC_QUAKES = 10_000;
+
+	private static final QuakeAge[] AGES = QuakeAge.values();
+
+	// A plain equirectangular projection stands in for the map, which needs a running sketch
+	private static final Function<Location, ScreenPosition> PROJECTION = location ->
+			new ScreenPosition((location.getLon() + 180) / 360 * WIDTH, (90 - location.getLat()) / 180 * HEIGHT);
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		Path data = Paths.get(args.length > 0 ? args[0] : "data");
+		int scale = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		parsing(data, scale);
+		CountryIndex countries = countries(data);
+		List<Marker> feed = feedQuakes(data, countries);
+		List<Marker> synthetic = syntheticQuakes(SYNTHETIC_QUAKES * scale / 10, countries);
+		classification(data, countries, scale);
+		hitTesting("feed", feed);
+		hitTesting("synthetic", synthetic);
+		rendering(data, "feed", feed);
+		rendering(data, "synthetic", synthetic);
+	}
+
+	private static void parsing(Path data, int scale) throws IOException {
+		for (String name : new String[] { "2.5_week.atom", "quiz1.atom" }) {
+			byte[] feed = Files.readAllBytes(data.resolve(name));
+			byte[] scaled = repeatEntries(feed, scale);
+			Harness.measure("parse " + name, () -> parseFeed(feed));
+			Harness.measure("parse " + name + " x" + scale, () -> parseFeed(scaled));
+		}
+
+		byte[] airports = Files.readAllBytes(data.resolve("airports.dat"));
+		byte[] scaledAirports = repeat(airports, scale);
+		Harness.measure("parse airports.dat", () -> ParseFeed.parseAirports(new ByteArrayInputStream(airports)));
+		Harness.measure("parse airports.dat x" + scale, () -> ParseFeed.parseAirports(new ByteArrayInputStream(scaledAirports)));
+
+		byte[] routes = Files.readAllBytes(data.resolve("routes.dat"));
+		byte[] scaledRoutes = repeat(routes, scale);
+		Harness.measure("parse routes.dat", () -> ParseFeed.parseRoutes(new ByteArrayInputStream(routes)));
+		Harness.measure("parse routes.dat x" + scale, () -> ParseFeed.parseRoutes(new ByteArrayInputStream(scaledRoutes)));
+	}
+
+	private static void classification(Path data, CountryIndex countries, int scale) throws IOException {
+		QuakeTable feed = new QuakeTable();
+		ParseFeed.parseEarthquake(Files.newInputStream(data.resolve("2.5_week.atom")), feed::add);
+		QuakeTable synthetic = syntheticTable(SYNTHETIC_QUAKES * scale / 10);
+		Harness.measure("classify " + feed.size() + " feed quakes", () -> feed.classify(countries));
+		Harness.measure("classify " + synthetic.size() + " synthetic quakes", () -> synthetic.classify(countries));
+	}
+
+	private static void hitTesting(String name, List<Marker> quakes) {
+		Random random = new Random(3);
+		float[] mouse = new float[2 * QUERIES];
+		for (int i = 0; i < mouse.length; i += 2) {
+			mouse[i] = random.nextFloat() * WIDTH;
+			mouse[i + 1] = random.nextFloat() * HEIGHT;
+		}
+
+		MarkerHitIndex index = new MarkerHitIndex(quakes, WIDTH, HEIGHT);
+		index.rebuild(PROJECTION);
+		int[] next = new int[1];
+		Harness.measure("hit test " + quakes.size() + " " + name + " quakes: query", () -> {
+			int i = next[0] = (next[0] + 2) % mouse.length;
+			return index.query(mouse[i], mouse[i + 1], false);
+		});
+		Harness.measure("hit test " + quakes.size() + " " + name + " quakes: rebuild", () -> {
+			index.rebuild(PROJECTION);
+			return index;
+		});
+	}
+
+	private static void rendering(Path data, String name, List<Marker> quakes) throws IOException {
+		EarthquakeCityMap.setMarkerImages(image(data, "OceanMarker.png"), image(data, "LandMarker.png"), image(data, "CityMarker.png"));
+		PGraphics pg = new PGraphicsJava2D();
+		pg.setPrimary(false);
+		pg.setSize(WIDTH, HEIGHT);
+
+		float[] xy = new float[2 * quakes.size()];
+		for (int i = 0; i < quakes.size(); i++) {
+			ScreenPosition position = PROJECTION.apply(quakes.get(i).getLocation());
+			xy[2 * i] = position.x;
+			xy[2 * i + 1] = position.y;
+		}
+
+		SpriteBatch batch = new SpriteBatch();
+		Harness.measure("draw " + quakes.size() + " " + name + " quakes: one by one", () -> {
+			pg.beginDraw();
+			pg.background(0);
+			for (int i = 0; i < quakes.size(); i++) {
+				((CommonMarker) quakes.get(i)).draw(pg, xy[2 * i], xy[2 * i + 1]);
+			}
+			pg.endDraw();
+			return pg;
+		});
+		Harness.measure("draw " + quakes.size() + " " + name + " quakes: batched", () -> {
+			batch.clear();
+			for (int i = 0; i < quakes.size(); i++) {
+				((CommonMarker) quakes.get(i)).addTo(batch, xy[2 * i], xy[2 * i + 1]);
+			}
+			pg.beginDraw();
+			pg.background(0);
+			batch.draw(pg);
+			pg.endDraw();
+			return pg;
+		});
+	}
+
+	private static CountryIndex countries(Path data) throws IOException {
+		String json = new String(Files.readAllBytes(data.resolve("countries.geo.json")), StandardCharsets.UTF_8);
+		// parsing a string does not use the applet, which cannot be created headless
+		return new CountryIndex(MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, json)));
+	}
+
+	private static List<Marker> feedQuakes(Path data, CountryIndex countries) throws IOException {
+		QuakeTable table = new QuakeTable();
+		ParseFeed.parseEarthquake(Files.newInputStream(data.resolve("2.5_week.atom")), table::add);
+		table.classify(countries);
+		return table.createMarkers(table.allRows());
+	}
+
+	private static List<Marker> syntheticQuakes(int count, CountryIndex countries) {
+		QuakeTable table = syntheticTable(count);
+		table.classify(countries);
+		return table.createMarkers(table.allRows());
+	}
+
+	private static QuakeTable syntheticTable(int count) {
+		Random random = new Random(20);
+		QuakeTable table = new QuakeTable();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			float magnitude = 2.5f + (int) (random.nextFloat() * 60) / 10f;
+			table.add(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180, magnitude,
+					(int) (random.nextFloat() * 7000) / 10f, now - random.nextInt(7 * 24 * 3600) * 1000L,
+					AGES[random.nextInt(AGES.length)], "M " + magnitude + " - synthetic quake " + i);
+		}
+		return table;
+	}
+
+	private static int parseFeed(byte[] feed) {
+		int[] count = new int[1];
+		ParseFeed.parseEarthquake(new ByteArrayInputStream(feed), feature -> count[0]++);
+		return count[0];
+	}
+
+	/*
+	 * The feed with its entries repeated, between the original header and
+	 * closing tag.
+	 */
+	private static byte[] repeatEntries(byte[] feed, int times) {
+		String text = new String(feed, StandardCharsets.UTF_8);
+		int first = text.indexOf("<entry>");
+		int last = text.lastIndexOf("</entry>") + "</entry>".length();
+		if (first < 0 || last < first) {
+			return feed;
+		}
+		StringBuilder scaled = new StringBuilder(text.length() * times);
+		scaled.append(text, 0, first);
+		for (int i = 0; i < times; i++) {
+			scaled.append(text, first, last);
+		}
+		scaled.append(text, last, text.length());
+		return scaled.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] repeat(byte[] lines, int times) {
+		ByteArrayOutputStream scaled = new ByteArrayOutputStream(lines.length * times + times);
+		for (int i = 0; i < times; i++) {
+			scaled.write(lines, 0, lines.length);
+			if (lines.length > 0 && lines[lines.length - 1] != '\n') {
+				scaled.write('\n');
+			}
+		}
+		return scaled.toByteArray();
+	}
+
+	/*
+	 * Reads an image as loadImage would, which needs a running sketch.
+	 * PImage only takes images backed by ints.
+	 */
+	private static PImage image(Path data, String name) throws IOException {
+		BufferedImage file = ImageIO.read(new File(data.toFile(), name));
+		BufferedImage argb = new BufferedImage(file.getWidth(), file.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		argb.getGraphics().drawImage(file, 0, 0, null);
+		return new PImage(argb);
+	}
+}
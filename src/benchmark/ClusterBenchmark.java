@@ -0,0 +1,130 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import earthquakemap.CommonMarker;
+import earthquakemap.EarthquakeMarker;
+import earthquakemap.QuakeAge;
+import earthquakemap.QuakeClusterLayer;
+import earthquakemap.QuakeClusterMarker;
+import earthquakemap.QuakeList;
+import earthquakemap.QuakeTable;
+
+/** ClusterBenchmark
+ * Precompute time of QuakeClusterLayer and the number of markers a frame
+ * draws at each zoom level for 10k, 100k and 1M quakes.  Without clustering
+ * a frame draws every quake, so the draw count is the frame cost that grows
+ * with the catalog.  Feed updates replacing 100 quakes and 1% of them are
+ * applied with {@link QuakeClusterLayer#updated}, checked to give the
+ * clusters of a layer built from scratch, and timed against the
+ * precompute.
+ * */
+public class ClusterBenchmark {
+
+	private static final float WIDTH = 900;
+	private static final float HEIGHT = 700;
+	private static final QuakeAge[] AGES = QuakeAge.values();
+
+	public static void main(String[] args) {
+		for (int count : new int[] { 10_000, 100_000, 1_000_000 }) {
+			run(count);
+		}
+	}
+
+	private static void run(int count) {
+		QuakeTable table = new QuakeTable();
+		QuakeList markers = createQuakes(table, count, new Random(11));
+
+		System.out.println(count + " markers");
+		Harness.measure("clusters: precompute all levels", () -> new QuakeClusterLayer(markers, WIDTH, HEIGHT));
+
+		QuakeClusterLayer layer = new QuakeClusterLayer(markers, WIDTH, HEIGHT);
+		StringBuilder counts = new StringBuilder("markers drawn per zoom:");
+		for (int zoom = 0; zoom <= QuakeClusterLayer.MAX_CLUSTER_ZOOM + 1; zoom++) {
+			counts.append(' ').append(zoom).append('=').append(layer.getMarkerCount(zoom));
+		}
+		System.out.println(counts);
+
+		for (int replaced : new int[] { 100, count / 100 }) {
+			update(table, markers, layer, replaced);
+		}
+	}
+
+	/*
+	 * Replaces quakes spread over the list with new ones, as a feed update
+	 * does.  Only layers of up to 100k quakes are checked, as the check
+	 * creates every cluster marker of two layers.
+	 */
+	private static void update(QuakeTable table, QuakeList markers, QuakeClusterLayer layer, int replaced) {
+		List<Marker> removed = new ArrayList<>();
+		int[] rows = new int[markers.size()];
+		int kept = 0;
+		for (int i = 0; i < markers.size(); i++) {
+			if (i % (markers.size() / replaced) == 0 && removed.size() < replaced) {
+				removed.add(markers.get(i));
+			}
+			else {
+				rows[kept++] = markers.getRow(i);
+			}
+		}
+		QuakeList added = createQuakes(table, replaced, new Random(12));
+		rows = Arrays.copyOf(rows, kept + added.size());
+		for (int i = 0; i < added.size(); i++) {
+			rows[kept + i] = added.getRow(i);
+		}
+		QuakeList next = table.markers(rows);
+		if (markers.size() <= 100_000) {
+			checkSame(layer.updated(next, removed, added), new QuakeClusterLayer(next, WIDTH, HEIGHT));
+			System.out.println(replaced + " quakes replaced, clusters checked against a full build");
+		}
+		Harness.measure("clusters: update " + replaced + " quakes", () -> layer.updated(next, removed, added));
+	}
+
+	/*
+	 * Quakes like the markers of EarthquakeMarkerBenchmark, as new rows of
+	 * the table, half of them on land.
+	 */
+	static QuakeList createQuakes(QuakeTable table, int count, Random random) {
+		int[] rows = new int[count];
+		for (int i = 0; i < count; i++) {
+			float magnitude = 2.5f + (int) (random.nextFloat() * 60) / 10f;
+			rows[i] = table.add(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180, magnitude,
+					(int) (random.nextFloat() * 7000) / 10f, QuakeTable.NO_TIME, AGES[random.nextInt(AGES.length)],
+					"M " + magnitude + " - synthetic quake " + i);
+			if (random.nextBoolean()) {
+				table.setCountry(rows[i], "Land");
+			}
+		}
+		return table.markers(rows);
+	}
+
+	static void checkSame(QuakeClusterLayer updated, QuakeClusterLayer built) {
+		for (int zoom = 0; zoom <= QuakeClusterLayer.MAX_CLUSTER_ZOOM; zoom++) {
+			List<CommonMarker> actual = updated.getClusters(zoom);
+			List<CommonMarker> expected = built.getClusters(zoom);
+			if (actual.size() != expected.size()) {
+				throw new IllegalStateException("zoom " + zoom + ": " + actual.size() + " markers after the update, "
+						+ expected.size() + " when built");
+			}
+			for (int i = 0; i < actual.size(); i++) {
+				if (!same(actual.get(i), expected.get(i))) {
+					throw new IllegalStateException("zoom " + zoom + ": marker " + i + " differs after the update");
+				}
+			}
+		}
+	}
+
+	private static boolean same(CommonMarker actual, CommonMarker expected) {
+		if (actual instanceof EarthquakeMarker || expected instanceof EarthquakeMarker) {
+			return actual == expected;
+		}
+		QuakeClusterMarker a = (QuakeClusterMarker) actual;
+		QuakeClusterMarker b = (QuakeClusterMarker) expected;
+		return a.getLocation().equals(b.getLocation()) && a.getCount() == b.getCount()
+				&& a.getMaxMagnitude() == b.getMaxMagnitude() && a.getExpansionZoom() == b.getExpansionZoom();
+	}
+}
@@ -0,0 +1,171 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import processing.data.JSONArray;
+import processing.data.JSONObject;
+
+/** CompareResults
+ * Compares two result files written with -Dbenchmark.json or by JMH with
+ * -rf json, matching measurements by name, and reports the change in time,
+ * p99 latency and allocation per call.  A JMH benchmark is named by its
+ * class, method and parameters; its allocation is only known when it ran
+ * with -prof gc.  A measurement that got slower by more than the
+ * threshold, 10 percent unless given, counts as a regression and makes the
+ * exit status 1, so a script can fail on it.
+ *
+ *   java -cp "build:lib/*" benchmark.CompareResults before.json after.json [percent]
+ * */
+public class CompareResults {
+
+	// JMH's percentiles that stand for the harness's p50, p90, p99 and max
+	private static final String[] TIME_PERCENTILES = { "50.0", "90.0", "99.0", "100.0" };
+	private static final String[] THROUGHPUT_PERCENTILES = { "50.0", "0.0", "0.0", "0.0" };
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: CompareResults before.json after.json [percent]");
+			System.exit(2);
+		}
+		Map<String, JSONObject> before = read(new File(args[0]));
+		Map<String, JSONObject> after = read(new File(args[1]));
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+		int regressions = 0;
+		System.out.println(String.format("%-52s %12s %12s %8s %8s %8s", "", "before ns", "after ns", "time", "p99", "bytes"));
+		for (Map.Entry<String, JSONObject> entry : after.entrySet()) {
+			JSONObject old = before.get(entry.getKey());
+			JSONObject now = entry.getValue();
+			if (old == null) {
+				System.out.println(String.format("%-52s %12s %12.1f  new", entry.getKey(), "", now.getDouble("nanosPerCall")));
+				continue;
+			}
+			double time = change(old, now, "nanosPerCall");
+			boolean regression = time > threshold;
+			regressions += regression ? 1 : 0;
+			System.out.println(String.format("%-52s %12.1f %12.1f %+7.1f%% %+7.1f%% %+7.1f%%%s", entry.getKey(),
+					old.getDouble("nanosPerCall"), now.getDouble("nanosPerCall"),
+					time, change(old, now, "p99"), change(old, now, "bytesPerCall"), regression ? "  REGRESSION" : ""));
+		}
+		for (String name : before.keySet()) {
+			if (!after.containsKey(name)) {
+				System.out.println(String.format("%-52s  missing", name));
+			}
+		}
+
+		System.out.println(regressions + " regressions over " + threshold + "%");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+
+	/*
+	 * A name measured more than once, e.g. for several sizes, is numbered
+	 * in the order of the run.
+	 */
+	private static Map<String, JSONObject> read(File file) throws IOException {
+		String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+		// JMH writes a bare array of benchmarks
+		JSONArray results = text.startsWith("[") ? fromJmh(JSONArray.parse(text))
+				: JSONObject.parse(text).getJSONArray("results");
+		Map<String, JSONObject> measurements = new LinkedHashMap<>();
+		Map<String, Integer> seen = new HashMap<>();
+		for (int i = 0; i < results.size(); i++) {
+			JSONObject measurement = results.getJSONObject(i);
+			String name = measurement.getString("name");
+			int occurrence = seen.merge(name, 1, Integer::sum);
+			measurements.put(occurrence == 1 ? name : name + " #" + occurrence, measurement);
+		}
+		return measurements;
+	}
+
+	/*
+	 * Turns JMH results into the harness's measurements.  Percentiles are
+	 * over JMH's iterations rather than single calls; in throughput mode
+	 * the slowest iteration stands in for the upper ones.
+	 */
+	private static JSONArray fromJmh(JSONArray benchmarks) {
+		JSONArray results = new JSONArray();
+		for (int i = 0; i < benchmarks.size(); i++) {
+			JSONObject benchmark = benchmarks.getJSONObject(i);
+			StringBuilder name = new StringBuilder(benchmark.getString("benchmark").replaceFirst("^benchmark\\.", ""));
+			if (benchmark.hasKey("params")) {
+				JSONObject params = benchmark.getJSONObject("params");
+				TreeSet<String> keys = new TreeSet<>();
+				for (Object key : params.keys()) {
+					keys.add((String) key);
+				}
+				for (String key : keys) {
+					name.append(' ').append(key).append('=').append(params.getString(key));
+				}
+			}
+
+			JSONObject primary = benchmark.getJSONObject("primaryMetric");
+			String unit = primary.getString("scoreUnit");
+			String[] keys = unit.startsWith("ops/") ? THROUGHPUT_PERCENTILES : TIME_PERCENTILES;
+			double[] percentiles = new double[keys.length];
+			for (int k = 0; k < keys.length; k++) {
+				percentiles[k] = nanosPerCall(primary.getJSONObject("scorePercentiles").getDouble(keys[k]), unit);
+			}
+			JSONObject secondary = benchmark.hasKey("secondaryMetrics") ? benchmark.getJSONObject("secondaryMetrics") : new JSONObject();
+			JSONObject allocation = secondaryMetric(secondary, "gc.alloc.rate.norm");
+			JSONObject collections = secondaryMetric(secondary, "gc.count");
+
+			results.append(new Harness.Measurement(name.toString(), 0,
+					nanosPerCall(primary.getDouble("score"), unit),
+					allocation == null ? Double.NaN : allocation.getDouble("score"), percentiles,
+					collections == null ? 0 : (long) collections.getDouble("score"), 0).toJson());
+		}
+		return results;
+	}
+
+	// older JMH versions prefix the profiler's metrics with a dot
+	private static JSONObject secondaryMetric(JSONObject metrics, String name) {
+		for (String key : new String[] { name, "\u00b7" + name }) {
+			if (metrics.hasKey(key)) {
+				return metrics.getJSONObject(key);
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * A time per operation, e.g. us/op, or a throughput, e.g. ops/ms.
+	 */
+	private static double nanosPerCall(double score, String unit) {
+		String[] parts = unit.split("/");
+		if (parts[0].equals("ops")) {
+			return nanos(parts[1]) / score;
+		}
+		return score * nanos(parts[0]);
+	}
+
+	private static double nanos(String unit) {
+		switch (unit) {
+		case "ns":
+			return 1;
+		case "us":
+			return 1e3;
+		case "ms":
+			return 1e6;
+		case "s":
+			return 1e9;
+		case "min":
+			return 60e9;
+		default:
+			throw new IllegalArgumentException("Unknown JMH time unit " + unit);
+		}
+	}
+
+	private static double change(JSONObject before, JSONObject after, String key) {
+		double old = before.getDouble(key);
+		double now = after.getDouble(key);
+		// a negative value was not measured, e.g. allocation without -prof gc
+		return old <= 0 || now < 0 ? 0 : (now - old) / old * 100;
+	}
+}
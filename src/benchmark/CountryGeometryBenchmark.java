@@ -0,0 +1,114 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import earthquakemap.CountryGeometry;
+import earthquakemap.CountryIndex;
+
+/** CountryGeometryBenchmark
+ * Vertex counts of the country rings simplified for each zoom level, and
+ * the classification cost of 10k random locations: the exact test on every
+ * polygon as isInCountry did it, the same scan with the bounding box check
+ * in front, and the grid of CountryIndex.  All three are checked to find
+ * the same country first.
+ *
+ *   java -cp "build:lib/*" benchmark.CountryGeometryBenchmark [data directory]
+ * */
+public class CountryGeometryBenchmark {
+
+	private static final int LOCATIONS = 10_000;
+
+	public static void main(String[] args) throws IOException {
+		String data = args.length > 0 ? args[0] : "data";
+		String json = new String(Files.readAllBytes(Paths.get(data, "countries.geo.json")), StandardCharsets.UTF_8);
+		// parsing a string does not use the applet, which cannot be created headless
+		List<Marker> countries = MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, json));
+
+		CountryIndex index = new CountryIndex(countries);
+		CountryGeometry geometry = index.getGeometry();
+
+		System.out.println(geometry.getPolygonCount() + " polygons, " + geometry.getExactVertexCount() + " vertices");
+		for (int zoom = 0; zoom <= CountryGeometry.MAX_SIMPLIFIED_ZOOM; zoom++) {
+			int vertices = geometry.getVertexCount(zoom);
+			System.out.println(String.format("zoom %2d: %7d vertices  %5.1f%%",
+					zoom, vertices, 100.0 * vertices / geometry.getExactVertexCount()));
+		}
+
+		Random random = new Random(9);
+		float[] lat = new float[LOCATIONS];
+		float[] lon = new float[LOCATIONS];
+		for (int i = 0; i < LOCATIONS; i++) {
+			lat[i] = random.nextFloat() * 180 - 90;
+			lon[i] = random.nextFloat() * 360 - 180;
+		}
+
+		for (int i = 0; i < LOCATIONS; i++) {
+			int expected = exactScan(countries, lat[i], lon[i]);
+			if (boxScan(geometry, lat[i], lon[i]) != expected || index.findCountryIndex(lat[i], lon[i]) != expected) {
+				throw new IllegalStateException("location " + i + " classified differently");
+			}
+		}
+
+		System.out.println(LOCATIONS + " locations");
+		Harness.measure("classify: exact test on every polygon", () -> {
+			int land = 0;
+			for (int i = 0; i < LOCATIONS; i++) {
+				land += exactScan(countries, lat[i], lon[i]) >= 0 ? 1 : 0;
+			}
+			return land;
+		});
+		Harness.measure("classify: bounding box, then exact ring", () -> {
+			int land = 0;
+			for (int i = 0; i < LOCATIONS; i++) {
+				land += boxScan(geometry, lat[i], lon[i]) >= 0 ? 1 : 0;
+			}
+			return land;
+		});
+		Harness.measure("classify: CountryIndex grid", () -> {
+			int land = 0;
+			for (int i = 0; i < LOCATIONS; i++) {
+				land += index.findCountryIndex(lat[i], lon[i]) >= 0 ? 1 : 0;
+			}
+			return land;
+		});
+	}
+
+	/*
+	 * What isInCountry did: the exact test on every polygon in list order.
+	 */
+	private static int exactScan(List<Marker> countries, float lat, float lon) {
+		for (int c = 0; c < countries.size(); c++) {
+			Marker country = countries.get(c);
+			if (country.getClass() == MultiMarker.class) {
+				for (Marker marker : ((MultiMarker) country).getMarkers()) {
+					if (((AbstractShapeMarker) marker).isInsideByLocation(lat, lon)) {
+						return c;
+					}
+				}
+			}
+			else if (((AbstractShapeMarker) country).isInsideByLocation(lat, lon)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	private static int boxScan(CountryGeometry geometry, float lat, float lon) {
+		for (int polygon = 0; polygon < geometry.getPolygonCount(); polygon++) {
+			if (geometry.contains(polygon, lat, lon)) {
+				return geometry.getCountry(polygon);
+			}
+		}
+		return -1;
+	}
+}
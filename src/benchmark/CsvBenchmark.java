@@ -0,0 +1,136 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.data.ShapeFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import parsing.ParseFeed;
+
+/** CsvBenchmark
+ * Compares the CsvReader based parsers in ParseFeed with the previous
+ * loadStrings + regex split implementation on the bundled data files.  The
+ * files are read into memory first so only parsing is measured, and both
+ * versions are checked to produce the same features before timing.
+ *
+ *   java -cp "build:lib/*" benchmark.CsvBenchmark [data directory]
+ * */
+public class CsvBenchmark {
+
+	private static final String QUOTE_AWARE_COMMA = ",(?=([^\"]*\"[^\"]*\")*[^\"]*$)";
+
+	public static void main(String[] args) throws IOException {
+		String data = args.length > 0 ? args[0] : "data";
+		byte[] airports = Files.readAllBytes(Paths.get(data, "airports.dat"));
+		byte[] routes = Files.readAllBytes(Paths.get(data, "routes.dat"));
+		byte[] lifeExpectancy = Files.readAllBytes(Paths.get(data, "LifeExpectancyWorldBank.csv"));
+
+		checkSame(legacyAirports(airports), ParseFeed.parseAirports(new ByteArrayInputStream(airports)));
+		checkSame(legacyRoutes(routes), ParseFeed.parseRoutes(new ByteArrayInputStream(routes)));
+		if (!legacyLifeExpectancy(lifeExpectancy).equals(ParseFeed.loadLifeExpectancyFromCSV(new ByteArrayInputStream(lifeExpectancy)))) {
+			throw new IllegalStateException("life expectancy differs");
+		}
+
+		Harness.measure("airports.dat: regex split", () -> legacyAirports(airports));
+		Harness.measure("airports.dat: CsvReader", () -> ParseFeed.parseAirports(new ByteArrayInputStream(airports)));
+		Harness.measure("routes.dat: split + loadStrings", () -> legacyRoutes(routes));
+		Harness.measure("routes.dat: CsvReader", () -> ParseFeed.parseRoutes(new ByteArrayInputStream(routes)));
+		Harness.measure("life expectancy csv: regex split", () -> legacyLifeExpectancy(lifeExpectancy));
+		Harness.measure("life expectancy csv: CsvReader",
+				() -> ParseFeed.loadLifeExpectancyFromCSV(new ByteArrayInputStream(lifeExpectancy)));
+	}
+
+	private static void checkSame(List<? extends Feature> expected, List<? extends Feature> actual) {
+		if (expected.size() != actual.size()) {
+			throw new IllegalStateException(expected.size() + " features expected, got " + actual.size());
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			Feature a = expected.get(i);
+			Feature b = actual.get(i);
+			boolean sameLocation = !(a instanceof PointFeature)
+					|| ((PointFeature) a).getLocation().equals(((PointFeature) b).getLocation());
+			if (!a.getProperties().equals(b.getProperties()) || !sameLocation
+					|| (a.getId() == null ? b.getId() != null : !a.getId().equals(b.getId()))) {
+				throw new IllegalStateException("feature " + i + " differs: " + a.getProperties() + " " + b.getProperties());
+			}
+		}
+	}
+
+	/*
+	 * Stand-in for PApplet.loadStrings, which reads every line up front.
+	 */
+	private static String[] loadStrings(byte[] bytes) {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	// The parsers as they were before CsvReader, also run by CsvJmh
+
+	static List<PointFeature> legacyAirports(byte[] bytes) {
+		List<PointFeature> features = new ArrayList<PointFeature>();
+		for (String row : loadStrings(bytes)) {
+			String[] columns = row.split(QUOTE_AWARE_COMMA);
+			PointFeature point = new PointFeature(new Location(Float.parseFloat(columns[6]), Float.parseFloat(columns[7])));
+			point.setId(columns[0]);
+			point.addProperty("name", columns[1]);
+			point.putProperty("city", columns[2]);
+			point.putProperty("country", columns[3]);
+			if (!columns[4].equals("")) {
+				point.putProperty("code", columns[4]);
+			}
+			else if (!columns[5].equals("")) {
+				point.putProperty("code", columns[5]);
+			}
+			point.putProperty("altitude", columns[8]);
+			features.add(point);
+		}
+		return features;
+	}
+
+	static List<ShapeFeature> legacyRoutes(byte[] bytes) {
+		List<ShapeFeature> routes = new ArrayList<ShapeFeature>();
+		for (String row : loadStrings(bytes)) {
+			String[] columns = row.split(",");
+			ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
+			if (!columns[3].equals("\\N") && !columns[5].equals("\\N")) {
+				route.putProperty("source", columns[3]);
+				route.putProperty("destination", columns[5]);
+				routes.add(route);
+			}
+		}
+		return routes;
+	}
+
+	static HashMap<String, Float> legacyLifeExpectancy(byte[] bytes) {
+		HashMap<String, Float> lifeExpMap = new HashMap<String, Float>();
+		for (String row : loadStrings(bytes)) {
+			String[] columns = row.split(QUOTE_AWARE_COMMA);
+			for (int i = columns.length - 1; i > 3; i--) {
+				if (!columns[i].equals("..")) {
+					lifeExpMap.put(columns[3], Float.parseFloat(columns[i]));
+					break;
+				}
+			}
+		}
+		return lifeExpMap;
+	}
+}
@@ -0,0 +1,92 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import earthquakemap.EarthquakeMarker;
+import earthquakemap.LandQuakeMarker;
+import earthquakemap.OceanQuakeMarker;
+
+/** EarthquakeMarkerBenchmark
+ * Compares the per-frame and sort cost of reading magnitude, depth and age
+ * from the typed marker fields against the old property-map lookups
+ * (hash lookup, toString and parseFloat on every call).
+ * */
+public class EarthquakeMarkerBenchmark {
+
+	private static final String[] AGES = { "Past Hour", "Past Day", "Past Week", "Past Month" };
+
+	// The lookups the markers used to do on every call
+	static final Comparator<EarthquakeMarker> PROPERTY_ORDER = (a, b) -> {
+		float magA = Float.parseFloat(a.getProperty("magnitude").toString());
+		float magB = Float.parseFloat(b.getProperty("magnitude").toString());
+		return magA > magB ? -1 : magA < magB ? 1 : 0;
+	};
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		EarthquakeMarker[] markers = createMarkers(count, new Random(42));
+
+		System.out.println("Draw path, " + count + " markers per frame");
+		Harness.measure("frame: property lookups", () -> propertyFrame(markers));
+		Harness.measure("frame: typed fields", () -> typedFrame(markers));
+
+		System.out.println("Sort path, " + count + " markers");
+		Harness.measure("sort: property lookups", () -> {
+			EarthquakeMarker[] copy = markers.clone();
+			Arrays.sort(copy, PROPERTY_ORDER);
+			return copy;
+		});
+		Harness.measure("sort: typed fields", () -> {
+			EarthquakeMarker[] copy = markers.clone();
+			Arrays.sort(copy);
+			return copy;
+		});
+	}
+
+	static EarthquakeMarker[] createMarkers(int count, Random random) {
+		EarthquakeMarker[] markers = new EarthquakeMarker[count];
+		for (int i = 0; i < count; i++) {
+			PointFeature feature = new PointFeature(new Location(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180));
+			float magnitude = 2.5f + (int) (random.nextFloat() * 60) / 10f;
+			feature.putProperty("title", "M " + magnitude + " - synthetic quake " + i);
+			feature.putProperty("magnitude", magnitude);
+			feature.putProperty("depth", (int) (random.nextFloat() * 7000) / 10f);
+			feature.putProperty("age", AGES[random.nextInt(AGES.length)]);
+			markers[i] = random.nextBoolean() ? new LandQuakeMarker(feature) : new OceanQuakeMarker(feature);
+		}
+		return markers;
+	}
+
+	/*
+	 * What drawMarker used to read per marker: depth for the tint, age for
+	 * the X overlay and radius for the image size.
+	 */
+	static Object propertyFrame(EarthquakeMarker[] markers) {
+		float total = 0;
+		for (EarthquakeMarker marker : markers) {
+			float depth = Float.parseFloat(marker.getProperty("depth").toString());
+			String age = marker.getStringProperty("age");
+			if ("Past Hour".equals(age) || "Past Day".equals(age)) {
+				total += Float.parseFloat(marker.getProperty("radius").toString());
+			}
+			total += depth < EarthquakeMarker.THRESHOLD_INTERMEDIATE ? 1 : 2;
+		}
+		return total;
+	}
+
+	static Object typedFrame(EarthquakeMarker[] markers) {
+		float total = 0;
+		for (EarthquakeMarker marker : markers) {
+			float depth = marker.getDepth();
+			if (marker.getAge().isWithinLastDay()) {
+				total += marker.getRadius();
+			}
+			total += depth < EarthquakeMarker.THRESHOLD_INTERMEDIATE ? 1 : 2;
+		}
+		return total;
+	}
+}
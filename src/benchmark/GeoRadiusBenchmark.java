@@ -0,0 +1,151 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.SimplePointMarker;
+import earthquakemap.GeoRadiusIndex;
+
+/** GeoRadiusBenchmark
+ * Threat-circle queries over 50k points, a scan measuring the distance to
+ * every marker against GeoRadiusIndex.  Before measuring, 3k queries with a
+ * fixed radius, and 300 with a radius per marker, are checked to find exactly
+ * the markers the scan finds.  Two thirds of the points and query centers
+ * lie near the poles or the antimeridian, where the index widens or splits
+ * its box.  An index updated for 1k markers leaving and 1k arriving is
+ * checked the same way, and its update timed against building it again.
+ * */
+public class GeoRadiusBenchmark {
+
+	private static final int POINTS = 50_000;
+	private static final int CHECKED_QUERIES = 3_000;
+	private static final int QUERIES = 1024;
+	private static final double MAX_RADIUS_KM = 3_000;
+	private static final int UPDATED = 1_000;
+
+	public static void main(String[] args) {
+		Random random = new Random(6);
+		List<Marker> markers = new ArrayList<>(POINTS);
+		for (int i = 0; i < POINTS; i++) {
+			markers.add(new SimplePointMarker(location(random)));
+		}
+		Map<Marker, Double> radii = new IdentityHashMap<>();
+		for (Marker marker : markers) {
+			radii.put(marker, random.nextDouble() * MAX_RADIUS_KM);
+		}
+		ToDoubleFunction<Marker> radiusOf = radii::get;
+		GeoRadiusIndex index = new GeoRadiusIndex(markers);
+
+		Location[] centers = new Location[CHECKED_QUERIES];
+		double[] distances = new double[CHECKED_QUERIES];
+		for (int i = 0; i < CHECKED_QUERIES; i++) {
+			centers[i] = location(random);
+			distances[i] = random.nextDouble() * MAX_RADIUS_KM;
+		}
+		check(markers, index, centers, distances, radiusOf, CHECKED_QUERIES);
+		System.out.println(POINTS + " points, " + CHECKED_QUERIES + " queries checked against the scan");
+
+		List<Marker> removed = new ArrayList<>();
+		List<Marker> changed = new ArrayList<>(POINTS);
+		for (int i = 0; i < POINTS; i++) {
+			(i % (POINTS / UPDATED) == 0 ? removed : changed).add(markers.get(i));
+		}
+		List<Marker> added = new ArrayList<>();
+		for (int i = 0; i < UPDATED; i++) {
+			Marker marker = new SimplePointMarker(location(random));
+			radii.put(marker, random.nextDouble() * MAX_RADIUS_KM);
+			added.add(marker);
+		}
+		changed.addAll(added);
+		GeoRadiusIndex updated = index.updated(removed, added);
+		if (updated.size() != changed.size()) {
+			throw new IllegalStateException("updated index has " + updated.size() + " markers, not " + changed.size());
+		}
+		check(changed, updated, centers, distances, radiusOf, CHECKED_QUERIES / 10);
+		System.out.println(UPDATED + " markers replaced, " + CHECKED_QUERIES / 10 + " queries checked against the scan");
+
+		int[] next = new int[1];
+		Harness.measure("radius query: scan", () -> {
+			int i = next[0] = (next[0] + 1) % QUERIES;
+			return scan(markers, centers[i], marker -> distances[i]);
+		});
+		Harness.measure("radius query: index", () -> {
+			int i = next[0] = (next[0] + 1) % QUERIES;
+			return index.within(centers[i], distances[i]);
+		});
+		Harness.measure("radius index: build", () -> new GeoRadiusIndex(changed));
+		Harness.measure("radius index: update " + UPDATED + " markers", () -> index.updated(removed, added));
+	}
+
+	private static void check(List<Marker> markers, GeoRadiusIndex index, Location[] centers, double[] distances,
+			ToDoubleFunction<Marker> radiusOf, int queries) {
+		Map<Marker, Integer> positions = new IdentityHashMap<>();
+		for (int i = 0; i < markers.size(); i++) {
+			positions.put(markers.get(i), i);
+		}
+		for (int i = 0; i < queries; i++) {
+			double radius = distances[i];
+			if (!scan(markers, centers[i], marker -> radius).equals(positionsOf(index.within(centers[i], radius), positions))) {
+				throw new IllegalStateException("index and scan disagree within " + radius + " km of " + centers[i]);
+			}
+			if (i % 10 == 0 && !scan(markers, centers[i], radiusOf)
+					.equals(positionsOf(index.within(centers[i], key -> radiusOf.applyAsDouble(index.getMarker(key)), MAX_RADIUS_KM), positions))) {
+				throw new IllegalStateException("index and scan disagree on marker radii around " + centers[i]);
+			}
+		}
+	}
+
+	/*
+	 * The list positions of the markers an index found; a marker that is
+	 * not in the list, or found twice, fails the check.
+	 */
+	private static BitSet positionsOf(List<Marker> found, Map<Marker, Integer> positions) {
+		BitSet set = new BitSet(positions.size());
+		for (Marker marker : found) {
+			Integer position = positions.get(marker);
+			if (position == null || set.get(position)) {
+				throw new IllegalStateException("index found a marker it should not have: " + marker.getLocation());
+			}
+			set.set(position);
+		}
+		return set;
+	}
+
+	/*
+	 * Uniform over the globe, near a pole, or near the antimeridian, in equal
+	 * parts.  Exact poles and the antimeridian itself are included.
+	 */
+	private static Location location(Random random) {
+		switch (random.nextInt(3)) {
+		case 0:
+			return new Location(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180);
+		case 1:
+			float lat = random.nextInt(20) == 0 ? 90 : 90 - random.nextFloat() * 15;
+			return new Location(random.nextBoolean() ? lat : -lat, random.nextFloat() * 360 - 180);
+		default:
+			float lon = random.nextInt(20) == 0 ? 180 : 180 - random.nextFloat() * 10;
+			return new Location(random.nextFloat() * 180 - 90, random.nextBoolean() ? lon : -lon);
+		}
+	}
+
+	/*
+	 * What the click handlers used to do: measure every marker.
+	 */
+	private static BitSet scan(List<Marker> markers, Location center, ToDoubleFunction<Marker> radiusOf) {
+		BitSet found = new BitSet(markers.size());
+		for (int i = 0; i < markers.size(); i++) {
+			Marker marker = markers.get(i);
+			if (!(marker.getDistanceTo(center) > radiusOf.applyAsDouble(marker))) {
+				found.set(i);
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,278 @@
+package benchmark;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import processing.data.JSONArray;
+import processing.data.JSONObject;
+
+/** Harness
+ * A small self-contained benchmark runner for the map code.  It needs
+ * nothing beyond the jars in lib/ and runs headless, so it can be started
+ * straight from the IDE or the command line:
+ *
+ *   java -cp "build:lib/*" benchmark.EarthquakeMarkerBenchmark
+ *
+ * Every measurement runs the operation for a warmup period, then for a
+ * fixed time, and reports the mean time and the bytes allocated per call,
+ * the allocation rate, the garbage collections during the run, and latency
+ * percentiles.  Latency is sampled per batch of calls long enough for the
+ * clock to resolve, so for operations under {@link #SAMPLE_NANOS} a sample
+ * is the mean of its batch.
+ *
+ * With -Dbenchmark.json=file every measurement of the run is also written
+ * to that file as JSON when the JVM exits; CompareResults compares two such
+ * files.
+ *
+ * Benchmarks that need JMH's forks and dead-code protection are in jmh/
+ * and run with "gradle jmh"; CompareResults reads their JSON results too.
+ * */
+public class Harness {
+
+	private static final long WARMUP_NANOS = 1_000_000_000L;
+	private static final long MEASURE_NANOS = 2_000_000_000L;
+	private static final long SAMPLE_NANOS = 10_000L;
+
+	// Results are written here so the JIT cannot drop the measured work
+	public static volatile Object sink;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static final List<Measurement> RESULTS = Collections.synchronizedList(new ArrayList<>());
+
+	static {
+		String json = System.getProperty("benchmark.json");
+		if (json != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> writeJson(new File(json))));
+		}
+	}
+
+	public interface Operation {
+		Object run();
+	}
+
+	public static Measurement measure(String name, Operation operation) {
+		long warmupCalls = runFor(operation, WARMUP_NANOS);
+		int batch = (int) Math.max(1, Math.min(Integer.MAX_VALUE, SAMPLE_NANOS * warmupCalls / WARMUP_NANOS));
+
+		long[] samples = new long[1024];
+		int sampleCount = 0;
+		long calls = 0;
+
+		long collectionsBefore = collections();
+		long collectionMillisBefore = collectionMillis();
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + MEASURE_NANOS;
+		long now = start;
+		do {
+			long batchStart = now;
+			for (int i = 0; i < batch; i++) {
+				sink = operation.run();
+			}
+			now = System.nanoTime();
+			if (sampleCount == samples.length) {
+				samples = Arrays.copyOf(samples, sampleCount * 2);
+			}
+			samples[sampleCount++] = now - batchStart;
+			calls += batch;
+		} while (now < end);
+		long elapsed = now - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+		long collectionCount = collections() - collectionsBefore;
+		long collectionTime = collectionMillis() - collectionMillisBefore;
+
+		Arrays.sort(samples, 0, sampleCount);
+		Measurement measurement = new Measurement(name, calls, (double) elapsed / calls,
+				allocated < 0 ? Double.NaN : (double) allocated / calls,
+				new double[] {
+						percentile(samples, sampleCount, 0.50) / batch,
+						percentile(samples, sampleCount, 0.90) / batch,
+						percentile(samples, sampleCount, 0.99) / batch,
+						(double) samples[sampleCount - 1] / batch },
+				collectionCount, collectionTime);
+		System.out.println(measurement);
+		RESULTS.add(measurement);
+		return measurement;
+	}
+
+	/**
+	 * @return every measurement taken so far, in order
+	 */
+	public static List<Measurement> getResults() {
+		synchronized (RESULTS) {
+			return new ArrayList<>(RESULTS);
+		}
+	}
+
+	/**
+	 * Writes the measurements taken so far with the JVM they ran on.
+	 */
+	public static void writeJson(File file) {
+		JSONArray results = new JSONArray();
+		for (Measurement measurement : getResults()) {
+			results.append(measurement.toJson());
+		}
+		JSONObject run = new JSONObject();
+		run.setString("time", Instant.now().toString());
+		run.setString("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+		run.setString("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		run.setInt("processors", Runtime.getRuntime().availableProcessors());
+		run.setJSONArray("results", results);
+		if (!run.save(file, null)) {
+			System.err.println("Could not write " + file);
+		}
+	}
+
+	private static long runFor(Operation operation, long nanos) {
+		long calls = 0;
+		long end = System.nanoTime() + nanos;
+		do {
+			sink = operation.run();
+			calls++;
+		} while (System.nanoTime() < end);
+		return calls;
+	}
+
+	private static double percentile(long[] sorted, int count, double fraction) {
+		return sorted[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+	}
+
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long collectionMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return millis;
+	}
+
+	public static class Measurement {
+
+		private final String name;
+		private final long calls;
+		private final double nanosPerCall;
+		private final double bytesPerCall;
+		private final double[] percentiles;
+		private final long collections;
+		private final long collectionMillis;
+
+		public Measurement(String name, long calls, double nanosPerCall, double bytesPerCall) {
+			this(name, calls, nanosPerCall, bytesPerCall,
+					new double[] { nanosPerCall, nanosPerCall, nanosPerCall, nanosPerCall }, 0, 0);
+		}
+
+		/**
+		 * @param percentiles the 50th, 90th and 99th percentile and the
+		 * maximum of the sampled nanoseconds per call
+		 */
+		public Measurement(String name, long calls, double nanosPerCall, double bytesPerCall,
+				double[] percentiles, long collections, long collectionMillis) {
+			this.name = name;
+			this.calls = calls;
+			this.nanosPerCall = nanosPerCall;
+			this.bytesPerCall = bytesPerCall;
+			this.percentiles = percentiles;
+			this.collections = collections;
+			this.collectionMillis = collectionMillis;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCalls() {
+			return calls;
+		}
+
+		public double getNanosPerCall() {
+			return nanosPerCall;
+		}
+
+		public double getBytesPerCall() {
+			return bytesPerCall;
+		}
+
+		/**
+		 * @return calls per second
+		 */
+		public double getThroughput() {
+			return 1e9 / nanosPerCall;
+		}
+
+		/**
+		 * @return allocated megabytes per second
+		 */
+		public double getAllocationRate() {
+			return bytesPerCall / nanosPerCall * 1e9 / (1 << 20);
+		}
+
+		public double getP50() {
+			return percentiles[0];
+		}
+
+		public double getP90() {
+			return percentiles[1];
+		}
+
+		public double getP99() {
+			return percentiles[2];
+		}
+
+		public double getMax() {
+			return percentiles[3];
+		}
+
+		public long getCollections() {
+			return collections;
+		}
+
+		public long getCollectionMillis() {
+			return collectionMillis;
+		}
+
+		public JSONObject toJson() {
+			JSONObject json = new JSONObject();
+			json.setString("name", name);
+			json.setLong("calls", calls);
+			json.setDouble("nanosPerCall", nanosPerCall);
+			json.setDouble("throughput", getThroughput());
+			// NaN is not valid JSON
+			json.setDouble("bytesPerCall", Double.isNaN(bytesPerCall) ? -1 : bytesPerCall);
+			json.setDouble("allocationRate", Double.isNaN(bytesPerCall) ? -1 : getAllocationRate());
+			json.setDouble("p50", getP50());
+			json.setDouble("p90", getP90());
+			json.setDouble("p99", getP99());
+			json.setDouble("max", getMax());
+			json.setLong("collections", collections);
+			json.setLong("collectionMillis", collectionMillis);
+			return json;
+		}
+
+		public String toString() {
+			return String.format("%-48s %14.1f ns/call %14.1f B/call %12.1f ns p99 %4d gc",
+					name, nanosPerCall, bytesPerCall, getP99(), collections);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import earthquakemap.CommonMarker;
+import earthquakemap.MarkerHitIndex;
+
+/** HitTestBenchmark
+ * Hover hit-test latency of the linear isInside scan against MarkerHitIndex
+ * for 1k, 10k and 100k markers.  A plain equirectangular projection onto a
+ * 900x700 window stands in for the map, which needs a running sketch.
+ * */
+public class HitTestBenchmark {
+
+	private static final float WIDTH = 900;
+	private static final float HEIGHT = 700;
+	private static final int QUERIES = 1024;
+
+	private static final Function<Location, ScreenPosition> PROJECTION = location ->
+			new ScreenPosition((location.getLon() + 180) / 360 * WIDTH, (90 - location.getLat()) / 180 * HEIGHT);
+
+	public static void main(String[] args) {
+		for (int count : new int[] { 1_000, 10_000, 100_000 }) {
+			run(count);
+		}
+	}
+
+	private static void run(int count) {
+		Random random = new Random(7);
+		List<Marker> markers = Arrays.asList((Marker[]) EarthquakeMarkerBenchmark.createMarkers(count, random));
+		float[] mouse = new float[2 * QUERIES];
+		for (int i = 0; i < mouse.length; i += 2) {
+			mouse[i] = random.nextFloat() * WIDTH;
+			mouse[i + 1] = random.nextFloat() * HEIGHT;
+		}
+
+		MarkerHitIndex index = new MarkerHitIndex(markers, WIDTH, HEIGHT);
+		index.rebuild(PROJECTION);
+		for (int i = 0; i < mouse.length; i += 2) {
+			if (scan(markers, mouse[i], mouse[i + 1]) != index.query(mouse[i], mouse[i + 1], true)) {
+				throw new IllegalStateException("index and scan disagree at " + mouse[i] + "," + mouse[i + 1]);
+			}
+		}
+
+		System.out.println(count + " markers");
+		int[] next = new int[1];
+		Harness.measure("hit test: linear scan", () -> {
+			int i = next[0] = (next[0] + 2) % mouse.length;
+			return scan(markers, mouse[i], mouse[i + 1]);
+		});
+		Harness.measure("hit test: index query", () -> {
+			int i = next[0] = (next[0] + 2) % mouse.length;
+			return index.query(mouse[i], mouse[i + 1], true);
+		});
+		Harness.measure("hit test: index rebuild after pan/zoom", () -> {
+			index.rebuild(PROJECTION);
+			return index;
+		});
+	}
+
+	/*
+	 * What selectMarkerIfHover used to do: project and test every marker.
+	 */
+	private static CommonMarker scan(List<Marker> markers, float x, float y) {
+		for (Marker m : markers) {
+			CommonMarker marker = (CommonMarker) m;
+			ScreenPosition position = PROJECTION.apply(marker.getLocation());
+			if (marker.isInside(x, y, position.x, position.y)) {
+				return marker;
+			}
+		}
+		return null;
+	}
+}
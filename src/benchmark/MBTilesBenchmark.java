@@ -0,0 +1,106 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import earthquakemap.MBTilesTileProvider;
+import processing.core.PImage;
+
+/** MBTilesBenchmark
+ * Loads a view of 3x3 tiles at zoom level 3 of blankLight-1-3.mbtiles
+ * with Unfolding's MBTilesMapProvider, one query per tile, against
+ * MBTilesTileProvider reading the view with one range query, with and
+ * without the tile set preloaded.  A cold load opens the file first, from
+ * a fresh copy so no connection is reused; the copy is still in the OS
+ * cache.  A warm load reuses the open provider.  Fully offline.
+ *
+ *   java -cp "build:lib/*" benchmark.MBTilesBenchmark [data directory]
+ * */
+public class MBTilesBenchmark {
+
+	static final int ZOOM = 3;
+	static final int VIEW = 3;
+	private static final int COLD_RUNS = 10;
+
+	public static void main(String[] args) throws IOException, SQLException {
+		String data = args.length > 0 ? args[0] : "data";
+		File tiles = new File(data, "blankLight-1-3.mbtiles");
+		Path copies = Files.createTempDirectory("mbtiles");
+
+		List<Path> files = new ArrayList<>();
+		for (int run = 0; run < 3 * COLD_RUNS; run++) {
+			Path copy = copies.resolve(run + ".mbtiles");
+			Files.copy(tiles.toPath(), copy);
+			files.add(copy);
+		}
+
+		long tileByTile = 0;
+		long range = 0;
+		long preloaded = 0;
+		for (int run = 0; run < COLD_RUNS; run++) {
+			long start = System.nanoTime();
+			Harness.sink = viewTileByTile(new MBTilesMapProvider(files.get(3 * run).toString()), 0, 0);
+			tileByTile += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			MBTilesTileProvider pooled = new MBTilesTileProvider(files.get(3 * run + 1).toString(), 4, false);
+			Harness.sink = view(pooled, 0, 0);
+			range += System.nanoTime() - start;
+			pooled.close();
+
+			start = System.nanoTime();
+			MBTilesTileProvider inMemory = new MBTilesTileProvider(files.get(3 * run + 2).toString(), 4, true);
+			Harness.sink = view(inMemory, 0, 0);
+			preloaded += System.nanoTime() - start;
+			inMemory.close();
+		}
+		System.out.println(String.format("cold view: %.2f ms tile by tile, %.2f ms one range query, %.2f ms preloaded",
+				tileByTile / 1e6 / COLD_RUNS, range / 1e6 / COLD_RUNS, preloaded / 1e6 / COLD_RUNS));
+
+		MBTilesMapProvider source = new MBTilesMapProvider(tiles.getAbsolutePath());
+		MBTilesTileProvider pooled = new MBTilesTileProvider(tiles.getAbsolutePath(), 4, false);
+		MBTilesTileProvider inMemory = new MBTilesTileProvider(tiles.getAbsolutePath(), 4, true);
+		int[] step = new int[1];
+		Harness.measure("mbtiles: warm view, tile by tile",
+				() -> viewTileByTile(source, step[0]++ % (1 << ZOOM), step[0] % VIEW));
+		Harness.measure("mbtiles: warm view, range query",
+				() -> view(pooled, step[0]++ % (1 << ZOOM), step[0] % VIEW));
+		Harness.measure("mbtiles: warm view, preloaded",
+				() -> view(inMemory, step[0]++ % (1 << ZOOM), step[0] % VIEW));
+		System.out.println(String.format("range query provider: %d queries for %d tiles",
+				pooled.getQueries(), pooled.getTilesRead()));
+		pooled.close();
+		inMemory.close();
+
+		for (Path file : files) {
+			Files.delete(file);
+		}
+		Files.delete(copies);
+	}
+
+	static List<PImage> viewTileByTile(MBTilesMapProvider provider, int left, int top) {
+		List<PImage> images = new ArrayList<>();
+		for (int row = top; row < top + VIEW; row++) {
+			for (int column = left; column < left + VIEW; column++) {
+				images.add(provider.getTile(new Coordinate(row, column % (1 << ZOOM), ZOOM)));
+			}
+		}
+		return images;
+	}
+
+	static Object view(MBTilesTileProvider provider, int left, int top) {
+		if (left + VIEW > 1 << ZOOM) {
+			// a view across the date line takes two ranges
+			provider.getTiles(ZOOM, 0, left + VIEW - (1 << ZOOM) - 1, top, top + VIEW - 1);
+			return provider.getTiles(ZOOM, left, (1 << ZOOM) - 1, top, top + VIEW - 1);
+		}
+		return provider.getTiles(ZOOM, left, left + VIEW - 1, top, top + VIEW - 1);
+	}
+}
@@ -0,0 +1,247 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.SimplePointMarker;
+import earthquakemap.MarkerStore;
+
+/** MarkerStoreStress
+ * Runs writer threads that stage inserts, updates and removals against a
+ * simulated draw loop that walks every published version, and checks that
+ * each frame sees a consistent list: version numbers never go back, no
+ * marker is missing or duplicated, and iterating never fails.  A version
+ * the draw loop holds on to must stay exactly as it was while later ones
+ * are published, and its list must refuse changes.  After the writers
+ * stop the store must hold exactly the markers they kept track of.  Any
+ * violation throws, so "gradle check" runs this as the store's check.
+ *
+ * For comparison the same load is run against a plain shared ArrayList,
+ * which is what the map used before, and the failed frames are counted.
+ * */
+public class MarkerStoreStress {
+
+	private static final int INITIAL_MARKERS = 10_000;
+	private static final int WRITERS = 4;
+	private static final int MAX_BATCH = 50;
+	private static final long RUN_MILLIS = 5_000;
+
+	public static void main(String[] args) throws InterruptedException {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : RUN_MILLIS;
+		runStore(millis);
+		runArrayList(Math.min(millis, 1_000));
+	}
+
+	private static void runStore(long millis) throws InterruptedException {
+		List<Marker> initial = new ArrayList<>();
+		List<Set<String>> owned = new ArrayList<>();
+		for (int w = 0; w < WRITERS; w++) {
+			owned.add(new HashSet<>());
+		}
+		Random random = new Random(3);
+		for (int i = 0; i < INITIAL_MARKERS; i++) {
+			Marker marker = marker("w" + (i % WRITERS) + "-" + i, random);
+			initial.add(marker);
+			owned.get(i % WRITERS).add(marker.getId());
+		}
+
+		MarkerStore store = new MarkerStore(initial);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong publishes = new AtomicLong();
+		AtomicLong changes = new AtomicLong();
+		CountDownLatch writersDone = new CountDownLatch(WRITERS);
+
+		for (int w = 0; w < WRITERS; w++) {
+			int writer = w;
+			Thread thread = new Thread(() -> {
+				write(store, writer, owned.get(writer), running, publishes, changes);
+				writersDone.countDown();
+			}, "writer-" + w);
+			// a failed check ends the run without waiting for the writers
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		// the draw loop: walk the current version like a frame would
+		long frames = 0;
+		long versionsSeen = 0;
+		long lastNumber = -1;
+		long worstFrame = 0;
+		long end = System.currentTimeMillis() + millis;
+		Random hover = new Random(5);
+		MarkerStore.Version held = store.read();
+		Marker[] heldMarkers = held.getMarkers().toArray(new Marker[0]);
+		while (System.currentTimeMillis() < end) {
+			long begin = System.nanoTime();
+			MarkerStore.Version version = store.read();
+			if (version.getNumber() < lastNumber) {
+				throw new IllegalStateException("Version went back from " + lastNumber + " to " + version.getNumber());
+			}
+			if (version.getNumber() != lastNumber) {
+				versionsSeen++;
+				lastNumber = version.getNumber();
+			}
+
+			List<Marker> markers = version.getMarkers();
+			Set<String> ids = new HashSet<>(markers.size() * 2);
+			float sum = 0;
+			for (Marker marker : markers) {
+				if (marker == null || !ids.add(marker.getId())) {
+					throw new IllegalStateException("Inconsistent version " + version.getNumber());
+				}
+				sum += marker.getLocation().getLat();
+			}
+			// hover and click flags are flipped by the draw thread, as mouse events are
+			if (!markers.isEmpty()) {
+				Marker hovered = markers.get(hover.nextInt(markers.size()));
+				hovered.setSelected(!hovered.isSelected());
+			}
+			Harness.sink = sum;
+
+			// every so often the held version is checked and a newer one held instead
+			if (++frames % 64 == 0) {
+				checkUnchanged(held, heldMarkers);
+				held = version;
+				heldMarkers = markers.toArray(new Marker[0]);
+			}
+			worstFrame = Math.max(worstFrame, System.nanoTime() - begin);
+		}
+
+		running.set(false);
+		writersDone.await();
+		checkUnchanged(held, heldMarkers);
+
+		Set<String> expected = new HashSet<>();
+		owned.forEach(expected::addAll);
+		Set<String> actual = new HashSet<>();
+		for (Marker marker : store.publish().getMarkers()) {
+			actual.add(marker.getId());
+		}
+		if (!expected.equals(actual)) {
+			throw new IllegalStateException("Store holds " + actual.size() + " markers, writers kept " + expected.size());
+		}
+
+		System.out.println(String.format("MarkerStore: %d writers, %d changes in %d publishes", WRITERS, changes.get(), publishes.get()));
+		System.out.println(String.format("draw loop: %d frames, %d versions seen, worst frame %.2f ms, final %d markers, consistent",
+				frames, versionsSeen, worstFrame / 1e6, actual.size()));
+	}
+
+	private static void checkUnchanged(MarkerStore.Version version, Marker[] markers) {
+		List<Marker> list = version.getMarkers();
+		if (list.size() != markers.length) {
+			throw new IllegalStateException("Version " + version.getNumber() + " changed size after it was published");
+		}
+		for (int i = 0; i < markers.length; i++) {
+			if (list.get(i) != markers[i]) {
+				throw new IllegalStateException("Version " + version.getNumber() + " changed at " + i + " after it was published");
+			}
+		}
+		try {
+			list.add(markers.length > 0 ? markers[0] : null);
+		} catch (UnsupportedOperationException e) {
+			return;
+		}
+		throw new IllegalStateException("Version " + version.getNumber() + " can be modified");
+	}
+
+	private static void write(MarkerStore store, int writer, Set<String> owned, AtomicBoolean running,
+			AtomicLong publishes, AtomicLong changes) {
+		Random random = new Random(100 + writer);
+		List<String> ids = new ArrayList<>(owned);
+		int next = 0;
+		while (running.get()) {
+			int batch = 1 + random.nextInt(MAX_BATCH);
+			for (int i = 0; i < batch; i++) {
+				int op = random.nextInt(3);
+				if (op == 0 || ids.isEmpty()) {
+					String id = "w" + writer + "-new" + next++;
+					store.stageInsert(marker(id, random));
+					ids.add(id);
+				}
+				else {
+					int index = random.nextInt(ids.size());
+					String id = ids.get(index);
+					if (op == 1) {
+						store.stageUpdate(marker(id, random));
+					}
+					else {
+						store.stageRemove(id);
+						ids.set(index, ids.get(ids.size() - 1));
+						ids.remove(ids.size() - 1);
+					}
+				}
+			}
+			store.publish();
+			changes.addAndGet(batch);
+			publishes.incrementAndGet();
+		}
+		owned.clear();
+		owned.addAll(ids);
+	}
+
+	/*
+	 * The old model: writers change a shared list while the draw loop
+	 * iterates it.
+	 */
+	private static void runArrayList(long millis) throws InterruptedException {
+		List<Marker> markers = new ArrayList<>();
+		Random random = new Random(3);
+		for (int i = 0; i < INITIAL_MARKERS; i++) {
+			markers.add(marker("q" + i, random));
+		}
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(() -> {
+			Random writes = new Random(7);
+			int next = 0;
+			while (running.get()) {
+				try {
+					if (writes.nextBoolean() || markers.isEmpty()) {
+						markers.add(marker("new" + next++, writes));
+					}
+					else {
+						markers.remove(markers.size() - 1);
+					}
+				} catch (RuntimeException e) {
+					// the writer can fail too, it just tries again
+				}
+			}
+		}, "list-writer");
+		writer.start();
+
+		long frames = 0;
+		long failed = 0;
+		long end = System.currentTimeMillis() + millis;
+		while (System.currentTimeMillis() < end) {
+			try {
+				float sum = 0;
+				for (Marker marker : markers) {
+					sum += marker.getLocation().getLat();
+				}
+				Harness.sink = sum;
+			} catch (ConcurrentModificationException | NullPointerException | IndexOutOfBoundsException e) {
+				failed++;
+			}
+			frames++;
+		}
+		running.set(false);
+		writer.join();
+
+		System.out.println(String.format("shared ArrayList: %d frames, %d failed while iterating", frames, failed));
+	}
+
+	private static Marker marker(String id, Random random) {
+		Marker marker = new SimplePointMarker(new Location(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180));
+		marker.setId(id);
+		return marker;
+	}
+}
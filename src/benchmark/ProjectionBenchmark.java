@@ -0,0 +1,242 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.mapdisplay.AbstractMapDisplay;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import de.fhpotsdam.unfolding.tiles.TileLoader;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import earthquakemap.MarkerProjection;
+import processing.core.PGraphics;
+import processing.core.PMatrix3D;
+
+/** ProjectionBenchmark
+ * Reprojecting 1k to 1M markers after a pan, once through the map display
+ * per marker, as the layers did, and once with MarkerProjection's cached
+ * world positions and one affine transform.  Java2DMapDisplay needs a
+ * running sketch, so a display that does the same matrix products on
+ * Unfolding's Mercator projection stands in for it.
+ * */
+public class ProjectionBenchmark {
+
+	private static final float WIDTH = 650;
+	private static final float HEIGHT = 600;
+
+	public static void main(String[] args) {
+		for (int count : new int[] { 1_000, 10_000, 100_000, 1_000_000 }) {
+			run(count);
+		}
+	}
+
+	private static void run(int count) {
+		Random random = new Random(24);
+		List<Marker> markers = Arrays.asList((Marker[]) EarthquakeMarkerBenchmark.createMarkers(count, random));
+		MatrixDisplay display = new MatrixDisplay();
+		display.innerScale = 4;
+		display.calculateInnerMatrix();
+
+		MarkerProjection projection = new MarkerProjection(markers, false);
+		projection.update(display);
+		int checked = Math.min(count, 10_000);
+		for (int i = 0; i < checked; i++) {
+			float[] position = display.getObjectFromLocation(markers.get(i).getLocation());
+			if (Math.abs(position[0] - projection.getX(i)) > 0.01f || Math.abs(position[1] - projection.getY(i)) > 0.01f) {
+				throw new IllegalStateException("projection differs for marker " + i);
+			}
+		}
+
+		System.out.println(count + " markers");
+		float[] positions = new float[2 * count];
+		Harness.measure("projection: display per marker", () -> {
+			display.pan();
+			for (int i = 0; i < count; i++) {
+				float[] position = display.getObjectFromLocation(markers.get(i).getLocation());
+				positions[2 * i] = position[0];
+				positions[2 * i + 1] = position[1];
+			}
+			return positions;
+		});
+		Harness.measure("projection: cached world, affine", () -> {
+			display.pan();
+			return projection.update(display);
+		});
+	}
+
+	/*
+	 * The transforms of Java2DMapDisplay without its canvas: an inner matrix
+	 * for zoom and pan and an outer one for the map's own transformations.
+	 */
+	private static class MatrixDisplay extends AbstractMapDisplay {
+
+		private final PMatrix3D innerMatrix = new PMatrix3D();
+		private final PMatrix3D matrix = new PMatrix3D();
+
+		MatrixDisplay() {
+			super(new MBTilesMapProvider(), WIDTH, HEIGHT);
+		}
+
+		void pan() {
+			innerOffsetX = innerOffsetX > 0 ? -1 : 1;
+		}
+
+		@Override
+		public void calculateMatrix() {
+			matrix.reset();
+		}
+
+		@Override
+		public void calculateInnerMatrix() {
+			innerMatrix.reset();
+			innerMatrix.scale(innerScale);
+		}
+
+		@Override
+		protected float[] getTransformedPosition(float x, float y, boolean inverse) {
+			return transform(matrix, x, y, offsetX, offsetY, inverse);
+		}
+
+		@Override
+		public float[] getObjectFromInnerObjectPosition(float x, float y) {
+			return transform(innerMatrix, x, y, (float) innerOffsetX, (float) innerOffsetY, false);
+		}
+
+		@Override
+		public float[] getInnerObjectFromObjectPosition(float x, float y) {
+			return transform(innerMatrix, x, y, (float) innerOffsetX, (float) innerOffsetY, true);
+		}
+
+		@Override
+		public float[] getScreenFromInnerObjectPosition(float x, float y) {
+			float[] object = getObjectFromInnerObjectPosition(x, y);
+			return getScreenFromObjectPosition(object[0], object[1]);
+		}
+
+		@Override
+		public float[] getScreenFromObjectPosition(float x, float y) {
+			return getTransformedPosition(x, y, false);
+		}
+
+		@Override
+		public float[] getObjectFromScreenPosition(float x, float y) {
+			return getTransformedPosition(x, y, true);
+		}
+
+		@Override
+		public float[] getInnerObjectFromLocation(Location location) {
+			Coordinate coordinate = provider.locationCoordinate(location).zoomTo(0);
+			return new float[] { coordinate.column * TILE_WIDTH, coordinate.row * TILE_HEIGHT, 0 };
+		}
+
+		@Override
+		public float[] getObjectFromLocation(Location location) {
+			float[] inner = getInnerObjectFromLocation(location);
+			return getObjectFromInnerObjectPosition(inner[0], inner[1]);
+		}
+
+		private static float[] transform(PMatrix3D transformation, float x, float y, float offsetX, float offsetY,
+				boolean inverse) {
+			PMatrix3D m = new PMatrix3D();
+			m.apply(transformation);
+			if (inverse) {
+				m.invert();
+				x -= offsetX;
+				y -= offsetY;
+			}
+			float[] out = m.mult(new float[] { x, y, 0 }, new float[3]);
+			if (!inverse) {
+				out[0] += offsetX;
+				out[1] += offsetY;
+			}
+			return out;
+		}
+
+		@Override
+		public PGraphics getInnerPG() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public PGraphics getOuterPG() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void draw() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setBackgroundColor(Integer color) {
+			throw new UnsupportedOperationException();
+		}
+
+		// the deprecated methods are still abstract in AbstractMapDisplay
+		@Override
+		@SuppressWarnings("deprecation")
+		public float[] getInnerObjectFromScreenPosition(float x, float y) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public float[] getInnerObject(ScreenPosition position) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Location getLocationFromInnerObjectPosition(float x, float y) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		@SuppressWarnings("deprecation")
+		public Location getLocationFromScreenPosition(float x, float y) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Location getLocation(float x, float y) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Location getLocation(ScreenPosition position) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Location getLocationFromObjectPosition(float x, float y) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		@SuppressWarnings("deprecation")
+		public float[] getScreenPositionFromLocation(Location location) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ScreenPosition getScreenPosition(Location location) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ScreenPosition getScreenPositionFloat(Location location) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected TileLoader createTileLoader(Coordinate coordinate) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void tilesLoaded() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.marker.Marker;
+import earthquakemap.CommonMarker;
+import earthquakemap.QuakeAge;
+import earthquakemap.QuakeClusterLayer;
+import earthquakemap.QuakeClusterMarker;
+import earthquakemap.QuakeList;
+import earthquakemap.QuakeTable;
+
+/** QuakeClusterCheck
+ * Checks that QuakeClusterLayer merges quakes on either side of a tile
+ * border: two quakes a few pixels apart across the equator, the prime
+ * meridian or both must be one cluster at every zoom level that has tiles
+ * there, and two quakes further apart than the cluster radius must not.
+ * Then a catalog crowded around those borders is updated a few times,
+ * each result checked to give the clusters of a layer built from scratch.
+ * Any failure throws, so "gradle check" runs this as the layer's check.
+ * */
+public class QuakeClusterCheck {
+
+	private static final float WIDTH = 900;
+	private static final float HEIGHT = 700;
+
+	public static void main(String[] args) {
+		for (int zoom = 1; zoom <= QuakeClusterLayer.MAX_CLUSTER_ZOOM; zoom++) {
+			checkPair(zoom, 1, 0, true);
+			checkPair(zoom, 0, 1, true);
+			checkPair(zoom, 1, 1, true);
+			checkPair(zoom, 30, 0, false);
+		}
+		System.out.println("quakes across tile borders merge at zoom 1 to " + QuakeClusterLayer.MAX_CLUSTER_ZOOM);
+
+		checkUpdates();
+		System.out.println("updates around tile borders give the clusters of a full build");
+	}
+
+	/*
+	 * Two quakes mirrored around the point where the equator and the prime
+	 * meridian cross, the given steps of 5 pixels at the zoom to either side.
+	 */
+	private static void checkPair(int zoom, int stepsX, int stepsY, boolean merged) {
+		float degrees = degreesPerPixel(zoom) * 5;
+		QuakeTable table = new QuakeTable();
+		add(table, -stepsY * degrees, -stepsX * degrees);
+		add(table, stepsY * degrees, stepsX * degrees);
+		QuakeClusterLayer layer = new QuakeClusterLayer(table.markers(), WIDTH, HEIGHT);
+
+		List<CommonMarker> clusters = layer.getClusters(zoom);
+		boolean isMerged = clusters.size() == 1 && clusters.get(0) instanceof QuakeClusterMarker
+				&& ((QuakeClusterMarker) clusters.get(0)).getCount() == 2;
+		if (isMerged != merged) {
+			throw new IllegalStateException("zoom " + zoom + ": quakes " + 2 * stepsX * 5 + " px and " + 2 * stepsY * 5
+					+ " px apart across the border " + (merged ? "did not merge" : "merged") + ", " + clusters);
+		}
+	}
+
+	/*
+	 * Replaces a tenth of a crowded catalog with new quakes, a few times over.
+	 */
+	private static void checkUpdates() {
+		Random random = new Random(23);
+		QuakeTable table = new QuakeTable();
+		QuakeList quakes = crowded(table, 20_000, random);
+		QuakeClusterLayer layer = new QuakeClusterLayer(quakes, WIDTH, HEIGHT);
+		for (int round = 0; round < 5; round++) {
+			List<Marker> removed = new ArrayList<>();
+			List<Integer> rows = new ArrayList<>();
+			for (int i = 0; i < quakes.size(); i++) {
+				if (random.nextInt(10) == 0) {
+					removed.add(quakes.get(i));
+				}
+				else {
+					rows.add(quakes.getRow(i));
+				}
+			}
+			QuakeList added = crowded(table, removed.size(), random);
+			for (int i = 0; i < added.size(); i++) {
+				rows.add(added.getRow(i));
+			}
+			QuakeList next = table.markers(rows.stream().mapToInt(Integer::intValue).toArray());
+
+			layer = layer.updated(next, removed, added);
+			ClusterBenchmark.checkSame(layer, new QuakeClusterLayer(next, WIDTH, HEIGHT));
+			quakes = next;
+		}
+	}
+
+	/*
+	 * Quakes spread over a few pixels to a few degrees around the crossing
+	 * of the equator and the prime meridian, where every zoom has a border.
+	 */
+	private static QuakeList crowded(QuakeTable table, int count, Random random) {
+		int first = table.size();
+		for (int i = 0; i < count; i++) {
+			float spread = degreesPerPixel(random.nextInt(QuakeClusterLayer.MAX_CLUSTER_ZOOM + 1)) * 100;
+			add(table, (float) random.nextGaussian() * spread, (float) random.nextGaussian() * spread);
+		}
+		int[] rows = new int[count];
+		for (int i = 0; i < count; i++) {
+			rows[i] = first + i;
+		}
+		return table.markers(rows);
+	}
+
+	private static void add(QuakeTable table, float lat, float lon) {
+		table.add(lat, lon, 4.5f, 10, QuakeTable.NO_TIME, QuakeAge.PAST_WEEK, "M 4.5 - check quake " + table.size());
+	}
+
+	/*
+	 * Degrees of longitude per pixel, which near the equator are about the
+	 * degrees of latitude per pixel too.
+	 */
+	private static float degreesPerPixel(int zoom) {
+		return 360f / (UnfoldingMap.TILE_WIDTH * (1 << zoom));
+	}
+}
@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import earthquakemap.CountryIndex;
+import earthquakemap.EarthquakeMarker;
+import earthquakemap.LandQuakeMarker;
+import earthquakemap.OceanQuakeMarker;
+import earthquakemap.QuakeTable;
+import parsing.ParseFeed;
+
+/** QuakeViewCheck
+ * Checks that the markers QuakeTable creates for its rows look exactly
+ * like the markers the map used to build from the feed: the same property
+ * map, with the feed's time strings and no event time where the entry had
+ * none, and the same id, title and values.  Any difference throws, so
+ * "gradle check" runs this as the check for the table-backed markers.
+ * */
+public class QuakeViewCheck {
+
+	public static void main(String[] args) throws IOException {
+		Path data = Paths.get(args.length > 0 ? args[0] : "data");
+
+		List<PointFeature> features = new ArrayList<>();
+		QuakeTable table = new QuakeTable();
+		ParseFeed.parseEarthquake(Files.newInputStream(data.resolve("2.5_week.atom")), feature -> {
+			// every entry of the file has an event time; drop some so that
+			// entries without one are checked as well
+			if (features.size() % 3 == 2) {
+				feature.getProperties().remove("time");
+			}
+			features.add(feature);
+			table.add(feature);
+		});
+		String json = new String(Files.readAllBytes(data.resolve("countries.geo.json")), StandardCharsets.UTF_8);
+		table.classify(new CountryIndex(MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, json))));
+
+		int withoutTime = 0;
+		for (int row = 0; row < table.size(); row++) {
+			EarthquakeMarker fromFeed = fromFeed(features.get(row), table.getCountry(row));
+			EarthquakeMarker view = table.createMarker(row);
+
+			HashMap<String, Object> expected = fromFeed.getProperties();
+			HashMap<String, Object> actual = view.getProperties();
+			check(row, "properties", expected, actual);
+			check(row, "id", fromFeed.getId(), view.getId());
+			check(row, "title", fromFeed.getTitle(), view.getTitle());
+			check(row, "land", fromFeed.isOnLand(), view.isOnLand());
+			check(row, "magnitude", fromFeed.getMagnitude(), view.getMagnitude());
+			check(row, "depth", fromFeed.getDepth(), view.getDepth());
+			check(row, "age", fromFeed.getAge(), view.getAge());
+			check(row, "time", fromFeed.getTime(), view.getTime());
+			check(row, "updated", fromFeed.getUpdated(), view.getUpdated());
+			if (!expected.containsKey("time")) {
+				withoutTime++;
+			}
+		}
+		System.out.println(table.size() + " table markers match the feed markers, "
+				+ withoutTime + " of them without an event time");
+	}
+
+	/*
+	 * The marker the map built before it had a table: the feature's own
+	 * properties, and the country added for quakes on land.
+	 */
+	private static EarthquakeMarker fromFeed(PointFeature feature, String country) {
+		EarthquakeMarker marker;
+		if (country != null) {
+			marker = new LandQuakeMarker(feature);
+			marker.setProperty("country", country);
+		} else {
+			marker = new OceanQuakeMarker(feature);
+		}
+		marker.setId(feature.getId());
+		return marker;
+	}
+
+	private static void check(int row, String what, Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new IllegalStateException("row " + row + ": " + what + " " + actual + ", expected " + expected);
+		}
+	}
+}
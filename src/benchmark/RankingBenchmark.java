@@ -0,0 +1,60 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import earthquakemap.Leaderboard;
+import earthquakemap.QuakeAge;
+import earthquakemap.QuakeRanking;
+import earthquakemap.QuakeTable;
+
+/** RankingBenchmark
+ * The 20 largest quakes of 10k, 100k and 1M synthetic events: a full
+ * sortByMagnitude against top-K selection with a bounded heap, checked to
+ * give the same rows, and the cost of offering one new quake to a
+ * maintained leaderboard.
+ * */
+public class RankingBenchmark {
+
+	private static final int K = 20;
+	private static final QuakeAge[] AGES = QuakeAge.values();
+
+	public static void main(String[] args) {
+		for (int count : new int[] { 10_000, 100_000, 1_000_000 }) {
+			run(count);
+		}
+	}
+
+	private static void run(int count) {
+		Random random = new Random(13);
+		QuakeTable table = new QuakeTable();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			float magnitude = 2.5f + (int) (random.nextFloat() * 60) / 10f;
+			table.add(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180, magnitude,
+					(int) (random.nextFloat() * 7000) / 10f, now - random.nextInt(7 * 24 * 3600) * 1000L,
+					AGES[random.nextInt(AGES.length)], "M " + magnitude + " - synthetic quake " + i);
+		}
+
+		int[] sorted = Arrays.copyOf(table.sortByMagnitude(), K);
+		if (!Arrays.equals(sorted, QuakeRanking.topRows(table, QuakeRanking.By.MAGNITUDE, K))) {
+			throw new IllegalStateException("top-K differs from the sorted prefix");
+		}
+
+		System.out.println(count + " quakes");
+		Harness.measure("largest " + K + ": full sort", () -> table.sortByMagnitude());
+		Harness.measure("largest " + K + ": top-K heap", () -> QuakeRanking.topRows(table, QuakeRanking.By.MAGNITUDE, K));
+		Harness.measure("deepest " + K + ": top-K heap", () -> QuakeRanking.topRows(table, QuakeRanking.By.DEPTH, K));
+		Harness.measure("latest " + K + ": top-K heap", () -> QuakeRanking.topRows(table, QuakeRanking.By.RECENCY, K));
+
+		Leaderboard<Integer> board = new Leaderboard<>(K);
+		for (int row = 0; row < count; row++) {
+			board.offer(QuakeRanking.By.MAGNITUDE.keyOf(table, row), row);
+		}
+		int[] next = { 0 };
+		Harness.measure("leaderboard: offer one new quake", () -> {
+			int row = next[0]++ % count;
+			return board.offer(QuakeRanking.By.MAGNITUDE.keyOf(table, row) + 1, row);
+		});
+	}
+}
@@ -0,0 +1,86 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import airports.RouteGraph;
+import airports.RouteSearch;
+
+/** RouteGraphBenchmark
+ * Build time of the route graph from the bundled OpenFlights files and the
+ * latency of fewest-hops, shortest-distance and reachable-within-2-legs
+ * queries between random airports that have routes.
+ *
+ *   java -cp "build:lib/*" benchmark.RouteGraphBenchmark [data directory]
+ * */
+public class RouteGraphBenchmark {
+
+	static final int PAIRS = 4096;
+
+	public static void main(String[] args) throws IOException {
+		String data = args.length > 0 ? args[0] : "data";
+		byte[] airports = Files.readAllBytes(Paths.get(data, "airports.dat"));
+		byte[] routes = Files.readAllBytes(Paths.get(data, "routes.dat"));
+
+		RouteGraph graph = load(airports, routes);
+		System.out.println(graph.airportCount() + " airports, " + graph.routeCount() + " distinct routes");
+
+		Random random = new Random(11);
+		int[] sources = new int[PAIRS];
+		int[] destinations = new int[PAIRS];
+		for (int i = 0; i < PAIRS; i++) {
+			sources[i] = connectedAirport(graph, random);
+			destinations[i] = connectedAirport(graph, random);
+		}
+
+		RouteSearch search = graph.newSearch();
+		checkDistances(search, sources, destinations);
+		int[] next = new int[1];
+		Harness.measure("build from airports.dat + routes.dat", () -> load(airports, routes));
+		Harness.measure("fewest hops", () -> {
+			int i = next[0] = (next[0] + 1) % PAIRS;
+			return search.fewestHops(sources[i], destinations[i]);
+		});
+		Harness.measure("shortest great-circle distance", () -> {
+			int i = next[0] = (next[0] + 1) % PAIRS;
+			return search.shortestDistance(sources[i], destinations[i]);
+		});
+		Harness.measure("reachable within 2 legs", () -> {
+			int i = next[0] = (next[0] + 1) % PAIRS;
+			return search.reachableWithin(sources[i], 2);
+		});
+	}
+
+	/*
+	 * A distance is only known after a shortest-distance query, never left
+	 * over from one after a breadth-first search.
+	 */
+	private static void checkDistances(RouteSearch search, int[] sources, int[] destinations) {
+		for (int i = 0; i < PAIRS; i++) {
+			boolean found = search.shortestDistance(sources[i], destinations[i]) != RouteSearch.NO_PATH;
+			if (found == Float.isInfinite(search.distanceTo(destinations[i]))) {
+				throw new IllegalStateException("distance after shortestDistance for pair " + i);
+			}
+			search.fewestHops(sources[i], destinations[i]);
+			if (!Float.isInfinite(search.distanceTo(destinations[i]))) {
+				throw new IllegalStateException("distance after fewestHops for pair " + i);
+			}
+		}
+	}
+
+	static RouteGraph load(byte[] airports, byte[] routes) {
+		return RouteGraph.load(new ByteArrayInputStream(airports), new ByteArrayInputStream(routes));
+	}
+
+	static int connectedAirport(RouteGraph graph, Random random) {
+		while (true) {
+			int airport = random.nextInt(graph.airportCount());
+			if (graph.endRoute(airport) > graph.firstRoute(airport)) {
+				return airport;
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import earthquakemap.SpriteBatch;
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+/** SpriteBatchBenchmark
+ * Frame cost of drawing markers one by one, with pushStyle, tint, image and
+ * popStyle per marker as the marker classes do, against one SpriteBatch
+ * draw, for 1k, 10k and 100k sprites on an offscreen Java2D canvas.  The
+ * retained OpenGL path needs a window and is not measured here; the batch
+ * report shows the draw calls each path issues.
+ * */
+public class SpriteBatchBenchmark {
+
+	private static final int WIDTH = 900;
+	private static final int HEIGHT = 700;
+
+	private static final int[] TINTS = { 0xFFFFFF00, 0xFF0000FF, 0xFFFF0000 };
+
+	public static void main(String[] args) {
+		PApplet applet = new PApplet();
+		PGraphics pg = applet.createGraphics(WIDTH, HEIGHT, PConstants.JAVA2D);
+		PImage[] sprites = { sprite(applet, 0xFF3080FF), sprite(applet, 0xFF30C030), sprite(applet, 0xFFC03030) };
+
+		for (int count : new int[] { 1_000, 10_000, 100_000 }) {
+			run(pg, sprites, count);
+		}
+	}
+
+	private static void run(PGraphics pg, PImage[] sprites, int count) {
+		Random random = new Random(5);
+		PImage[] image = new PImage[count];
+		int[] tint = new int[count];
+		float[] xy = new float[2 * count];
+		float[] size = new float[count];
+		for (int i = 0; i < count; i++) {
+			image[i] = sprites[random.nextInt(sprites.length)];
+			tint[i] = TINTS[random.nextInt(TINTS.length)];
+			xy[2 * i] = random.nextFloat() * WIDTH;
+			xy[2 * i + 1] = random.nextFloat() * HEIGHT;
+			size[i] = 3.5f * (2.5f + random.nextFloat() * 6);
+		}
+
+		SpriteBatch batch = new SpriteBatch();
+		for (int i = 0; i < count; i++) {
+			batch.add(image[i], tint[i], xy[2 * i] - 5, xy[2 * i + 1] - 5, size[i], size[i]);
+		}
+
+		System.out.println(count + " sprites");
+		Harness.measure("frame: style change per marker", () -> {
+			pg.beginDraw();
+			for (int i = 0; i < count; i++) {
+				pg.pushStyle();
+				pg.tint(tint[i]);
+				pg.image(image[i], xy[2 * i] - 5, xy[2 * i + 1] - 5, size[i], size[i]);
+				pg.popStyle();
+			}
+			pg.endDraw();
+			return pg;
+		});
+		Harness.measure("frame: sprite batch", () -> {
+			pg.beginDraw();
+			batch.draw(pg);
+			pg.endDraw();
+			return pg;
+		});
+		Harness.measure("rebuild: sprite batch", () -> {
+			batch.clear();
+			for (int i = 0; i < count; i++) {
+				batch.add(image[i], tint[i], xy[2 * i] - 5, xy[2 * i + 1] - 5, size[i], size[i]);
+			}
+			return batch;
+		});
+		System.out.print(batch.report());
+	}
+
+	private static PImage sprite(PApplet applet, int color) {
+		PImage sprite = applet.createImage(16, 16, PConstants.ARGB);
+		Arrays.fill(sprite.pixels, color);
+		sprite.updatePixels();
+		return sprite;
+	}
+}
@@ -0,0 +1,87 @@
+package benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import earthquakemap.CachingTileProvider;
+
+/** TileCacheBenchmark
+ * Tile reads from blankLight-1-3.mbtiles straight from SQLite against the
+ * in-memory cache of CachingTileProvider, and a pan across zoom level 3
+ * with a view of 3x3 tiles, once with a cache too small to hold the row
+ * and no prefetch, and once with prefetching in the pan direction, which
+ * reports the time the view waits for tiles.  Fully offline.
+ *
+ *   java -cp "build:lib/*" benchmark.TileCacheBenchmark [data directory]
+ * */
+public class TileCacheBenchmark {
+
+	private static final int ZOOM = 3;
+	private static final int VIEW = 3;
+	private static final int STEPS = 64;
+	private static final long FRAME_MILLIS = 50;
+
+	public static void main(String[] args) {
+		String data = args.length > 0 ? args[0] : "data";
+		String tiles = "jdbc:sqlite:" + new File(data, "blankLight-1-3.mbtiles").getAbsolutePath();
+
+		MBTilesMapProvider source = new MBTilesMapProvider(tiles);
+		CachingTileProvider cache = new CachingTileProvider(source, 128, null, 4);
+		Random random = new Random(22);
+		Coordinate[] coordinates = new Coordinate[256];
+		for (int i = 0; i < coordinates.length; i++) {
+			int zoom = 1 + random.nextInt(ZOOM);
+			coordinates[i] = new Coordinate(random.nextInt(1 << zoom), random.nextInt(1 << zoom), zoom);
+		}
+
+		int[] next = new int[1];
+		Harness.measure("tile: MBTiles read", () -> source.getTile(coordinates[next[0]++ % coordinates.length]));
+		Harness.measure("tile: cached", () -> cache.getTile(coordinates[next[0]++ % coordinates.length]));
+		System.out.println(cache.report());
+		cache.shutdown();
+
+		pan(source, false);
+		pan(source, true);
+	}
+
+	/*
+	 * Moves the view one tile east per step and requests its tiles the way
+	 * Unfolding does, with a cache that holds only the view and one column.
+	 */
+	private static void pan(MBTilesMapProvider source, boolean prefetch) {
+		CachingTileProvider cache = new CachingTileProvider(source, VIEW * (VIEW + 1), null, 4);
+		long waiting = 0;
+		for (int step = 0; step < STEPS; step++) {
+			int left = step % (1 << ZOOM);
+			long start = System.nanoTime();
+			for (int row = 0; row < VIEW; row++) {
+				for (int column = left; column < left + VIEW; column++) {
+					cache.getTile(new Coordinate(row, column % (1 << ZOOM), ZOOM));
+				}
+			}
+			waiting += System.nanoTime() - start;
+			if (prefetch) {
+				Location topLeft = source.coordinateLocation(new Coordinate(0, left, ZOOM));
+				Location bottomRight = source.coordinateLocation(new Coordinate(VIEW - 0.5f, left + VIEW - 0.5f, ZOOM));
+				cache.prefetch(topLeft, bottomRight, ZOOM, -256, 0);
+			}
+			// the frames the pan takes to move a tile
+			sleep(FRAME_MILLIS);
+		}
+		System.out.println(String.format("pan %s prefetch: %.2f ms waiting for tiles per step",
+				prefetch ? "with" : "without", waiting / 1e6 / STEPS));
+		System.out.println(cache.report());
+		cache.shutdown();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
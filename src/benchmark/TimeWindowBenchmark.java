@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.util.List;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import earthquakemap.EarthquakeMarker;
+import earthquakemap.QuakeAge;
+import earthquakemap.QuakeTable;
+import earthquakemap.QuakeTimeIndex;
+
+/** TimeWindowBenchmark
+ * One playback step over a year of 1M synthetic quakes: the window moves on
+ * 20 minutes.  Filtering every marker by its time against two binary
+ * searches in the QuakeTimeIndex, checked to find the same quakes; which of
+ * them are recent is decided when they are drawn, so neither sets flags.
+ * */
+public class TimeWindowBenchmark {
+
+	private static final int COUNT = 1_000_000;
+	private static final long YEAR_MILLIS = 365 * QuakeTimeIndex.RECENT_MILLIS;
+	private static final long STEP_MILLIS = 20 * 60 * 1000L;
+	private static final QuakeAge[] AGES = QuakeAge.values();
+
+	public static void main(String[] args) {
+		Random random = new Random(19);
+		QuakeTable table = new QuakeTable();
+		long start = System.currentTimeMillis() - YEAR_MILLIS;
+		for (int i = 0; i < COUNT; i++) {
+			table.add(random.nextFloat() * 180 - 90, random.nextFloat() * 360 - 180, 2.5f + random.nextFloat() * 6,
+					random.nextFloat() * 700, start + (long) (random.nextDouble() * YEAR_MILLIS),
+					AGES[random.nextInt(AGES.length)], "M 4.0 - synthetic quake " + i);
+		}
+		List<Marker> markers = table.createMarkers(table.allRows());
+		QuakeTimeIndex index = new QuakeTimeIndex(table.markers());
+
+		long[] cursor = { start };
+		for (int step = 0; step < 100; step++) {
+			long to = start + step * 7 * STEP_MILLIS;
+			if (linearWindow(markers, to) != index.lowerBound(to) - index.lowerBound(to - QuakeTimeIndex.RECENT_MILLIS)) {
+				throw new IllegalStateException("window at " + to + " differs");
+			}
+		}
+
+		System.out.println(COUNT + " quakes over a year");
+		Harness.measure("playback step: filter every marker", () -> {
+			cursor[0] = next(cursor[0], start);
+			return linearWindow(markers, cursor[0]);
+		});
+		Harness.measure("playback step: time index", () -> {
+			cursor[0] = next(cursor[0], start);
+			int from = index.lowerBound(cursor[0] - QuakeTimeIndex.RECENT_MILLIS);
+			int to = index.lowerBound(cursor[0]);
+			return to - from;
+		});
+	}
+
+	private static long next(long cursor, long start) {
+		long next = cursor + STEP_MILLIS;
+		return next > start + YEAR_MILLIS ? start : next;
+	}
+
+	/*
+	 * What a filter without the index does: test every marker.
+	 */
+	private static int linearWindow(List<Marker> markers, long to) {
+		int count = 0;
+		for (Marker marker : markers) {
+			EarthquakeMarker quake = (EarthquakeMarker) marker;
+			long time = quake.getTime();
+			if (time >= to - QuakeTimeIndex.RECENT_MILLIS && time < to) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,58 @@
+package benchmark;
+
+import java.util.HashMap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import earthquakemap.CityMarker;
+import earthquakemap.CommonMarker;
+import earthquakemap.QuakeClusterMarker;
+import earthquakemap.TooltipCache;
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/** TooltipBenchmark
+ * Cost of a hovered marker's tooltip per frame, laid out and drawn as box
+ * and text every time against blitting the image TooltipCache rendered,
+ * on an offscreen Java2D canvas.  The direct draw already uses the lines
+ * the city marker builds once; before the cache they were also rebuilt
+ * and the population parsed on every frame.
+ * */
+public class TooltipBenchmark {
+
+	private static final int WIDTH = 900;
+	private static final int HEIGHT = 700;
+
+	public static void main(String[] args) {
+		PApplet applet = new PApplet();
+		run(applet.createGraphics(WIDTH, HEIGHT, PConstants.JAVA2D));
+	}
+
+	private static void run(PGraphics pg) {
+		HashMap<String, Object> properties = new HashMap<>();
+		properties.put("name", "Lima");
+		properties.put("country", "Peru");
+		properties.put("population", "8.5");
+		CityMarker city = new CityMarker(new Location(-12.05f, -77.04f));
+		city.setProperties(properties);
+		QuakeClusterMarker cluster = new QuakeClusterMarker(new Location(-20, -70), 12, 6.1f, 3);
+
+		pg.beginDraw();
+		for (CommonMarker marker : new CommonMarker[] { city, cluster }) {
+			String name = marker.getClass().getSimpleName();
+			Harness.measure("tooltip: " + name + " drawn", () -> {
+				marker.drawTitle(pg, 300, 300);
+				return pg;
+			});
+			Harness.measure("tooltip: " + name + " cached", () -> {
+				marker.showTitle(pg, 300, 300);
+				return pg;
+			});
+		}
+		pg.endDraw();
+
+		TooltipCache cache = CommonMarker.getTooltipCache();
+		System.out.println(String.format("tooltips rendered %d, drawn from the cache %d",
+				cache.getRenders(), cache.getHits()));
+	}
+}
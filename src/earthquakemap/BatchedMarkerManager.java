@@ -0,0 +1,223 @@
+package earthquakemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import de.fhpotsdam.unfolding.mapdisplay.AbstractMapDisplay;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/** BatchedMarkerManager
+ * A MarkerManager that draws its CommonMarkers through a {@link SpriteBatch}
+ * instead of one image and style change per marker.  Positions come from a
+ * {@link MarkerProjection}, and the batch is kept from frame to frame and
+ * only rebuilt when the map has been panned or zoomed, or after
+ * {@link #invalidate()}, e.g. because markers were hidden.  Markers that
+ * cannot be batched are drawn on their own after the batch.  The markers
+ * are rendered into an offscreen layer that is composited every frame, and
+ * only the titles of selected markers are drawn on top of it, so a hover
+ * does not redraw the markers.
+ * */
+public class BatchedMarkerManager extends MarkerManager<Marker> {
+
+	private final SpriteBatch batch = new SpriteBatch();
+
+	private final List<CommonMarker> batched = new ArrayList<>();
+	private final List<CommonMarker> unbatched = new ArrayList<>();
+	private float[] batchedXY = new float[0];
+	private float[] unbatchedXY = new float[0];
+
+	private PGraphics layer;
+	private boolean layerValid;
+
+	private MarkerProjection projection;
+	// the projection the batch was built from
+	private MarkerProjection drawn;
+	private boolean valid;
+
+	// counted by the last rebuild
+	private int hiddenCount;
+	private int candidateCount;
+
+	/**
+	 * @param markers the markers to draw; the list is kept as it is, not
+	 * copied, so a list that creates its markers on demand only creates
+	 * the ones that are drawn
+	 */
+	public BatchedMarkerManager(List<Marker> markers) {
+		setMarkers(markers);
+	}
+
+	/**
+	 * Rebuilds the batch on the next frame, e.g. after markers were hidden.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * @return the batch with the statistics of the last frame
+	 */
+	public SpriteBatch getBatch() {
+		return batch;
+	}
+
+	@Override
+	public void draw() {
+		if (!bEnableDrawing) {
+			return;
+		}
+
+		AbstractMapDisplay display = map.mapDisplay;
+		MarkerProjection current = getProjection();
+		if (current.update(display) || !valid || current != drawn) {
+			rebuild(current);
+		}
+
+		PGraphics pg = display.getOuterPG();
+		if (!layerValid) {
+			renderLayer(pg);
+		}
+		pg.image(layer, 0, 0);
+		drawTitles(pg, batched, batchedXY);
+		drawTitles(pg, unbatched, unbatchedXY);
+	}
+
+	private void renderLayer(PGraphics pg) {
+		if (layer == null || layer.width != pg.width || layer.height != pg.height) {
+			layer = pg.parent.createGraphics(pg.width, pg.height, pg.isGL() ? PConstants.P2D : PConstants.JAVA2D);
+		}
+
+		layer.beginDraw();
+		layer.clear();
+		batch.draw(layer);
+		for (int i = 0; i < unbatched.size(); i++) {
+			unbatched.get(i).drawMarker(layer, unbatchedXY[i * 2], unbatchedXY[i * 2 + 1]);
+		}
+		layer.endDraw();
+		layerValid = true;
+	}
+
+	private static void drawTitles(PGraphics pg, List<CommonMarker> markers, float[] positions) {
+		for (int i = 0; i < markers.size(); i++) {
+			CommonMarker marker = markers.get(i);
+			if (marker.isSelected()) {
+				marker.showTitle(pg, positions[i * 2], positions[i * 2 + 1]);
+			}
+		}
+	}
+
+	/**
+	 * @return the markers drawn by the last rebuild
+	 */
+	public int getDrawnCount() {
+		return batched.size() + unbatched.size();
+	}
+
+	/**
+	 * @return the markers the last rebuild skipped because they were hidden
+	 */
+	public int getHiddenCount() {
+		return hiddenCount;
+	}
+
+	/**
+	 * @return the markers the last rebuild left out because they were not
+	 * in view
+	 */
+	public int getCulledCount() {
+		return candidateCount - getDrawnCount() - hiddenCount;
+	}
+
+	/**
+	 * @return the number of markers forEachMarkerToDraw chooses from at the
+	 * current view, before culling
+	 */
+	protected int getCandidateCount() {
+		return markers.size();
+	}
+
+	/**
+	 * @return the projection of the markers to draw from at the current view,
+	 * in object positions.  Subclasses can draw from other lists.
+	 */
+	protected MarkerProjection getProjection() {
+		if (projection == null) {
+			projection = new MarkerProjection(markers, false);
+		}
+		return projection;
+	}
+
+	/**
+	 * Passes the index in the projection's list of every marker that should
+	 * be drawn at the current view to the action, in drawing order.
+	 * Subclasses can cull markers.
+	 */
+	protected void forEachMarkerToDraw(MarkerProjection projection, IntConsumer action) {
+		for (int i = 0; i < projection.size(); i++) {
+			action.accept(i);
+		}
+	}
+
+	/**
+	 * @return whether the marker at the index in the projection's list is
+	 * hidden.  Subclasses can hide markers without asking them.
+	 */
+	protected boolean isHidden(List<? extends Marker> candidates, int index) {
+		return candidates.get(index).isHidden();
+	}
+
+	/**
+	 * Adds a marker to the batch the way it adds itself.  Subclasses can
+	 * add it differently, e.g. depending on their own state.
+	 *
+	 * @return false if the marker can only be drawn on its own
+	 */
+	protected boolean addTo(SpriteBatch batch, CommonMarker marker, float x, float y) {
+		return marker.addTo(batch, x, y);
+	}
+
+	private void rebuild(MarkerProjection projection) {
+		batch.clear();
+		batched.clear();
+		unbatched.clear();
+		hiddenCount = 0;
+		candidateCount = getCandidateCount();
+
+		List<? extends Marker> candidates = projection.getMarkers();
+		forEachMarkerToDraw(projection, i -> {
+			if (isHidden(candidates, i)) {
+				hiddenCount++;
+				return;
+			}
+			CommonMarker marker = (CommonMarker) candidates.get(i);
+			float x = projection.getX(i);
+			float y = projection.getY(i);
+			if (addTo(batch, marker, x, y)) {
+				batchedXY = append(batchedXY, batched.size(), x, y);
+				batched.add(marker);
+			}
+			else {
+				unbatchedXY = append(unbatchedXY, unbatched.size(), x, y);
+				unbatched.add(marker);
+			}
+		});
+
+		drawn = projection;
+		valid = true;
+		layerValid = false;
+	}
+
+	private static float[] append(float[] positions, int index, float x, float y) {
+		if (index * 2 + 2 > positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(64, positions.length * 2));
+		}
+		positions[index * 2] = x;
+		positions[index * 2 + 1] = y;
+		return positions;
+	}
+}
@@ -0,0 +1,454 @@
+package earthquakemap;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
+import processing.core.PImage;
+
+/** CachingTileProvider
+ * Sits in front of any map provider and keeps the most recently used
+ * decoded tiles in memory, so panning back over a tile does not read
+ * SQLite or the network again.  Tiles a provider only names by URL, like
+ * the remote ones, are fetched here and can also be kept in a directory on
+ * disk, which makes a previously seen area load offline.
+ *
+ * All loads run on a small pool of daemon threads, and a tile requested by
+ * Unfolding's loader threads and by a prefetch at the same time is loaded
+ * once.  {@link #prefetch} loads the tiles just outside the view in the
+ * direction the map moves, and after a zoom the tiles of the next level in
+ * the direction of the zoom, before they are asked for.  From an
+ * {@link MBTilesTileProvider} those are read with one query per range.
+ * */
+public class CachingTileProvider extends AbstractMapProvider {
+
+	// Prefetches are dropped while this many loads are waiting
+	private static final int MAX_QUEUED_PREFETCHES = 32;
+
+	// Stands in for a tile the source does not have, so it is not asked again
+	private static final PImage MISSING = new PImage(1, 1);
+
+	private final AbstractMapProvider source;
+	private final Path diskCache;
+	private final int capacity;
+
+	// access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<Long, Tile> tiles;
+	private final Map<Long, CompletableFuture<PImage>> loading = new ConcurrentHashMap<>();
+	private final ThreadPoolExecutor loaders;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong prefetches = new AtomicLong();
+	private final AtomicLong prefetchHits = new AtomicLong();
+
+	private int lastZoom = -1;
+
+	/**
+	 * @param capacity the number of decoded tiles kept in memory
+	 * @param diskCache directory for tiles fetched by URL, or null
+	 * @param threads the number of loader threads
+	 */
+	public CachingTileProvider(AbstractMapProvider source, int capacity, Path diskCache, int threads) {
+		super(source.projection);
+		this.source = source;
+		this.capacity = capacity;
+		this.diskCache = diskCache;
+		this.tiles = new LinkedHashMap<Long, Tile>(capacity * 4 / 3 + 1, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+				if (size() > CachingTileProvider.this.capacity) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.loaders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "tile-loader");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Called by Unfolding's loader threads; waits for the tile if it is not
+	 * in memory.
+	 */
+	@Override
+	public PImage getTile(Coordinate coordinate) {
+		long key = key(coordinate);
+		Tile tile = cached(key);
+		if (tile != null) {
+			hits.incrementAndGet();
+			if (tile.prefetched) {
+				tile.prefetched = false;
+				prefetchHits.incrementAndGet();
+			}
+			return tile.image == MISSING ? null : tile.image;
+		}
+
+		misses.incrementAndGet();
+		try {
+			PImage image = load(key, coordinate, false).join();
+			return image == MISSING ? null : image;
+		} catch (CompletionException e) {
+			System.err.println("Could not load tile " + coordinate + ": " + e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Every tile is loaded by {@link #getTile}, so Unfolding never falls
+	 * back to loading URLs itself.
+	 */
+	@Override
+	public String[] getTileUrls(Coordinate coordinate) {
+		return null;
+	}
+
+	@Override
+	public int tileWidth() {
+		return source.tileWidth();
+	}
+
+	@Override
+	public int tileHeight() {
+		return source.tileHeight();
+	}
+
+	@Override
+	public Coordinate sourceCoordinate(Coordinate coordinate) {
+		return source.sourceCoordinate(coordinate);
+	}
+
+	/**
+	 * Loads the tiles one beyond the visible ones in the direction the map
+	 * content moved, and after a zoom the tiles of the next level in the
+	 * same direction that the view would show.  Called by the animation
+	 * thread while the view changes.
+	 *
+	 * @param moveX how far the content moved right in pixels since the last call
+	 * @param moveY how far the content moved down in pixels since the last call
+	 */
+	public void prefetch(UnfoldingMap map, float moveX, float moveY) {
+		prefetch(map.getTopLeftBorder(), map.getBottomRightBorder(), map.getZoomLevel(), moveX, moveY);
+	}
+
+	/**
+	 * Same as {@link #prefetch(UnfoldingMap, float, float)} for a view given
+	 * by its corners and zoom level.
+	 */
+	public void prefetch(Location topLeft, Location bottomRight, int zoom, float moveX, float moveY) {
+		// content moving left brings in the tiles on the right
+		int stepColumn = moveX < 0 ? 1 : moveX > 0 ? -1 : 0;
+		int stepRow = moveY < 0 ? 1 : moveY > 0 ? -1 : 0;
+		prefetchBeyond(topLeft, bottomRight, zoom, stepColumn, stepRow);
+
+		if (lastZoom >= 0 && zoom != lastZoom) {
+			int next = zoom + Integer.signum(zoom - lastZoom);
+			if (next > zoom && next <= Coordinate.MAX_ZOOM) {
+				// the middle of the view fills the screen one level in
+				prefetchBeyond(between(topLeft, bottomRight, 0.25f), between(topLeft, bottomRight, 0.75f), next, 0, 0);
+			}
+			else if (next < zoom && next >= 0) {
+				prefetchBeyond(topLeft, bottomRight, next, 0, 0);
+			}
+		}
+		lastZoom = zoom;
+	}
+
+	public AbstractMapProvider getSource() {
+		return source;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getPrefetches() {
+		return prefetches.get();
+	}
+
+	/**
+	 * @return the requests served by a tile a prefetch loaded
+	 */
+	public long getPrefetchHits() {
+		return prefetchHits.get();
+	}
+
+	public int size() {
+		synchronized (tiles) {
+			return tiles.size();
+		}
+	}
+
+	public String report() {
+		long requests = hits.get() + misses.get();
+		return String.format("tiles requested %d: %d hits (%.0f%%), %d misses, %d from disk, %d evicted; "
+				+ "%d prefetched, %d of them used",
+				requests, hits.get(), requests == 0 ? 0.0 : 100.0 * hits.get() / requests, misses.get(),
+				diskHits.get(), evictions.get(), prefetches.get(), prefetchHits.get());
+	}
+
+	public void shutdown() {
+		loaders.shutdownNow();
+	}
+
+	/*
+	 * The visible tile range of a zoom level, shifted by the steps, or the
+	 * range itself when there is no step.
+	 */
+	private void prefetchBeyond(Location topLeft, Location bottomRight, int zoom, int stepColumn, int stepRow) {
+		Coordinate first = source.locationCoordinate(topLeft).zoomTo(zoom);
+		Coordinate last = source.locationCoordinate(bottomRight).zoomTo(zoom);
+		int minColumn = (int) Math.floor(first.column);
+		int maxColumn = (int) Math.floor(last.column);
+		int minRow = (int) Math.floor(first.row);
+		int maxRow = (int) Math.floor(last.row);
+
+		if (stepColumn != 0) {
+			int column = stepColumn > 0 ? maxColumn + 1 : minColumn - 1;
+			prefetchRange(zoom, column, column, minRow, maxRow);
+		}
+		if (stepRow != 0) {
+			int row = stepRow > 0 ? maxRow + 1 : minRow - 1;
+			prefetchRange(zoom, minColumn, maxColumn, row, row);
+		}
+		if (stepColumn == 0 && stepRow == 0) {
+			prefetchRange(zoom, minColumn, maxColumn, minRow, maxRow);
+		}
+	}
+
+	/*
+	 * An MBTiles source reads the tiles of the range that are neither in
+	 * memory nor loading with one query; any other source, or a range across
+	 * the date line, loads them one by one.
+	 */
+	private void prefetchRange(int zoom, int minColumn, int maxColumn, int minRow, int maxRow) {
+		int tilesPerSide = 1 << zoom;
+		if (!(source instanceof MBTilesTileProvider) || minColumn < 0 || maxColumn >= tilesPerSide) {
+			for (int row = minRow; row <= maxRow; row++) {
+				for (int column = minColumn; column <= maxColumn; column++) {
+					prefetch(zoom, column, row);
+				}
+			}
+			return;
+		}
+		int firstRow = Math.max(minRow, 0);
+		int lastRow = Math.min(maxRow, tilesPerSide - 1);
+		if (firstRow > lastRow || loaders.getQueue().size() >= MAX_QUEUED_PREFETCHES) {
+			return;
+		}
+
+		Map<Coordinate, CompletableFuture<PImage>> claimed = new HashMap<>();
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				Coordinate coordinate = new Coordinate(row, column, zoom);
+				long key = key(coordinate);
+				CompletableFuture<PImage> created = new CompletableFuture<>();
+				if (cached(key) == null && loading.putIfAbsent(key, created) == null) {
+					claimed.put(coordinate, created);
+				}
+			}
+		}
+		if (claimed.isEmpty()) {
+			return;
+		}
+		prefetches.addAndGet(claimed.size());
+		loaders.execute(() -> {
+			try {
+				Map<Coordinate, PImage> images = ((MBTilesTileProvider) source).getTiles(zoom, minColumn, maxColumn,
+						firstRow, lastRow);
+				for (Map.Entry<Coordinate, CompletableFuture<PImage>> tile : claimed.entrySet()) {
+					PImage image = images.getOrDefault(tile.getKey(), MISSING);
+					synchronized (tiles) {
+						tiles.put(key(tile.getKey()), new Tile(image, true));
+					}
+					tile.getValue().complete(image);
+				}
+			} catch (RuntimeException e) {
+				// nothing is cached, so the tiles are loaded again when they are needed
+				System.err.println("Could not prefetch tiles at zoom " + zoom + ": " + e.getMessage());
+				for (CompletableFuture<PImage> load : claimed.values()) {
+					load.completeExceptionally(e);
+				}
+			} finally {
+				for (Map.Entry<Coordinate, CompletableFuture<PImage>> tile : claimed.entrySet()) {
+					loading.remove(key(tile.getKey()), tile.getValue());
+				}
+			}
+		});
+	}
+
+	private static Location between(Location from, Location to, float fraction) {
+		return new Location(from.getLat() + (to.getLat() - from.getLat()) * fraction,
+				from.getLon() + (to.getLon() - from.getLon()) * fraction);
+	}
+
+	private void prefetch(int zoom, int column, int row) {
+		int tilesPerSide = 1 << zoom;
+		if (row < 0 || row >= tilesPerSide || loaders.getQueue().size() >= MAX_QUEUED_PREFETCHES) {
+			return;
+		}
+		// columns wrap around the date line
+		Coordinate coordinate = new Coordinate(row, Math.floorMod(column, tilesPerSide), zoom);
+		long key = key(coordinate);
+		if (cached(key) == null && !loading.containsKey(key)) {
+			prefetches.incrementAndGet();
+			load(key, coordinate, true);
+		}
+	}
+
+	private Tile cached(long key) {
+		synchronized (tiles) {
+			return tiles.get(key);
+		}
+	}
+
+	/*
+	 * Starts loading a tile on the pool, or joins the load already running.
+	 * A loaded tile is in memory before the load is forgotten, so a request
+	 * always finds one of them.
+	 */
+	private CompletableFuture<PImage> load(long key, Coordinate coordinate, boolean prefetched) {
+		CompletableFuture<PImage> created = new CompletableFuture<>();
+		CompletableFuture<PImage> running = loading.putIfAbsent(key, created);
+		if (running != null) {
+			return running;
+		}
+		loaders.execute(() -> {
+			try {
+				PImage image = fetch(coordinate);
+				if (image != null) {
+					synchronized (tiles) {
+						tiles.put(key, new Tile(image, prefetched));
+					}
+				}
+				created.complete(image);
+			} catch (RuntimeException e) {
+				created.completeExceptionally(e);
+			} finally {
+				loading.remove(key, created);
+			}
+		});
+		return created;
+	}
+
+	/*
+	 * Reads the tile from the disk cache, the source, or its URLs.
+	 */
+	private PImage fetch(Coordinate coordinate) {
+		Path file = diskCache == null ? null : diskCache.resolve(
+				(int) coordinate.zoom + "/" + (int) coordinate.column + "/" + (int) coordinate.row + ".tile");
+		if (file != null && Files.isRegularFile(file)) {
+			try {
+				PImage image = decode(Files.readAllBytes(file));
+				if (image != null) {
+					diskHits.incrementAndGet();
+					return image;
+				}
+			} catch (IOException e) {
+				// a damaged file is fetched again
+			}
+		}
+
+		PImage image = source.getTile(coordinate);
+		if (image != null) {
+			return image;
+		}
+		String[] urls = source.getTileUrls(coordinate);
+		if (urls == null) {
+			return MISSING;
+		}
+		for (String url : urls) {
+			try (InputStream input = new URL(url).openStream()) {
+				byte[] bytes = MapSnapshot.readAll(input);
+				image = decode(bytes);
+				if (image != null) {
+					if (file != null) {
+						store(file, bytes);
+					}
+					return image;
+				}
+			} catch (IOException e) {
+				// try the next URL
+			}
+		}
+		// a failed download is tried again the next time the tile is needed
+		return null;
+	}
+
+	static PImage decode(byte[] bytes) throws IOException {
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bytes));
+		if (decoded == null) {
+			return null;
+		}
+		// PImage only takes images backed by ints
+		BufferedImage argb = new BufferedImage(decoded.getWidth(), decoded.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		argb.getGraphics().drawImage(decoded, 0, 0, null);
+		return new PImage(argb);
+	}
+
+	private static void store(Path file, byte[] bytes) {
+		try {
+			Files.createDirectories(file.getParent());
+			Path partial = Files.createTempFile(file.getParent(), "tile", ".partial");
+			Files.write(partial, bytes);
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Could not cache tile " + file + ": " + e);
+		}
+	}
+
+	private static long key(Coordinate coordinate) {
+		return ((long) coordinate.zoom << 58) | ((long) coordinate.row << 29) | (long) coordinate.column;
+	}
+
+	private static class Tile {
+
+		final PImage image;
+		volatile boolean prefetched;
+
+		Tile(PImage image, boolean prefetched) {
+			this.image = image;
+			this.prefetched = prefetched;
+		}
+	}
+}
@@ -9,6 +9,10 @@ import processing.core.PGraphics;
 public class CityMarker extends CommonMarker {
 
 	public static final int TRI_SIZE = 5;
+
+	private static final int TINT = 0xFF961E1E;
+
+	private String[] titleLines;
 	
 	public CityMarker(Location location) {
 		super(location);
@@ -21,15 +25,38 @@ public class CityMarker extends CommonMarker {
 	public void drawMarker(PGraphics pg, float x, float y) {
 		pg.pushStyle();
 
-		pg.tint(150, 30, 30);
+		pg.tint(TINT);
 		pg.image(EarthquakeCityMap.cityMarker, x - 5, y - 5, 10, 10);
 
 		pg.popStyle();
 	}
+
+	@Override
+	public boolean addTo(SpriteBatch batch, float x, float y) {
+		batch.add(EarthquakeCityMap.cityMarker, TINT, x - 5, y - 5, 10, 10);
+		return true;
+	}
 	
-	public void showTitle(PGraphics pg, float x, float y) {
-		String name = getCity() + " " + getCountry() + " ";
-		String pop = "Pop: " + getPopulation() + " Million";
+	@Override
+	public String getTitleText() {
+		return titleLines()[2];
+	}
+
+	@Override
+	protected float[] getTitleBounds(PGraphics pg) {
+		String[] lines = titleLines();
+		pg.pushStyle();
+		pg.textSize(12);
+		float width = Math.max(pg.textWidth(lines[0]), pg.textWidth(lines[1])) + 6;
+		pg.popStyle();
+		return new float[] { 0, -TRI_SIZE - 39, width, 39 };
+	}
+
+	@Override
+	public void drawTitle(PGraphics pg, float x, float y) {
+		String[] lines = titleLines();
+		String name = lines[0];
+		String pop = lines[1];
 		
 		pg.pushStyle();
 		
@@ -44,6 +71,26 @@ public class CityMarker extends CommonMarker {
 		
 		pg.popStyle();
 	}
+
+	@Override
+	protected void propertiesChanged() {
+		titleLines = null;
+	}
+
+	/*
+	 * The name and population lines, and both as the text of the tooltip,
+	 * built from the properties once.
+	 */
+	private String[] titleLines() {
+		String[] lines = titleLines;
+		if (lines == null) {
+			String name = getCity() + " " + getCountry() + " ";
+			String pop = "Pop: " + getPopulation() + " Million";
+			lines = new String[] { name, pop, name + "\n" + pop };
+			titleLines = lines;
+		}
+		return lines;
+	}
 	
 	private String getCity() {
 		return getStringProperty("name");
@@ -1,13 +1,23 @@
 package earthquakemap;
 
 
+import java.util.HashMap;
+
 import de.fhpotsdam.unfolding.geo.Location;
 import de.fhpotsdam.unfolding.marker.SimplePointMarker;
 import processing.core.PGraphics;
 
 public abstract class CommonMarker extends SimplePointMarker {
 
+	// Tooltips of the markers hovered or clicked last
+	private static final int TOOLTIP_CACHE_SIZE = 64;
+	private static final TooltipCache TOOLTIPS = new TooltipCache(TOOLTIP_CACHE_SIZE);
+
 	protected boolean clicked = false;
+
+	// Set by input handling and read while drawing, so kept visible across threads
+	private volatile boolean hiddenState;
+	private volatile boolean selectedState;
 	
 	public CommonMarker(Location location) {
 		super(location);
@@ -17,6 +27,51 @@ public abstract class CommonMarker extends SimplePointMarker {
 		super(location, properties);
 	}
 	
+	@Override
+	public void setHidden(boolean hidden) {
+		super.setHidden(hidden);
+		hiddenState = hidden;
+	}
+
+	@Override
+	public boolean isHidden() {
+		return hiddenState;
+	}
+
+	@Override
+	public void setSelected(boolean selected) {
+		super.setSelected(selected);
+		selectedState = selected;
+	}
+
+	@Override
+	public boolean isSelected() {
+		return selectedState;
+	}
+
+	@Override
+	public void setProperties(HashMap<String, Object> properties) {
+		super.setProperties(properties);
+		propertiesChanged();
+	}
+
+	@Override
+	public Object setProperty(String key, Object value) {
+		Object previous = super.setProperty(key, value);
+		propertiesChanged();
+		return previous;
+	}
+
+	/**
+	 * Called after the properties were set, to drop anything derived from them.
+	 */
+	protected void propertiesChanged() {
+	}
+
+	public static TooltipCache getTooltipCache() {
+		return TOOLTIPS;
+	}
+
 	public boolean getClicked() {
 		return clicked;
 	}
@@ -24,11 +79,27 @@ public abstract class CommonMarker extends SimplePointMarker {
 	public void setClicked(boolean state) {
 		clicked = state;
 	}
+
+	/**
+	 * @return the screen distance within which the mouse counts as inside
+	 */
+	public float getHitRadius() {
+		return radius;
+	}
 	
+	/**
+	 * Adds the marker to a sprite batch instead of drawing it right away.
+	 *
+	 * @return false if the marker can only be drawn on its own
+	 */
+	public boolean addTo(SpriteBatch batch, float x, float y) {
+		return false;
+	}
+
 	public void draw(PGraphics pg, float x, float y) {
-		if (!hidden) {
+		if (!isHidden()) {
 			drawMarker(pg, x, y);
-			if (selected) {
+			if (isSelected()) {
 				showTitle(pg, x, y);
 			}
 		}
@@ -36,5 +107,27 @@ public abstract class CommonMarker extends SimplePointMarker {
 
 	public abstract void drawMarker(PGraphics pg, float x, float y);
 
-	public abstract void showTitle(PGraphics pg, float x, float y);
+	/**
+	 * Draws the tooltip from the cache of rendered tooltips.
+	 */
+	public void showTitle(PGraphics pg, float x, float y) {
+		TOOLTIPS.draw(pg, this, x, y);
+	}
+
+	/**
+	 * @return the text the tooltip shows, which tells the cache whether the
+	 * rendered tooltip is still current
+	 */
+	public abstract String getTitleText();
+
+	/**
+	 * @return the tooltip box relative to the marker's position as x, y,
+	 * width and height, measured on the canvas it will be drawn on
+	 */
+	protected abstract float[] getTitleBounds(PGraphics pg);
+
+	/**
+	 * Draws the tooltip of a marker at x, y, without the cache.
+	 */
+	public abstract void drawTitle(PGraphics pg, float x, float y);
 }
\ No newline at end of file
@@ -0,0 +1,321 @@
+package earthquakemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+
+/** CountryGeometry
+ * Preprocessed country polygons.  Every polygon of every country, including
+ * each part of a MultiMarker, gets a bounding box and its exact outer ring
+ * as flat lat and lon arrays, which containment tests walk without the
+ * List and PVector indirection of the markers.  {@link #contains} rejects
+ * on the box before it looks at a single vertex.
+ *
+ * For drawing, each vertex also gets a Douglas-Peucker significance: the
+ * largest tolerance at which the simplification still keeps it.  A ring
+ * simplified for a zoom level keeps the vertices that are significant at
+ * half a pixel of that level, so a world view draws a small fraction of
+ * the vertices while containment always uses the exact rings.
+ * */
+public class CountryGeometry {
+
+	public static final int MAX_SIMPLIFIED_ZOOM = 10;
+
+	// Widens each box slightly so float rounding in the edge intersection of
+	// the exact test can never put an accepted point outside the box
+	private static final float BOX_SLACK = 1e-4f;
+
+	private final int[] polygonCountry;
+	private final int[] ringStart;
+	private final float[] lats;
+	private final float[] lons;
+	private final float[] significance;
+
+	private final float[] minLat;
+	private final float[] maxLat;
+	private final float[] minLon;
+	private final float[] maxLon;
+
+	public CountryGeometry(List<Marker> countries) {
+		this(countries, null);
+	}
+
+	/*
+	 * With the significance of every vertex given, e.g. by a snapshot, it is
+	 * not computed again.
+	 */
+	CountryGeometry(List<Marker> countries, float[] knownSignificance) {
+		List<AbstractShapeMarker> shapes = new ArrayList<>();
+		List<Integer> owners = new ArrayList<>();
+		for (int c = 0; c < countries.size(); c++) {
+			Marker country = countries.get(c);
+			if (country.getClass() == MultiMarker.class) {
+				for (Marker marker : ((MultiMarker) country).getMarkers()) {
+					shapes.add((AbstractShapeMarker) marker);
+					owners.add(c);
+				}
+			}
+			else {
+				shapes.add((AbstractShapeMarker) country);
+				owners.add(c);
+			}
+		}
+
+		int count = shapes.size();
+		polygonCountry = new int[count];
+		ringStart = new int[count + 1];
+		for (int i = 0; i < count; i++) {
+			polygonCountry[i] = owners.get(i);
+			ringStart[i + 1] = ringStart[i] + shapes.get(i).getLocations().size();
+		}
+
+		int vertices = ringStart[count];
+		lats = new float[vertices];
+		lons = new float[vertices];
+		if (knownSignificance != null && knownSignificance.length != vertices) {
+			throw new IllegalArgumentException(knownSignificance.length + " significances for " + vertices + " vertices");
+		}
+		significance = knownSignificance != null ? knownSignificance : new float[vertices];
+		minLat = new float[count];
+		maxLat = new float[count];
+		minLon = new float[count];
+		maxLon = new float[count];
+
+		for (int i = 0; i < count; i++) {
+			int v = ringStart[i];
+			for (Location location : shapes.get(i).getLocations()) {
+				lats[v] = location.getLat();
+				lons[v] = location.getLon();
+				v++;
+			}
+			computeBounds(i);
+			if (knownSignificance == null) {
+				computeSignificance(i);
+			}
+		}
+	}
+
+	public int getPolygonCount() {
+		return polygonCountry.length;
+	}
+
+	/**
+	 * @return the position of the polygon's country in the list the geometry
+	 * was built from
+	 */
+	public int getCountry(int polygon) {
+		return polygonCountry[polygon];
+	}
+
+	public float getMinLat(int polygon) {
+		return minLat[polygon];
+	}
+
+	public float getMaxLat(int polygon) {
+		return maxLat[polygon];
+	}
+
+	public float getMinLon(int polygon) {
+		return minLon[polygon];
+	}
+
+	public float getMaxLon(int polygon) {
+		return maxLon[polygon];
+	}
+
+	/**
+	 * Tests the location against the box and then the exact ring of the
+	 * polygon.  The crossing test is the one AbstractShapeMarker uses, with
+	 * the same float arithmetic, so both always agree.
+	 */
+	public boolean contains(int polygon, float lat, float lon) {
+		if (lat < minLat[polygon] || lat > maxLat[polygon] || lon < minLon[polygon] || lon > maxLon[polygon]) {
+			return false;
+		}
+
+		int start = ringStart[polygon];
+		int end = ringStart[polygon + 1];
+		boolean inside = false;
+		for (int i = start, j = end - 1; i < end; j = i++) {
+			float latI = lats[i];
+			float lonI = lons[i];
+			float lonJ = lons[j];
+			if (((lonI <= lon && lon < lonJ) || (lonJ <= lon && lon < lonI))
+					&& lat < (lats[j] - latI) * (lon - lonI) / (lonJ - lonI) + latI) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * @return the polygon's ring with the vertices that matter at the zoom
+	 * level; above {@link #MAX_SIMPLIFIED_ZOOM} the exact ring
+	 */
+	public List<Location> getRing(int polygon, int zoom) {
+		float tolerance = tolerance(zoom);
+		List<Location> ring = new ArrayList<>();
+		for (int v = ringStart[polygon]; v < ringStart[polygon + 1]; v++) {
+			if (significance[v] > tolerance) {
+				ring.add(new Location(lats[v], lons[v]));
+			}
+		}
+		return ring;
+	}
+
+	/**
+	 * @return the number of vertices of all rings simplified for the zoom level
+	 */
+	public int getVertexCount(int zoom) {
+		float tolerance = tolerance(zoom);
+		int count = 0;
+		for (float value : significance) {
+			if (value > tolerance) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public int getExactVertexCount() {
+		return lats.length;
+	}
+
+	/*
+	 * The significance of every vertex, ring by ring, which holds the rings
+	 * simplified for every zoom level; not to be changed.
+	 */
+	float[] getSignificance() {
+		return significance;
+	}
+
+	/*
+	 * Half a pixel of the zoom level in degrees, or 0 to keep every vertex.
+	 */
+	private static float tolerance(int zoom) {
+		if (zoom > MAX_SIMPLIFIED_ZOOM) {
+			return 0;
+		}
+		return (float) (360.0 / (256 << zoom) / 2);
+	}
+
+	private void computeBounds(int polygon) {
+		float latLow = Float.MAX_VALUE;
+		float latHigh = -Float.MAX_VALUE;
+		float lonLow = Float.MAX_VALUE;
+		float lonHigh = -Float.MAX_VALUE;
+
+		for (int v = ringStart[polygon]; v < ringStart[polygon + 1]; v++) {
+			latLow = Math.min(latLow, lats[v]);
+			latHigh = Math.max(latHigh, lats[v]);
+			lonLow = Math.min(lonLow, lons[v]);
+			lonHigh = Math.max(lonHigh, lons[v]);
+		}
+
+		minLat[polygon] = latLow - BOX_SLACK;
+		maxLat[polygon] = latHigh + BOX_SLACK;
+		minLon[polygon] = lonLow - BOX_SLACK;
+		maxLon[polygon] = lonHigh + BOX_SLACK;
+	}
+
+	/*
+	 * Runs Douglas-Peucker once with no tolerance and records for every vertex
+	 * the distance at which it split its segment, capped by the value of the
+	 * split above it.  Since a smaller tolerance only ever recurses deeper
+	 * into the same splits, the vertices kept at any tolerance are exactly
+	 * those whose value exceeds it.  The ring is anchored at its first vertex
+	 * and the vertex farthest from it, which are always kept.
+	 */
+	private void computeSignificance(int polygon) {
+		int start = ringStart[polygon];
+		int n = ringStart[polygon + 1] - start;
+		if (n == 0) {
+			return;
+		}
+
+		int far = 0;
+		double farDistance = -1;
+		for (int i = 1; i < n; i++) {
+			double dLat = lats[start + i] - lats[start];
+			double dLon = lons[start + i] - lons[start];
+			double distance = dLat * dLat + dLon * dLon;
+			if (distance > farDistance) {
+				far = i;
+				farDistance = distance;
+			}
+		}
+
+		Arrays.fill(significance, start, start + n, 0);
+		significance[start] = Float.MAX_VALUE;
+		significance[start + far] = Float.MAX_VALUE;
+
+		// segments as first, last and the cap from the split above, with
+		// index n standing for the first vertex again
+		int[] stack = new int[64];
+		float[] caps = new float[32];
+		int top = 0;
+		if (far > 0) {
+			stack[top * 2] = 0;
+			stack[top * 2 + 1] = far;
+			caps[top++] = Float.MAX_VALUE;
+			stack[top * 2] = far;
+			stack[top * 2 + 1] = n;
+			caps[top++] = Float.MAX_VALUE;
+		}
+
+		while (top > 0) {
+			top--;
+			int first = stack[top * 2];
+			int last = stack[top * 2 + 1];
+			float cap = caps[top];
+			if (last - first < 2) {
+				continue;
+			}
+
+			int a = start + first;
+			int b = start + (last % n);
+			int split = -1;
+			double splitDistance = -1;
+			for (int i = first + 1; i < last; i++) {
+				double distance = segmentDistance(start + i, a, b);
+				if (distance > splitDistance) {
+					split = i;
+					splitDistance = distance;
+				}
+			}
+
+			float value = Math.min(cap, (float) splitDistance);
+			significance[start + split] = value;
+			if (top + 2 > caps.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				caps = Arrays.copyOf(caps, caps.length * 2);
+			}
+			stack[top * 2] = first;
+			stack[top * 2 + 1] = split;
+			caps[top++] = value;
+			stack[top * 2] = split;
+			stack[top * 2 + 1] = last;
+			caps[top++] = value;
+		}
+	}
+
+	/*
+	 * Distance in degrees from vertex p to the segment from a to b.
+	 */
+	private double segmentDistance(int p, int a, int b) {
+		double x = lons[p] - lons[a];
+		double y = lats[p] - lats[a];
+		double dx = lons[b] - lons[a];
+		double dy = lats[b] - lats[a];
+		double length = dx * dx + dy * dy;
+		double t = length == 0 ? 0 : Math.max(0, Math.min(1, (x * dx + y * dy) / length));
+		double ex = x - t * dx;
+		double ey = y - t * dy;
+		return Math.sqrt(ex * ex + ey * ey);
+	}
+}
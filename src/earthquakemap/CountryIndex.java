@@ -0,0 +1,132 @@
+package earthquakemap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** CountryIndex
+ * A uniform lat/lon grid over the bounding boxes of every country polygon.
+ * A lookup only tests the polygons whose box covers the grid cell of the
+ * location, against the exact rings of a {@link CountryGeometry}, and
+ * candidates are visited in the same order as the country list so the
+ * first match is the same country a linear scan would find.
+ * */
+public class CountryIndex {
+
+	private static final float CELL_SIZE = 5;
+	private static final int COLUMNS = (int) (360 / CELL_SIZE);
+	private static final int ROWS = (int) (180 / CELL_SIZE);
+
+	private final List<Marker> countries;
+	private final CountryGeometry geometry;
+
+	private final int[][] cells;
+
+	public CountryIndex(List<Marker> countries) {
+		this(countries, new CountryGeometry(countries));
+	}
+
+	/**
+	 * @param geometry the geometry of the countries, e.g. from a snapshot
+	 */
+	public CountryIndex(List<Marker> countries, CountryGeometry geometry) {
+		this.countries = countries;
+		this.geometry = geometry;
+
+		int count = geometry.getPolygonCount();
+		int[] cellSizes = new int[COLUMNS * ROWS];
+		for (int i = 0; i < count; i++) {
+			forEachCell(i, cellSizes, null);
+		}
+
+		cells = new int[COLUMNS * ROWS][];
+		for (int cell = 0; cell < cells.length; cell++) {
+			cells[cell] = new int[cellSizes[cell]];
+		}
+		Arrays.fill(cellSizes, 0);
+		// Polygons are registered in list order, so each cell stays sorted by country
+		for (int i = 0; i < count; i++) {
+			forEachCell(i, cellSizes, cells);
+		}
+	}
+
+	/**
+	 * Finds the first country, in list order, whose polygons contain the location.
+	 *
+	 * @return the country marker or null if the location is not on land
+	 */
+	public Marker findCountry(Location location) {
+		return findCountry(location.getLat(), location.getLon());
+	}
+
+	public Marker findCountry(float lat, float lon) {
+		int index = findCountryIndex(lat, lon);
+		return index < 0 ? null : countries.get(index);
+	}
+
+	/**
+	 * Same as {@link #findCountry(Location)} but returns the position of the
+	 * country in the list the index was built from, or -1.
+	 */
+	public int findCountryIndex(Location location) {
+		return findCountryIndex(location.getLat(), location.getLon());
+	}
+
+	public int findCountryIndex(float lat, float lon) {
+		for (int polygon : cells[cellOf(lat, lon)]) {
+			if (geometry.contains(polygon, lat, lon)) {
+				return geometry.getCountry(polygon);
+			}
+		}
+		return -1;
+	}
+
+	public List<Marker> getCountries() {
+		return countries;
+	}
+
+	public CountryGeometry getGeometry() {
+		return geometry;
+	}
+
+	/*
+	 * Counts the polygon into every cell its box overlaps, or writes it into
+	 * the cell arrays when they are given.
+	 */
+	private void forEachCell(int polygon, int[] cellSizes, int[][] target) {
+		if (geometry.getMinLat(polygon) > geometry.getMaxLat(polygon)) {
+			return;
+		}
+		int rowLow = row(geometry.getMinLat(polygon));
+		int rowHigh = row(geometry.getMaxLat(polygon));
+		int columnLow = column(geometry.getMinLon(polygon));
+		int columnHigh = column(geometry.getMaxLon(polygon));
+
+		for (int r = rowLow; r <= rowHigh; r++) {
+			for (int c = columnLow; c <= columnHigh; c++) {
+				int cell = r * COLUMNS + c;
+				if (target != null) {
+					target[cell][cellSizes[cell]] = polygon;
+				}
+				cellSizes[cell]++;
+			}
+		}
+	}
+	private static int cellOf(float lat, float lon) {
+		return row(lat) * COLUMNS + column(lon);
+	}
+
+	private static int row(float lat) {
+		return clamp((int) Math.floor((lat + 90) / CELL_SIZE), ROWS);
+	}
+
+	private static int column(float lon) {
+		return clamp((int) Math.floor((lon + 180) / CELL_SIZE), COLUMNS);
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+}
@@ -0,0 +1,153 @@
+package earthquakemap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** CountryStats
+ * Quake statistics per country, keyed by the position of the country in
+ * the country list, with one extra slot for the ocean.  Each slot keeps the
+ * quake count, the magnitude sum for the mean, a histogram of magnitudes in
+ * tenths, as the feed reports them, for the maximum, and the counts of
+ * shallow, intermediate and deep quakes.  Adding or removing a quake
+ * touches only its own slot, and every query reads one slot; the largest
+ * magnitude walks at most the fixed number of histogram buckets.
+ *
+ * Not thread-safe; it is updated by whichever thread publishes quakes.
+ * */
+public class CountryStats {
+
+	public static final int OCEAN = -1;
+
+	public static final int SHALLOW = 0;
+	public static final int INTERMEDIATE = 1;
+	public static final int DEEP = 2;
+
+	private static final int DEPTH_CLASSES = 3;
+	private static final int MAGNITUDE_BUCKETS = 101; // 0.0 to 10.0 in tenths
+
+	private final List<Marker> countries;
+	private final Map<String, Integer> positions = new HashMap<>();
+
+	private final int[] count;
+	private final double[] magnitudeSum;
+	private final int[] magnitudes;
+	private final int[] depths;
+
+	public CountryStats(List<Marker> countries) {
+		this.countries = countries;
+		for (int c = countries.size() - 1; c >= 0; c--) {
+			// the first country with a name wins, as in CountryIndex
+			positions.put(countries.get(c).getStringProperty("name"), c);
+		}
+
+		int slots = countries.size() + 1;
+		count = new int[slots];
+		magnitudeSum = new double[slots];
+		magnitudes = new int[slots * MAGNITUDE_BUCKETS];
+		depths = new int[slots * DEPTH_CLASSES];
+	}
+
+	/**
+	 * Aggregates a classified table, e.g. one read from a snapshot.
+	 */
+	public static CountryStats of(QuakeTable table, List<Marker> countries) {
+		CountryStats stats = new CountryStats(countries);
+		for (int row = 0; row < table.size(); row++) {
+			stats.add(stats.positionOf(table.getCountry(row)), table.getMagnitude(row), table.getDepth(row));
+		}
+		return stats;
+	}
+
+	/**
+	 * @param country the position in the country list, or {@link #OCEAN}
+	 */
+	public void add(int country, float magnitude, float depth) {
+		update(country, magnitude, depth, 1);
+	}
+
+	public void remove(int country, float magnitude, float depth) {
+		update(country, magnitude, depth, -1);
+	}
+
+	public void add(EarthquakeMarker quake) {
+		add(positionOf(quake), quake.getMagnitude(), quake.getDepth());
+	}
+
+	public void remove(EarthquakeMarker quake) {
+		remove(positionOf(quake), quake.getMagnitude(), quake.getDepth());
+	}
+
+	/**
+	 * @return the position of the country with this name, or {@link #OCEAN}
+	 */
+	public int positionOf(String countryName) {
+		Integer position = countryName == null ? null : positions.get(countryName);
+		return position == null ? OCEAN : position;
+	}
+
+	public List<Marker> getCountries() {
+		return countries;
+	}
+
+	public int getCount(int country) {
+		return count[slot(country)];
+	}
+
+	/**
+	 * @return the mean magnitude, or 0 without quakes
+	 */
+	public float getMeanMagnitude(int country) {
+		int slot = slot(country);
+		return count[slot] == 0 ? 0 : (float) (magnitudeSum[slot] / count[slot]);
+	}
+
+	/**
+	 * @return the largest magnitude to a tenth, or 0 without quakes
+	 */
+	public float getMaxMagnitude(int country) {
+		int base = slot(country) * MAGNITUDE_BUCKETS;
+		for (int bucket = MAGNITUDE_BUCKETS - 1; bucket >= 0; bucket--) {
+			if (magnitudes[base + bucket] > 0) {
+				return bucket / 10f;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param depthClass {@link #SHALLOW}, {@link #INTERMEDIATE} or {@link #DEEP}
+	 */
+	public int getDepthCount(int country, int depthClass) {
+		return depths[slot(country) * DEPTH_CLASSES + depthClass];
+	}
+
+	/**
+	 * @return the depth class the map colors a quake of this depth by
+	 */
+	public static int depthClass(float depth) {
+		if (depth < EarthquakeMarker.THRESHOLD_INTERMEDIATE) {
+			return SHALLOW;
+		}
+		return depth < EarthquakeMarker.THRESHOLD_DEEP ? INTERMEDIATE : DEEP;
+	}
+
+	private int positionOf(EarthquakeMarker quake) {
+		return quake.isOnLand() ? positionOf(((LandQuakeMarker) quake).getCountry()) : OCEAN;
+	}
+
+	private void update(int country, float magnitude, float depth, int delta) {
+		int slot = slot(country);
+		count[slot] += delta;
+		magnitudeSum[slot] += delta * magnitude;
+		int bucket = Math.max(0, Math.min(MAGNITUDE_BUCKETS - 1, Math.round(magnitude * 10)));
+		magnitudes[slot * MAGNITUDE_BUCKETS + bucket] += delta;
+		depths[slot * DEPTH_CLASSES + depthClass(depth)] += delta;
+	}
+
+	private int slot(int country) {
+		return country == OCEAN ? countries.size() : country;
+	}
+}
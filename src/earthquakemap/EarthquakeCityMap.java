@@ -3,22 +3,40 @@ package earthquakemap;
 import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.Feature;
 import de.fhpotsdam.unfolding.data.GeoJSONReader;
-import de.fhpotsdam.unfolding.data.PointFeature;
 import de.fhpotsdam.unfolding.geo.Location;
-import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
 import de.fhpotsdam.unfolding.marker.Marker;
-import de.fhpotsdam.unfolding.marker.MultiMarker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
 import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
 import de.fhpotsdam.unfolding.providers.Google;
 import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
 import de.fhpotsdam.unfolding.utils.MapUtils;
 import parsing.ParseFeed;
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PImage;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.stream.Collectors.toList;
 
@@ -40,17 +58,100 @@ public class EarthquakeCityMap extends PApplet {
 	private static final String COUNTRIES_DATA = "countries.geo.json";
 	private static final String OFFLINE_MAP_TILES = "blankLight-1-3.mbtiles";
 
+	// Decoded tiles kept in memory, about 256 KB each, and where downloaded tiles are kept
+	private static final int TILE_CACHE_SIZE = 256;
+	private static final String TILE_CACHE_DIRECTORY = "tile-cache";
+	private static final int TILE_LOADER_THREADS = 4;
+	private static final String SNAPSHOT_FILE = "map.snapshot";
+
+	// Saved feeds in this data directory are replayed instead of polling the feed
+	private static final String LIVE_FEED_DIRECTORY = "live-feed";
+	private static final long LIVE_FEED_POLL_SECONDS = 60;
+	private static final int LARGEST_QUAKES = 20;
+
+	// The area drawKey() paints
+	private static final int LEGEND_WIDTH = 176;
+	private static final int LEGEND_HEIGHT = 301;
+	// Playback shows the quakes of the last day and moves on 20 minutes a frame
+	private static final long PLAYBACK_WINDOW_MILLIS = QuakeTimeIndex.RECENT_MILLIS;
+	private static final long PLAYBACK_STEP_MILLIS = 20 * 60 * 1000L;
+	private static final char PLAYBACK_KEY = 'p';
+
+	// A fixed location whose screen position moves with any pan or zoom
+	private static final Location PROBE = new Location(0, 0);
+
 	private String earthquakesFeedURL = "http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom";
 
 	private UnfoldingMap map;
-
+	private CachingTileProvider tileCache;
+
+	/*
+	 * The markers, layers and indexes below are set by the loader threads
+	 * before loading completes, which publishes them to the animation
+	 * thread; draw() only reads them once it has seen loading done.  From
+	 * then on only the animation thread reads or writes them, input events
+	 * included, and the feed poller hands its updates over through the
+	 * store and pendingQuakes.
+	 */
 	private List<Marker> cityMarkers;
-	private List<Marker> quakeMarkers;
+	// Background threads publish quakes to the store; quakeMarkers is the
+	// version the animation thread currently shows
+	private final MarkerStore quakeStore = new MarkerStore();
+	private QuakeList quakeMarkers;
+	private QuakeTable quakeTable;
+	// the rows of the table loaded from the sources, which the snapshot
+	// holds; the live feed appends its rows after them
+	private int loadedQuakeRows;
 	private List<Marker> countryMarkers;
-
+	private CountryIndex countryIndex;
+	// kept up to date by the thread that publishes quakes
+	private CountryStats countryStats;
+
+	private QuakeClusterLayer quakeLayer;
+	private BatchedMarkerManager cityLayer;
+	private MarkerHitIndex cityHitIndex;
+
+	private GeoRadiusIndex quakeRadiusIndex;
+	private GeoRadiusIndex cityRadiusIndex;
+	private double maxThreatCircle;
+
+	// raw source files, hashed to validate the snapshot and parsed on a miss
+	private byte[] countriesSource;
+	private byte[] citiesSource;
+	private byte[] feedSource;
+	private byte[] sourceHash;
+	private boolean snapshotLoaded;
+
+	// quakes of the last feed update, prepared on the poller thread
+	private volatile LiveQuakeFeed liveFeed;
+	private final AtomicReference<LiveQuakes> pendingQuakes = new AtomicReference<>();
+	// the quakes of the last update prepared, which the next one is derived from;
+	// only touched by the thread that publishes quakes
+	private LiveQuakes preparedQuakes;
+	// only touched by the thread that publishes quakes
+	private Leaderboard<EarthquakeMarker> largestQuakes;
+
+	private FrameScheduler frames;
+	private PGraphics legend;
+	private boolean mapChanging;
+	// the end of the playback window, or NO_TIME when not playing
+	private long playbackTime = QuakeTable.NO_TIME;
+
+	private StageTimer startupTimer;
+	private MapMetrics metrics;
+	private CompletableFuture<Void> loading;
+	private boolean markersAttached;
+	// loading failed and the map is drawn without markers
+	private boolean loadingFailed;
+
+	// only touched by the animation thread
 	private CommonMarker lastSelected;
 	private CommonMarker lastClicked;
 
+	// Input recorded by the event handlers, which Processing runs on the
+	// event thread while the loop sleeps, and handled at the top of draw()
+	private final Queue<Runnable> input = new ConcurrentLinkedQueue<>();
+
     static PImage oceanMarker;
     static PImage landMarker;
     static PImage cityMarker;
@@ -58,49 +159,264 @@ public class EarthquakeCityMap extends PApplet {
 	public void setup() {
 		loadMarkerImages();
 
+		// Processing runs setup() again when size() switches the renderer,
+		// so nothing that must only happen once comes before it
 		initializeCanvas();
+		startupTimer = new StageTimer();
+		metrics = new MapMetrics(startupTimer);
+		metrics.start();
+		frames = new FrameScheduler(this);
+		legend = createLegend();
 		map = createUnfoldingMap();
 
 		MapUtils.createDefaultEventDispatcher(this, map);
 
-        loadCountryMarkers();
-		loadCityMarkers();
-		loadQuakeMarkers();
+		loading = startLoading();
+	}
+
+	/*
+	 * A snapshot written for the same source files replaces all parsing and
+	 * classification.  Otherwise countries, cities and the quake feed are
+	 * independent, so they load concurrently; classification waits for
+	 * countries and quakes and then fans out over the common ForkJoin pool,
+	 * and the result is saved as the next snapshot.  Markers are attached to
+	 * the map by the animation thread in draw() once everything is ready.
+	 */
+	private CompletableFuture<Void> startLoading() {
+		ExecutorService loaders = Executors.newFixedThreadPool(3, runnable -> {
+			Thread thread = new Thread(runnable, "marker-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		return CompletableFuture.runAsync(() -> startupTimer.time("snapshot", this::readSnapshot), loaders)
+				.thenCompose(ignored -> snapshotLoaded ? CompletableFuture.runAsync(() -> {
+					startupTimer.time("country stats", this::aggregateCountries);
+					startupTimer.time("quake markers", this::createQuakeMarkers);
+					startupTimer.time("quake clusters", this::clusterQuakes);
+					printQuakesToConsoleForDebugging();
+					sortAndPrintMarkersToConsoleForDebugging(LARGEST_QUAKES);
+				}, loaders) : parseSources(loaders))
+				.whenComplete((ignored, error) -> {
+					loaders.shutdown();
+					frames.request();
+					if (error == null) {
+						startLiveFeed();
+					}
+				});
+	}
+
+	private CompletableFuture<Void> parseSources(ExecutorService loaders) {
+		CompletableFuture<Void> countries = CompletableFuture.runAsync(
+				() -> startupTimer.time("countries", this::loadCountryMarkers), loaders);
+		CompletableFuture<Void> cities = CompletableFuture.runAsync(
+				() -> startupTimer.time("cities", this::loadCityMarkers), loaders);
+		CompletableFuture<Void> feed = CompletableFuture.runAsync(
+				() -> startupTimer.time("quake feed", this::parseQuakeFeed), loaders);
+
+		CompletableFuture<Void> quakes = countries.runAfterBoth(feed, () -> {
+			startupTimer.time("classification", this::classifyQuakes);
+			startupTimer.time("quake markers", this::createQuakeMarkers);
+			startupTimer.time("quake clusters", this::clusterQuakes);
+			printQuakesToConsoleForDebugging();
+			sortAndPrintMarkersToConsoleForDebugging(LARGEST_QUAKES);
+		});
+
+		// saving the snapshot does not hold up the first frame with markers
+		CompletableFuture<Void> loaded = CompletableFuture.allOf(cities, quakes);
+		loaded.thenRunAsync(() -> startupTimer.time("write snapshot", this::writeSnapshot));
+		return loaded;
+	}
+
+	private void readSnapshot() {
+		countriesSource = readSource(COUNTRIES_DATA);
+		citiesSource = readSource(CITY_DATA);
+		feedSource = readSource(earthquakesFeedURL());
+		sourceHash = MapSnapshot.hashSources(Arrays.asList(countriesSource, citiesSource, feedSource));
+
+		try {
+			MapSnapshot snapshot = MapSnapshot.read(Paths.get(sketchPath(SNAPSHOT_FILE)), sourceHash);
+			if (snapshot != null) {
+				countryMarkers = snapshot.getCountries();
+				countryIndex = new CountryIndex(countryMarkers, snapshot.getCountryGeometry());
+				cityMarkers = snapshot.getCities();
+				quakeTable = snapshot.getQuakes();
+				snapshotLoaded = true;
+			}
+		} catch (IOException | RuntimeException e) {
+			// a damaged snapshot is rebuilt from the sources
+			println("Ignoring snapshot: " + e);
+		}
+	}
+
+	private void writeSnapshot() {
+		try {
+			new MapSnapshot(countryMarkers, countryIndex.getGeometry(), cityMarkers, quakeTable, loadedQuakeRows)
+					.write(Paths.get(sketchPath(SNAPSHOT_FILE)), sourceHash);
+		} catch (IOException e) {
+			println("Could not write snapshot: " + e);
+		}
+	}
+
+	private byte[] readSource(String fileName) {
+		try {
+			return MapSnapshot.readAll(ParseFeed.openInput(this, fileName));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void startLiveFeed() {
+		Path directory = Paths.get(dataPath(LIVE_FEED_DIRECTORY));
+		liveFeed = Files.isDirectory(directory)
+				? LiveQuakeFeed.fromDirectory(directory, countryIndex, quakeMarkers)
+				: LiveQuakeFeed.fromFeed(this, earthquakesFeedURL, countryIndex, quakeMarkers);
+		preparedQuakes = new LiveQuakes(quakeMarkers, quakeLayer, quakeRadiusIndex, maxThreatCircle);
+		liveFeed.start(LIVE_FEED_POLL_SECONDS, TimeUnit.SECONDS, this::prepareQuakeUpdate);
+	}
+
+	/*
+	 * Runs on the poller thread: everything derived from the quake list is
+	 * built here, so draw() only has to swap it in.  It is derived from the
+	 * last update prepared, which need not be the one shown yet, so only
+	 * the changed quakes are indexed and clustered again.
+	 */
+	private void prepareQuakeUpdate(LiveQuakeFeed.Delta delta) {
+		long updateStart = metrics.begin();
+		delta.getInserted().forEach(quakeStore::stageInsert);
+		delta.getUpdated().forEach(quakeStore::stageUpdate);
+		delta.getExpired().forEach(marker -> quakeStore.stageRemove(marker.getId()));
+		MarkerStore.Version version = quakeStore.publish();
+
+		delta.getInserted().forEach(quake -> countryStats.add((EarthquakeMarker) quake));
+		delta.getReplaced().forEach(quake -> countryStats.remove((EarthquakeMarker) quake));
+		delta.getUpdated().forEach(quake -> countryStats.add((EarthquakeMarker) quake));
+		delta.getExpired().forEach(quake -> countryStats.remove((EarthquakeMarker) quake));
+
+		// a store of table rows publishes lists of rows
+		QuakeList markers = (QuakeList) version.getMarkers();
+		List<Marker> removed = new ArrayList<>(delta.getReplaced());
+		removed.addAll(delta.getExpired());
+		List<Marker> added = new ArrayList<>(delta.getInserted());
+		added.addAll(delta.getUpdated());
+		preparedQuakes = preparedQuakes.updated(markers, removed, added);
+		pendingQuakes.set(preparedQuakes);
+
+		if (delta.getUpdated().isEmpty() && delta.getExpired().isEmpty()) {
+			delta.getInserted().forEach(quake -> QuakeRanking.offer(largestQuakes, QuakeRanking.By.MAGNITUDE, (EarthquakeMarker) quake));
+		}
+		else {
+			// entries cannot be taken off the board, so it is ranked again
+			largestQuakes = QuakeRanking.leaderboard(markers, QuakeRanking.By.MAGNITUDE, LARGEST_QUAKES);
+		}
+		List<EarthquakeMarker> largest = largestQuakes.ranked();
+		println("Live feed: " + delta + (largest.isEmpty() ? "" : ", largest " + largest.get(0)));
+		metrics.end(MapMetrics.Timer.FEED_UPDATE, updateStart);
+		frames.request();
+	}
+
+	/*
+	 * While a click filters the markers or playback runs the update waits, so
+	 * neither is undone under the user.
+	 */
+	private void applyQuakeUpdate() {
+		if (!markersAttached || lastClicked != null || isPlaying()) {
+			return;
+		}
+		LiveQuakes update = pendingQuakes.getAndSet(null);
+		if (update == null) {
+			return;
+		}
+
+		// keep the quakes below the cities
+		List<MarkerManager<Marker>> managers = map.getMarkerManagerList();
+		update.layer.setMap(map);
+		managers.set(managers.indexOf(quakeLayer), update.layer);
+
+		quakeMarkers = update.markers;
+		quakeLayer = update.layer;
+		quakeRadiusIndex = update.radiusIndex;
+		maxThreatCircle = update.maxThreatCircle;
+		if (lastSelected != null) {
+			lastSelected.setSelected(false);
+			lastSelected = null;
+		}
+	}
 
-	    printQuakesToConsoleForDebugging();
-        sortAndPrintMarkersToConsoleForDebugging(20);
+	private void attachMarkersIfLoaded() {
+		if (markersAttached || loadingFailed || !loading.isDone()) {
+			return;
+		}
 
-        addMarkersToMap();
+		if (loading.isCompletedExceptionally()) {
+			Throwable error = loading.handle((ignored, e) -> e instanceof CompletionException ? e.getCause() : e).join();
+			System.err.println("Could not load the markers, drawing the map without them: " + error);
+			loadingFailed = true;
+			return;
+		}
+		startupTimer.time("attach markers", this::addMarkersToMap);
+		markersAttached = true;
+		println(startupTimer.report());
 	}
 
 	private void loadMarkerImages() {
-		oceanMarker = loadImage("OceanMarker.png");
-		landMarker = loadImage("LandMarker.png");
-		cityMarker = loadImage("CityMarker.png");
+		setMarkerImages(loadImage("OceanMarker.png"), loadImage("LandMarker.png"), loadImage("CityMarker.png"));
+	}
+
+	/**
+	 * Sets the images the markers draw, e.g. to draw them offscreen without
+	 * a running sketch.
+	 */
+	public static void setMarkerImages(PImage ocean, PImage land, PImage city) {
+		oceanMarker = ocean;
+		landMarker = land;
+		cityMarker = city;
 	}
 
 	private void initializeCanvas() {
 		size(900, 700, OPENGL);
 	}
 
+	private PGraphics createLegend() {
+		PGraphics pg = createGraphics(LEGEND_WIDTH, LEGEND_HEIGHT);
+		pg.beginDraw();
+		drawKey(pg);
+		pg.endDraw();
+		return pg;
+	}
+
 	private UnfoldingMap createUnfoldingMap() {
-		AbstractMapProvider mapProvider = OFFLINE ? new MBTilesMapProvider(OFFLINE_MAP_TILES) : new Google.GoogleMapProvider();
-		return new UnfoldingMap(this, 200, 50, 650, 600, mapProvider);
+		AbstractMapProvider mapProvider = OFFLINE ? openMapTiles() : new Google.GoogleMapProvider();
+		// MBTiles are on disk already
+		tileCache = new CachingTileProvider(mapProvider, TILE_CACHE_SIZE,
+				OFFLINE ? null : Paths.get(sketchPath(TILE_CACHE_DIRECTORY)), TILE_LOADER_THREADS);
+		return new UnfoldingMap(this, 200, 50, 650, 600, tileCache);
+	}
+
+	private AbstractMapProvider openMapTiles() {
+		String file = dataPath(OFFLINE_MAP_TILES);
+		try {
+			return new MBTilesTileProvider(file, TILE_LOADER_THREADS, true);
+		} catch (SQLException e) {
+			System.err.println("Could not open " + file + ", reading tiles one by one: " + e.getMessage());
+			return new MBTilesMapProvider(file);
+		}
 	}
 
 	private void loadCountryMarkers() {
-		List<Feature> countries = GeoJSONReader.loadData(this, COUNTRIES_DATA);
+		List<Feature> countries = GeoJSONReader.loadDataFromJSON(this, new String(countriesSource, StandardCharsets.UTF_8));
 		countryMarkers = MapUtils.createSimpleMarkers(countries);
+		countryIndex = new CountryIndex(countryMarkers);
 	}
 
 	private void loadCityMarkers() {
-		List<Feature> cities = GeoJSONReader.loadData(this, CITY_DATA);
+		List<Feature> cities = GeoJSONReader.loadDataFromJSON(this, new String(citiesSource, StandardCharsets.UTF_8));
 		cityMarkers = cities.stream()
 				.map(CityMarker :: new)
 				.collect(toList());
 	}
 
-	private void loadQuakeMarkers() {
+	private String earthquakesFeedURL() {
 		if (OFFLINE) {
 			earthquakesFeedURL = "2.5_week.atom";  // The same feed, but saved August 7, 2015
 		}
@@ -108,262 +424,460 @@ public class EarthquakeCityMap extends PApplet {
 			// IF YOU WANT TO TEST WITH A LOCAL FILE, uncomment the next line
 			earthquakesFeedURL = "2.5_week.atom";
 		}
+		return earthquakesFeedURL;
+	}
 
-		List<PointFeature> earthquakes = ParseFeed.parseEarthquake(this, earthquakesFeedURL);
-		quakeMarkers = new ArrayList<>();
+	private void parseQuakeFeed() {
+		quakeTable = new QuakeTable();
+		ParseFeed.parseEarthquake(new ByteArrayInputStream(feedSource), quakeTable::add);
+	}
 
-		for(PointFeature feature : earthquakes) {
-			if(isLand(feature)) {
-				quakeMarkers.add(new LandQuakeMarker(feature));
-			}
-			else {
-				quakeMarkers.add(new OceanQuakeMarker(feature));
-			}
-		}
+	private void classifyQuakes() {
+		countryStats = quakeTable.classify(countryIndex);
 	}
 
-	private void sortAndPrintMarkersToConsoleForDebugging(int numToPrint) {
-		Marker[] quakes = quakeMarkers.toArray(new Marker[quakeMarkers.size()]);
-		Arrays.sort(quakes);
+	private void aggregateCountries() {
+		countryStats = CountryStats.of(quakeTable, countryMarkers);
+	}
 
-		if(numToPrint > quakes.length) {
-			numToPrint = quakes.length;
-		}
+	private void createQuakeMarkers() {
+		// markers are only created for the quakes that are drawn or hit
+		quakeMarkers = quakeTable.markers();
+		loadedQuakeRows = quakeMarkers.size();
+		quakeStore.replaceAll(quakeMarkers);
+		largestQuakes = QuakeRanking.leaderboard(quakeMarkers, QuakeRanking.By.MAGNITUDE, LARGEST_QUAKES);
+	}
 
-		for(int i = 0; i < numToPrint; i++) {
-			println(quakes[i]);
+	private void clusterQuakes() {
+		quakeLayer = new QuakeClusterLayer(quakeMarkers, width, height);
+		quakeRadiusIndex = new GeoRadiusIndex(quakeMarkers);
+		maxThreatCircle = maxThreatCircle(quakeMarkers);
+	}
+
+	private void sortAndPrintMarkersToConsoleForDebugging(int numToPrint) {
+		for (int row : QuakeRanking.topRows(quakeTable, QuakeRanking.By.MAGNITUDE, numToPrint)) {
+			println(quakeTable.getTitle(row));
 		}
 	}
 
 	private void addMarkersToMap() {
-		map.addMarkers(quakeMarkers);
-		map.addMarkers(cityMarkers);
+		// cities get their own manager so they are still drawn on top of the quakes
+		map.addMarkerManager(quakeLayer);
+		cityLayer = new BatchedMarkerManager(cityMarkers);
+		map.addMarkerManager(cityLayer);
+
+		cityHitIndex = new MarkerHitIndex(cityMarkers, width, height);
+
+		cityRadiusIndex = new GeoRadiusIndex(cityMarkers);
 	}
 
+	private static double maxThreatCircle(QuakeList quakes) {
+		float maxMagnitude = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < quakes.size(); i++) {
+			maxMagnitude = Math.max(maxMagnitude, quakes.getMagnitude(i));
+		}
+		return quakes.isEmpty() ? 0 : EarthquakeMarker.threatCircle(maxMagnitude);
+	}
+
+	private static double maxThreatCircle(List<Marker> quakes) {
+		return quakes.stream()
+				.mapToDouble(marker -> ((EarthquakeMarker) marker).threatCircle())
+				.max().orElse(0);
+	}
+
+	/*
+	 * Frames are only rendered on demand: after input, new data, or while the
+	 * map is still moving or loading tiles.  The legend never changes, so it
+	 * is drawn once into its own buffer.
+	 */
 	public void draw() {
+		handleInput();
+		attachMarkersIfLoaded();
+		applyQuakeUpdate();
+		advancePlayback();
+		boolean loadingMarkers = !markersAttached && !loadingFailed;
+		if (!frames.beginFrame(loadingMarkers || mapChanging || isPlaying())) {
+			return;
+		}
+
+		long frameStart = metrics.beginFrame();
+		float[] before = map.mapDisplay.getObjectFromLocation(PROBE);
 		background(0);
+		long mapStart = metrics.begin();
 		map.draw();
-		addKey();
+		metrics.end(MapMetrics.Timer.MAP_DRAW, mapStart);
+		long legendStart = metrics.begin();
+		image(legend, 0, 0);
+		metrics.end(MapMetrics.Timer.LEGEND, legendStart);
+
+		// tweening moves the map over several frames after a pan or zoom
+		float[] after = map.mapDisplay.getObjectFromLocation(PROBE);
+		boolean moved = before[0] != after[0] || before[1] != after[1];
+		mapChanging = !map.allTilesLoaded() || moved;
+		if (moved) {
+			tileCache.prefetch(map, after[0] - before[0], after[1] - before[1]);
+		}
+
+		if (frameCount == 1) {
+			startupTimer.mark("first frame");
+		}
+		if (markersAttached) {
+			metrics.endFrame(frameStart, quakeLayer, cityLayer);
+		}
+		else {
+			metrics.endFrame(frameStart);
+		}
+	}
+
+	@Override
+	public void mousePressed() {
+		frames.request();
+	}
+
+	@Override
+	public void mouseDragged() {
+		frames.request();
+	}
+
+	@Override
+	public void mouseReleased() {
+		frames.request();
+	}
+
+	@Override
+	public void mouseWheel() {
+		frames.request();
+	}
+
+	@Override
+	public void keyPressed() {
+		char pressed = key;
+		post(() -> {
+			if (pressed == PLAYBACK_KEY && markersAttached) {
+				togglePlayback();
+			}
+			frames.request();
+		});
+	}
+
+	/*
+	 * Hands an event to the animation thread; it only touches the map and
+	 * the markers when draw() runs it.
+	 */
+	private void post(Runnable event) {
+		input.add(event);
+		frames.wake();
+	}
+
+	private void handleInput() {
+		for (Runnable event = input.poll(); event != null; event = input.poll()) {
+			event.run();
+		}
+	}
+
+	/*
+	 * Playback starts with the earliest quake and slides the window over the
+	 * history until the latest one, then shows every quake again.
+	 */
+	private void togglePlayback() {
+		if (isPlaying()) {
+			stopPlayback();
+		}
+		else if (quakeLayer.getTimeIndex().size() > 0) {
+			playbackTime = quakeLayer.getTimeIndex().getEarliest();
+			quakeLayer.setTimeWindow(playbackTime - PLAYBACK_WINDOW_MILLIS, playbackTime);
+		}
+	}
+
+	private void advancePlayback() {
+		if (!isPlaying()) {
+			return;
+		}
+		playbackTime += PLAYBACK_STEP_MILLIS;
+		if (playbackTime - PLAYBACK_STEP_MILLIS > quakeLayer.getTimeIndex().getLatest()) {
+			stopPlayback();
+			frames.request();
+			return;
+		}
+		quakeLayer.setTimeWindow(playbackTime - PLAYBACK_WINDOW_MILLIS, playbackTime);
+	}
+
+	private void stopPlayback() {
+		playbackTime = QuakeTable.NO_TIME;
+		quakeLayer.clearTimeWindow();
+	}
+
+	private boolean isPlaying() {
+		return playbackTime != QuakeTable.NO_TIME;
+	}
+
+	@Override
+	public void exit() {
+		if (liveFeed != null) {
+			liveFeed.stop();
+		}
+		println(frames.report());
+		println(tileCache.report());
+		tileCache.shutdown();
+		if (tileCache.getSource() instanceof MBTilesTileProvider) {
+			((MBTilesTileProvider) tileCache.getSource()).close();
+		}
+		if (MapMetrics.ENABLED) {
+			println(metrics.report());
+		}
+		metrics.stop();
+		super.exit();
 	}
 
 	@Override
 	public void mouseMoved() {
+		int x = mouseX;
+		int y = mouseY;
+		post(() -> hover(x, y));
+	}
+
+	private void hover(int x, int y) {
+		if (!markersAttached) {
+			return;
+		}
+		CommonMarker previous = lastSelected;
 		if (lastSelected != null) {
 			lastSelected.setSelected(false);
 			lastSelected = null;
 		}
 
-		selectMarkerIfHover(quakeMarkers);
-		selectMarkerIfHover(cityMarkers);
+		long hitStart = metrics.begin();
+		selectMarkerIfHover(quakeLayer.getHitIndex(), x, y);
+		selectMarkerIfHover(cityHitIndex, x, y);
+		metrics.end(MapMetrics.Timer.HIT_TEST, hitStart);
+		if (lastSelected != previous) {
+			frames.request();
+		}
 	}
 
-	private void selectMarkerIfHover(List<Marker> markers) {
+	private void selectMarkerIfHover(MarkerHitIndex markers, int x, int y) {
 		if (lastSelected != null) {
 			return;
 		}
 
-		for (Marker m : markers) {
-			CommonMarker marker = (CommonMarker)m;
-			if (marker.isInside(map,  mouseX, mouseY)) {
-				lastSelected = marker;
-				marker.setSelected(true);
-				return;
-			}
+		CommonMarker marker = markers.findHit(map, x, y, true);
+		if (marker != null) {
+			lastSelected = marker;
+			marker.setSelected(true);
 		}
 	}
 
 	@Override
 	public void mouseClicked() {
+		int x = mouseX;
+		int y = mouseY;
+		post(() -> click(x, y));
+	}
+
+	private void click(int x, int y) {
+		if (!markersAttached) {
+			return;
+		}
+		long hitStart = metrics.begin();
 		if (lastClicked != null) {
 			unhideMarkers();
 			lastClicked = null;
 		}
 		else if (lastClicked == null) {
-			checkEarthquakesForClick();
-			if (lastClicked == null) {
-				checkCitiesForClick();
+			if (!expandClusterIfClicked(x, y)) {
+				checkEarthquakesForClick(x, y);
+				if (lastClicked == null) {
+					checkCitiesForClick(x, y);
+				}
 			}
 		}
+		metrics.end(MapMetrics.Timer.HIT_TEST, hitStart);
+		frames.request();
 	}
 
-	private void checkCitiesForClick() {
+	/*
+	 * Clicking a cluster zooms in until it splits up.
+	 */
+	private boolean expandClusterIfClicked(int x, int y) {
+		CommonMarker marker = quakeLayer.getHitIndex().findHit(map, x, y, false);
+		if (!(marker instanceof QuakeClusterMarker)) {
+			return false;
+		}
+		QuakeClusterMarker cluster = (QuakeClusterMarker) marker;
+		map.zoomAndPanTo(cluster.getExpansionZoom(), cluster.getLocation());
+		if (lastSelected == cluster) {
+			cluster.setSelected(false);
+			lastSelected = null;
+		}
+		return true;
+	}
+
+	private void checkCitiesForClick(int x, int y) {
 		if (lastClicked != null) {
 			return;
 		}
 
-		for (Marker marker : cityMarkers) {
-			if (!marker.isHidden() && marker.isInside(map, mouseX, mouseY)) {
-				lastClicked = (CommonMarker)marker;
+		CommonMarker marker = cityHitIndex.findHit(map, x, y, false);
+		if (marker == null) {
+			return;
+		}
+		lastClicked = marker;
 
-				for (Marker mhide : cityMarkers) {
-					if (mhide != lastClicked) {
-						mhide.setHidden(true);
-					}
-				}
-				for (Marker mhide : quakeMarkers) {
-					EarthquakeMarker quakeMarker = (EarthquakeMarker)mhide;
-					if (quakeMarker.getDistanceTo(marker.getLocation())
-							> quakeMarker.threatCircle()) {
-						quakeMarker.setHidden(true);
-					}
-				}
-				return;
+		for (Marker mhide : cityMarkers) {
+			if (mhide != lastClicked) {
+				mhide.setHidden(true);
 			}
 		}
+		QuakeList quakes = quakeMarkers;
+		quakeLayer.showOnly(quakeRadiusIndex.within(marker.getLocation(),
+				row -> EarthquakeMarker.threatCircle(quakes.magnitudeOfRow(row)), maxThreatCircle));
+		cityLayer.invalidate();
 	}
 
-	private void checkEarthquakesForClick() {
+	private void checkEarthquakesForClick(int x, int y) {
 		if (lastClicked != null) {
 			return;
 		}
 
-		for (Marker m : quakeMarkers) {
-			EarthquakeMarker marker = (EarthquakeMarker)m;
-			if (!marker.isHidden() && marker.isInside(map, mouseX, mouseY)) {
-				lastClicked = marker;
+		EarthquakeMarker marker = (EarthquakeMarker) quakeLayer.getHitIndex().findHit(map, x, y, false);
+		if (marker == null) {
+			return;
+		}
+		lastClicked = marker;
+		quakeLayer.showOnly(Collections.singletonList(marker));
+		hideAllExcept(cityMarkers, cityRadiusIndex.within(marker.getLocation(), marker.threatCircle()));
+		cityLayer.invalidate();
+	}
 
-				for (Marker mhide : quakeMarkers) {
-					if (mhide != lastClicked) {
-						mhide.setHidden(true);
-					}
-				}
-				for (Marker mhide : cityMarkers) {
-					if (mhide.getDistanceTo(marker.getLocation())
-							> marker.threatCircle()) {
-						mhide.setHidden(true);
-					}
-				}
-				return;
+	private void hideAllExcept(List<Marker> markers, List<Marker> visible) {
+		Set<Marker> shown = Collections.newSetFromMap(new IdentityHashMap<>());
+		shown.addAll(visible);
+		for (Marker marker : markers) {
+			if (!shown.contains(marker)) {
+				marker.setHidden(true);
 			}
 		}
 	}
 
 	private void unhideMarkers() {
-		quakeMarkers.forEach(marker -> marker.setHidden(false));
 		cityMarkers.forEach(marker -> marker.setHidden(false));
+		quakeLayer.showAll();
+		cityLayer.invalidate();
 	}
 
-	private void addKey() {
-		fill(255, 250, 240);
+	private void drawKey(PGraphics pg) {
+		pg.fill(255, 250, 240);
 
 		int xbase = 25;
 		int ybase = 50;
 
-		rect(xbase, ybase, 150, 250);
+		pg.rect(xbase, ybase, 150, 250);
 
-		fill(0);
-		textAlign(LEFT, CENTER);
-		textSize(12);
-		text("Earthquake Key", xbase+25, ybase+25);
+		pg.fill(0);
+		pg.textAlign(LEFT, CENTER);
+		pg.textSize(12);
+		pg.text("Earthquake Key", xbase+25, ybase+25);
 
         int city_xbase = xbase + 35;
         int city_ybase = ybase + 50;
-        tint(150, 30, 30);
-		image(EarthquakeCityMap.cityMarker, city_xbase - 5, city_ybase - 6, 15, 15);
-        noTint();
+        pg.tint(150, 30, 30);
+		pg.image(EarthquakeCityMap.cityMarker, city_xbase - 5, city_ybase - 6, 15, 15);
+        pg.noTint();
 
-		fill(0, 0, 0);
-		textAlign(LEFT, CENTER);
-        text("City Marker", city_xbase + 15, city_ybase);
+		pg.fill(0, 0, 0);
+		pg.textAlign(LEFT, CENTER);
+        pg.text("City Marker", city_xbase + 15, city_ybase);
 
         int land_xbase = xbase + 35;
         int land_ybase = ybase + 70;
-        tint(0, 0, 255);
-        image(EarthquakeCityMap.landMarker, land_xbase - 5, land_ybase - 6, 15, 15);
-        noTint();
+        pg.tint(0, 0, 255);
+        pg.image(EarthquakeCityMap.landMarker, land_xbase - 5, land_ybase - 6, 15, 15);
+        pg.noTint();
 
-        fill(0, 0, 0);
-        textAlign(LEFT, CENTER);
-        text("Land Quake", xbase+50, ybase+70);
+        pg.fill(0, 0, 0);
+        pg.textAlign(LEFT, CENTER);
+        pg.text("Land Quake", xbase+50, ybase+70);
 
         int ocean_xbase = xbase + 35;
         int ocean_ybase = ybase + 90;
-        tint(0, 0, 255);
-        image(EarthquakeCityMap.oceanMarker, ocean_xbase - 5, ocean_ybase - 6, 15, 15);
-        noTint();
+        pg.tint(0, 0, 255);
+        pg.image(EarthquakeCityMap.oceanMarker, ocean_xbase - 5, ocean_ybase - 6, 15, 15);
+        pg.noTint();
 
-        fill(0, 0, 0);
-        textAlign(LEFT, CENTER);
-		text("Ocean Quake", xbase+50, ybase+90);
+        pg.fill(0, 0, 0);
+        pg.textAlign(LEFT, CENTER);
+		pg.text("Ocean Quake", xbase+50, ybase+90);
 
-        text("Size ~ Magnitude", xbase+25, ybase+110);
+        pg.text("Size ~ Magnitude", xbase+25, ybase+110);
 
-		fill(255, 255, 255);
+		pg.fill(255, 255, 255);
 
-		fill(color(255, 255, 0));
-		ellipse(xbase+35, ybase+140, 12, 12);
-		fill(color(0, 0, 255));
-		ellipse(xbase+35, ybase+160, 12, 12);
-		fill(color(255, 0, 0));
-		ellipse(xbase+35, ybase+180, 12, 12);
+		pg.fill(pg.color(255, 255, 0));
+		pg.ellipse(xbase+35, ybase+140, 12, 12);
+		pg.fill(pg.color(0, 0, 255));
+		pg.ellipse(xbase+35, ybase+160, 12, 12);
+		pg.fill(pg.color(255, 0, 0));
+		pg.ellipse(xbase+35, ybase+180, 12, 12);
 
-		textAlign(LEFT, CENTER);
-		fill(0, 0, 0);
-		text("Shallow", xbase+50, ybase+140);
-		text("Intermediate", xbase+50, ybase+160);
-		text("Deep", xbase+50, ybase+180);
+		pg.textAlign(LEFT, CENTER);
+		pg.fill(0, 0, 0);
+		pg.text("Shallow", xbase+50, ybase+140);
+		pg.text("Intermediate", xbase+50, ybase+160);
+		pg.text("Deep", xbase+50, ybase+180);
 
-		text("Past hour", xbase+50, ybase+200);
+		pg.text("Past hour", xbase+50, ybase+200);
 
-		fill(255, 255, 255);
+		pg.fill(255, 255, 255);
 		int centerx = xbase+35;
 		int centery = ybase+200;
-		ellipse(centerx, centery, 12, 12);
-
-		strokeWeight(2);
-		line(centerx-8, centery-8, centerx+8, centery+8);
-		line(centerx-8, centery+8, centerx+8, centery-8);
-	}
-
-	private boolean isLand(PointFeature earthquake) {
-		for (Marker country : countryMarkers) {
-			if (isInCountry(earthquake, country)) {
-				return true;
-			}
-		}
+		pg.ellipse(centerx, centery, 12, 12);
 
-		return false;
+		pg.strokeWeight(2);
+		pg.line(centerx-8, centery-8, centerx+8, centery+8);
+		pg.line(centerx-8, centery+8, centerx+8, centery-8);
 	}
 
 	private void printQuakesToConsoleForDebugging() {
-		int totalWaterQuakes = quakeMarkers.size();
-		for (Marker country : countryMarkers) {
-			String countryName = country.getStringProperty("name");
-			int numQuakes = 0;
-			for (Marker marker : quakeMarkers)
-			{
-				EarthquakeMarker eqMarker = (EarthquakeMarker)marker;
-				if (eqMarker.isOnLand()) {
-					if (countryName.equals(eqMarker.getStringProperty("country"))) {
-						numQuakes++;
-					}
-				}
-			}
-			if (numQuakes > 0) {
-				totalWaterQuakes -= numQuakes;
-				System.out.println(countryName + ": " + numQuakes);
+		for (int c = 0; c < countryMarkers.size(); c++) {
+			if (countryStats.getCount(c) > 0) {
+				System.out.println(countryMarkers.get(c).getStringProperty("name") + ": " + countryStats.getCount(c));
 			}
 		}
-		System.out.println("OCEAN QUAKES: " + totalWaterQuakes);
+		System.out.println("OCEAN QUAKES: " + countryStats.getCount(CountryStats.OCEAN));
 	}
 
-	private boolean isInCountry(PointFeature earthquake, Marker country) {
-		Location earthquakeLocation = earthquake.getLocation();
-
-		if(country.getClass() == MultiMarker.class) {
-
-			for(Marker marker : ((MultiMarker)country).getMarkers()) {
-				if(((AbstractShapeMarker)marker).isInsideByLocation(earthquakeLocation)) {
-					earthquake.addProperty("country", country.getProperty("name"));
-					return true;
-				}
-			}
+	/*
+	 * A quake list with the structures derived from it, swapped in as a whole.
+	 */
+	private static class LiveQuakes {
+
+		final QuakeList markers;
+		final QuakeClusterLayer layer;
+		final GeoRadiusIndex radiusIndex;
+		final double maxThreatCircle;
+
+		LiveQuakes(QuakeList markers, QuakeClusterLayer layer, GeoRadiusIndex radiusIndex, double maxThreatCircle) {
+			this.markers = markers;
+			this.layer = layer;
+			this.radiusIndex = radiusIndex;
+			this.maxThreatCircle = maxThreatCircle;
 		}
 
-		else if(((AbstractShapeMarker)country).isInsideByLocation(earthquakeLocation)) {
-			earthquake.addProperty("country", country.getProperty("name"));
-			return true;
+		/*
+		 * The quakes after a change, with only the removed and added ones
+		 * taken out of and put into the structures.
+		 */
+		LiveQuakes updated(QuakeList next, List<Marker> removed, List<Marker> added) {
+			double nextMax = maxThreatCircle(added);
+			if (removed.stream().anyMatch(quake -> ((EarthquakeMarker) quake).threatCircle() >= maxThreatCircle)) {
+				// the largest circle may be gone
+				nextMax = Math.max(nextMax, maxThreatCircle(next));
+			}
+			else {
+				nextMax = Math.max(nextMax, maxThreatCircle);
+			}
+			return new LiveQuakes(next, layer.updated(next, removed, added),
+					radiusIndex.updated(removed, added), nextMax);
 		}
-		return false;
 	}
 }
@@ -1,37 +1,158 @@
 package earthquakemap;
 
 import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
 import processing.core.PConstants;
 import processing.core.PGraphics;
+import processing.core.PImage;
 
 public abstract class EarthquakeMarker extends CommonMarker implements Comparable<EarthquakeMarker> {
 
 	protected boolean isOnLand;
 	protected float radius;
 
+	// Read once from the feature properties or the table row; the property
+	// map is kept only for code that still looks values up by name
+	protected final float magnitude;
+	protected final float depth;
+	protected final QuakeAge age;
+	protected final long time;
+	protected final long updated;
+
+	// The row the property map is built from when it is first asked for,
+	// or null once the marker has its map
+	private volatile QuakeTable table;
+	private final int row;
+
+	// Whether the feed's age puts the quake in the last day; a layer that
+	// knows the time the map shows decides for itself when it draws
+	private final boolean recent;
+
 	protected static final float KM_PER_MILE = 1.6f;
 
+	// How close the mouse must be to hit a quake, whatever its size; it is
+	// Unfolding's default for point markers
+	public static final float HIT_RADIUS = 10;
+
 	public static final float THRESHOLD_MODERATE = 5;
 	public static final float THRESHOLD_LIGHT = 4;
 	public static final float THRESHOLD_INTERMEDIATE = 70;
 	public static final float THRESHOLD_DEEP = 300;
 
+	private static final int TINT_SHALLOW = 0xFFFFFF00;
+	private static final int TINT_INTERMEDIATE = 0xFF0000FF;
+	private static final int TINT_DEEP = 0xFFFF0000;
+
 	public abstract void drawEarthquake(PGraphics pg, float x, float y);
 
+	/**
+	 * @return the image drawEarthquake draws
+	 */
+	public abstract PImage getSprite();
+
 	public EarthquakeMarker (PointFeature feature) {
 		super(feature.getLocation());
 
 		java.util.HashMap<String, Object> properties = feature.getProperties();
-		float magnitude = Float.parseFloat(properties.get("magnitude").toString());
+		this.magnitude = Float.parseFloat(properties.get("magnitude").toString());
+		this.depth = Float.parseFloat(properties.get("depth").toString());
+		this.age = QuakeAge.fromTerm((String) properties.get("age"));
+		this.updated = QuakeTable.parseTime((String) properties.get("updated"));
+		long happened = QuakeTable.parseTime((String) properties.get("time"));
+		this.time = happened != QuakeTable.NO_TIME ? happened : updated;
+		this.recent = age.isWithinLastDay();
+		this.row = -1;
 		properties.put("radius", 2 * magnitude );
 		setProperties(properties);
-		this.radius = 1.75f * getMagnitude();
+		this.radius = 1.75f * magnitude;
+		setRadius(HIT_RADIUS);
+	}
+
+	/**
+	 * A marker that is a view of a table row, without a property map until
+	 * one is asked for.
+	 */
+	public EarthquakeMarker(QuakeTable table, int row) {
+		super(new Location(table.getLat(row), table.getLon(row)));
+
+		this.magnitude = table.getMagnitude(row);
+		this.depth = table.getDepth(row);
+		this.age = table.getAge(row);
+		this.updated = table.getTime(row);
+		this.time = table.getEventTime(row);
+		this.recent = age.isWithinLastDay();
+		this.row = row;
+		this.table = table;
+		this.radius = 1.75f * magnitude;
+		setRadius(HIT_RADIUS);
+	}
+
+	/**
+	 * @return the table the marker reads its values from while it has no
+	 * property map, or null
+	 */
+	protected QuakeTable getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the table row the marker is a view of, or -1
+	 */
+	protected int getRow() {
+		return row;
+	}
+
+	/*
+	 * The property map, built from the row the first time it is needed.
+	 */
+	private synchronized java.util.HashMap<String, Object> properties() {
+		QuakeTable source = table;
+		if (source != null) {
+			java.util.HashMap<String, Object> properties = source.propertiesOf(row);
+			properties.put("radius", 2 * magnitude);
+			setProperties(properties);
+		}
+		return properties;
+	}
+
+	@Override
+	public java.util.HashMap<String, Object> getProperties() {
+		return properties();
+	}
+
+	@Override
+	public Object getProperty(String key) {
+		return properties().get(key);
+	}
+
+	@Override
+	public String getStringProperty(String key) {
+		Object value = properties().get(key);
+		return value instanceof String ? (String) value : null;
+	}
+
+	@Override
+	public Integer getIntegerProperty(String key) {
+		Object value = properties().get(key);
+		return value instanceof Integer ? (Integer) value : null;
+	}
+
+	@Override
+	public Object setProperty(String key, Object value) {
+		properties();
+		return super.setProperty(key, value);
+	}
+
+	@Override
+	public synchronized void setProperties(java.util.HashMap<String, Object> properties) {
+		table = null;
+		super.setProperties(properties);
 	}
 
 	 public int compareTo(EarthquakeMarker marker) {
-		 if (this.getMagnitude() > marker.getMagnitude()) {
+		 if (this.magnitude > marker.magnitude) {
 			 return -1;
-		 } else if (this.getMagnitude() < marker.getMagnitude()) {
+		 } else if (this.magnitude < marker.magnitude) {
 			 return 1;
 		 } else {
 			 return 0;
@@ -49,9 +170,27 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		pg.popStyle();
 	}
 
+	@Override
+	public boolean addTo(SpriteBatch batch, float x, float y) {
+		return addTo(batch, x, y, recent);
+	}
+
+	/**
+	 * Adds the marker to a sprite batch, with the X for a quake in the last
+	 * day if it is recent at the time the map shows.
+	 */
+	public boolean addTo(SpriteBatch batch, float x, float y, boolean recent) {
+		batch.add(getSprite(), depthTint(), x - 5, y - 5, 2 * radius, 2 * radius);
+		if (recent) {
+			int buffer = 2;
+			batch.addLine(x-(radius+buffer), y-(radius+buffer), x+radius+buffer, y+radius+buffer);
+			batch.addLine(x-(radius+buffer), y+(radius+buffer), x+radius+buffer, y-(radius+buffer));
+		}
+		return true;
+	}
+
 	private void drawXOverMarkerIfQuakeWasInLastDay(PGraphics pg, float x, float y) {
-		String age = getStringProperty("age");
-		if ("Past Hour".equals(age) || "Past Day".equals(age)) {
+		if (recent) {
 			pg.strokeWeight(2);
 			int buffer = 2;
 			pg.line(x-(radius+buffer),
@@ -65,7 +204,18 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		}
 	}
 
-	public void showTitle(PGraphics pg, float x, float y) {
+	@Override
+	public String getTitleText() {
+		return getTitle();
+	}
+
+	@Override
+	protected float[] getTitleBounds(PGraphics pg) {
+		return new float[] { 0, 15, pg.textWidth(getTitle()) + 6, 18 };
+	}
+
+	@Override
+	public void drawTitle(PGraphics pg, float x, float y) {
 		String title = getTitle();
 		pg.pushStyle();
 
@@ -82,22 +232,31 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	}
 
 	public double threatCircle() {
-		double miles = 20.0f * Math.pow(1.8, 2*getMagnitude()-5);
+		return threatCircle(magnitude);
+	}
+
+	/**
+	 * @return the threat circle in km of a quake of the magnitude
+	 */
+	public static double threatCircle(float magnitude) {
+		double miles = 20.0f * Math.pow(1.8, 2*magnitude-5);
 		double km = (miles * KM_PER_MILE);
 		return km;
 	}
 
 	private void colorDetermine(PGraphics pg) {
-		float depth = getDepth();
+		pg.tint(depthTint());
+	}
 
+	private int depthTint() {
 		if (depth < THRESHOLD_INTERMEDIATE) {
-            pg.tint(255, 255, 0);
+			return TINT_SHALLOW;
 		}
 		else if (depth < THRESHOLD_DEEP) {
-            pg.tint(0, 0, 255);
+			return TINT_INTERMEDIATE;
 		}
 		else {
-            pg.tint(255, 0, 0);
+			return TINT_DEEP;
 		}
 	}
 
@@ -106,19 +265,47 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	}
 
 	public float getMagnitude() {
-		return Float.parseFloat(getProperty("magnitude").toString());
+		return magnitude;
 	}
 
 	public float getDepth() {
-		return Float.parseFloat(getProperty("depth").toString());
+		return depth;
+	}
+
+	public QuakeAge getAge() {
+		return age;
+	}
+
+	/**
+	 * @return when the quake happened in epoch milliseconds, the time of the
+	 * last update if the feed has no event time, or {@link QuakeTable#NO_TIME}
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return when the feed last updated the quake in epoch milliseconds, or
+	 * {@link QuakeTable#NO_TIME}
+	 */
+	public long getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return whether the feed's age puts the quake in the last day
+	 */
+	public boolean isRecent() {
+		return recent;
 	}
 
 	public String getTitle() {
-		return (String) getProperty("title");
+		QuakeTable source = getTable();
+		return source != null ? source.getTitle(row) : (String) getProperty("title");
 	}
 
 	public float getRadius() {
-		return Float.parseFloat(getProperty("radius").toString());
+		return 2 * magnitude;
 	}
 
 	public boolean isOnLand() {
@@ -0,0 +1,100 @@
+package earthquakemap;
+
+import processing.core.PApplet;
+
+/** FrameScheduler
+ * Renders a sketch on demand.  Frames are only drawn after something asked
+ * for one with {@link #request()} or while the caller reports ongoing
+ * change, e.g. a zoom animation or tiles still loading.  After a few idle
+ * frames the animation loop is stopped with noLoop() so an idle sketch
+ * uses no CPU, and the next request starts it again.
+ * */
+public class FrameScheduler {
+
+	// Frames that are skipped before the loop goes to sleep
+	private static final int IDLE_FRAMES_BEFORE_SLEEP = 10;
+
+	private final PApplet applet;
+
+	private boolean requested = true;
+	// keeps the loop awake for one more draw(), which handles what woke it
+	private boolean woken;
+	private int idleFrames;
+	private boolean asleep;
+
+	private long rendered;
+	private long skipped;
+	private long sleepStart;
+	private long sleptNanos;
+
+	public FrameScheduler(PApplet applet) {
+		this.applet = applet;
+	}
+
+	/**
+	 * Asks for the next frame to be rendered.  Safe to call from any thread.
+	 */
+	public synchronized void request() {
+		requested = true;
+		wake();
+	}
+
+	/**
+	 * Makes sure draw() is called again without asking for a frame, e.g. to
+	 * handle input that may leave the picture as it is.  Safe to call from
+	 * any thread.
+	 */
+	public synchronized void wake() {
+		woken = true;
+		if (asleep) {
+			sleptNanos += System.nanoTime() - sleepStart;
+			asleep = false;
+			applet.loop();
+		}
+	}
+
+	/**
+	 * Called at the start of draw().
+	 *
+	 * @param changing whether the scene is still changing on its own
+	 * @return whether this frame has to be rendered
+	 */
+	public synchronized boolean beginFrame(boolean changing) {
+		if (requested || changing) {
+			requested = false;
+			woken = false;
+			idleFrames = 0;
+			rendered++;
+			return true;
+		}
+
+		skipped++;
+		if (woken) {
+			woken = false;
+			idleFrames = 0;
+		}
+		else if (++idleFrames >= IDLE_FRAMES_BEFORE_SLEEP && !asleep) {
+			asleep = true;
+			sleepStart = System.nanoTime();
+			applet.noLoop();
+		}
+		return false;
+	}
+
+	public synchronized long getRendered() {
+		return rendered;
+	}
+
+	/**
+	 * @return the frames draw() was called for but that were not rendered;
+	 * frames while the loop is asleep are not called at all
+	 */
+	public synchronized long getSkipped() {
+		return skipped;
+	}
+
+	public synchronized String report() {
+		long slept = sleptNanos + (asleep ? System.nanoTime() - sleepStart : 0);
+		return String.format("frames rendered %d, skipped %d, asleep %.1f s", rendered, skipped, slept / 1e9);
+	}
+}
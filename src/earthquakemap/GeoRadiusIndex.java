@@ -0,0 +1,325 @@
+package earthquakemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.GeoUtils;
+
+/** GeoRadiusIndex
+ * Buckets marker locations into a 2 degree lat/lon grid to answer "which
+ * markers are within R km of P" without measuring the distance to every
+ * marker.  A query turns the radius into a conservative lat/lon box, which
+ * covers every longitude when the circle reaches a pole and is split in two
+ * when it crosses the antimeridian, and only measures the markers in the
+ * cells of that box.  The distance test is the same
+ * {@link Marker#getDistanceTo(Location)} a scan over the list would use, so
+ * both give identical results.
+ *
+ * The cells hold a key and the position of every marker, not the marker.
+ * The key of a quake of a {@link QuakeList} is its table row, so the index
+ * of a million quakes creates no markers, and a query only asks the table
+ * for the markers it found.  The key of any other marker is its position
+ * in the list the index was built from.
+ *
+ * A marker without a position, a NaN latitude or longitude, is left out of
+ * the index and never found, although a scan would count it within every
+ * circle: its distance is NaN, which is never greater than the radius.
+ *
+ * The index is never changed once built.  {@link #updated} derives the
+ * index of a changed marker list from it, copying only the cells the
+ * removed and added markers lie in and sharing all others.
+ * */
+public class GeoRadiusIndex {
+
+	private static final float CELL_SIZE = 2;
+	private static final int COLUMNS = (int) (360 / CELL_SIZE);
+	private static final int ROWS = (int) (180 / CELL_SIZE);
+
+	// Extra degrees around the query box; the law of cosines distance is
+	// only accurate to a few hundred meters for nearby points
+	private static final double BOX_SLACK = 0.05;
+
+	private static final int[] NO_KEYS = new int[0];
+	private static final float[] NO_POSITIONS = new float[0];
+
+	// the keys of the markers in each cell, and their positions as lat, lon
+	// pairs; cells are shared between versions
+	private final int[][] keys;
+	private final float[][] positions;
+	private final int size;
+
+	// the table whose rows the keys are, or null if the keys are positions
+	// in the markers
+	private final QuakeTable table;
+	private final Marker[] markers;
+
+	public GeoRadiusIndex(List<? extends Marker> markers) {
+		int count = markers.size();
+		int[] markerKeys = new int[count];
+		float[] lat = new float[count];
+		float[] lon = new float[count];
+		int placed = 0;
+		if (markers instanceof QuakeList) {
+			QuakeList quakes = (QuakeList) markers;
+			for (int i = 0; i < count; i++) {
+				markerKeys[placed] = quakes.getRow(i);
+				lat[placed] = quakes.getLat(i);
+				lon[placed] = quakes.getLon(i);
+				if (hasPosition(lat[placed], lon[placed])) {
+					placed++;
+				}
+			}
+			this.table = quakes.getTable();
+			this.markers = null;
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				Location location = markers.get(i).getLocation();
+				markerKeys[placed] = i;
+				lat[placed] = location.getLat();
+				lon[placed] = location.getLon();
+				if (hasPosition(lat[placed], lon[placed])) {
+					placed++;
+				}
+			}
+			this.table = null;
+			this.markers = markers.toArray(new Marker[0]);
+		}
+		count = placed;
+
+		int[] counts = new int[COLUMNS * ROWS];
+		for (int i = 0; i < count; i++) {
+			counts[cellOf(lat[i], lon[i])]++;
+		}
+		keys = new int[COLUMNS * ROWS][];
+		positions = new float[COLUMNS * ROWS][];
+		for (int c = 0; c < keys.length; c++) {
+			keys[c] = counts[c] == 0 ? NO_KEYS : new int[counts[c]];
+			positions[c] = counts[c] == 0 ? NO_POSITIONS : new float[2 * counts[c]];
+		}
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < count; i++) {
+			int cell = cellOf(lat[i], lon[i]);
+			int k = counts[cell]++;
+			keys[cell][k] = markerKeys[i];
+			positions[cell][2 * k] = lat[i];
+			positions[cell][2 * k + 1] = lon[i];
+		}
+		size = count;
+	}
+
+	private GeoRadiusIndex(int[][] keys, float[][] positions, int size, QuakeTable table, Marker[] markers) {
+		this.keys = keys;
+		this.positions = positions;
+		this.size = size;
+		this.table = table;
+		this.markers = markers;
+	}
+
+	/**
+	 * Derives the index of the markers with the removed ones taken out and
+	 * the added ones put in, e.g. for a feed update.  Only the cells of
+	 * those markers are built again, and this index stays as it was.
+	 *
+	 * @param removed markers of this index: quakes of the same table, or
+	 * otherwise the markers themselves
+	 * @param added markers not in this index, of the same table for an
+	 * index of quakes
+	 */
+	public GeoRadiusIndex updated(Collection<? extends Marker> removed, Collection<? extends Marker> added) {
+		Marker[] nextMarkers = markers == null ? null : Arrays.copyOf(markers, markers.length + added.size());
+		Map<Integer, Set<Integer>> gone = new HashMap<>();
+		for (Marker marker : removed) {
+			Location location = marker.getLocation();
+			if (!hasPosition(location.getLat(), location.getLon())) {
+				continue;
+			}
+			int cell = cellOf(location.getLat(), location.getLon());
+			int key = keyOf(marker, cell);
+			if (key >= 0) {
+				gone.computeIfAbsent(cell, c -> new HashSet<>()).add(key);
+				if (nextMarkers != null) {
+					nextMarkers[key] = null;
+				}
+			}
+		}
+		Map<Integer, List<Marker>> arrived = new HashMap<>();
+		Map<Marker, Integer> addedKeys = new IdentityHashMap<>();
+		int nextKey = markers == null ? 0 : markers.length;
+		for (Marker marker : added) {
+			Location location = marker.getLocation();
+			int key = nextMarkers != null ? nextKey++ : ((EarthquakeMarker) marker).getRow();
+			if (nextMarkers != null) {
+				nextMarkers[key] = marker;
+			}
+			if (!hasPosition(location.getLat(), location.getLon())) {
+				continue;
+			}
+			int cell = cellOf(location.getLat(), location.getLon());
+			arrived.computeIfAbsent(cell, c -> new ArrayList<>()).add(marker);
+			addedKeys.put(marker, key);
+		}
+
+		Set<Integer> changed = new HashSet<>(gone.keySet());
+		changed.addAll(arrived.keySet());
+		int[][] nextKeys = keys.clone();
+		float[][] nextPositions = positions.clone();
+		int nextSize = size;
+		for (int cell : changed) {
+			Set<Integer> leaving = gone.getOrDefault(cell, Collections.emptySet());
+			List<Marker> arriving = arrived.getOrDefault(cell, Collections.emptyList());
+			int[] cellKeys = new int[keys[cell].length + arriving.size()];
+			float[] cellPositions = new float[2 * cellKeys.length];
+			int k = 0;
+			for (int i = 0; i < keys[cell].length; i++) {
+				if (!leaving.contains(keys[cell][i])) {
+					cellKeys[k] = keys[cell][i];
+					cellPositions[2 * k] = positions[cell][2 * i];
+					cellPositions[2 * k + 1] = positions[cell][2 * i + 1];
+					k++;
+				}
+			}
+			for (Marker marker : arriving) {
+				cellKeys[k] = addedKeys.get(marker);
+				cellPositions[2 * k] = marker.getLocation().getLat();
+				cellPositions[2 * k + 1] = marker.getLocation().getLon();
+				k++;
+			}
+			nextSize += k - keys[cell].length;
+			nextKeys[cell] = k == 0 ? NO_KEYS : Arrays.copyOf(cellKeys, k);
+			nextPositions[cell] = k == 0 ? NO_POSITIONS : Arrays.copyOf(cellPositions, 2 * k);
+		}
+		return new GeoRadiusIndex(nextKeys, nextPositions, nextSize, table, nextMarkers);
+	}
+
+	/*
+	 * The key of a marker of this index in its cell, or -1 if it is not in
+	 * there.
+	 */
+	private int keyOf(Marker marker, int cell) {
+		if (table != null) {
+			return ((EarthquakeMarker) marker).getRow();
+		}
+		for (int key : keys[cell]) {
+			if (markers[key] == marker) {
+				return key;
+			}
+		}
+		return -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the marker with the key
+	 */
+	public Marker getMarker(int key) {
+		return table != null ? table.getMarker(key) : markers[key];
+	}
+
+	/**
+	 * @return the markers within radiusKm of center, in no particular order
+	 */
+	public List<Marker> within(Location center, double radiusKm) {
+		return within(center, key -> radiusKm, radiusKm);
+	}
+
+	/**
+	 * Finds the markers that are within their own radius of the center, e.g.
+	 * the quakes whose threat circle reaches a city.
+	 *
+	 * @param radiusOf the radius in km for each marker, by its key, so no
+	 * marker is asked before it is found
+	 * @param maxRadiusKm an upper bound of radiusOf over all markers
+	 * @return the matching markers, in no particular order
+	 */
+	public List<Marker> within(Location center, IntToDoubleFunction radiusOf, double maxRadiusKm) {
+		List<Marker> found = new ArrayList<>();
+
+		double radiusDegrees = Math.toDegrees(maxRadiusKm / GeoUtils.EARTH_RADIUS_KM) + BOX_SLACK;
+		double lat = center.getLat();
+		double lon = center.getLon();
+		double latLow = lat - radiusDegrees;
+		double latHigh = lat + radiusDegrees;
+
+		if (latLow <= -90 || latHigh >= 90 || radiusDegrees >= 180) {
+			// circle covers a pole, so every longitude is in range
+			collect(center, radiusOf, found, row(latLow), row(latHigh), 0, COLUMNS - 1);
+			return found;
+		}
+
+		double ratio = Math.sin(Math.toRadians(radiusDegrees)) / Math.cos(Math.toRadians(lat));
+		if (ratio >= 1) {
+			collect(center, radiusOf, found, row(latLow), row(latHigh), 0, COLUMNS - 1);
+			return found;
+		}
+
+		double lonDegrees = Math.toDegrees(Math.asin(ratio)) + BOX_SLACK;
+		double lonLow = lon - lonDegrees;
+		double lonHigh = lon + lonDegrees;
+		int rowLow = row(latLow);
+		int rowHigh = row(latHigh);
+
+		if (lonLow < -180) {
+			collect(center, radiusOf, found, rowLow, rowHigh, column(lonLow + 360), COLUMNS - 1);
+			collect(center, radiusOf, found, rowLow, rowHigh, 0, column(lonHigh));
+		}
+		else if (lonHigh > 180) {
+			collect(center, radiusOf, found, rowLow, rowHigh, column(lonLow), COLUMNS - 1);
+			collect(center, radiusOf, found, rowLow, rowHigh, 0, column(lonHigh - 360));
+		}
+		else {
+			collect(center, radiusOf, found, rowLow, rowHigh, column(lonLow), column(lonHigh));
+		}
+		return found;
+	}
+
+	private void collect(Location center, IntToDoubleFunction radiusOf, List<Marker> found,
+			int rowLow, int rowHigh, int columnLow, int columnHigh) {
+		Location location = new Location(0f, 0f);
+		for (int r = rowLow; r <= rowHigh; r++) {
+			for (int c = columnLow; c <= columnHigh; c++) {
+				int cell = r * COLUMNS + c;
+				for (int k = 0; k < keys[cell].length; k++) {
+					location.setLat(positions[cell][2 * k]);
+					location.setLon(positions[cell][2 * k + 1]);
+					// written as !(>) like the scan: the distance of a point at
+					// the center can come out NaN, as rounding takes the cosine
+					// past 1, and that point is inside
+					if (!(GeoUtils.getDistance(location, center) > radiusOf.applyAsDouble(keys[cell][k]))) {
+						found.add(getMarker(keys[cell][k]));
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean hasPosition(float lat, float lon) {
+		return !Float.isNaN(lat) && !Float.isNaN(lon);
+	}
+
+	private static int cellOf(float lat, float lon) {
+		return row(lat) * COLUMNS + column(lon);
+	}
+
+	private static int row(double lat) {
+		return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((lat + 90) / CELL_SIZE)));
+	}
+
+	private static int column(double lon) {
+		return Math.max(0, Math.min(COLUMNS - 1, (int) Math.floor((lon + 180) / CELL_SIZE)));
+	}
+}
@@ -2,6 +2,7 @@ package earthquakemap;
 
 import de.fhpotsdam.unfolding.data.PointFeature;
 import processing.core.PGraphics;
+import processing.core.PImage;
 
 public class LandQuakeMarker extends EarthquakeMarker {
 
@@ -10,12 +11,23 @@ public class LandQuakeMarker extends EarthquakeMarker {
 		isOnLand = true;
 	}
 
+	public LandQuakeMarker(QuakeTable table, int row) {
+		super(table, row);
+		isOnLand = true;
+	}
+
 	@Override
 	public void drawEarthquake(PGraphics pg, float x, float y) {
         pg.image(EarthquakeCityMap.landMarker, x - 5, y - 5, 2 * radius, 2 * radius);
 	}
 
+	@Override
+	public PImage getSprite() {
+		return EarthquakeCityMap.landMarker;
+	}
+
 	public String getCountry() {
-		return (String) getProperty("country");
+		QuakeTable table = getTable();
+		return table != null ? table.getCountry(getRow()) : (String) getProperty("country");
 	}
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package earthquakemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Leaderboard
+ * Keeps the K items with the largest keys seen so far in a bounded min-heap
+ * whose root is the weakest entry, so offering an item costs O(log K) and
+ * an item that does not make it in costs one comparison.  Items with equal
+ * keys rank in the order they were offered, the same order a stable sort
+ * would give them.
+ * */
+public class Leaderboard<T> {
+
+	private final int capacity;
+	private final long[] keys;
+	private final long[] order;
+	private final Object[] items;
+	private int size;
+	private long offered;
+
+	public Leaderboard(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.keys = new long[capacity];
+		this.order = new long[capacity];
+		this.items = new Object[capacity];
+	}
+
+	/**
+	 * @return whether an item with this key would make it onto the board;
+	 * lets callers skip building items that would be rejected anyway
+	 */
+	public boolean accepts(long key) {
+		return size < capacity || key > keys[0];
+	}
+
+	/**
+	 * @return whether the item made it onto the board
+	 */
+	public boolean offer(long key, T item) {
+		long position = offered++;
+		if (size < capacity) {
+			keys[size] = key;
+			order[size] = position;
+			items[size] = item;
+			siftUp(size++);
+			return true;
+		}
+		if (key <= keys[0]) {
+			return false;
+		}
+		keys[0] = key;
+		order[0] = position;
+		items[0] = item;
+		siftDown(0);
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void clear() {
+		Arrays.fill(items, null);
+		size = 0;
+		offered = 0;
+	}
+
+	/**
+	 * @return the items, largest key first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> ranked() {
+		Integer[] slots = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = i;
+		}
+		Arrays.sort(slots, (a, b) -> weaker(a, b) ? 1 : weaker(b, a) ? -1 : 0);
+
+		List<T> ranked = new ArrayList<>(size);
+		for (int slot : slots) {
+			ranked.add((T) items[slot]);
+		}
+		return ranked;
+	}
+
+	/*
+	 * Slot a ranks below slot b: a smaller key, or the same key offered later.
+	 */
+	private boolean weaker(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && order[a] > order[b]);
+	}
+
+	private void siftUp(int slot) {
+		while (slot > 0) {
+			int parent = (slot - 1) / 2;
+			if (!weaker(slot, parent)) {
+				return;
+			}
+			swap(slot, parent);
+			slot = parent;
+		}
+	}
+
+	private void siftDown(int slot) {
+		while (true) {
+			int child = 2 * slot + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && weaker(child + 1, child)) {
+				child++;
+			}
+			if (!weaker(child, slot)) {
+				return;
+			}
+			swap(slot, child);
+			slot = child;
+		}
+	}
+
+	private void swap(int a, int b) {
+		long key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+		long position = order[a];
+		order[a] = order[b];
+		order[b] = position;
+		Object item = items[a];
+		items[a] = items[b];
+		items[b] = item;
+	}
+}
@@ -0,0 +1,278 @@
+package earthquakemap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import parsing.ParseFeed;
+import processing.core.PApplet;
+
+/** LiveQuakeFeed
+ * Keeps the quake markers in step with a feed that changes over time.  Each
+ * poll reads the feed, or the next file of a directory of saved feeds, and
+ * compares its entries with the markers by event id and updated time.  Only
+ * new and updated entries are appended to the quakes' table and classified;
+ * unchanged events keep their row and marker, and events that dropped out
+ * of the feed expire.  A poll that changed anything hands a {@link Delta}
+ * to the listener, whose markers are the table's views of the rows.
+ *
+ * Polling runs on its own daemon thread, so neither the network nor the
+ * parser ever holds up drawing.
+ * */
+public class LiveQuakeFeed {
+
+	private final PApplet applet;
+	private final String feedName;
+	private final Path directory;
+	private final CountryIndex countryIndex;
+	private final QuakeTable table;
+
+	// the rows of the current events by id, and their updated times
+	private final Map<String, Integer> live = new HashMap<>();
+	private final Map<String, Long> times = new HashMap<>();
+
+	private String lastFile;
+	private ScheduledExecutorService poller;
+
+	private LiveQuakeFeed(PApplet applet, String feedName, Path directory, CountryIndex countryIndex, QuakeList markers) {
+		this.applet = applet;
+		this.feedName = feedName;
+		this.directory = directory;
+		this.countryIndex = countryIndex;
+		this.table = markers.getTable();
+		for (int i = 0; i < markers.size(); i++) {
+			int row = markers.getRow(i);
+			String id = table.getId(row);
+			if (id != null) {
+				live.put(id, row);
+				times.put(id, table.getTime(row));
+			}
+		}
+	}
+
+	/**
+	 * Polls a feed URL or file name as the applet resolves it.
+	 *
+	 * @param markers the quakes currently shown, whose table the feed
+	 * appends to
+	 */
+	public static LiveQuakeFeed fromFeed(PApplet applet, String feedName, CountryIndex countryIndex, QuakeList markers) {
+		return new LiveQuakeFeed(applet, feedName, null, countryIndex, markers);
+	}
+
+	/**
+	 * Reads one file of the directory per poll, in file name order, e.g. a
+	 * series of saved feeds for offline testing.
+	 *
+	 * @param markers the quakes currently shown, whose table the feed
+	 * appends to
+	 */
+	public static LiveQuakeFeed fromDirectory(Path directory, CountryIndex countryIndex, QuakeList markers) {
+		return new LiveQuakeFeed(null, null, directory, countryIndex, markers);
+	}
+
+	/**
+	 * Polls every period on a background thread until {@link #stop()}.  A
+	 * failed poll is reported and retried with the next one.
+	 */
+	public synchronized void start(long period, TimeUnit unit, Consumer<Delta> listener) {
+		if (poller != null) {
+			return;
+		}
+		poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "feed-poller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		poller.scheduleWithFixedDelay(() -> {
+			try {
+				Delta delta = poll();
+				if (delta != null) {
+					listener.accept(delta);
+				}
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Could not poll earthquake feed: " + e);
+			}
+		}, period, period, unit);
+	}
+
+	public synchronized void stop() {
+		if (poller != null) {
+			poller.shutdownNow();
+			poller = null;
+		}
+	}
+
+	/**
+	 * Reads the feed once and applies it to the known events.  Must not be
+	 * called concurrently.
+	 *
+	 * @return the changes, or null if nothing changed
+	 */
+	public Delta poll() throws IOException {
+		InputStream input = nextInput();
+		if (input == null) {
+			return null;
+		}
+
+		List<String> order = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		List<PointFeature> changed = new ArrayList<>();
+		try {
+			ParseFeed.parseEarthquake(input, feature -> {
+				// entries without an id cannot be matched up and are left out
+				String id = feature.getId();
+				if (id == null || !seen.add(id)) {
+					return;
+				}
+				order.add(id);
+				Long known = times.get(id);
+				if (known == null || known != QuakeTable.parseTime(feature.getStringProperty("updated"))) {
+					changed.add(feature);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		// every entry is known and unchanged, and none is missing
+		if (changed.isEmpty() && seen.size() == live.size()) {
+			return null;
+		}
+
+		// only the changed entries are appended and classified; the rows
+		// of updated events stay in the table for the lists that hold them
+		int first = table.size();
+		changed.forEach(table::add);
+		table.classify(countryIndex, first);
+
+		List<Marker> inserted = new ArrayList<>();
+		List<Marker> updated = new ArrayList<>();
+		List<Marker> replaced = new ArrayList<>();
+		for (int row = first; row < table.size(); row++) {
+			Marker marker = table.getMarker(row);
+			Integer previous = live.put(table.getId(row), row);
+			if (previous == null) {
+				inserted.add(marker);
+			}
+			else {
+				updated.add(marker);
+				replaced.add(table.getMarker(previous));
+			}
+			times.put(table.getId(row), table.getTime(row));
+		}
+
+		List<Marker> expired = new ArrayList<>();
+		for (Iterator<Map.Entry<String, Integer>> it = live.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, Integer> entry = it.next();
+			if (!seen.contains(entry.getKey())) {
+				expired.add(table.getMarker(entry.getValue()));
+				times.remove(entry.getKey());
+				it.remove();
+			}
+		}
+
+		int[] rows = new int[order.size()];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = live.get(order.get(i));
+		}
+		return new Delta(table.markers(rows), inserted, updated, replaced, expired);
+	}
+
+	private InputStream nextInput() throws IOException {
+		if (directory == null) {
+			return ParseFeed.openInput(applet, feedName);
+		}
+
+		Path next = null;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if ((lastFile == null || name.compareTo(lastFile) > 0)
+						&& (next == null || name.compareTo(next.getFileName().toString()) < 0)) {
+					next = file;
+				}
+			}
+		}
+		if (next == null) {
+			return null;
+		}
+		lastFile = next.getFileName().toString();
+		return Files.newInputStream(next);
+	}
+
+	/**
+	 * The outcome of one poll that changed something.
+	 */
+	public static class Delta {
+
+		private final QuakeList markers;
+		private final List<Marker> inserted;
+		private final List<Marker> updated;
+		private final List<Marker> replaced;
+		private final List<Marker> expired;
+
+		Delta(QuakeList markers, List<Marker> inserted, List<Marker> updated, List<Marker> replaced, List<Marker> expired) {
+			this.markers = markers;
+			this.inserted = Collections.unmodifiableList(inserted);
+			this.updated = Collections.unmodifiableList(updated);
+			this.replaced = Collections.unmodifiableList(replaced);
+			this.expired = Collections.unmodifiableList(expired);
+		}
+
+		/**
+		 * @return every current event in feed order; unchanged events keep
+		 * the marker they had before
+		 */
+		public QuakeList getMarkers() {
+			return markers;
+		}
+
+		public List<Marker> getInserted() {
+			return inserted;
+		}
+
+		/**
+		 * @return the new markers of updated events
+		 */
+		public List<Marker> getUpdated() {
+			return updated;
+		}
+
+		/**
+		 * @return the previous markers of the updated events, in the same order
+		 */
+		public List<Marker> getReplaced() {
+			return replaced;
+		}
+
+		/**
+		 * @return the markers of events that are no longer in the feed
+		 */
+		public List<Marker> getExpired() {
+			return expired;
+		}
+
+		public String toString() {
+			return String.format("%d quakes: %d new, %d updated, %d expired",
+					markers.size(), inserted.size(), updated.size(), expired.size());
+		}
+	}
+}
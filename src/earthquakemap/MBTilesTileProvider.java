@@ -0,0 +1,277 @@
+package earthquakemap;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sqlite.SQLiteConfig;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import processing.core.PImage;
+
+/** MBTilesTileProvider
+ * Reads the tiles of an MBTiles file through a small pool of read-only
+ * SQLite connections, each with its statements prepared once, instead of
+ * opening a statement per tile on one shared connection the way
+ * MBTilesMapProvider does.  {@link #getTiles} reads a whole range of
+ * tiles, like the ones a view needs, in a single query and decodes them in
+ * parallel on the pool's own threads.
+ *
+ * A tile set no larger than {@link #PRELOAD_BYTES} can be read into memory
+ * completely when opened; its tiles are then served without SQLite.
+ *
+ * MBTiles number rows from the south, Unfolding from the north, so rows
+ * are flipped on the way in and out.
+ * */
+public class MBTilesTileProvider extends MBTilesMapProvider {
+
+	public static final long PRELOAD_BYTES = 4 << 20;
+
+	private static final String TILE_QUERY =
+			"SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+	private static final String RANGE_QUERY = "SELECT tile_column, tile_row, tile_data FROM tiles "
+			+ "WHERE zoom_level = ? AND tile_column BETWEEN ? AND ? AND tile_row BETWEEN ? AND ?";
+	private static final String ALL_QUERY = "SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles";
+
+	private final List<PooledConnection> connections = new ArrayList<>();
+	private final BlockingQueue<PooledConnection> idle;
+	private final ExecutorService decoders;
+
+	// the blobs of the whole tile set by tile key, or null
+	private final Map<Long, byte[]> preloaded;
+
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong tilesRead = new AtomicLong();
+
+	/**
+	 * @param file the MBTiles file
+	 * @param poolSize the number of connections and decoding threads
+	 * @param preload whether to read the tile set into memory if it is small enough
+	 */
+	public MBTilesTileProvider(String file, int poolSize, boolean preload) throws SQLException {
+		super(file);
+		idle = new ArrayBlockingQueue<>(poolSize);
+		decoders = Executors.newFixedThreadPool(poolSize, runnable -> {
+			Thread thread = new Thread(runnable, "tile-decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		SQLiteConfig config = new SQLiteConfig();
+		config.setReadOnly(true);
+		try {
+			for (int i = 0; i < poolSize; i++) {
+				PooledConnection connection = new PooledConnection(config.createConnection(jdbcConnectionString));
+				connections.add(connection);
+				idle.add(connection);
+			}
+			preloaded = preload && new File(file).length() <= PRELOAD_BYTES ? readAll() : null;
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads and decodes one tile on the calling thread, one of Unfolding's
+	 * or CachingTileProvider's loader threads.
+	 */
+	@Override
+	public PImage getTile(Coordinate coordinate) {
+		int zoom = (int) coordinate.zoom;
+		int column = (int) coordinate.column;
+		int row = flip((int) coordinate.row, zoom);
+
+		byte[] bytes;
+		if (preloaded != null) {
+			bytes = preloaded.get(key(zoom, column, row));
+		}
+		else {
+			PooledConnection connection = acquire();
+			try {
+				bytes = connection.readTile(zoom, column, row);
+			} catch (SQLException e) {
+				System.err.println("Could not read tile " + coordinate + ": " + e.getMessage());
+				return null;
+			} finally {
+				idle.add(connection);
+			}
+		}
+		tilesRead.incrementAndGet();
+		return decodeOrNull(bytes);
+	}
+
+	/**
+	 * Reads every tile of a zoom level in the given range with one query and
+	 * decodes them in parallel.  Rows and columns are Unfolding's.
+	 *
+	 * @return the decoded tiles the file has in the range
+	 * @throws IllegalStateException if the range could not be read, so the
+	 * caller does not take the tiles for missing ones
+	 */
+	public Map<Coordinate, PImage> getTiles(int zoom, int minColumn, int maxColumn, int minRow, int maxRow) {
+		Map<Coordinate, byte[]> blobs = new HashMap<>();
+		if (preloaded != null) {
+			for (int row = minRow; row <= maxRow; row++) {
+				for (int column = minColumn; column <= maxColumn; column++) {
+					byte[] bytes = preloaded.get(key(zoom, column, flip(row, zoom)));
+					if (bytes != null) {
+						blobs.put(new Coordinate(row, column, zoom), bytes);
+					}
+				}
+			}
+		}
+		else {
+			PooledConnection connection = acquire();
+			try {
+				// the range flips too, so the lowest MBTiles row is the highest Unfolding row
+				connection.readRange(zoom, minColumn, maxColumn, flip(maxRow, zoom), flip(minRow, zoom), blobs);
+			} catch (SQLException e) {
+				throw new IllegalStateException("Could not read tiles at zoom " + zoom, e);
+			} finally {
+				idle.add(connection);
+			}
+		}
+		tilesRead.addAndGet(blobs.size());
+
+		Map<Coordinate, CompletableFuture<PImage>> decoding = new HashMap<>();
+		for (Map.Entry<Coordinate, byte[]> blob : blobs.entrySet()) {
+			byte[] bytes = blob.getValue();
+			decoding.put(blob.getKey(), CompletableFuture.supplyAsync(() -> decodeOrNull(bytes), decoders));
+		}
+		Map<Coordinate, PImage> images = new HashMap<>();
+		for (Map.Entry<Coordinate, CompletableFuture<PImage>> tile : decoding.entrySet()) {
+			PImage image = tile.getValue().join();
+			if (image != null) {
+				images.put(tile.getKey(), image);
+			}
+		}
+		return images;
+	}
+
+	public boolean isPreloaded() {
+		return preloaded != null;
+	}
+
+	public long getQueries() {
+		return queries.get();
+	}
+
+	public long getTilesRead() {
+		return tilesRead.get();
+	}
+
+	public void close() {
+		decoders.shutdownNow();
+		for (PooledConnection connection : connections) {
+			connection.close();
+		}
+	}
+
+	private Map<Long, byte[]> readAll() throws SQLException {
+		Map<Long, byte[]> blobs = new HashMap<>();
+		PooledConnection connection = acquire();
+		try (PreparedStatement all = connection.connection.prepareStatement(ALL_QUERY);
+				ResultSet result = all.executeQuery()) {
+			queries.incrementAndGet();
+			while (result.next()) {
+				blobs.put(key(result.getInt(1), result.getInt(2), result.getInt(3)), result.getBytes(4));
+			}
+		} finally {
+			idle.add(connection);
+		}
+		return blobs;
+	}
+
+	private PooledConnection acquire() {
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for a tile connection", e);
+		}
+	}
+
+	private static PImage decodeOrNull(byte[] bytes) {
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			return CachingTileProvider.decode(bytes);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static int flip(int row, int zoom) {
+		return (1 << zoom) - 1 - row;
+	}
+
+	private static long key(int zoom, int column, int row) {
+		return ((long) zoom << 58) | ((long) row << 29) | column;
+	}
+
+	/*
+	 * A connection with its statements.  Used by one thread at a time.
+	 */
+	private class PooledConnection {
+
+		final Connection connection;
+		final PreparedStatement tile;
+		final PreparedStatement range;
+
+		PooledConnection(Connection connection) throws SQLException {
+			this.connection = connection;
+			this.tile = connection.prepareStatement(TILE_QUERY);
+			this.range = connection.prepareStatement(RANGE_QUERY);
+		}
+
+		byte[] readTile(int zoom, int column, int row) throws SQLException {
+			tile.setInt(1, zoom);
+			tile.setInt(2, column);
+			tile.setInt(3, row);
+			queries.incrementAndGet();
+			try (ResultSet result = tile.executeQuery()) {
+				return result.next() ? result.getBytes(1) : null;
+			}
+		}
+
+		void readRange(int zoom, int minColumn, int maxColumn, int minRow, int maxRow, Map<Coordinate, byte[]> blobs)
+				throws SQLException {
+			range.setInt(1, zoom);
+			range.setInt(2, minColumn);
+			range.setInt(3, maxColumn);
+			range.setInt(4, minRow);
+			range.setInt(5, maxRow);
+			queries.incrementAndGet();
+			try (ResultSet result = range.executeQuery()) {
+				while (result.next()) {
+					int row = flip(result.getInt(2), zoom);
+					blobs.put(new Coordinate(row, result.getInt(1), zoom), result.getBytes(3));
+				}
+			}
+		}
+
+		void close() {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				// closing anyway
+			}
+		}
+	}
+}
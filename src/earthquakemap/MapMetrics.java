@@ -0,0 +1,274 @@
+package earthquakemap;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** MapMetrics
+ * Timings and counters of the map's hot paths: frame time, the map and
+ * legend draws, hover and click hit tests and live feed updates as latency
+ * histograms, the bytes the animation thread allocates per frame, the
+ * markers the last frame drew, skipped as hidden or culled, and the load
+ * stages.  They are published as an MBean and, every period, appended to
+ * a CSV file or printed.
+ *
+ * Metrics are off unless the JVM runs with -Dearthquakemap.metrics=true.
+ * Every method checks the constant {@link #ENABLED} first, so when it is
+ * false the JIT removes the calls and they cost nothing.
+ *
+ *   -Dearthquakemap.metrics.csv=metrics.csv   append to a file instead of printing
+ *   -Dearthquakemap.metrics.period=10         seconds between lines
+ * */
+public class MapMetrics implements MapMetricsMBean {
+
+	public static final boolean ENABLED = Boolean.getBoolean("earthquakemap.metrics");
+
+	private static final String OBJECT_NAME = "earthquakemap:type=MapMetrics";
+	private static final long DEFAULT_PERIOD_SECONDS = 10;
+
+	private static final String CSV_HEADER = "time,frames,frame p50 ms,frame p99 ms,frame max ms,map draw p99 ms,"
+			+ "legend p99 ms,hit test p99 us,feed update p99 ms,bytes per frame,drawn,hidden,culled";
+
+	public enum Timer {
+		FRAME, MAP_DRAW, LEGEND, HIT_TEST, FEED_UPDATE
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Timer.values().length];
+	private final StageTimer stages;
+
+	// written by the animation thread only
+	private long frameAllocationStart;
+	private volatile long allocatedBytes;
+	private volatile int drawn;
+	private volatile int hidden;
+	private volatile int culled;
+
+	private ScheduledExecutorService dumper;
+
+	public MapMetrics(StageTimer stages) {
+		this.stages = stages;
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Registers the MBean and starts the periodic dump, if enabled and not
+	 * started yet.
+	 */
+	public synchronized void start() {
+		if (!ENABLED || dumper != null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			System.err.println("Could not register metrics: " + e);
+		}
+
+		String csv = System.getProperty("earthquakemap.metrics.csv");
+		long period = Long.getLong("earthquakemap.metrics.period", DEFAULT_PERIOD_SECONDS);
+		dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> dump(csv), period, period, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stop() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				// never registered
+			}
+		}
+	}
+
+	/**
+	 * @return the start time to pass to {@link #end}, or 0 when disabled
+	 */
+	public long begin() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	public void end(Timer timer, long begin) {
+		if (ENABLED) {
+			histograms[timer.ordinal()].record(System.nanoTime() - begin);
+		}
+	}
+
+	/**
+	 * Like {@link #begin()}, and also starts counting the bytes allocated by
+	 * the calling thread.  Only called by the animation thread.
+	 */
+	public long beginFrame() {
+		if (!ENABLED) {
+			return 0;
+		}
+		frameAllocationStart = allocatedBytes();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the frame and the marker counts of the layers it drew.
+	 */
+	public void endFrame(long begin, BatchedMarkerManager... layers) {
+		if (!ENABLED) {
+			return;
+		}
+		histograms[Timer.FRAME.ordinal()].record(System.nanoTime() - begin);
+		if (frameAllocationStart >= 0) {
+			allocatedBytes += allocatedBytes() - frameAllocationStart;
+		}
+
+		int frameDrawn = 0;
+		int frameHidden = 0;
+		int frameCulled = 0;
+		for (BatchedMarkerManager layer : layers) {
+			frameDrawn += layer.getDrawnCount();
+			frameHidden += layer.getHiddenCount();
+			frameCulled += layer.getCulledCount();
+		}
+		drawn = frameDrawn;
+		hidden = frameHidden;
+		culled = frameCulled;
+	}
+
+	public LatencyHistogram getHistogram(Timer timer) {
+		return histograms[timer.ordinal()];
+	}
+
+	@Override
+	public long getFrameCount() {
+		return getHistogram(Timer.FRAME).getCount();
+	}
+
+	@Override
+	public double getFrameP50Millis() {
+		return getHistogram(Timer.FRAME).getValueAtPercentile(50) / 1e6;
+	}
+
+	@Override
+	public double getFrameP99Millis() {
+		return getHistogram(Timer.FRAME).getValueAtPercentile(99) / 1e6;
+	}
+
+	@Override
+	public double getFrameMaxMillis() {
+		return getHistogram(Timer.FRAME).getMax() / 1e6;
+	}
+
+	@Override
+	public double getMapDrawP99Millis() {
+		return getHistogram(Timer.MAP_DRAW).getValueAtPercentile(99) / 1e6;
+	}
+
+	@Override
+	public double getLegendP99Millis() {
+		return getHistogram(Timer.LEGEND).getValueAtPercentile(99) / 1e6;
+	}
+
+	@Override
+	public double getHitTestP99Micros() {
+		return getHistogram(Timer.HIT_TEST).getValueAtPercentile(99) / 1e3;
+	}
+
+	@Override
+	public double getFeedUpdateP99Millis() {
+		return getHistogram(Timer.FEED_UPDATE).getValueAtPercentile(99) / 1e6;
+	}
+
+	@Override
+	public long getAllocatedBytesPerFrame() {
+		long frames = getFrameCount();
+		return frames == 0 ? 0 : allocatedBytes / frames;
+	}
+
+	@Override
+	public int getMarkersDrawn() {
+		return drawn;
+	}
+
+	@Override
+	public int getMarkersHidden() {
+		return hidden;
+	}
+
+	@Override
+	public int getMarkersCulled() {
+		return culled;
+	}
+
+	@Override
+	public String[] getStageTimes() {
+		List<String> times = new ArrayList<>();
+		for (Map.Entry<String, Long> stage : stages.getStageMillis().entrySet()) {
+			times.add(stage.getKey() + ": " + stage.getValue() + " ms");
+		}
+		return times.toArray(new String[times.size()]);
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+		allocatedBytes = 0;
+	}
+
+	public String report() {
+		return String.format("frames %d: p50 %.1f ms, p99 %.1f ms, max %.1f ms; map draw p99 %.1f ms; "
+				+ "hit test p99 %.1f us; %d bytes per frame; markers drawn %d, hidden %d, culled %d",
+				getFrameCount(), getFrameP50Millis(), getFrameP99Millis(), getFrameMaxMillis(), getMapDrawP99Millis(),
+				getHitTestP99Micros(), getAllocatedBytesPerFrame(), drawn, hidden, culled);
+	}
+
+	private void dump(String csv) {
+		if (csv == null) {
+			System.out.println("metrics: " + report());
+			return;
+		}
+
+		boolean header = !new File(csv).exists();
+		try (PrintWriter out = new PrintWriter(new FileWriter(csv, true))) {
+			if (header) {
+				out.println(CSV_HEADER);
+			}
+			out.println(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.1f,%.3f,%d,%d,%d,%d",
+					Instant.now(), getFrameCount(), getFrameP50Millis(), getFrameP99Millis(), getFrameMaxMillis(),
+					getMapDrawP99Millis(), getLegendP99Millis(), getHitTestP99Micros(), getFeedUpdateP99Millis(),
+					getAllocatedBytesPerFrame(), drawn, hidden, culled));
+		} catch (IOException e) {
+			System.err.println("Could not write metrics: " + e);
+		}
+	}
+
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,35 @@
+package earthquakemap;
+
+/** MapMetricsMBean
+ * The JMX view of {@link MapMetrics}, under earthquakemap:type=MapMetrics.
+ * */
+public interface MapMetricsMBean {
+
+	long getFrameCount();
+
+	double getFrameP50Millis();
+
+	double getFrameP99Millis();
+
+	double getFrameMaxMillis();
+
+	double getMapDrawP99Millis();
+
+	double getLegendP99Millis();
+
+	double getHitTestP99Micros();
+
+	double getFeedUpdateP99Millis();
+
+	long getAllocatedBytesPerFrame();
+
+	int getMarkersDrawn();
+
+	int getMarkersHidden();
+
+	int getMarkersCulled();
+
+	String[] getStageTimes();
+
+	void reset();
+}
@@ -0,0 +1,339 @@
+package earthquakemap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+import de.fhpotsdam.unfolding.marker.SimplePolygonMarker;
+
+/** MapSnapshot
+ * Binary snapshot of everything the map loads at startup: the classified
+ * quake columns, the country polygons with the significance of every
+ * vertex, which gives their simplified rings for each zoom level, and the
+ * cities.  It is written after a load from the source files and read in
+ * one go on later starts, which skips XML and JSON parsing, the
+ * point-in-polygon tests and the polygon simplification.
+ *
+ * The snapshot stores a SHA-256 hash of the source files and is ignored as
+ * soon as any of them changes.
+ * */
+public class MapSnapshot {
+
+	private static final int MAGIC = 0x45514d53; // "EQMS"
+	private static final int VERSION = 5;
+	private static final int HASH_LENGTH = 32;
+
+	private final List<Marker> countries;
+	private final CountryGeometry geometry;
+	private final List<Marker> cities;
+	private final QuakeTable quakes;
+	// the rows of the table that were loaded from the sources
+	private final int quakeRows;
+
+	public MapSnapshot(List<Marker> countries, List<Marker> cities, QuakeTable quakes) {
+		this(countries, new CountryGeometry(countries), cities, quakes, quakes.size());
+	}
+
+	/**
+	 * @param geometry the geometry of the countries, e.g. of the index that
+	 * classified the quakes
+	 * @param quakeRows the first rows of the quake table, the ones loaded
+	 * from the sources, which are all that is written; a live feed appends
+	 * the rest
+	 */
+	public MapSnapshot(List<Marker> countries, CountryGeometry geometry, List<Marker> cities, QuakeTable quakes,
+			int quakeRows) {
+		this.countries = countries;
+		this.geometry = geometry;
+		this.cities = cities;
+		this.quakes = quakes;
+		this.quakeRows = quakeRows;
+	}
+
+	public List<Marker> getCountries() {
+		return countries;
+	}
+
+	/**
+	 * @return the geometry of the countries, simplification included
+	 */
+	public CountryGeometry getCountryGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * @return the city markers, created from the stored properties
+	 */
+	public List<Marker> getCities() {
+		return cities;
+	}
+
+	public QuakeTable getQuakes() {
+		return quakes;
+	}
+
+	/**
+	 * Hashes the content of the source files in the order given.
+	 */
+	public static byte[] hashSources(List<byte[]> sources) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(ByteBuffer.allocate(4).putInt(VERSION).array());
+			for (byte[] source : sources) {
+				digest.update(ByteBuffer.allocate(4).putInt(source.length).array());
+				digest.update(source);
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static byte[] readAll(InputStream input) throws IOException {
+		try (InputStream in = input) {
+			byte[] buffer = new byte[1 << 16];
+			int length = 0;
+			int read;
+			while ((read = in.read(buffer, length, buffer.length - length)) > 0) {
+				length += read;
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+			}
+			return Arrays.copyOf(buffer, length);
+		}
+	}
+
+	/**
+	 * Reads the whole snapshot file into memory and parses it.  The file is
+	 * not memory-mapped: a mapping stays open until it is garbage collected,
+	 * and on Windows an open mapping keeps the next snapshot from replacing
+	 * the file.
+	 *
+	 * @return the snapshot, or null if there is none or it was written for
+	 * different sources
+	 */
+	public static MapSnapshot read(Path file, byte[] sourceHash) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read until the buffer is full
+			}
+			buffer.flip();
+		}
+		if (buffer.remaining() < 8 + HASH_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			return null;
+		}
+		byte[] hash = new byte[HASH_LENGTH];
+		buffer.get(hash);
+		if (!Arrays.equals(hash, sourceHash)) {
+			return null;
+		}
+
+		List<Marker> countries = readCountries(buffer);
+		float[] significance = new float[buffer.getInt()];
+		buffer.asFloatBuffer().get(significance);
+		buffer.position(buffer.position() + 4 * significance.length);
+		CountryGeometry geometry = new CountryGeometry(countries, significance);
+		List<Marker> cities = readCities(buffer);
+		QuakeTable quakes = QuakeTable.readFrom(buffer);
+		return new MapSnapshot(countries, geometry, cities, quakes, quakes.size());
+	}
+
+	/**
+	 * Writes the snapshot next to the final file first and then moves it into
+	 * place, so a reader never sees a half written file.
+	 */
+	public void write(Path file, byte[] sourceHash) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(sourceHash);
+			writeCountries(out);
+			float[] significance = geometry.getSignificance();
+			out.writeInt(significance.length);
+			for (float value : significance) {
+				out.writeFloat(value);
+			}
+			writeCities(out);
+			quakes.writeTo(out, quakeRows);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void writeCountries(DataOutputStream out) throws IOException {
+		out.writeInt(countries.size());
+		for (Marker country : countries) {
+			writeString(out, country.getId());
+			writeProperties(out, country.getProperties());
+
+			List<Marker> polygons = country.getClass() == MultiMarker.class
+					? ((MultiMarker) country).getMarkers() : Arrays.asList(country);
+			out.writeBoolean(country.getClass() == MultiMarker.class);
+			out.writeInt(polygons.size());
+			for (Marker polygon : polygons) {
+				AbstractShapeMarker shape = (AbstractShapeMarker) polygon;
+				writeRing(out, shape.getLocations());
+				List<List<Location>> holes = shape.getInteriorRings();
+				out.writeInt(holes == null ? 0 : holes.size());
+				if (holes != null) {
+					for (List<Location> hole : holes) {
+						writeRing(out, hole);
+					}
+				}
+			}
+		}
+	}
+
+	private static List<Marker> readCountries(ByteBuffer in) {
+		int count = in.getInt();
+		List<Marker> countries = new ArrayList<>(count);
+		for (int c = 0; c < count; c++) {
+			String id = readString(in);
+			HashMap<String, Object> properties = readProperties(in);
+
+			boolean multi = in.get() != 0;
+			int polygonCount = in.getInt();
+			List<Marker> polygons = new ArrayList<>(polygonCount);
+			for (int p = 0; p < polygonCount; p++) {
+				// like MapUtils, the parts of a multi polygon have no id or properties of their own
+				SimplePolygonMarker polygon = new SimplePolygonMarker(readRing(in), multi ? new HashMap<>() : properties);
+				int holeCount = in.getInt();
+				if (holeCount > 0) {
+					List<List<Location>> holes = new ArrayList<>(holeCount);
+					for (int h = 0; h < holeCount; h++) {
+						holes.add(readRing(in));
+					}
+					polygon.setInteriorRings(holes);
+				}
+				polygons.add(polygon);
+			}
+
+			Marker country;
+			if (multi) {
+				MultiMarker multiMarker = new MultiMarker();
+				multiMarker.setMarkers(polygons);
+				multiMarker.setProperties(properties);
+				country = multiMarker;
+			}
+			else {
+				country = polygons.get(0);
+			}
+			country.setId(id);
+			countries.add(country);
+		}
+		return countries;
+	}
+
+	private void writeCities(DataOutputStream out) throws IOException {
+		out.writeInt(cities.size());
+		for (Marker city : cities) {
+			out.writeFloat(city.getLocation().getLat());
+			out.writeFloat(city.getLocation().getLon());
+			writeString(out, city.getId());
+			writeProperties(out, city.getProperties());
+		}
+	}
+
+	private static List<Marker> readCities(ByteBuffer in) {
+		int count = in.getInt();
+		List<Marker> cities = new ArrayList<>(count);
+		for (int c = 0; c < count; c++) {
+			PointFeature feature = new PointFeature(new Location(in.getFloat(), in.getFloat()));
+			feature.setId(readString(in));
+			feature.setProperties(readProperties(in));
+			cities.add(new CityMarker(feature));
+		}
+		return cities;
+	}
+
+	private static void writeRing(DataOutputStream out, List<Location> ring) throws IOException {
+		out.writeInt(ring.size());
+		for (Location location : ring) {
+			out.writeFloat(location.getLat());
+			out.writeFloat(location.getLon());
+		}
+	}
+
+	private static List<Location> readRing(ByteBuffer in) {
+		int size = in.getInt();
+		List<Location> ring = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			ring.add(new Location(in.getFloat(), in.getFloat()));
+		}
+		return ring;
+	}
+
+	/*
+	 * The GeoJSON properties of countries and cities are all strings.
+	 */
+	private static void writeProperties(DataOutputStream out, HashMap<String, Object> properties) throws IOException {
+		if (properties == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(properties.size());
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			writeString(out, property.getKey());
+			writeString(out, property.getValue() == null ? null : property.getValue().toString());
+		}
+	}
+
+	private static HashMap<String, Object> readProperties(ByteBuffer in) {
+		int size = in.getInt();
+		if (size < 0) {
+			return null;
+		}
+		HashMap<String, Object> properties = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			properties.put(readString(in), readString(in));
+		}
+		return properties;
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,24 @@
+package earthquakemap;
+
+/** MarkerColumns
+ * A marker list that can tell where its markers are and how far they can
+ * be hit without creating them.  {@link MarkerProjection} and
+ * {@link MarkerHitIndex} read these instead of asking every marker, so a
+ * list that creates its markers on demand only creates the ones that are
+ * drawn or hit.
+ * */
+public interface MarkerColumns {
+
+	/**
+	 * @return the latitude of the marker at the index in the list
+	 */
+	float getLat(int index);
+
+	float getLon(int index);
+
+	/**
+	 * @return the {@link CommonMarker#getHitRadius()} of the marker at the
+	 * index in the list
+	 */
+	float getHitRadius(int index);
+}
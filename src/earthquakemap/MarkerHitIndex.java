@@ -0,0 +1,189 @@
+package earthquakemap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PApplet;
+
+/** MarkerHitIndex
+ * A screen-space grid over a list of markers for hover and click tests.
+ * Screen positions come from a {@link MarkerProjection} and are bucketed
+ * into cells; the grid is only rebuilt when the map has been panned or
+ * zoomed, or when the marker list is invalidated, so a query touches just
+ * the markers near the cursor.  For lists that implement
+ * {@link MarkerColumns} only the markers within their hit radius of the
+ * cursor are looked at.
+ * The result is the same marker a scan over the list with
+ * {@link CommonMarker#isInside(UnfoldingMap, float, float)} would return,
+ * up to the float rounding of the positions.
+ * */
+public class MarkerHitIndex {
+
+	private static final float CELL_SIZE = 32;
+
+	private final List<? extends Marker> markers;
+	private final MarkerProjection projection;
+	private final float width;
+	private final float height;
+	private final int columns;
+	private final int rows;
+
+	private float[] screenX = new float[0];
+	private float[] screenY = new float[0];
+	private int[] cellStart;
+	private int[] cellItems = new int[0];
+	private float maxRadius;
+
+	private boolean valid;
+
+	/**
+	 * @param markers the CommonMarkers to index, in priority order
+	 * @param width width of the area the mouse can be in
+	 * @param height height of the area the mouse can be in
+	 */
+	public MarkerHitIndex(List<? extends Marker> markers, float width, float height) {
+		this.markers = markers;
+		this.projection = new MarkerProjection(markers, true);
+		this.width = width;
+		this.height = height;
+		this.columns = Math.max(1, (int) Math.ceil(width / CELL_SIZE));
+		this.rows = Math.max(1, (int) Math.ceil(height / CELL_SIZE));
+		this.cellStart = new int[columns * rows + 1];
+	}
+
+	/**
+	 * Marks the index stale, e.g. after markers were added or removed.
+	 */
+	public void invalidate() {
+		valid = false;
+		projection.invalidate();
+	}
+
+	/**
+	 * Finds the first marker, in list order, the mouse position is inside.
+	 *
+	 * @param includeHidden whether hidden markers can be hit
+	 * @return the marker or null
+	 */
+	public CommonMarker findHit(UnfoldingMap map, float x, float y, boolean includeHidden) {
+		if (projection.update(map.mapDisplay) || !valid) {
+			int count = ensureCapacity();
+			for (int i = 0; i < count; i++) {
+				screenX[i] = projection.getX(i);
+				screenY[i] = projection.getY(i);
+			}
+			buildGrid(count);
+		}
+		return query(x, y, includeHidden);
+	}
+
+	/**
+	 * Reprojects every marker with the given projection and rebuilds the grid.
+	 */
+	public void rebuild(Function<Location, ScreenPosition> projection) {
+		int count = ensureCapacity();
+		MarkerColumns markerColumns = markers instanceof MarkerColumns ? (MarkerColumns) markers : null;
+		for (int i = 0; i < count; i++) {
+			ScreenPosition position = projection.apply(markerColumns != null
+					? new Location(markerColumns.getLat(i), markerColumns.getLon(i)) : markers.get(i).getLocation());
+			screenX[i] = position.x;
+			screenY[i] = position.y;
+		}
+		buildGrid(count);
+	}
+
+	private int ensureCapacity() {
+		int count = markers.size();
+		if (screenX.length < count) {
+			screenX = new float[count];
+			screenY = new float[count];
+			cellItems = new int[count];
+		}
+		return count;
+	}
+
+	private void buildGrid(int count) {
+		int[] cellOf = new int[count];
+		Arrays.fill(cellStart, 0);
+		maxRadius = 0;
+		MarkerColumns markerColumns = markers instanceof MarkerColumns ? (MarkerColumns) markers : null;
+		for (int i = 0; i < count; i++) {
+			float radius = markerColumns != null ? markerColumns.getHitRadius(i) : ((CommonMarker) markers.get(i)).getHitRadius();
+			maxRadius = Math.max(maxRadius, radius);
+			cellOf[i] = cell(screenX[i], screenY[i]);
+			cellStart[cellOf[i] + 1]++;
+		}
+
+		for (int c = 0; c < columns * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] fill = Arrays.copyOf(cellStart, columns * rows);
+		// Filling in list order keeps every cell sorted by marker index
+		for (int i = 0; i < count; i++) {
+			cellItems[fill[cellOf[i]]++] = i;
+		}
+		valid = true;
+	}
+
+	/**
+	 * Looks up the grid as it was last built.
+	 */
+	public CommonMarker query(float x, float y, boolean includeHidden) {
+		int columnLow = column(x - maxRadius);
+		int columnHigh = column(x + maxRadius);
+		int rowLow = row(y - maxRadius);
+		int rowHigh = row(y + maxRadius);
+
+		MarkerColumns markerColumns = markers instanceof MarkerColumns ? (MarkerColumns) markers : null;
+		int best = Integer.MAX_VALUE;
+		for (int r = rowLow; r <= rowHigh; r++) {
+			for (int c = columnLow; c <= columnHigh; c++) {
+				int cell = r * columns + c;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = cellItems[k];
+					if (i >= best) {
+						break;
+					}
+					if (markerColumns != null && !isNear(x, y, screenX[i], screenY[i], markerColumns.getHitRadius(i))) {
+						continue;
+					}
+					CommonMarker marker = (CommonMarker) markers.get(i);
+					if ((includeHidden || !marker.isHidden()) && marker.isInside(x, y, screenX[i], screenY[i])) {
+						best = i;
+						break;
+					}
+				}
+			}
+		}
+		return best == Integer.MAX_VALUE ? null : (CommonMarker) markers.get(best);
+	}
+
+	/*
+	 * Whether the mouse can be inside a marker, before the marker is asked;
+	 * the same test as a point marker's own isInside.
+	 */
+	private static boolean isNear(float x, float y, float markerX, float markerY, float hitRadius) {
+		return PApplet.dist(markerX, markerY, x, y) < hitRadius;
+	}
+
+	/*
+	 * Positions outside the area are clamped into the border cells, which
+	 * keeps them reachable from any mouse position within the hit radius.
+	 */
+	private int cell(float x, float y) {
+		return row(y) * columns + column(x);
+	}
+
+	private int column(float x) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / CELL_SIZE)));
+	}
+
+	private int row(float y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE)));
+	}
+}
@@ -0,0 +1,192 @@
+package earthquakemap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.mapdisplay.AbstractMapDisplay;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** MarkerProjection
+ * The positions of a list of markers in the current view, kept in float
+ * arrays.  Unfolding projects a Location with Mercator trigonometry and two
+ * matrix products on every call, although only the last step depends on
+ * the view.  Here every location is projected once into Unfolding's world
+ * space, its inner object space, and {@link #update} reads the affine
+ * transform from the world to the view from the map display.  Only when
+ * that transform differs from the last one, i.e. after a pan or zoom, are
+ * the view positions recomputed, in one pass, which is split over the
+ * common ForkJoin pool for large lists.
+ *
+ * The positions are either screen positions, as for hit tests, or object
+ * positions in the map's own canvas, as for drawing.  Lists that implement
+ * {@link MarkerColumns} are projected from their columns, without asking
+ * for a single marker.
+ * */
+public class MarkerProjection {
+
+	// Lists at least this long are transformed in parallel, in chunks of this size
+	private static final int PARALLEL_CHUNK = 1 << 14;
+
+	// The transform is read at the view's center over this many pixels
+	private static final float PROBE_PIXELS = 256;
+
+	private final List<? extends Marker> markers;
+	private final boolean screen;
+
+	private float[] worldX = new float[0];
+	private float[] worldY = new float[0];
+	private float[] viewX = new float[0];
+	private float[] viewY = new float[0];
+	// the number of markers projected into the world, or -1 to project again
+	private int count = -1;
+
+	// dx/dworldX, dx/dworldY, dy/dworldX, dy/dworldY, and a world point with its view position
+	private final double[] transform = new double[8];
+	private final double[] current = new double[8];
+	private boolean positionsValid;
+
+	/**
+	 * @param markers the markers, whose list and locations are not changed
+	 * without a call to {@link #invalidate()}
+	 * @param screen whether to compute screen positions instead of object positions
+	 */
+	public MarkerProjection(List<? extends Marker> markers, boolean screen) {
+		this.markers = markers;
+		this.screen = screen;
+	}
+
+	public List<? extends Marker> getMarkers() {
+		return markers;
+	}
+
+	/**
+	 * Projects every location again on the next update, e.g. after markers
+	 * were added or moved.
+	 */
+	public void invalidate() {
+		count = -1;
+	}
+
+	/**
+	 * Brings the positions up to date with the view of the display.
+	 *
+	 * @return whether the positions changed since the last update
+	 */
+	public boolean update(AbstractMapDisplay display) {
+		boolean projected = false;
+		if (count != markers.size()) {
+			projectWorld(display);
+			projected = true;
+		}
+		readTransform(display, current);
+		if (positionsValid && !projected && Arrays.equals(current, transform)) {
+			return false;
+		}
+
+		System.arraycopy(current, 0, transform, 0, transform.length);
+		if (count >= 2 * PARALLEL_CHUNK) {
+			IntStream.range(0, (count + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK).parallel()
+					.forEach(chunk -> transform(chunk * PARALLEL_CHUNK, Math.min(count, (chunk + 1) * PARALLEL_CHUNK)));
+		}
+		else {
+			transform(0, count);
+		}
+		positionsValid = true;
+		return true;
+	}
+
+	public int size() {
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * @return the position of the marker at the index in the list as of the
+	 * last update
+	 */
+	public float getX(int index) {
+		return viewX[index];
+	}
+
+	public float getY(int index) {
+		return viewY[index];
+	}
+
+	private void projectWorld(AbstractMapDisplay display) {
+		count = markers.size();
+		if (worldX.length < count) {
+			worldX = new float[count];
+			worldY = new float[count];
+			viewX = new float[count];
+			viewY = new float[count];
+		}
+		if (markers instanceof MarkerColumns) {
+			MarkerColumns columns = (MarkerColumns) markers;
+			Location location = new Location(0f, 0f);
+			for (int i = 0; i < count; i++) {
+				location.setLat(columns.getLat(i));
+				location.setLon(columns.getLon(i));
+				float[] world = display.getInnerObjectFromLocation(location);
+				worldX[i] = world[0];
+				worldY[i] = world[1];
+			}
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			float[] world = display.getInnerObjectFromLocation(markers.get(i).getLocation());
+			worldX[i] = world[0];
+			worldY[i] = world[1];
+		}
+	}
+
+	/*
+	 * Projects three world points around the center of the view.  Reading
+	 * the transform there keeps the large offsets of a deep zoom out of the
+	 * float positions Unfolding computes.
+	 */
+	private void readTransform(AbstractMapDisplay display, double[] into) {
+		float[] center = display.getInnerObjectFromObjectPosition(display.getWidth() / 2, display.getHeight() / 2);
+		float span = PROBE_PIXELS / Math.max(display.innerScale, Float.MIN_NORMAL);
+		float[] origin = view(display, center[0], center[1]);
+		float[] right = view(display, center[0] + span, center[1]);
+		float[] down = view(display, center[0], center[1] + span);
+		into[0] = (right[0] - origin[0]) / span;
+		into[1] = (down[0] - origin[0]) / span;
+		into[2] = (right[1] - origin[1]) / span;
+		into[3] = (down[1] - origin[1]) / span;
+		into[4] = center[0];
+		into[5] = center[1];
+		into[6] = origin[0];
+		into[7] = origin[1];
+	}
+
+	private float[] view(AbstractMapDisplay display, float worldX, float worldY) {
+		return screen ? display.getScreenFromInnerObjectPosition(worldX, worldY)
+				: display.getObjectFromInnerObjectPosition(worldX, worldY);
+	}
+
+	/*
+	 * A plain loop over primitive arrays, which the JIT unrolls and
+	 * vectorizes.  Screen positions are rounded to whole pixels, as
+	 * Unfolding's ScreenPosition does.
+	 */
+	private void transform(int from, int to) {
+		double a = transform[0];
+		double b = transform[1];
+		double c = transform[2];
+		double d = transform[3];
+		double centerX = transform[4];
+		double centerY = transform[5];
+		double originX = transform[6];
+		double originY = transform[7];
+		for (int i = from; i < to; i++) {
+			double x = worldX[i] - centerX;
+			double y = worldY[i] - centerY;
+			float positionX = (float) (originX + a * x + b * y);
+			float positionY = (float) (originY + c * x + d * y);
+			viewX[i] = screen ? Math.round(positionX) : positionX;
+			viewY[i] = screen ? Math.round(positionY) : positionY;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package earthquakemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** MarkerStore
+ * Copy-on-write store of a marker list that is changed by background
+ * threads while the animation thread draws it.  Writers stage inserts,
+ * updates and removals from any thread, and {@link #publish()} applies
+ * everything staged so far to a copy of the list and makes it the current
+ * {@link Version} in one volatile write.  Readers take the current version
+ * without locking and keep a consistent list for as long as they hold it;
+ * a version is never changed after it was published.
+ *
+ * Markers are matched up by id for updates and removals.  A list of
+ * quakes that are rows of a {@link QuakeTable} stays one: a publish then
+ * works on the rows, staged quakes must be rows of the same table, and no
+ * marker is created for the quakes that did not change.
+ * */
+public class MarkerStore {
+
+	private final ConcurrentLinkedQueue<Change> staged = new ConcurrentLinkedQueue<>();
+	private final Object publishLock = new Object();
+
+	private volatile Version current;
+
+	public MarkerStore() {
+		this(Collections.emptyList());
+	}
+
+	public MarkerStore(List<? extends Marker> markers) {
+		current = new Version(0, copyOf(markers));
+	}
+
+	/**
+	 * @return the last published version; never blocks
+	 */
+	public Version read() {
+		return current;
+	}
+
+	/**
+	 * Stages a new marker, appended on the next publish.
+	 */
+	public void stageInsert(Marker marker) {
+		staged.add(new Change(marker, null));
+	}
+
+	/**
+	 * Stages a marker that replaces the one with the same id, or is appended
+	 * if there is none.
+	 */
+	public void stageUpdate(Marker marker) {
+		staged.add(new Change(marker, marker.getId()));
+	}
+
+	/**
+	 * Stages the removal of the marker with the given id.
+	 */
+	public void stageRemove(String id) {
+		staged.add(new Change(null, id));
+	}
+
+	/**
+	 * Applies all changes staged so far.  Publishing is serialized between
+	 * writers but never waits for readers.
+	 *
+	 * @return the new version, or the current one if nothing was staged
+	 */
+	public Version publish() {
+		synchronized (publishLock) {
+			if (staged.isEmpty()) {
+				return current;
+			}
+
+			Draft draft = current.markers instanceof QuakeList
+					? new RowDraft((QuakeList) current.markers) : new ListDraft(current.markers);
+			Map<String, Integer> positions = positionsOf(draft);
+			for (Change change = staged.poll(); change != null; change = staged.poll()) {
+				Integer position = change.id == null ? null : positions.get(change.id);
+				if (change.marker == null) {
+					if (position != null) {
+						// removed markers leave a gap that is closed below
+						draft.set(position, null);
+						positions.remove(change.id);
+					}
+				}
+				else if (position != null) {
+					draft.set(position, change.marker);
+				}
+				else {
+					if (change.marker.getId() != null) {
+						positions.put(change.marker.getId(), draft.size());
+					}
+					draft.add(change.marker);
+				}
+			}
+
+			current = new Version(current.number + 1, draft.finish());
+			return current;
+		}
+	}
+
+	/**
+	 * Replaces the whole list, dropping anything that is staged.
+	 */
+	public Version replaceAll(List<? extends Marker> markers) {
+		synchronized (publishLock) {
+			staged.clear();
+			current = new Version(current.number + 1, copyOf(markers));
+			return current;
+		}
+	}
+
+	/*
+	 * A list of quakes is read-only already and is kept as it is.
+	 */
+	private static List<Marker> copyOf(List<? extends Marker> markers) {
+		return markers instanceof QuakeList ? (QuakeList) markers : new ArrayList<>(markers);
+	}
+
+	private static Map<String, Integer> positionsOf(Draft draft) {
+		Map<String, Integer> positions = new HashMap<>(draft.size() * 2);
+		for (int i = 0; i < draft.size(); i++) {
+			String id = draft.getId(i);
+			if (id != null) {
+				positions.put(id, i);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * One published state of the store.
+	 */
+	public static final class Version {
+
+		private final long number;
+		private final List<Marker> markers;
+
+		Version(long number, List<Marker> markers) {
+			this.number = number;
+			this.markers = markers instanceof QuakeList ? markers : Collections.unmodifiableList(markers);
+		}
+
+		/**
+		 * @return a number that grows with every publish
+		 */
+		public long getNumber() {
+			return number;
+		}
+
+		/**
+		 * @return the markers of this version, which never change
+		 */
+		public List<Marker> getMarkers() {
+			return markers;
+		}
+	}
+
+	/*
+	 * The list of the next version while a publish applies the changes.
+	 */
+	private interface Draft {
+
+		int size();
+
+		String getId(int position);
+
+		/*
+		 * Replaces the marker at the position; null removes it.
+		 */
+		void set(int position, Marker marker);
+
+		void add(Marker marker);
+
+		/*
+		 * Closes the gaps of removed markers.
+		 */
+		List<Marker> finish();
+	}
+
+	private static final class ListDraft implements Draft {
+
+		private final List<Marker> markers;
+		private boolean removed;
+
+		ListDraft(List<Marker> markers) {
+			this.markers = new ArrayList<>(markers);
+		}
+
+		@Override
+		public int size() {
+			return markers.size();
+		}
+
+		@Override
+		public String getId(int position) {
+			return markers.get(position).getId();
+		}
+
+		@Override
+		public void set(int position, Marker marker) {
+			markers.set(position, marker);
+			removed |= marker == null;
+		}
+
+		@Override
+		public void add(Marker marker) {
+			markers.add(marker);
+		}
+
+		@Override
+		public List<Marker> finish() {
+			if (removed) {
+				markers.removeIf(marker -> marker == null);
+			}
+			return markers;
+		}
+	}
+
+	/*
+	 * Works on the rows of a list of quakes, reading the ids from the table.
+	 */
+	private static final class RowDraft implements Draft {
+
+		private final QuakeTable table;
+		private int[] rows;
+		private int size;
+		private boolean removed;
+
+		RowDraft(QuakeList quakes) {
+			table = quakes.getTable();
+			size = quakes.size();
+			rows = new int[size + 16];
+			for (int i = 0; i < size; i++) {
+				rows[i] = quakes.getRow(i);
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public String getId(int position) {
+			return table.getId(rows[position]);
+		}
+
+		@Override
+		public void set(int position, Marker marker) {
+			rows[position] = marker == null ? -1 : rowOf(marker);
+			removed |= marker == null;
+		}
+
+		@Override
+		public void add(Marker marker) {
+			if (size == rows.length) {
+				rows = Arrays.copyOf(rows, size * 2);
+			}
+			rows[size++] = rowOf(marker);
+		}
+
+		@Override
+		public List<Marker> finish() {
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (!removed || rows[i] >= 0) {
+					rows[n++] = rows[i];
+				}
+			}
+			return table.markers(Arrays.copyOf(rows, n));
+		}
+
+		private int rowOf(Marker marker) {
+			int row = ((EarthquakeMarker) marker).getRow();
+			if (row < 0) {
+				throw new IllegalArgumentException("Not a quake of a table: " + marker);
+			}
+			return row;
+		}
+	}
+
+	/*
+	 * A staged change: a marker without id to append, a marker with id to
+	 * replace, or only an id to remove.
+	 */
+	private static final class Change {
+
+		final Marker marker;
+		final String id;
+
+		Change(Marker marker, String id) {
+			this.marker = marker;
+			this.id = id;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package earthquakemap;
 
 import de.fhpotsdam.unfolding.data.PointFeature;
 import processing.core.PGraphics;
+import processing.core.PImage;
 
 public class OceanQuakeMarker extends EarthquakeMarker {
 
@@ -10,8 +11,18 @@ public class OceanQuakeMarker extends EarthquakeMarker {
 		isOnLand = false;
 	}
 
+	public OceanQuakeMarker(QuakeTable table, int row) {
+		super(table, row);
+		isOnLand = false;
+	}
+
 	@Override
 	public void drawEarthquake(PGraphics pg, float x, float y) {
 		pg.image(EarthquakeCityMap.oceanMarker, x - 5, y - 5, 2 * radius, 2 * radius);
 	}
+
+	@Override
+	public PImage getSprite() {
+		return EarthquakeCityMap.oceanMarker;
+	}
 }
@@ -0,0 +1,37 @@
+package earthquakemap;
+
+/** QuakeAge
+ * The "Age" category of a feed entry, parsed once instead of compared as a
+ * string on every frame.
+ * */
+public enum QuakeAge {
+
+	PAST_HOUR("Past Hour"),
+	PAST_DAY("Past Day"),
+	PAST_WEEK("Past Week"),
+	PAST_MONTH("Past Month"),
+	UNKNOWN(null);
+
+	private final String term;
+
+	QuakeAge(String term) {
+		this.term = term;
+	}
+
+	public String getTerm() {
+		return term;
+	}
+
+	public boolean isWithinLastDay() {
+		return this == PAST_HOUR || this == PAST_DAY;
+	}
+
+	public static QuakeAge fromTerm(String term) {
+		for (QuakeAge age : values()) {
+			if (age.term != null && age.term.equals(term)) {
+				return age;
+			}
+		}
+		return UNKNOWN;
+	}
+}
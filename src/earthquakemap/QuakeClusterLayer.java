@@ -0,0 +1,1418 @@
+package earthquakemap;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntConsumer;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** QuakeClusterLayer
+ * Draws the quake markers with a zoom dependent level of detail.  Clusters
+ * are precomputed for every zoom level up to {@link #MAX_CLUSTER_ZOOM}, from
+ * the most detailed level down: each level greedily merges the entries of
+ * the level below that lie within a fixed screen radius of each other, as
+ * supercluster does.  A frame then draws one marker per cluster, which
+ * keeps the frame time bounded by the screen size instead of the catalog
+ * size, and quakes that have no neighbors are drawn as their own marker.
+ * Above the last level every quake is drawn on its own, and only the
+ * markers whose projected positions are inside the visible part of the
+ * map are drawn at all.
+ *
+ * The clustering of a level is done per map tile of its zoom, so that a
+ * change only affects the tiles around it.  Each tile is clustered together
+ * with a halo of the entries of its neighboring tiles near its border, and
+ * every entry of the tile joins the seed it is merged into there, which
+ * may lie across the border.  So quakes on either side of a tile border,
+ * e.g. the equator, still merge, and each quake is counted in exactly one
+ * cluster.  A cluster is kept with the tile of its seed.  The entries of a
+ * level are kept in Z-order of their tiles, where the four tiles of the
+ * next level inside a tile are adjacent.  {@link #updated} uses that to
+ * derive the layer of a changed quake list, clustering again only the tiles
+ * within reach of the changed quakes and copying the rest.
+ *
+ * With a time window set, e.g. during playback, only the quakes that
+ * happened inside the window are drawn, each on its own.  They are a range
+ * of the {@link QuakeTimeIndex}, so moving the window does not scan the
+ * catalog.  Which quakes get the X for the last day is decided by the
+ * layer when it draws them, so a layer derived by {@link #updated} does
+ * not change how this one looks.
+ * */
+public class QuakeClusterLayer extends BatchedMarkerManager {
+
+	public static final int MAX_CLUSTER_ZOOM = 12;
+
+	// Screen distance in pixels within which quakes are merged
+	private static final float CLUSTER_RADIUS = 30;
+	// How far beyond its border a tile is clustered with its neighbors' entries,
+	// in cluster radii
+	private static final int HALO = 2;
+
+	// Markers this far outside the map are still drawn, so large ones do not pop in
+	private static final float CULL_MARGIN = 40;
+
+	private static final int MAX_CELLS = 1 << 20;
+	private static final int INDEX_BITS = 23;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+	private static final double MAX_LATITUDE = 85.0511;
+
+	// Positions are ordered on a grid of 2^POSITION_BITS cells per axis
+	private static final int POSITION_BITS = 26;
+	// Sort keys pack the tile at this zoom above the position in the list
+	private static final int SORT_ZOOM = 20;
+
+	private final QuakeList quakes;
+	private final float width;
+	private final float height;
+	private final MarkerHitIndex quakeHitIndex;
+	private final MarkerProjection quakeProjection;
+	private final Level points;
+	private final Level[] levels = new Level[MAX_CLUSTER_ZOOM + 1];
+	private final QuakeTimeIndex timeIndex;
+	private final MarkerProjection timeProjection;
+
+	private boolean clustering = true;
+
+	// quakes up to a day before this time are drawn as recent
+	private long recentReference;
+
+	// the positions of the time index inside the window, while there is one
+	private boolean windowed;
+	private int windowFrom;
+	private int windowTo;
+	private MarkerHitIndex windowHitIndex;
+
+	// the rows of the quakes shown, while only some are
+	private BitSet shown;
+	private MarkerHitIndex shownHitIndex;
+
+	/**
+	 * @param quakes the quakes, in drawing order
+	 * @param width width of the area the mouse can be in
+	 * @param height height of the area the mouse can be in
+	 */
+	public QuakeClusterLayer(QuakeList quakes, float width, float height) {
+		super(quakes);
+		if (quakes.size() > INDEX_MASK) {
+			throw new IllegalArgumentException("Too many markers to cluster: " + quakes.size());
+		}
+		this.quakes = quakes;
+		this.width = width;
+		this.height = height;
+		this.quakeHitIndex = new MarkerHitIndex(quakes, width, height);
+		this.quakeProjection = new MarkerProjection(quakes, false);
+
+		points = Level.of(quakes);
+		Clusterer clusterer = new Clusterer();
+		Level level = points;
+		for (int zoom = MAX_CLUSTER_ZOOM; zoom >= 0; zoom--) {
+			level = cluster(level, zoom, clusterer);
+			levels[zoom] = level;
+		}
+
+		timeIndex = new QuakeTimeIndex(quakes);
+		recentReference = timeIndex.getLatest();
+		timeProjection = new MarkerProjection(timeIndex.getMarkers(), false);
+	}
+
+	private QuakeClusterLayer(QuakeList quakes, float width, float height,
+			Level points, Level[] levels, QuakeTimeIndex timeIndex) {
+		super(quakes);
+		this.quakes = quakes;
+		this.width = width;
+		this.height = height;
+		this.quakeHitIndex = new MarkerHitIndex(quakes, width, height);
+		this.quakeProjection = new MarkerProjection(quakes, false);
+		this.points = points;
+		System.arraycopy(levels, 0, this.levels, 0, levels.length);
+		this.timeIndex = timeIndex;
+		recentReference = timeIndex.getLatest();
+		timeProjection = new MarkerProjection(timeIndex.getMarkers(), false);
+	}
+
+	/**
+	 * Derives the layer of a changed quake list, e.g. after a feed update,
+	 * without clustering it from scratch.  On every level a seed can only
+	 * change in the tiles whose block holds a changed entry of the level
+	 * below, the removed and added quakes to begin with.  Only the tiles of
+	 * those entries' seeds, before and after, get different clusters, and
+	 * they are clustered again from the tiles with entries in reach.  The
+	 * result is the layer the constructor builds for the new list, up to
+	 * the drawing order of quakes at the same position.  This layer is left
+	 * as it was and can be drawn meanwhile.
+	 *
+	 * @param quakes the new quake list, in drawing order, of the same table
+	 * @param removed quakes of this layer that are not in the new list
+	 * @param added quakes of the new list that are not in this layer
+	 */
+	public QuakeClusterLayer updated(QuakeList quakes, Collection<? extends Marker> removed,
+			Collection<? extends Marker> added) {
+		if (quakes.size() > INDEX_MASK) {
+			throw new IllegalArgumentException("Too many markers to cluster: " + quakes.size());
+		}
+		Level nextPoints = points.updated(removed, added);
+
+		Changes changes = new Changes();
+		for (Marker quake : removed) {
+			changes.add(quake.getLocation());
+		}
+		for (Marker quake : added) {
+			changes.add(quake.getLocation());
+		}
+
+		Clusterer clusterer = new Clusterer();
+		Level[] nextLevels = new Level[MAX_CLUSTER_ZOOM + 1];
+		Level oldFrom = points;
+		Level from = nextPoints;
+		for (int zoom = MAX_CLUSTER_ZOOM; zoom >= 0; zoom--) {
+			double radius = radius(zoom);
+			long[] blocks = changes.blockTiles(zoom, radius * HALO);
+			Level old = levels[zoom];
+			Changes next = new Changes();
+			Level level;
+			if (blocks.length * 4L >= Math.min(from.size, 1L << 2 * zoom)) {
+				// with a good share of the tiles changed, finding the seeds
+				// before and after costs more than clustering them all
+				level = cluster(from, zoom, clusterer);
+				level.diff(old, next);
+				nextLevels[zoom] = level;
+				oldFrom = old;
+				from = level;
+				changes = next;
+				continue;
+			}
+
+			for (long tile : blocks) {
+				clusterer.addSeedTiles(oldFrom, zoom, tile);
+				clusterer.addSeedTiles(from, zoom, tile);
+			}
+			long[] changed = clusterer.takeSeedTiles();
+			// members lie within the radius of their seed, which lies less than
+			// a radius outside its tile
+			for (long tile : near(from, zoom, changed, 2 * radius)) {
+				int start = from.lowerBound(tile, zoom);
+				int end = from.lowerBound(tile + 1, zoom);
+				if (start < end) {
+					clusterer.findNeighbors(from, zoom, tile);
+					clusterer.assign(from, zoom, tile, start, end, changed, changed.length);
+				}
+			}
+
+			level = new Level(zoom, zoom, old.size + clusterer.groupCount());
+			int copied = 0;
+			for (long tile : changed) {
+				int oldStart = old.lowerBound(tile, zoom);
+				level.copyRange(old, copied, oldStart);
+				copied = old.lowerBound(tile + 1, zoom);
+				int start = level.size;
+				clusterer.emit(from, level, tile);
+				level.diff(start, level.size, old, oldStart, copied, next);
+			}
+			level.copyRange(old, copied, old.size);
+			level.trim();
+			nextLevels[zoom] = level;
+			oldFrom = old;
+			from = level;
+			changes = next;
+		}
+
+		return new QuakeClusterLayer(quakes, width, height, nextPoints, nextLevels,
+				timeIndex.updated(quakes, removed, added));
+	}
+
+	/**
+	 * Turns clustering on or off; with clustering off every quake is drawn
+	 * on its own, e.g. while some of them are hidden.
+	 */
+	public void setClustering(boolean clustering) {
+		this.clustering = clustering;
+		invalidate();
+	}
+
+	public boolean isClustering() {
+		return clustering;
+	}
+
+	public QuakeTimeIndex getTimeIndex() {
+		return timeIndex;
+	}
+
+	/**
+	 * Shows only the quakes that happened at or after from and before to,
+	 * and marks the quakes of the day before to as recent.
+	 */
+	public void setTimeWindow(long from, long to) {
+		windowFrom = timeIndex.lowerBound(from);
+		windowTo = Math.max(windowFrom, timeIndex.lowerBound(to));
+		windowed = true;
+		windowHitIndex = null;
+		recentReference = to - 1;
+		invalidate();
+	}
+
+	/**
+	 * Shows every quake again, with the quakes of the day before the latest
+	 * one marked as recent.
+	 */
+	public void clearTimeWindow() {
+		windowed = false;
+		windowHitIndex = null;
+		recentReference = timeIndex.getLatest();
+		invalidate();
+	}
+
+	public boolean isTimeWindowed() {
+		return windowed;
+	}
+
+	/**
+	 * Shows only the given quakes of the layer, each on its own, e.g. the
+	 * threats to a city; the others are neither drawn nor hit.  Only the
+	 * rows are looked at, so no other quake gets a marker.
+	 */
+	public void showOnly(Collection<? extends Marker> quakes) {
+		shown = new BitSet();
+		for (Marker quake : quakes) {
+			shown.set(((EarthquakeMarker) quake).getRow());
+		}
+		shownHitIndex = null;
+		windowHitIndex = null;
+		invalidate();
+	}
+
+	/**
+	 * Shows every quake again, after {@link #showOnly}.
+	 */
+	public void showAll() {
+		shown = null;
+		shownHitIndex = null;
+		windowHitIndex = null;
+		invalidate();
+	}
+
+	/*
+	 * The quakes of the list that are shown.
+	 */
+	private QuakeList shownOf(QuakeList list) {
+		if (shown == null) {
+			return list;
+		}
+		int[] rows = new int[list.size()];
+		int n = 0;
+		for (int i = 0; i < list.size(); i++) {
+			if (shown.get(list.getRow(i))) {
+				rows[n++] = list.getRow(i);
+			}
+		}
+		return list.withRows(Arrays.copyOf(rows, n));
+	}
+
+	/**
+	 * @return the number of markers drawn at a zoom level, before culling
+	 */
+	public int getMarkerCount(int zoom) {
+		if (windowed) {
+			return windowTo - windowFrom;
+		}
+		return zoom > MAX_CLUSTER_ZOOM ? quakes.size() : levels[Math.max(0, zoom)].size;
+	}
+
+	/**
+	 * @return a hit index over exactly the markers drawn at the current zoom,
+	 * which holds cluster markers as well as quake markers
+	 */
+	public MarkerHitIndex getHitIndex() {
+		if (windowed) {
+			if (windowHitIndex == null) {
+				windowHitIndex = new MarkerHitIndex(
+						shownOf(timeIndex.getMarkers().range(windowFrom, windowTo)), width, height);
+			}
+			return windowHitIndex;
+		}
+		if (shown != null) {
+			if (shownHitIndex == null) {
+				shownHitIndex = new MarkerHitIndex(shownOf(quakes), width, height);
+			}
+			return shownHitIndex;
+		}
+		Level level = currentLevel();
+		if (level == null) {
+			return quakeHitIndex;
+		}
+		markersAt(level);
+		return level.hitIndex;
+	}
+
+	@Override
+	protected int getCandidateCount() {
+		if (windowed) {
+			return windowTo - windowFrom;
+		}
+		Level level = currentLevel();
+		return level == null ? quakes.size() : level.size;
+	}
+
+	@Override
+	protected MarkerProjection getProjection() {
+		if (windowed) {
+			return timeProjection;
+		}
+		Level level = currentLevel();
+		if (level == null) {
+			return quakeProjection;
+		}
+		markersAt(level);
+		return level.projection;
+	}
+
+	/*
+	 * Quakes are hidden by their row, so the ones not shown are not created.
+	 */
+	@Override
+	protected boolean isHidden(List<? extends Marker> candidates, int index) {
+		if (candidates instanceof QuakeList) {
+			return shown != null && !shown.get(((QuakeList) candidates).getRow(index));
+		}
+		return super.isHidden(candidates, index);
+	}
+
+	/*
+	 * Quakes without a time keep what the feed's age says.
+	 */
+	@Override
+	protected boolean addTo(SpriteBatch batch, CommonMarker marker, float x, float y) {
+		if (!(marker instanceof EarthquakeMarker)) {
+			return marker.addTo(batch, x, y);
+		}
+		EarthquakeMarker quake = (EarthquakeMarker) marker;
+		boolean recent = quake.getTime() == QuakeTable.NO_TIME
+				? quake.isRecent()
+				: QuakeTimeIndex.isRecent(quake.getTime(), recentReference);
+		return quake.addTo(batch, x, y, recent);
+	}
+
+	@Override
+	protected void forEachMarkerToDraw(MarkerProjection projection, IntConsumer action) {
+		float right = map.getWidth() + CULL_MARGIN;
+		float bottom = map.getHeight() + CULL_MARGIN;
+		// a window is a range of the time ordered quakes
+		int from = windowed ? windowFrom : 0;
+		int to = windowed ? windowTo : projection.size();
+		for (int i = from; i < to; i++) {
+			float x = projection.getX(i);
+			float y = projection.getY(i);
+			if (x >= -CULL_MARGIN && x <= right && y >= -CULL_MARGIN && y <= bottom) {
+				action.accept(i);
+			}
+		}
+	}
+
+	/**
+	 * @return the markers drawn at a zoom level up to
+	 * {@link #MAX_CLUSTER_ZOOM} with clustering on and no time window,
+	 * quake markers for single quakes and cluster markers for the others
+	 */
+	public List<CommonMarker> getClusters(int zoom) {
+		return Collections.unmodifiableList(markersAt(levels[Math.max(0, Math.min(MAX_CLUSTER_ZOOM, zoom))]));
+	}
+
+	private Level currentLevel() {
+		if (!clustering || shown != null || map == null) {
+			return null;
+		}
+		int zoom = map.getZoomLevel();
+		return zoom > MAX_CLUSTER_ZOOM ? null : levels[Math.max(0, zoom)];
+	}
+
+	/*
+	 * Markers are only created for the entries of a level that are drawn
+	 * or hit.
+	 */
+	private List<CommonMarker> markersAt(Level level) {
+		if (level.markers == null) {
+			LevelList markers = new LevelList(level, quakes);
+			level.hitIndex = new MarkerHitIndex(markers, width, height);
+			level.projection = new MarkerProjection(markers, false);
+			level.markers = markers;
+		}
+		return level.markers;
+	}
+
+	/*
+	 * Clusters the entries of a level at the zoom, tile by tile.
+	 */
+	private static Level cluster(Level from, int zoom, Clusterer clusterer) {
+		TileGrid grid = new TileGrid(from, zoom);
+		for (int t = 0; t < grid.size(); t++) {
+			grid.findNeighbors(t, clusterer);
+			clusterer.assign(from, zoom, grid.tile(t), grid.start(t), grid.end(t), null, 0);
+		}
+		Level level = new Level(zoom, zoom, clusterer.groupCount());
+		clusterer.emit(from, level, Long.MAX_VALUE);
+		level.trim();
+		return level;
+	}
+
+	/*
+	 * The tiles with entries within the margin of one of the tiles, and the
+	 * tiles themselves, sorted.  The entries of a level lie less than a
+	 * tile outside their own tile, so only neighbors are searched.
+	 */
+	private static long[] near(Level level, int zoom, long[] tiles, double margin) {
+		long[] result = new long[tiles.length * 9];
+		int n = 0;
+		long last = (1L << zoom) - 1;
+		for (long tile : tiles) {
+			long column = compact(tile);
+			long row = compact(tile >>> 1);
+			double minX = low(column, zoom, margin);
+			double maxX = high(column, zoom, margin);
+			double minY = low(row, zoom, margin);
+			double maxY = high(row, zoom, margin);
+			result[n++] = tile;
+			for (long c = Math.max(0, column - 1); c <= Math.min(last, column + 1); c++) {
+				for (long r = Math.max(0, row - 1); r <= Math.min(last, row + 1); r++) {
+					long neighbor = spread(c) | (spread(r) << 1);
+					int end = level.lowerBound(neighbor + 1, zoom);
+					for (int i = level.lowerBound(neighbor, zoom); neighbor != tile && i < end; i++) {
+						if (level.x[i] >= minX && level.x[i] <= maxX && level.y[i] >= minY && level.y[i] <= maxY) {
+							result[n++] = neighbor;
+							break;
+						}
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(result, distinct(result, n));
+	}
+
+	/*
+	 * The start and end of a tile's column or row at the zoom, in web
+	 * mercator coordinates, moved out by the margin.
+	 */
+	private static double low(long index, int zoom, double margin) {
+		return index * (1.0 / (1L << zoom)) - margin;
+	}
+
+	private static double high(long index, int zoom, double margin) {
+		return (index + 1) * (1.0 / (1L << zoom)) + margin;
+	}
+
+	/*
+	 * The radius within which entries are merged at the zoom, in web
+	 * mercator coordinates.
+	 */
+	private static double radius(int zoom) {
+		return CLUSTER_RADIUS / (UnfoldingMap.TILE_WIDTH * Math.pow(2, zoom));
+	}
+
+	/*
+	 * Sorts the first count tiles and drops repeats.
+	 *
+	 * @return the number of distinct tiles
+	 */
+	private static int distinct(long[] tiles, int count) {
+		Arrays.sort(tiles, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || tiles[i] != tiles[unique - 1]) {
+				tiles[unique++] = tiles[i];
+			}
+		}
+		return unique;
+	}
+
+	/*
+	 * The position in Z-order: the bits of the column and row on the grid
+	 * interleaved, so the top 2z bits are the key of the tile at zoom z.
+	 */
+	private static long positionKey(Location location) {
+		return positionKey(mercatorX(location.getLon()), mercatorY(location.getLat()));
+	}
+
+	private static long positionKey(double x, double y) {
+		return spread(gridCell(x)) | (spread(gridCell(y)) << 1);
+	}
+
+	private static long gridCell(double position) {
+		return Math.max(0, Math.min((1L << POSITION_BITS) - 1, (long) (position * (1L << POSITION_BITS))));
+	}
+
+	private static long spread(long bits) {
+		bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+		bits = (bits | (bits << 8)) & 0x00FF00FF00FF00FFL;
+		bits = (bits | (bits << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		bits = (bits | (bits << 2)) & 0x3333333333333333L;
+		return (bits | (bits << 1)) & 0x5555555555555555L;
+	}
+
+	/*
+	 * The inverse of spread: the even bits of the key, packed.
+	 */
+	private static long compact(long bits) {
+		bits &= 0x5555555555555555L;
+		bits = (bits | (bits >>> 1)) & 0x3333333333333333L;
+		bits = (bits | (bits >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		bits = (bits | (bits >>> 4)) & 0x00FF00FF00FF00FFL;
+		bits = (bits | (bits >>> 8)) & 0x0000FFFF0000FFFFL;
+		return (bits | (bits >>> 16)) & 0x00000000FFFFFFFFL;
+	}
+
+	private static double mercatorX(float lon) {
+		return lon / 360 + 0.5;
+	}
+
+	private static double mercatorY(float lat) {
+		double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat))));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	private static float latitude(double mercatorY) {
+		return (float) Math.toDegrees(2 * Math.atan(Math.exp(Math.PI * (1 - 2 * mercatorY))) - Math.PI / 2);
+	}
+
+	private static long cellKey(int column, int row) {
+		return ((long) column << (INDEX_BITS + 20)) | ((long) row << INDEX_BITS);
+	}
+
+	private static int cell(double position, int cells) {
+		return Math.max(0, Math.min(cells - 1, (int) (position * cells)));
+	}
+
+	/*
+	 * Merges entries of one level that lie within CLUSTER_RADIUS pixels of
+	 * each other at the zoom of the next, one tile at a time.  The tile and
+	 * its halo are clustered greedily in the order of the level: each entry
+	 * not taken yet becomes a seed and takes the entries within the radius
+	 * of it.  Entries are bucketed into a grid of radius sized cells, so only
+	 * the 3x3 cells around a seed need to be searched.  Only what becomes of
+	 * the tile's own entries is kept, as pairs of seed and entry, until the
+	 * groups are emitted.  The buffers are kept between the tiles of a build.
+	 */
+	private static class Clusterer {
+
+		private final int[] neighborStart = new int[8];
+		private final int[] neighborEnd = new int[8];
+		private int neighborCount;
+		private int[] block = new int[0];
+		private int blockSize;
+		private long[] keys = new long[0];
+		private double[] sortedX = new double[0];
+		private double[] sortedY = new double[0];
+		private int[] sortedPosition = new int[0];
+		private int[] seed = new int[0];
+		private boolean[] taken = new boolean[0];
+		private final CellTable table = new CellTable();
+
+		private long[] seedTiles = new long[0];
+		private int seedTileCount;
+
+		// seed position above entry position, sorted before they are emitted
+		private long[] pairs = new long[0];
+		private int pairCount;
+		private int emitted;
+		private boolean sorted;
+
+		/*
+		 * Finds the seed of every entry of the tile, from start to end, with
+		 * the neighbors found last.  With kept tiles given, only entries
+		 * whose seed lies in one of them are kept.
+		 */
+		void assign(Level from, int zoom, long tile, int start, int end, long[] kept, int keptCount) {
+			int first = seeds(from, zoom, tile, start, end);
+			for (int b = first; b < first + end - start; b++) {
+				addPair(from, zoom, seed[b], block[b], kept, keptCount);
+			}
+		}
+
+		/*
+		 * Adds the tiles of the seeds of the tile's entries to the seed tiles.
+		 */
+		void addSeedTiles(Level from, int zoom, long tile) {
+			int start = from.lowerBound(tile, zoom);
+			int end = from.lowerBound(tile + 1, zoom);
+			if (start == end) {
+				return;
+			}
+			findNeighbors(from, zoom, tile);
+			int first = seeds(from, zoom, tile, start, end);
+			int shift = from.shiftTo(zoom);
+			for (int b = first; b < first + end - start; b++) {
+				if (seedTileCount == seedTiles.length) {
+					seedTiles = Arrays.copyOf(seedTiles, Math.max(64, seedTileCount * 2));
+				}
+				seedTiles[seedTileCount++] = from.key[seed[b]] >>> shift;
+			}
+		}
+
+		/**
+		 * @return the distinct seed tiles added since the last call, sorted
+		 */
+		long[] takeSeedTiles() {
+			long[] tiles = Arrays.copyOf(seedTiles, distinct(seedTiles, seedTileCount));
+			seedTileCount = 0;
+			return tiles;
+		}
+
+		/*
+		 * Clusters the block of the tile, from start to end, with the
+		 * neighbors found last.
+		 *
+		 * @return the position of the tile's first entry in the block; the
+		 * seeds of its entries start there
+		 */
+		private int seeds(Level from, int zoom, long tile, int start, int end) {
+			double radius = radius(zoom);
+
+			int first = halo(from, zoom, tile, start, end, radius * HALO);
+			int n = blockSize;
+			if (n == 1) {
+				seed[0] = start;
+				return 0;
+			}
+			double radiusSquared = radius * radius;
+			int cells = (int) Math.min(MAX_CELLS, Math.ceil(1 / radius));
+
+			for (int b = 0; b < n; b++) {
+				keys[b] = cellKey(cell(from.x[block[b]], cells), cell(from.y[block[b]], cells)) | b;
+			}
+			Arrays.sort(keys, 0, n);
+			table.reset(keys, n);
+
+			// positions copied into key order, so a cell is scanned sequentially
+			for (int k = 0; k < n; k++) {
+				int b = (int) (keys[k] & INDEX_MASK);
+				sortedX[k] = from.x[block[b]];
+				sortedY[k] = from.y[block[b]];
+				sortedPosition[b] = k;
+			}
+
+			// seeds after the tile's last entry cannot take any of its entries
+			Arrays.fill(taken, 0, n, false);
+			for (int b = 0; b < first + end - start; b++) {
+				if (taken[sortedPosition[b]]) {
+					continue;
+				}
+				taken[sortedPosition[b]] = true;
+				seed[b] = block[b];
+
+				double seedX = from.x[block[b]];
+				double seedY = from.y[block[b]];
+				int column = cell(seedX, cells);
+				int row = cell(seedY, cells);
+				for (int c = Math.max(0, column - 1); c <= Math.min(cells - 1, column + 1); c++) {
+					for (int r = Math.max(0, row - 1); r <= Math.min(cells - 1, row + 1); r++) {
+						long key = cellKey(c, r);
+						for (int k = table.start(key); k >= 0 && k < n && (keys[k] & ~INDEX_MASK) == key; k++) {
+							double dx = sortedX[k] - seedX;
+							double dy = sortedY[k] - seedY;
+							if (!taken[k] && dx * dx + dy * dy <= radiusSquared) {
+								taken[k] = true;
+								seed[(int) (keys[k] & INDEX_MASK)] = block[b];
+							}
+						}
+					}
+				}
+			}
+
+			return first;
+		}
+
+		/*
+		 * Finds the entries of the tile's neighbors by searching the level.
+		 */
+		void findNeighbors(Level from, int zoom, long tile) {
+			long column = compact(tile);
+			long row = compact(tile >>> 1);
+			long last = (1L << zoom) - 1;
+			neighborCount = 0;
+			for (long c = Math.max(0, column - 1); c <= Math.min(last, column + 1); c++) {
+				for (long r = Math.max(0, row - 1); r <= Math.min(last, row + 1); r++) {
+					long neighbor = spread(c) | (spread(r) << 1);
+					if (neighbor != tile) {
+						addNeighbor(from.lowerBound(neighbor, zoom), from.lowerBound(neighbor + 1, zoom));
+					}
+				}
+			}
+		}
+
+		void addNeighbor(int start, int end) {
+			if (start < end) {
+				neighborStart[neighborCount] = start;
+				neighborEnd[neighborCount++] = end;
+			}
+		}
+
+		/*
+		 * Fills the block with the positions of the tile's entries and of the
+		 * entries of its neighbors within the margin of its bounds, in level
+		 * order.
+		 *
+		 * @return the position of the tile's first entry in the block, whose
+		 * entries follow it
+		 */
+		private int halo(Level from, int zoom, long tile, int start, int end, double margin) {
+			double minX = low(compact(tile), zoom, margin);
+			double maxX = high(compact(tile), zoom, margin);
+			double minY = low(compact(tile >>> 1), zoom, margin);
+			double maxY = high(compact(tile >>> 1), zoom, margin);
+
+			int n = 0;
+			int before = 0;
+			ensureCapacity(end - start);
+			for (int i = start; i < end; i++) {
+				block[n++] = i;
+			}
+			for (int m = 0; m < neighborCount; m++) {
+				ensureCapacity(n + neighborEnd[m] - neighborStart[m]);
+				for (int i = neighborStart[m]; i < neighborEnd[m]; i++) {
+					if (from.x[i] >= minX && from.x[i] <= maxX && from.y[i] >= minY && from.y[i] <= maxY) {
+						block[n++] = i;
+						if (i < start) {
+							before++;
+						}
+					}
+				}
+			}
+			if (n > end - start) {
+				Arrays.sort(block, 0, n);
+			}
+			blockSize = n;
+			return before;
+		}
+
+		private void addPair(Level from, int zoom, int seedPosition, int position, long[] kept, int keptCount) {
+			if (kept != null && Arrays.binarySearch(kept, 0, keptCount, from.key[seedPosition] >>> from.shiftTo(zoom)) < 0) {
+				return;
+			}
+			if (pairCount == pairs.length) {
+				pairs = Arrays.copyOf(pairs, Math.max(64, pairCount * 2));
+			}
+			pairs[pairCount++] = ((long) seedPosition << 32) | position;
+			sorted = false;
+		}
+
+		/**
+		 * @return an upper bound of the entries the assigned pairs make up
+		 */
+		int groupCount() {
+			return pairCount;
+		}
+
+		/*
+		 * Appends the groups whose seed lies in a tile up to the given one,
+		 * in the order of their seeds, to the level.  Emitting the last
+		 * groups makes the clusterer ready for the next level.
+		 */
+		void emit(Level from, Level to, long lastTile) {
+			if (!sorted) {
+				Arrays.sort(pairs, 0, pairCount);
+				sorted = true;
+			}
+			int shift = from.shiftTo(to.zoom);
+			while (emitted < pairCount) {
+				int seedPosition = (int) (pairs[emitted] >>> 32);
+				long tile = from.key[seedPosition] >>> shift;
+				if (tile > lastTile) {
+					return;
+				}
+				int end = emitted + 1;
+				while (end < pairCount && (int) (pairs[end] >>> 32) == seedPosition) {
+					end++;
+				}
+
+				int first = (int) pairs[emitted];
+				if (end - emitted == 1) {
+					to.copy(from, first, tile);
+				}
+				else {
+					double weightedX = 0;
+					double weightedY = 0;
+					int count = 0;
+					float maxMagnitude = Float.NEGATIVE_INFINITY;
+					for (int p = emitted; p < end; p++) {
+						int j = (int) pairs[p];
+						weightedX += from.x[j] * from.count[j];
+						weightedY += from.y[j] * from.count[j];
+						count += from.count[j];
+						maxMagnitude = Math.max(maxMagnitude, from.maxMagnitude[j]);
+					}
+					to.add(weightedX / count, weightedY / count, count, maxMagnitude, -1, tile);
+				}
+				emitted = end;
+			}
+			pairCount = 0;
+			emitted = 0;
+		}
+
+		private void ensureCapacity(int n) {
+			if (block.length < n) {
+				int capacity = Math.max(n, block.length * 2);
+				block = Arrays.copyOf(block, capacity);
+				keys = new long[capacity];
+				sortedX = new double[capacity];
+				sortedY = new double[capacity];
+				sortedPosition = new int[capacity];
+				seed = new int[capacity];
+				taken = new boolean[capacity];
+			}
+		}
+	}
+
+	/*
+	 * The positions of the entries of a level that were removed or added,
+	 * with their tiles at the zoom of the level built from them.
+	 */
+	private static class Changes {
+
+		private double[] x = new double[16];
+		private double[] y = new double[16];
+		private long[] tile = new long[16];
+		private int size;
+
+		void add(Location location) {
+			double quakeX = mercatorX(location.getLon());
+			double quakeY = mercatorY(location.getLat());
+			add(quakeX, quakeY, positionKey(quakeX, quakeY) >>> 2 * (POSITION_BITS - MAX_CLUSTER_ZOOM));
+		}
+
+		void add(double entryX, double entryY, long entryTile) {
+			if (size == x.length) {
+				x = Arrays.copyOf(x, size * 2);
+				y = Arrays.copyOf(y, size * 2);
+				tile = Arrays.copyOf(tile, size * 2);
+			}
+			x[size] = entryX;
+			y[size] = entryY;
+			tile[size++] = entryTile;
+		}
+
+		/**
+		 * @return the tiles whose block holds one of the entries: their own
+		 * tile, and the neighbors they are within the margin of, sorted
+		 */
+		long[] blockTiles(int zoom, double margin) {
+			long[] tiles = new long[size * 9];
+			int n = 0;
+			long last = (1L << zoom) - 1;
+			for (int p = 0; p < size; p++) {
+				tiles[n++] = tile[p];
+				long column = compact(tile[p]);
+				long row = compact(tile[p] >>> 1);
+				for (long c = Math.max(0, column - 1); c <= Math.min(last, column + 1); c++) {
+					for (long r = Math.max(0, row - 1); r <= Math.min(last, row + 1); r++) {
+						if (x[p] >= low(c, zoom, margin) && x[p] <= high(c, zoom, margin)
+								&& y[p] >= low(r, zoom, margin) && y[p] <= high(r, zoom, margin)) {
+							tiles[n++] = spread(c) | (spread(r) << 1);
+						}
+					}
+				}
+			}
+			return Arrays.copyOf(tiles, distinct(tiles, n));
+		}
+	}
+
+	/*
+	 * The tiles at a zoom that have entries in a level, in row-major order,
+	 * so a full build finds the neighbors of every tile by moving cursors
+	 * along the rows above and below instead of searching the level.
+	 */
+	private static class TileGrid {
+
+		private final long[] tiles;
+		// the row above the column, both in the bits of a zoom
+		private final long[] positions;
+		private final int[] starts;
+		private final int[] ends;
+		private final int zoom;
+		private int above;
+		private int below;
+
+		TileGrid(Level level, int zoom) {
+			this.zoom = zoom;
+			int shift = level.shiftTo(zoom);
+			long[] order = new long[level.size];
+			int[] runStarts = new int[level.size];
+			int runs = 0;
+			for (int start = 0; start < level.size; ) {
+				long tile = level.key[start] >>> shift;
+				order[runs] = (position(tile, zoom) << INDEX_BITS) | runs;
+				runStarts[runs++] = start;
+				start = level.runEnd(start, zoom);
+			}
+			Arrays.sort(order, 0, runs);
+
+			tiles = new long[runs];
+			positions = new long[runs];
+			starts = new int[runs];
+			ends = new int[runs];
+			for (int t = 0; t < runs; t++) {
+				int run = (int) (order[t] & INDEX_MASK);
+				starts[t] = runStarts[run];
+				ends[t] = run + 1 < runs ? runStarts[run + 1] : level.size;
+				tiles[t] = level.key[starts[t]] >>> shift;
+				positions[t] = order[t] >>> INDEX_BITS;
+			}
+		}
+
+		int size() {
+			return tiles.length;
+		}
+
+		long tile(int t) {
+			return tiles[t];
+		}
+
+		int start(int t) {
+			return starts[t];
+		}
+
+		int end(int t) {
+			return ends[t];
+		}
+
+		/*
+		 * Passes the entries of the neighbors of the tile to the clusterer.
+		 * The tiles must be visited in order.
+		 */
+		void findNeighbors(int t, Clusterer clusterer) {
+			clusterer.neighborCount = 0;
+			long column = positions[t] & ((1L << zoom) - 1);
+			long row = positions[t] >>> zoom;
+			if (t > 0 && positions[t - 1] == positions[t] - 1 && column > 0) {
+				clusterer.addNeighbor(starts[t - 1], ends[t - 1]);
+			}
+			if (t + 1 < tiles.length && positions[t + 1] == positions[t] + 1 && column < (1L << zoom) - 1) {
+				clusterer.addNeighbor(starts[t + 1], ends[t + 1]);
+			}
+			if (row > 0) {
+				above = addRow(above, row - 1, column, clusterer);
+			}
+			below = addRow(below, row + 1, column, clusterer);
+		}
+
+		/*
+		 * Moves the cursor to the first tile of the row from the column before
+		 * on and adds the tiles up to the column after.
+		 *
+		 * @return the moved cursor
+		 */
+		private int addRow(int cursor, long row, long column, Clusterer clusterer) {
+			long first = (row << zoom) + Math.max(0, column - 1);
+			long last = (row << zoom) + Math.min((1L << zoom) - 1, column + 1);
+			while (cursor < tiles.length && positions[cursor] < first) {
+				cursor++;
+			}
+			for (int t = cursor; t < tiles.length && positions[t] <= last; t++) {
+				clusterer.addNeighbor(starts[t], ends[t]);
+			}
+			return cursor;
+		}
+
+		private static long position(long tile, int zoom) {
+			return (compact(tile >>> 1) << zoom) | compact(tile);
+		}
+	}
+
+	/*
+	 * Open addressing map from the occupied cells to the position of their
+	 * first entry in the sorted keys.  The grid at high zoom levels has far
+	 * too many cells to index directly.
+	 */
+	private static class CellTable {
+
+		private long[] cells = new long[0];
+		private int[] starts = new int[0];
+		private int mask;
+
+		void reset(long[] sortedKeys, int n) {
+			int capacity = Integer.highestOneBit(Math.max(1, n) * 2 - 1) * 2;
+			if (cells.length < capacity) {
+				cells = new long[capacity];
+				starts = new int[capacity];
+			}
+			mask = capacity - 1;
+			Arrays.fill(cells, 0, capacity, -1);
+
+			long previous = -1;
+			for (int k = 0; k < n; k++) {
+				long cell = sortedKeys[k] & ~INDEX_MASK;
+				if (cell != previous) {
+					int slot = slot(cell);
+					while (cells[slot] != -1) {
+						slot = (slot + 1) & mask;
+					}
+					cells[slot] = cell;
+					starts[slot] = k;
+					previous = cell;
+				}
+			}
+		}
+
+		/**
+		 * @return the first position of the cell in the sorted keys, or -1
+		 */
+		int start(long cell) {
+			for (int slot = slot(cell); cells[slot] != -1; slot = (slot + 1) & mask) {
+				if (cells[slot] == cell) {
+					return starts[slot];
+				}
+			}
+			return -1;
+		}
+
+		private int slot(long cell) {
+			long hash = cell * 0x9E3779B97F4A7C15L;
+			return (int) (hash >>> 40) & mask;
+		}
+	}
+
+	/*
+	 * The markers of the entries of a level: the table's marker for a
+	 * single quake, and a cluster marker, created the first time it is
+	 * asked for, for a cluster.
+	 */
+	private static class LevelList extends AbstractList<CommonMarker> implements RandomAccess, MarkerColumns {
+
+		private final Level level;
+		private final QuakeList quakes;
+		private final QuakeClusterMarker[] clusters;
+
+		LevelList(Level level, QuakeList quakes) {
+			this.level = level;
+			this.quakes = quakes;
+			this.clusters = new QuakeClusterMarker[level.size];
+		}
+
+		@Override
+		public CommonMarker get(int index) {
+			if (level.single[index] >= 0) {
+				return quakes.getTable().getMarker(level.single[index]);
+			}
+			if (clusters[index] == null) {
+				clusters[index] = new QuakeClusterMarker(new Location(getLat(index), getLon(index)),
+						level.count[index], level.maxMagnitude[index], level.zoom + 1);
+			}
+			return clusters[index];
+		}
+
+		@Override
+		public int size() {
+			return level.size;
+		}
+
+		@Override
+		public float getLat(int index) {
+			return level.single[index] >= 0 ? quakes.latOfRow(level.single[index]) : latitude(level.y[index]);
+		}
+
+		@Override
+		public float getLon(int index) {
+			return level.single[index] >= 0 ? quakes.lonOfRow(level.single[index]) : (float) (level.x[index] * 360 - 180);
+		}
+
+		@Override
+		public float getHitRadius(int index) {
+			return level.single[index] >= 0 ? EarthquakeMarker.HIT_RADIUS : QuakeClusterMarker.radiusOf(level.count[index]);
+		}
+	}
+
+	/*
+	 * The entries of one zoom level in web mercator coordinates, where the
+	 * whole world is the unit square, sorted by the Z-order key of their
+	 * tile.  An entry is either a single quake or a cluster.  The entries
+	 * are never changed once the level is built; the markers and indexes
+	 * built from them for drawing belong to one layer.
+	 */
+	private static class Level {
+
+		final int zoom;
+		// the zoom of the tiles the keys are of
+		final int keyZoom;
+		int size;
+
+		double[] x;
+		double[] y;
+		int[] count;
+		float[] maxMagnitude;
+		// the table row of a single quake entry, -1 for a cluster
+		int[] single;
+		long[] key;
+
+		LevelList markers;
+		MarkerHitIndex hitIndex;
+		MarkerProjection projection;
+
+		Level(int zoom, int keyZoom, int capacity) {
+			this.zoom = zoom;
+			this.keyZoom = keyZoom;
+			x = new double[capacity];
+			y = new double[capacity];
+			count = new int[capacity];
+			maxMagnitude = new float[capacity];
+			single = new int[capacity];
+			key = new long[capacity];
+		}
+
+		/*
+		 * The single quakes, keyed and sorted by their exact position; quakes
+		 * at the same position stay in list order.
+		 */
+		static Level of(QuakeList quakes) {
+			Level level = new Level(MAX_CLUSTER_ZOOM + 1, POSITION_BITS, quakes.size());
+			for (int i = 0; i < quakes.size(); i++) {
+				level.addQuake(quakes.getRow(i), quakes.getLat(i), quakes.getLon(i), quakes.getMagnitude(i));
+			}
+			level.sort();
+			return level;
+		}
+
+		static Level of(Collection<? extends Marker> quakes) {
+			Level level = new Level(MAX_CLUSTER_ZOOM + 1, POSITION_BITS, quakes.size());
+			for (Marker marker : quakes) {
+				EarthquakeMarker quake = (EarthquakeMarker) marker;
+				Location location = quake.getLocation();
+				level.addQuake(quake.getRow(), location.getLat(), location.getLon(), quake.getMagnitude());
+			}
+			level.sort();
+			return level;
+		}
+
+		/*
+		 * This level of single quakes with the removed ones taken out and the
+		 * added ones merged in, after the quakes at the same position.
+		 */
+		Level updated(Collection<? extends Marker> removed, Collection<? extends Marker> added) {
+			int[] drop = new int[removed.size()];
+			int dropped = 0;
+			for (Marker quake : removed) {
+				long quakeKey = positionKey(quake.getLocation());
+				int row = ((EarthquakeMarker) quake).getRow();
+				for (int i = lowerBound(quakeKey, keyZoom); i < size && key[i] == quakeKey; i++) {
+					if (single[i] == row) {
+						drop[dropped++] = i;
+						break;
+					}
+				}
+			}
+			Arrays.sort(drop, 0, dropped);
+
+			Level sortedAdded = of(added);
+			Level level = new Level(zoom, keyZoom, size + sortedAdded.size);
+			int i = 0;
+			int d = 0;
+			for (int a = 0; a <= sortedAdded.size; a++) {
+				int end = a < sortedAdded.size ? lowerBound(sortedAdded.key[a] + 1, keyZoom) : size;
+				for (; d < dropped && drop[d] < end; d++) {
+					if (drop[d] >= i) {
+						level.copyRange(this, i, drop[d]);
+						i = drop[d] + 1;
+					}
+				}
+				level.copyRange(this, i, end);
+				i = end;
+				if (a < sortedAdded.size) {
+					level.copyRange(sortedAdded, a, a + 1);
+				}
+			}
+			return level;
+		}
+
+		void addQuake(int row, float lat, float lon, float magnitude) {
+			double quakeX = mercatorX(lon);
+			double quakeY = mercatorY(lat);
+			add(quakeX, quakeY, 1, magnitude, row, positionKey(quakeX, quakeY));
+		}
+
+		void add(double entryX, double entryY, int entryCount, float entryMagnitude,
+				int entrySingle, long entryKey) {
+			x[size] = entryX;
+			y[size] = entryY;
+			count[size] = entryCount;
+			maxMagnitude[size] = entryMagnitude;
+			single[size] = entrySingle;
+			key[size] = entryKey;
+			size++;
+		}
+
+		void copy(Level from, int i, long entryKey) {
+			add(from.x[i], from.y[i], from.count[i], from.maxMagnitude[i], from.single[i], entryKey);
+		}
+
+		/*
+		 * Appends the entries from start to end of a level with keys of the
+		 * same zoom.
+		 */
+		void copyRange(Level from, int start, int end) {
+			int n = end - start;
+			System.arraycopy(from.x, start, x, size, n);
+			System.arraycopy(from.y, start, y, size, n);
+			System.arraycopy(from.count, start, count, size, n);
+			System.arraycopy(from.maxMagnitude, start, maxMagnitude, size, n);
+			System.arraycopy(from.single, start, single, size, n);
+			System.arraycopy(from.key, start, key, size, n);
+			size += n;
+		}
+
+		/*
+		 * Adds the entries that are not in the other level, and the other way
+		 * round, to the changes, comparing tile by tile.  Both levels are
+		 * keyed by tile.
+		 */
+		void diff(Level other, Changes changes) {
+			int i = 0;
+			int j = 0;
+			while (i < size || j < other.size) {
+				long tile = Math.min(i < size ? key[i] : Long.MAX_VALUE, j < other.size ? other.key[j] : Long.MAX_VALUE);
+				int end = i;
+				while (end < size && key[end] == tile) {
+					end++;
+				}
+				int otherEnd = j;
+				while (otherEnd < other.size && other.key[otherEnd] == tile) {
+					otherEnd++;
+				}
+				diff(i, end, other, j, otherEnd, changes);
+				i = end;
+				j = otherEnd;
+			}
+		}
+
+		/*
+		 * Adds the entries from start to end that are not among the entries
+		 * of the other level from its start to its end, and the other way
+		 * round, to the changes.  Entries kept in the same order are matched
+		 * up; anything else counts as changed, which is never wrong, just
+		 * more work for the next level.
+		 */
+		void diff(int start, int end, Level other, int otherStart, int otherEnd, Changes changes) {
+			int i = start;
+			int j = otherStart;
+			while (i < end || j < otherEnd) {
+				if (i < end && j < otherEnd && same(i, other, j)) {
+					i++;
+					j++;
+					continue;
+				}
+				int match = -1;
+				for (int k = i; j < otherEnd && k < end && match < 0; k++) {
+					if (same(k, other, j)) {
+						match = k;
+					}
+				}
+				if (match < 0 && j < otherEnd) {
+					changes.add(other.x[j], other.y[j], other.key[j] >>> 2);
+					j++;
+				}
+				else {
+					for (int until = match < 0 ? i + 1 : match; i < until; i++) {
+						changes.add(x[i], y[i], key[i] >>> 2);
+					}
+				}
+			}
+		}
+
+		private boolean same(int i, Level other, int j) {
+			return x[i] == other.x[j] && y[i] == other.y[j] && count[i] == other.count[j]
+					&& maxMagnitude[i] == other.maxMagnitude[j] && single[i] == other.single[j];
+		}
+
+		/*
+		 * Lets go of the capacity beyond the size, if more than an eighth of
+		 * it is unused.
+		 */
+		void trim() {
+			if (size < key.length - key.length / 8) {
+				x = Arrays.copyOf(x, size);
+				y = Arrays.copyOf(y, size);
+				count = Arrays.copyOf(count, size);
+				maxMagnitude = Arrays.copyOf(maxMagnitude, size);
+				single = Arrays.copyOf(single, size);
+				key = Arrays.copyOf(key, size);
+			}
+		}
+
+		int shiftTo(int tileZoom) {
+			return 2 * (keyZoom - tileZoom);
+		}
+
+		/**
+		 * @return the first position whose tile at the zoom is at or after
+		 * the tile, or the size
+		 */
+		int lowerBound(long tile, int tileZoom) {
+			int shift = shiftTo(tileZoom);
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if ((key[middle] >>> shift) < tile) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @return the end of the entries from start on that lie in the same
+		 * tile at the zoom
+		 */
+		int runEnd(int start, int tileZoom) {
+			int shift = shiftTo(tileZoom);
+			long tile = key[start] >>> shift;
+			int end = start + 1;
+			while (end < size && (key[end] >>> shift) == tile) {
+				end++;
+			}
+			return end;
+		}
+
+		/*
+		 * Sorts the entries by key, keeping entries with the same key in
+		 * their order.
+		 */
+		private void sort() {
+			int shift = shiftTo(SORT_ZOOM);
+			long[] order = new long[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = ((key[i] >>> shift) << INDEX_BITS) | i;
+			}
+			Arrays.sort(order);
+			int[] positions = new int[size];
+			for (int k = 0; k < size; k++) {
+				positions[k] = (int) (order[k] & INDEX_MASK);
+			}
+			// the packed keys only order by the tile; an insertion pass orders
+			// the positions within it, keeping equal keys in list order
+			for (int k = 1; k < size; k++) {
+				int position = positions[k];
+				int j = k - 1;
+				for (; j >= 0 && key[positions[j]] > key[position]; j--) {
+					positions[j + 1] = positions[j];
+				}
+				positions[j + 1] = position;
+			}
+
+			Level sorted = new Level(zoom, keyZoom, size);
+			for (int position : positions) {
+				sorted.copy(this, position, key[position]);
+			}
+			x = sorted.x;
+			y = sorted.y;
+			count = sorted.count;
+			maxMagnitude = sorted.maxMagnitude;
+			single = sorted.single;
+			key = sorted.key;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package earthquakemap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/** QuakeClusterMarker
+ * Stands in for a group of nearby earthquakes at low zoom levels.  The
+ * circle grows with the number of quakes and is colored by the largest
+ * magnitude in the group.
+ * */
+public class QuakeClusterMarker extends CommonMarker {
+
+	private final int count;
+	private final float maxMagnitude;
+	private final int expansionZoom;
+	private final String title;
+
+	public QuakeClusterMarker(Location location, int count, float maxMagnitude, int expansionZoom) {
+		super(location);
+		this.count = count;
+		this.maxMagnitude = maxMagnitude;
+		this.expansionZoom = expansionZoom;
+		this.radius = radiusOf(count);
+		this.title = count + " quakes, largest " + maxMagnitude;
+	}
+
+	/**
+	 * @return the radius, and hit radius, of the marker of a cluster of count quakes
+	 */
+	public static float radiusOf(int count) {
+		return 8 + 3 * (float) Math.log(count);
+	}
+
+	@Override
+	public void drawMarker(PGraphics pg, float x, float y) {
+		pg.pushStyle();
+
+		if (maxMagnitude >= EarthquakeMarker.THRESHOLD_MODERATE) {
+			pg.fill(255, 0, 0, 200);
+		}
+		else if (maxMagnitude >= EarthquakeMarker.THRESHOLD_LIGHT) {
+			pg.fill(255, 160, 0, 200);
+		}
+		else {
+			pg.fill(255, 255, 0, 200);
+		}
+		pg.stroke(60);
+		pg.ellipse(x, y, 2 * radius, 2 * radius);
+
+		pg.fill(0);
+		pg.textSize(10);
+		pg.textAlign(PConstants.CENTER, PConstants.CENTER);
+		pg.text(count, x, y);
+
+		pg.popStyle();
+	}
+
+	@Override
+	public String getTitleText() {
+		return title;
+	}
+
+	@Override
+	protected float[] getTitleBounds(PGraphics pg) {
+		return new float[] { 0, 15, pg.textWidth(title) + 6, 18 };
+	}
+
+	@Override
+	public void drawTitle(PGraphics pg, float x, float y) {
+		pg.pushStyle();
+
+		pg.rectMode(PConstants.CORNER);
+
+		pg.stroke(110);
+		pg.fill(255, 255, 255);
+		pg.rect(x, y + 15, pg.textWidth(title) + 6, 18, 5);
+
+		pg.textAlign(PConstants.LEFT, PConstants.TOP);
+		pg.fill(0);
+		pg.text(title, x + 3, y + 18);
+		pg.popStyle();
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public float getMaxMagnitude() {
+		return maxMagnitude;
+	}
+
+	/**
+	 * @return the zoom level at which this cluster splits up
+	 */
+	public int getExpansionZoom() {
+		return expansionZoom;
+	}
+}
@@ -0,0 +1,125 @@
+package earthquakemap;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** QuakeList
+ * A read-only list of quakes that are rows of a {@link QuakeTable}.  The
+ * list only holds the rows; get() asks the table for the marker of a row,
+ * which the table creates the first time and keeps, so only the quakes
+ * that are drawn, hit or looked at get a marker at all.  Positions and
+ * magnitudes are read from the table's columns, which the list took when
+ * it was made, so they can be read on any thread the list is handed to.
+ *
+ * The rows of a list never change, and a table only appends rows, so a
+ * list stays valid while the table grows.
+ * */
+public class QuakeList extends AbstractList<Marker> implements RandomAccess, MarkerColumns {
+
+	private final QuakeTable table;
+	private final int[] rows;
+
+	// the table's columns when the list was made, which hold every row of it
+	private final float[] lat;
+	private final float[] lon;
+	private final float[] magnitude;
+	private final long[] eventTime;
+
+	QuakeList(QuakeTable table, int[] rows, float[] lat, float[] lon, float[] magnitude, long[] eventTime) {
+		this.table = table;
+		this.rows = rows;
+		this.lat = lat;
+		this.lon = lon;
+		this.magnitude = magnitude;
+		this.eventTime = eventTime;
+	}
+
+	public QuakeTable getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the quake at the index, a marker the table keeps for its row
+	 */
+	@Override
+	public Marker get(int index) {
+		return table.getMarker(rows[index]);
+	}
+
+	@Override
+	public int size() {
+		return rows.length;
+	}
+
+	public int getRow(int index) {
+		return rows[index];
+	}
+
+	@Override
+	public float getLat(int index) {
+		return lat[rows[index]];
+	}
+
+	@Override
+	public float getLon(int index) {
+		return lon[rows[index]];
+	}
+
+	@Override
+	public float getHitRadius(int index) {
+		return EarthquakeMarker.HIT_RADIUS;
+	}
+
+	public float getMagnitude(int index) {
+		return magnitude[rows[index]];
+	}
+
+	/**
+	 * @return when the quake at the index happened, as
+	 * {@link EarthquakeMarker#getTime()}
+	 */
+	public long getTime(int index) {
+		return eventTime[rows[index]];
+	}
+
+	/**
+	 * @return the quakes from index from up to to, as a list of their own
+	 */
+	public QuakeList range(int from, int to) {
+		return withRows(Arrays.copyOfRange(rows, from, to));
+	}
+
+	/*
+	 * A list of rows of this list, or of rows of the table that are older.
+	 */
+	QuakeList withRows(int[] otherRows) {
+		return new QuakeList(table, otherRows, lat, lon, magnitude, eventTime);
+	}
+
+	/*
+	 * The values of a row of this list, or of a row of the table that is
+	 * older, by row instead of by index.
+	 */
+	float latOfRow(int row) {
+		return lat[row];
+	}
+
+	float lonOfRow(int row) {
+		return lon[row];
+	}
+
+	float magnitudeOfRow(int row) {
+		return magnitude[row];
+	}
+
+	long timeOfRow(int row) {
+		return eventTime[row];
+	}
+
+	int[] rows() {
+		return rows;
+	}
+}
@@ -0,0 +1,113 @@
+package earthquakemap;
+
+import java.util.List;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** QuakeRanking
+ * Top-K selection over quakes by magnitude, depth or recency.  Each quake's
+ * key is read once as a primitive long, and a bounded {@link Leaderboard}
+ * keeps the K best, so ranking n quakes costs O(n log K) instead of a full
+ * sort.  Ties keep table or list order, as the stable sorts did.
+ * */
+public final class QuakeRanking {
+
+	public enum By {
+		MAGNITUDE,
+		DEPTH,
+		// when the quake happened, not when the feed last updated it
+		RECENCY;
+
+		/**
+		 * @return a key that is larger for the quake that ranks higher
+		 */
+		public long keyOf(QuakeTable table, int row) {
+			switch (this) {
+			case MAGNITUDE:
+				return QuakeTable.sortableBits(table.getMagnitude(row));
+			case DEPTH:
+				return QuakeTable.sortableBits(table.getDepth(row));
+			default:
+				return table.getEventTime(row);
+			}
+		}
+
+		public long keyOf(EarthquakeMarker quake) {
+			switch (this) {
+			case MAGNITUDE:
+				return QuakeTable.sortableBits(quake.getMagnitude());
+			case DEPTH:
+				return QuakeTable.sortableBits(quake.getDepth());
+			default:
+				return quake.getTime();
+			}
+		}
+
+		public long keyOf(QuakeList quakes, int index) {
+			switch (this) {
+			case MAGNITUDE:
+				return QuakeTable.sortableBits(quakes.getMagnitude(index));
+			case DEPTH:
+				return keyOf((EarthquakeMarker) quakes.get(index));
+			default:
+				return quakes.getTime(index);
+			}
+		}
+	}
+
+	private QuakeRanking() {
+	}
+
+	/**
+	 * @return the rows of the k highest ranked quakes, best first
+	 */
+	public static int[] topRows(QuakeTable table, By by, int k) {
+		int size = table.size();
+		if (k <= 0 || size == 0) {
+			return new int[0];
+		}
+
+		Leaderboard<Integer> board = new Leaderboard<>(Math.min(k, size));
+		for (int row = 0; row < size; row++) {
+			long key = by.keyOf(table, row);
+			// most rows are rejected here, before a row is boxed
+			if (board.accepts(key)) {
+				board.offer(key, row);
+			}
+		}
+
+		List<Integer> ranked = board.ranked();
+		int[] rows = new int[ranked.size()];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = ranked.get(i);
+		}
+		return rows;
+	}
+
+	/**
+	 * Ranks a list of quake markers; new quakes can be offered to the board
+	 * afterwards with {@link #offer}.
+	 */
+	public static Leaderboard<EarthquakeMarker> leaderboard(List<Marker> quakes, By by, int k) {
+		Leaderboard<EarthquakeMarker> board = new Leaderboard<>(k);
+		if (quakes instanceof QuakeList) {
+			QuakeList list = (QuakeList) quakes;
+			for (int i = 0; i < list.size(); i++) {
+				long key = by.keyOf(list, i);
+				// only the quakes that make it onto the board get a marker
+				if (board.accepts(key)) {
+					board.offer(key, (EarthquakeMarker) list.get(i));
+				}
+			}
+			return board;
+		}
+		for (Marker quake : quakes) {
+			offer(board, by, (EarthquakeMarker) quake);
+		}
+		return board;
+	}
+
+	public static boolean offer(Leaderboard<EarthquakeMarker> board, By by, EarthquakeMarker quake) {
+		return board.offer(by.keyOf(quake), quake);
+	}
+}
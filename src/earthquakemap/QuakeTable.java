@@ -0,0 +1,517 @@
+package earthquakemap;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** QuakeTable
+ * Column store for earthquake catalogs.  Every event is a row across
+ * parallel primitive arrays, and titles, country names and the feed's
+ * time strings are kept in string pools, so millions of events cost a few dozen bytes each instead
+ * of a marker with its own property map.  Markers are only created on
+ * demand for the rows that are actually shown, see {@link QuakeList}.
+ *
+ * Rows are only ever appended, by one thread at a time, and do not change
+ * once they are in a QuakeList.  Other threads read rows through a
+ * QuakeList made after the rows were added, or through the methods that
+ * lock the table: adding rows, the markers, the strings and writing.
+ * */
+public class QuakeTable {
+
+	public static final int OCEAN = -1;
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private int size;
+
+	private float[] lat = new float[INITIAL_CAPACITY];
+	private float[] lon = new float[INITIAL_CAPACITY];
+	private float[] magnitude = new float[INITIAL_CAPACITY];
+	private float[] depth = new float[INITIAL_CAPACITY];
+	private long[] time = new long[INITIAL_CAPACITY];
+	private long[] eventTime = new long[INITIAL_CAPACITY];
+	private byte[] age = new byte[INITIAL_CAPACITY];
+	private int[] title = new int[INITIAL_CAPACITY];
+	private int[] country = new int[INITIAL_CAPACITY];
+	private int[] id = new int[INITIAL_CAPACITY];
+	// the feed's own strings for time and updated, -1 for rows without one
+	private int[] updatedText = new int[INITIAL_CAPACITY];
+	private int[] timeText = new int[INITIAL_CAPACITY];
+	// the marker of each row that has been asked for, guarded by the table
+	private EarthquakeMarker[] views = new EarthquakeMarker[INITIAL_CAPACITY];
+
+	private final StringPool titles;
+	private final StringPool countries;
+	private final StringPool ids;
+	private final StringPool times;
+
+	public QuakeTable() {
+		this(new StringPool(), new StringPool(), new StringPool(), new StringPool());
+	}
+
+	private QuakeTable(StringPool titles, StringPool countries, StringPool ids, StringPool times) {
+		this.titles = titles;
+		this.countries = countries;
+		this.ids = ids;
+		this.times = times;
+	}
+
+	/**
+	 * Appends a feature from ParseFeed as a new ocean row; use
+	 * {@link #setCountry(int, String)} once it has been classified.
+	 *
+	 * @return the row of the new event
+	 */
+	public synchronized int add(PointFeature feature) {
+		Location location = feature.getLocation();
+		String titleStr = feature.getStringProperty("title");
+		String updatedStr = feature.getStringProperty("updated");
+		String timeStr = feature.getStringProperty("time");
+
+		int row = add(location.getLat(), location.getLon(),
+				Float.parseFloat(feature.getProperty("magnitude").toString()),
+				Float.parseFloat(feature.getProperty("depth").toString()),
+				parseTime(updatedStr),
+				QuakeAge.fromTerm(feature.getStringProperty("age")),
+				titleStr);
+		setId(row, feature.getId());
+		updatedText[row] = updatedStr == null ? -1 : times.intern(updatedStr);
+		timeText[row] = timeStr == null ? -1 : times.intern(timeStr);
+		long happened = parseTime(timeStr);
+		if (happened != NO_TIME) {
+			eventTime[row] = happened;
+		}
+		return row;
+	}
+
+	public synchronized int add(float latitude, float longitude, float mag, float depthKm, long timeMillis, QuakeAge quakeAge, String titleStr) {
+		ensureCapacity(size + 1);
+		int row = size++;
+
+		lat[row] = latitude;
+		lon[row] = longitude;
+		magnitude[row] = mag;
+		depth[row] = depthKm;
+		time[row] = timeMillis;
+		eventTime[row] = timeMillis;
+		age[row] = (byte) quakeAge.ordinal();
+		title[row] = titleStr == null ? -1 : titles.intern(titleStr);
+		country[row] = OCEAN;
+		id[row] = -1;
+		updatedText[row] = -1;
+		timeText[row] = -1;
+		return row;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public float getLat(int row) {
+		return lat[row];
+	}
+
+	public float getLon(int row) {
+		return lon[row];
+	}
+
+	public float getMagnitude(int row) {
+		return magnitude[row];
+	}
+
+	public float getDepth(int row) {
+		return depth[row];
+	}
+
+	/**
+	 * @return the time the feed entry was last updated
+	 */
+	public long getTime(int row) {
+		return time[row];
+	}
+
+	/**
+	 * @return the time the quake happened; the update time if the feed did
+	 * not say
+	 */
+	public long getEventTime(int row) {
+		return eventTime[row];
+	}
+
+	public synchronized void setEventTime(int row, long timeMillis) {
+		eventTime[row] = timeMillis;
+	}
+
+	public QuakeAge getAge(int row) {
+		return QuakeAge.values()[age[row]];
+	}
+
+	public synchronized String getTitle(int row) {
+		return title[row] < 0 ? null : titles.get(title[row]);
+	}
+
+	/**
+	 * @return the feed's event id, or null if the event has none
+	 */
+	public synchronized String getId(int row) {
+		return id[row] < 0 ? null : ids.get(id[row]);
+	}
+
+	public synchronized void setId(int row, String eventId) {
+		id[row] = eventId == null ? -1 : ids.intern(eventId);
+	}
+
+	public boolean isOnLand(int row) {
+		return country[row] != OCEAN;
+	}
+
+	/**
+	 * @return the pooled id of the row's country, or {@link #OCEAN}
+	 */
+	public int getCountryId(int row) {
+		return country[row];
+	}
+
+	public synchronized String getCountry(int row) {
+		return country[row] == OCEAN ? null : countries.get(country[row]);
+	}
+
+	public synchronized void setCountry(int row, String name) {
+		country[row] = name == null ? OCEAN : countries.intern(name);
+	}
+
+	public StringPool getCountries() {
+		return countries;
+	}
+
+	/**
+	 * Looks up the country of every row in the index.  The point-in-polygon
+	 * tests run in parallel on the common ForkJoin pool; only pooling the
+	 * names afterwards is sequential.
+	 *
+	 * @return the statistics per country of the classified rows
+	 */
+	public CountryStats classify(CountryIndex countryIndex) {
+		return classify(countryIndex, 0);
+	}
+
+	/**
+	 * Looks up the country of the rows from the given one on, e.g. the rows
+	 * a feed update appended.  Must be called by the thread that adds rows.
+	 *
+	 * @return the statistics per country of those rows
+	 */
+	public CountryStats classify(CountryIndex countryIndex, int fromRow) {
+		int to = size;
+		int[] found = new int[to - fromRow];
+		IntStream.range(fromRow, to).parallel()
+				.forEach(row -> found[row - fromRow] = countryIndex.findCountryIndex(lat[row], lon[row]));
+
+		List<Marker> countryMarkers = countryIndex.getCountries();
+		CountryStats stats = new CountryStats(countryMarkers);
+		synchronized (this) {
+			for (int row = fromRow; row < to; row++) {
+				int index = found[row - fromRow];
+				setCountry(row, index < 0 ? null : countryMarkers.get(index).getStringProperty("name"));
+				stats.add(index, magnitude[row], depth[row]);
+			}
+		}
+		return stats;
+	}
+
+	public int countLand() {
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			if (country[row] != OCEAN) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of quakes for each pooled country id
+	 */
+	public int[] countByCountry() {
+		int[] counts = new int[countries.size()];
+		for (int row = 0; row < size; row++) {
+			if (country[row] != OCEAN) {
+				counts[country[row]]++;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return all rows, largest magnitude first; rows of equal magnitude keep
+	 * their feed order, like sorting the markers did
+	 */
+	public int[] sortByMagnitude() {
+		long[] keys = new long[size];
+		for (int row = 0; row < size; row++) {
+			// high bits order by magnitude descending, low bits by row
+			keys[row] = ((long) ~sortableBits(magnitude[row]) << 32) | row;
+		}
+		Arrays.sort(keys);
+
+		int[] rows = new int[size];
+		for (int i = 0; i < size; i++) {
+			rows[i] = (int) keys[i];
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the rows inside the box, in row order
+	 */
+	public int[] rowsWithin(float minLat, float maxLat, float minLon, float maxLon) {
+		int[] rows = new int[size];
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			if (lat[row] >= minLat && lat[row] <= maxLat && lon[row] >= minLon && lon[row] <= maxLon) {
+				rows[count++] = row;
+			}
+		}
+		return Arrays.copyOf(rows, count);
+	}
+
+	/**
+	 * @return the rows with at least the given magnitude, in row order
+	 */
+	public int[] rowsWithMagnitudeAtLeast(float minMagnitude) {
+		int[] rows = new int[size];
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			if (magnitude[row] >= minMagnitude) {
+				rows[count++] = row;
+			}
+		}
+		return Arrays.copyOf(rows, count);
+	}
+
+	public int[] allRows() {
+		int[] rows = new int[size];
+		for (int row = 0; row < size; row++) {
+			rows[row] = row;
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the marker of a row, created the first time it is asked for;
+	 * from then on the row always has this marker, so it keeps what it was
+	 * set to, e.g. being selected
+	 */
+	public synchronized EarthquakeMarker getMarker(int row) {
+		EarthquakeMarker view = views[row];
+		if (view == null) {
+			view = createMarker(row);
+			views[row] = view;
+		}
+		return view;
+	}
+
+	/**
+	 * @return every row as a list of markers that are only created when
+	 * they are looked at
+	 */
+	public synchronized QuakeList markers() {
+		return markers(allRows());
+	}
+
+	/**
+	 * @return the rows, which the list keeps, as a list of markers that are
+	 * only created when they are looked at
+	 */
+	public synchronized QuakeList markers(int[] rows) {
+		return new QuakeList(this, rows, lat, lon, magnitude, eventTime);
+	}
+
+	/**
+	 * Creates a new land or ocean marker for a row, which is not the one
+	 * {@link #getMarker(int)} keeps.  The marker reads its values from the
+	 * row and only builds a property map if one is asked for.
+	 */
+	public synchronized EarthquakeMarker createMarker(int row) {
+		EarthquakeMarker marker = isOnLand(row) ? new LandQuakeMarker(this, row) : new OceanQuakeMarker(this, row);
+		marker.setId(getId(row));
+		return marker;
+	}
+
+	/**
+	 * @return the properties a feed entry for the row would have; the times
+	 * are the feed's own strings, and rows added without a feature only get
+	 * their update time, formatted
+	 */
+	synchronized HashMap<String, Object> propertiesOf(int row) {
+		HashMap<String, Object> properties = new HashMap<>();
+		if (title[row] >= 0) {
+			properties.put("title", titles.get(title[row]));
+		}
+		properties.put("magnitude", magnitude[row]);
+		properties.put("depth", depth[row]);
+		QuakeAge quakeAge = getAge(row);
+		if (quakeAge.getTerm() != null) {
+			properties.put("age", quakeAge.getTerm());
+		}
+		if (updatedText[row] >= 0) {
+			properties.put("updated", times.get(updatedText[row]));
+		} else if (time[row] != NO_TIME) {
+			properties.put("updated", DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(time[row])));
+		}
+		if (timeText[row] >= 0) {
+			properties.put("time", times.get(timeText[row]));
+		}
+		if (isOnLand(row)) {
+			properties.put("country", getCountry(row));
+		}
+		return properties;
+	}
+
+	public List<Marker> createMarkers(int[] rows) {
+		List<Marker> markers = new ArrayList<>(rows.length);
+		for (int row : rows) {
+			markers.add(createMarker(row));
+		}
+		return markers;
+	}
+
+	/**
+	 * Writes the string pools followed by the first rows of every column,
+	 * e.g. the rows loaded before a live feed appended any.
+	 */
+	synchronized void writeTo(DataOutputStream out, int rows) throws IOException {
+		titles.writeTo(out);
+		countries.writeTo(out);
+		ids.writeTo(out);
+		times.writeTo(out);
+		out.writeInt(rows);
+		for (int row = 0; row < rows; row++) {
+			out.writeFloat(lat[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeFloat(lon[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeFloat(magnitude[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeFloat(depth[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeLong(time[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeLong(eventTime[row]);
+		}
+		out.write(age, 0, rows);
+		for (int row = 0; row < rows; row++) {
+			out.writeInt(title[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeInt(country[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeInt(id[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeInt(updatedText[row]);
+		}
+		for (int row = 0; row < rows; row++) {
+			out.writeInt(timeText[row]);
+		}
+	}
+
+	/**
+	 * Reads a table written by {@link #writeTo(DataOutputStream, int)}, copying
+	 * each column out of the buffer in one bulk get.
+	 */
+	static QuakeTable readFrom(ByteBuffer in) {
+		QuakeTable table = new QuakeTable(StringPool.readFrom(in), StringPool.readFrom(in),
+				StringPool.readFrom(in), StringPool.readFrom(in));
+		int rows = in.getInt();
+		table.ensureCapacity(rows);
+
+		in.asFloatBuffer().get(table.lat, 0, rows);
+		skip(in, rows * 4);
+		in.asFloatBuffer().get(table.lon, 0, rows);
+		skip(in, rows * 4);
+		in.asFloatBuffer().get(table.magnitude, 0, rows);
+		skip(in, rows * 4);
+		in.asFloatBuffer().get(table.depth, 0, rows);
+		skip(in, rows * 4);
+		in.asLongBuffer().get(table.time, 0, rows);
+		skip(in, rows * 8);
+		in.asLongBuffer().get(table.eventTime, 0, rows);
+		skip(in, rows * 8);
+		in.get(table.age, 0, rows);
+		in.asIntBuffer().get(table.title, 0, rows);
+		skip(in, rows * 4);
+		in.asIntBuffer().get(table.country, 0, rows);
+		skip(in, rows * 4);
+		in.asIntBuffer().get(table.id, 0, rows);
+		skip(in, rows * 4);
+		in.asIntBuffer().get(table.updatedText, 0, rows);
+		skip(in, rows * 4);
+		in.asIntBuffer().get(table.timeText, 0, rows);
+		skip(in, rows * 4);
+		table.size = rows;
+		return table;
+	}
+
+	private static void skip(ByteBuffer in, int bytes) {
+		in.position(in.position() + bytes);
+	}
+
+	static long parseTime(String updatedStr) {
+		if (updatedStr == null) {
+			return NO_TIME;
+		}
+		try {
+			return Instant.parse(updatedStr).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return NO_TIME;
+		}
+	}
+
+	/*
+	 * Maps a float to an int whose signed order matches the float order.
+	 */
+	static int sortableBits(float value) {
+		int bits = Float.floatToIntBits(value);
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= lat.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, lat.length * 2);
+		lat = Arrays.copyOf(lat, newCapacity);
+		lon = Arrays.copyOf(lon, newCapacity);
+		magnitude = Arrays.copyOf(magnitude, newCapacity);
+		depth = Arrays.copyOf(depth, newCapacity);
+		time = Arrays.copyOf(time, newCapacity);
+		eventTime = Arrays.copyOf(eventTime, newCapacity);
+		age = Arrays.copyOf(age, newCapacity);
+		title = Arrays.copyOf(title, newCapacity);
+		country = Arrays.copyOf(country, newCapacity);
+		id = Arrays.copyOf(id, newCapacity);
+		updatedText = Arrays.copyOf(updatedText, newCapacity);
+		timeText = Arrays.copyOf(timeText, newCapacity);
+		views = Arrays.copyOf(views, newCapacity);
+	}
+}
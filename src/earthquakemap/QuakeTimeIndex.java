@@ -0,0 +1,203 @@
+package earthquakemap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** QuakeTimeIndex
+ * The quakes of a {@link QuakeList} sorted by the time they happened, kept
+ * as table rows.  The quakes inside a time window are one contiguous range
+ * of positions, found with two binary searches, so moving a window costs
+ * O(log n) however long the history is.
+ *
+ * A quake is recent if it happened within {@link #RECENT_MILLIS} before a
+ * reference time, e.g. the end of the window; the index does not mark the
+ * markers, so every layer can keep its own reference.  Quakes without a
+ * time are left out.
+ * */
+public class QuakeTimeIndex {
+
+	public static final long RECENT_MILLIS = 24 * 60 * 60 * 1000L;
+
+	// Sort keys pack the time in seconds since the earliest quake above the
+	// position in the quake list
+	private static final int INDEX_BITS = 24;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+	private static final long MAX_SECONDS = (1L << (63 - INDEX_BITS)) - 1;
+
+	// the list the index was built or last updated from, which holds every row
+	private final QuakeList quakes;
+	// the table rows of the quakes in time order
+	private final int[] rows;
+	private final long[] times;
+
+	public QuakeTimeIndex(QuakeList quakes) {
+		if (quakes.size() > INDEX_MASK) {
+			throw new IllegalArgumentException("Too many markers to index: " + quakes.size());
+		}
+
+		long earliest = Long.MAX_VALUE;
+		int count = 0;
+		for (int i = 0; i < quakes.size(); i++) {
+			long time = quakes.getTime(i);
+			if (time != QuakeTable.NO_TIME) {
+				earliest = Math.min(earliest, time);
+				count++;
+			}
+		}
+
+		long[] keys = new long[count];
+		int k = 0;
+		for (int i = 0; i < quakes.size(); i++) {
+			long time = quakes.getTime(i);
+			if (time != QuakeTable.NO_TIME) {
+				long seconds = Math.min(MAX_SECONDS, (time - earliest) / 1000);
+				keys[k++] = (seconds << INDEX_BITS) | i;
+			}
+		}
+		Arrays.sort(keys);
+
+		this.quakes = quakes;
+		rows = new int[count];
+		times = new long[count];
+		for (k = 0; k < count; k++) {
+			int position = (int) (keys[k] & INDEX_MASK);
+			rows[k] = quakes.getRow(position);
+			times[k] = quakes.getTime(position);
+		}
+		// the keys only order by the second; an insertion pass orders the
+		// milliseconds within it, keeping equal times in list order
+		for (k = 1; k < count; k++) {
+			int row = rows[k];
+			long time = times[k];
+			int j = k - 1;
+			for (; j >= 0 && times[j] > time; j--) {
+				rows[j + 1] = rows[j];
+				times[j + 1] = times[j];
+			}
+			rows[j + 1] = row;
+			times[j + 1] = time;
+		}
+	}
+
+	private QuakeTimeIndex(QuakeList quakes, int[] rows, long[] times) {
+		this.quakes = quakes;
+		this.rows = rows;
+		this.times = times;
+	}
+
+	/**
+	 * Derives the index of a changed quake list without sorting it again:
+	 * the removed quakes are taken out and the added ones merged in, after
+	 * the quakes of the same time.  This index is left as it was.
+	 *
+	 * @param quakes the changed list
+	 * @param removed quakes of this index, matched by their row
+	 * @param added quakes of the changed list that are not in this index
+	 */
+	public QuakeTimeIndex updated(QuakeList quakes, Collection<? extends Marker> removed, Collection<? extends Marker> added) {
+		Set<Integer> gone = new HashSet<>();
+		for (Marker marker : removed) {
+			gone.add(((EarthquakeMarker) marker).getRow());
+		}
+		EarthquakeMarker[] sortedAdded = added.stream()
+				.map(marker -> (EarthquakeMarker) marker)
+				.filter(quake -> quake.getTime() != QuakeTable.NO_TIME)
+				.sorted(Comparator.comparingLong(EarthquakeMarker::getTime))
+				.toArray(EarthquakeMarker[]::new);
+
+		int[] nextRows = new int[rows.length + sortedAdded.length];
+		long[] nextTimes = new long[nextRows.length];
+		int count = 0;
+		int a = 0;
+		for (int i = 0; i < rows.length; i++) {
+			for (; a < sortedAdded.length && sortedAdded[a].getTime() < times[i]; a++) {
+				nextRows[count] = sortedAdded[a].getRow();
+				nextTimes[count++] = sortedAdded[a].getTime();
+			}
+			if (!gone.contains(rows[i])) {
+				nextRows[count] = rows[i];
+				nextTimes[count++] = times[i];
+			}
+		}
+		for (; a < sortedAdded.length; a++) {
+			nextRows[count] = sortedAdded[a].getRow();
+			nextTimes[count++] = sortedAdded[a].getTime();
+		}
+		return new QuakeTimeIndex(quakes, Arrays.copyOf(nextRows, count), Arrays.copyOf(nextTimes, count));
+	}
+
+	public int size() {
+		return rows.length;
+	}
+
+	public EarthquakeMarker get(int position) {
+		return quakes.getTable().getMarker(rows[position]);
+	}
+
+	/**
+	 * @return the table row of the quake at the position
+	 */
+	public int getRow(int position) {
+		return rows[position];
+	}
+
+	/**
+	 * @return the quakes in time order, as a list that creates their
+	 * markers when they are looked at
+	 */
+	public QuakeList getMarkers() {
+		return quakes.withRows(rows);
+	}
+
+	public long getTime(int position) {
+		return times[position];
+	}
+
+	/**
+	 * @return the earliest time, or {@link QuakeTable#NO_TIME} if empty
+	 */
+	public long getEarliest() {
+		return times.length == 0 ? QuakeTable.NO_TIME : times[0];
+	}
+
+	/**
+	 * @return the latest time, or {@link QuakeTable#NO_TIME} if empty
+	 */
+	public long getLatest() {
+		return times.length == 0 ? QuakeTable.NO_TIME : times[times.length - 1];
+	}
+
+	/**
+	 * @return the first position whose time is at or after the time, or
+	 * {@link #size()} if there is none
+	 */
+	public int lowerBound(long time) {
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[middle] < time) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return whether a quake at the time happened in the day up to and
+	 * including the reference time; false if either is
+	 * {@link QuakeTable#NO_TIME}
+	 */
+	public static boolean isRecent(long time, long reference) {
+		return time != QuakeTable.NO_TIME && reference != QuakeTable.NO_TIME
+				&& time >= reference - RECENT_MILLIS && time <= reference;
+	}
+}
@@ -0,0 +1,260 @@
+package earthquakemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PImage;
+import processing.core.PShape;
+
+/** SpriteBatch
+ * Collects marker sprites and overlay lines and draws them grouped by
+ * sprite and tint, so the style is set once per group instead of once per
+ * marker.  On the OpenGL renderer every group becomes a textured QUADS
+ * shape inside one retained PShape, which is only rebuilt after the
+ * content changed; a frame then costs one draw call per group.  Other
+ * renderers, like the offscreen Java2D one, draw the same groups with
+ * plain image() calls.
+ * */
+public class SpriteBatch {
+
+	private static final float LINE_WEIGHT = 2;
+
+	private final List<Group> groups = new ArrayList<>();
+	private float[] lines = new float[64];
+	private int lineCount;
+
+	private PShape shape;
+	private PGraphics shapeOwner;
+	private boolean changed = true;
+
+	// statistics of the last draw
+	private int drawCalls;
+	private long lineNanos;
+	private int lineDrawCalls;
+
+	/**
+	 * Empties the batch; the group buffers are kept for the next build.
+	 */
+	public void clear() {
+		for (Group group : groups) {
+			group.size = 0;
+		}
+		lineCount = 0;
+		changed = true;
+	}
+
+	/**
+	 * Adds one sprite drawn at x, y with the given size, like image() would.
+	 */
+	public void add(PImage sprite, int tint, float x, float y, float width, float height) {
+		group(sprite, tint).add(x, y, width, height);
+		changed = true;
+	}
+
+	/**
+	 * Adds a black line of the marker overlay weight.
+	 */
+	public void addLine(float x1, float y1, float x2, float y2) {
+		if (lineCount * 4 + 4 > lines.length) {
+			lines = Arrays.copyOf(lines, lines.length * 2);
+		}
+		lines[lineCount * 4] = x1;
+		lines[lineCount * 4 + 1] = y1;
+		lines[lineCount * 4 + 2] = x2;
+		lines[lineCount * 4 + 3] = y2;
+		lineCount++;
+		changed = true;
+	}
+
+	public int getSpriteCount() {
+		int count = 0;
+		for (Group group : groups) {
+			count += group.size;
+		}
+		return count;
+	}
+
+	public void draw(PGraphics pg) {
+		if (pg.isGL()) {
+			drawRetained(pg);
+		}
+		else {
+			drawImmediate(pg);
+		}
+	}
+
+	/**
+	 * @return the draw calls issued by the last {@link #draw(PGraphics)}
+	 */
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**
+	 * Lists every group of the last draw with its sprite count, draw calls and
+	 * the time it took to issue them.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		for (int g = 0; g < groups.size(); g++) {
+			Group group = groups.get(g);
+			if (group.size > 0) {
+				report.append(String.format("group %2d %3dx%-3d tint %08x  %7d sprites  %7d calls  %8.3f ms%n",
+						g, group.sprite.width, group.sprite.height, group.tint, group.size, group.drawCalls, group.nanos / 1e6));
+			}
+		}
+		if (lineCount > 0) {
+			report.append(String.format("overlay lines                   %7d lines    %7d calls  %8.3f ms%n",
+					lineCount, lineDrawCalls, lineNanos / 1e6));
+		}
+		report.append(String.format("total draw calls %d%n", drawCalls));
+		return report.toString();
+	}
+
+	private Group group(PImage sprite, int tint) {
+		for (Group group : groups) {
+			if (group.sprite == sprite && group.tint == tint) {
+				return group;
+			}
+		}
+		Group group = new Group(sprite, tint);
+		groups.add(group);
+		return group;
+	}
+
+	/*
+	 * Java2D and other renderers without textured shapes: one style change per
+	 * group, then one image() per sprite.
+	 */
+	private void drawImmediate(PGraphics pg) {
+		drawCalls = 0;
+		pg.pushStyle();
+		for (Group group : groups) {
+			long begin = System.nanoTime();
+			pg.tint(group.tint);
+			float[] quads = group.quads;
+			for (int i = 0; i < group.size; i++) {
+				pg.image(group.sprite, quads[i * 4], quads[i * 4 + 1], quads[i * 4 + 2], quads[i * 4 + 3]);
+			}
+			group.drawCalls = group.size;
+			group.nanos = System.nanoTime() - begin;
+			drawCalls += group.drawCalls;
+		}
+
+		long begin = System.nanoTime();
+		pg.stroke(0);
+		pg.strokeWeight(LINE_WEIGHT);
+		for (int i = 0; i < lineCount; i++) {
+			pg.line(lines[i * 4], lines[i * 4 + 1], lines[i * 4 + 2], lines[i * 4 + 3]);
+		}
+		lineDrawCalls = lineCount;
+		lineNanos = System.nanoTime() - begin;
+		drawCalls += lineDrawCalls;
+		pg.popStyle();
+	}
+
+	/*
+	 * OpenGL: one retained shape with a child per group, rebuilt only when
+	 * sprites were added or removed since the last frame.
+	 */
+	private void drawRetained(PGraphics pg) {
+		if (changed || shape == null || shapeOwner != pg) {
+			shape = buildShape(pg);
+			shapeOwner = pg;
+			changed = false;
+		}
+
+		drawCalls = 0;
+		for (Group group : groups) {
+			group.drawCalls = group.size > 0 ? 1 : 0;
+			drawCalls += group.drawCalls;
+		}
+		lineDrawCalls = lineCount > 0 ? 1 : 0;
+		drawCalls += lineDrawCalls;
+
+		long begin = System.nanoTime();
+		pg.shape(shape);
+		long nanos = System.nanoTime() - begin;
+		// the shape is drawn as a whole, so its time is shared by the groups
+		for (Group group : groups) {
+			group.nanos = drawCalls == 0 ? 0 : nanos * group.drawCalls / drawCalls;
+		}
+		lineNanos = drawCalls == 0 ? 0 : nanos * lineDrawCalls / drawCalls;
+	}
+
+	private PShape buildShape(PGraphics pg) {
+		PShape root = pg.createShape(PConstants.GROUP);
+		for (Group group : groups) {
+			if (group.size == 0) {
+				continue;
+			}
+			PShape quads = pg.createShape();
+			quads.beginShape(PConstants.QUADS);
+			quads.noStroke();
+			quads.textureMode(PConstants.NORMAL);
+			quads.texture(group.sprite);
+			quads.tint(group.tint);
+			float[] q = group.quads;
+			for (int i = 0; i < group.size; i++) {
+				float x = q[i * 4];
+				float y = q[i * 4 + 1];
+				float w = q[i * 4 + 2];
+				float h = q[i * 4 + 3];
+				quads.vertex(x, y, 0, 0);
+				quads.vertex(x + w, y, 1, 0);
+				quads.vertex(x + w, y + h, 1, 1);
+				quads.vertex(x, y + h, 0, 1);
+			}
+			quads.endShape();
+			root.addChild(quads);
+		}
+
+		if (lineCount > 0) {
+			PShape overlay = pg.createShape();
+			overlay.beginShape(PConstants.LINES);
+			overlay.stroke(0);
+			overlay.strokeWeight(LINE_WEIGHT);
+			for (int i = 0; i < lineCount; i++) {
+				overlay.vertex(lines[i * 4], lines[i * 4 + 1]);
+				overlay.vertex(lines[i * 4 + 2], lines[i * 4 + 3]);
+			}
+			overlay.endShape();
+			root.addChild(overlay);
+		}
+		return root;
+	}
+
+	/*
+	 * The sprites of one image and tint, as x, y, width, height per sprite.
+	 */
+	private static class Group {
+
+		final PImage sprite;
+		final int tint;
+
+		float[] quads = new float[64];
+		int size;
+
+		int drawCalls;
+		long nanos;
+
+		Group(PImage sprite, int tint) {
+			this.sprite = sprite;
+			this.tint = tint;
+		}
+
+		void add(float x, float y, float width, float height) {
+			if (size * 4 + 4 > quads.length) {
+				quads = Arrays.copyOf(quads, quads.length * 2);
+			}
+			quads[size * 4] = x;
+			quads[size * 4 + 1] = y;
+			quads[size * 4 + 2] = width;
+			quads[size * 4 + 3] = height;
+			size++;
+		}
+	}
+}
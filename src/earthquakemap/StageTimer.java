@@ -0,0 +1,64 @@
+package earthquakemap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** StageTimer
+ * Records how long each named stage of a multi-threaded load takes, measured
+ * from a common start so overlapping stages can be compared.
+ * */
+public class StageTimer {
+
+	private final long start = System.nanoTime();
+	private final Map<String, long[]> stages = new LinkedHashMap<>();
+
+	/**
+	 * Runs the stage on the calling thread and records its start and end.
+	 */
+	public void time(String stage, Runnable work) {
+		long begin = System.nanoTime();
+		try {
+			work.run();
+		} finally {
+			record(stage, begin, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Records a point in time, e.g. the first frame, as a stage of zero length.
+	 */
+	public void mark(String stage) {
+		long now = System.nanoTime();
+		record(stage, now, now);
+	}
+
+	public synchronized long millisSinceStart() {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	/**
+	 * @return the length of each stage recorded so far, in order
+	 */
+	public synchronized Map<String, Long> getStageMillis() {
+		Map<String, Long> millis = new LinkedHashMap<>();
+		for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+			millis.put(stage.getKey(), (stage.getValue()[1] - stage.getValue()[0]) / 1_000_000);
+		}
+		return millis;
+	}
+
+	public synchronized String report() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+			long[] span = stage.getValue();
+			report.append(String.format("%-20s %6d ms  (at %6d ms)%n",
+					stage.getKey(), (span[1] - span[0]) / 1_000_000, (span[0] - start) / 1_000_000));
+		}
+		report.append(String.format("%-20s %6d ms%n", "total", millisSinceStart()));
+		return report.toString();
+	}
+
+	private synchronized void record(String stage, long begin, long end) {
+		stages.put(stage, new long[] { begin, end });
+	}
+}
@@ -0,0 +1,67 @@
+package earthquakemap;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** StringPool
+ * Interns strings to dense int ids so tables can store an int per row
+ * instead of a reference, and repeated values are kept only once.
+ * */
+public class StringPool {
+
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private final List<String> values = new ArrayList<>();
+
+	/**
+	 * @return the id of the string, adding it to the pool if it is new
+	 */
+	public int intern(String value) {
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = values.size();
+			ids.put(value, id);
+			values.add(value);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of the string or -1 if it is not in the pool
+	 */
+	public int idOf(String value) {
+		Integer id = ids.get(value);
+		return id == null ? -1 : id;
+	}
+
+	public String get(int id) {
+		return values.get(id);
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			MapSnapshot.writeString(out, value);
+		}
+	}
+
+	/**
+	 * Reads a pool written by {@link #writeTo(DataOutputStream)}; every
+	 * string keeps its id.
+	 */
+	static StringPool readFrom(ByteBuffer in) {
+		StringPool pool = new StringPool();
+		int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			pool.intern(MapSnapshot.readString(in));
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,125 @@
+package earthquakemap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/** TooltipCache
+ * Tooltips rendered once into small offscreen images, so a hover draws one
+ * image per frame instead of building the text, measuring it and drawing
+ * a box and text.  The most recently used tooltips are kept by marker,
+ * together with the text they show; a marker whose text changed, e.g.
+ * because its properties were set, is rendered again.
+ *
+ * Only used by the animation thread.
+ * */
+public class TooltipCache {
+
+	// Room around the box for its stroke
+	private static final int MARGIN = 1;
+
+	private final int capacity;
+
+	// access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<CommonMarker, Tooltip> tooltips;
+
+	private long hits;
+	private long renders;
+	private long evictions;
+
+	public TooltipCache(int capacity) {
+		this.capacity = capacity;
+		this.tooltips = new LinkedHashMap<CommonMarker, Tooltip>(capacity * 4 / 3 + 1, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CommonMarker, Tooltip> eldest) {
+				if (size() > TooltipCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Draws the tooltip of the marker at x, y, rendering it first if it is
+	 * not cached or its text changed.
+	 */
+	public void draw(PGraphics pg, CommonMarker marker, float x, float y) {
+		String text = marker.getTitleText();
+		Tooltip tooltip = tooltips.get(marker);
+		if (tooltip == null || !tooltip.text.equals(text)) {
+			tooltip = render(pg, marker, text);
+			tooltips.put(marker, tooltip);
+		}
+		else {
+			hits++;
+		}
+
+		pg.pushStyle();
+		pg.imageMode(PConstants.CORNER);
+		pg.noTint();
+		pg.image(tooltip.image, x + tooltip.offsetX, y + tooltip.offsetY);
+		pg.popStyle();
+	}
+
+	public void clear() {
+		tooltips.clear();
+	}
+
+	public int size() {
+		return tooltips.size();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getRenders() {
+		return renders;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/*
+	 * Lays the tooltip out on the canvas it will be drawn on, so it is
+	 * measured with the same font, and draws it into an image just large
+	 * enough for its box.
+	 */
+	private Tooltip render(PGraphics pg, CommonMarker marker, String text) {
+		float[] bounds = marker.getTitleBounds(pg);
+		int width = (int) Math.ceil(bounds[2]) + 2 * MARGIN;
+		int height = (int) Math.ceil(bounds[3]) + 2 * MARGIN;
+
+		PGraphics image = pg.parent.createGraphics(width, height, pg.isGL() ? PConstants.P2D : PConstants.JAVA2D);
+		image.beginDraw();
+		image.clear();
+		if (pg.textFont != null) {
+			image.textFont(pg.textFont, pg.textSize);
+		}
+		marker.drawTitle(image, MARGIN - bounds[0], MARGIN - bounds[1]);
+		image.endDraw();
+		renders++;
+		return new Tooltip(text, image, bounds[0] - MARGIN, bounds[1] - MARGIN);
+	}
+
+	private static class Tooltip {
+
+		final String text;
+		final PGraphics image;
+		// from the marker's position to the image's corner
+		final float offsetX;
+		final float offsetY;
+
+		Tooltip(String text, PGraphics image, float offsetX, float offsetY) {
+			this.text = text;
+			this.image = image;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+		}
+	}
+}
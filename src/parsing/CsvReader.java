@@ -0,0 +1,286 @@
+package parsing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Single pass, quote-aware reader for comma separated files such as
+ * airports.dat, routes.dat and the World Bank csv files.
+ *
+ * The input is streamed through one reusable character buffer and every
+ * row is split in place: a field is just a start and end offset into the
+ * line, so numbers can be parsed and fields compared without creating a
+ * String.  Fields are split exactly like the old
+ * split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)") call, which means quotes are kept
+ * in the field text and trailing empty fields are dropped.
+ */
+public class CsvReader implements Closeable {
+
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final Reader reader;
+
+	// characters read from the input but not yet consumed
+	private final char[] block = new char[BLOCK_SIZE];
+	private int blockPos;
+	private int blockEnd;
+
+	// the current line and its fields
+	private char[] line = new char[256];
+	private int lineLength;
+	private int[] fieldStart = new int[16];
+	private int[] fieldEnd = new int[16];
+	private int fieldCount;
+
+	public CsvReader(InputStream input) {
+		this.reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Advances to the next line and splits it into fields.
+	 *
+	 * @return false at the end of the input
+	 */
+	public boolean next() throws IOException {
+		if (!readLine()) {
+			return false;
+		}
+		split();
+		return true;
+	}
+
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	public boolean isEmpty(int field) {
+		checkField(field);
+		return fieldEnd[field] == fieldStart[field];
+	}
+
+	public boolean fieldEquals(int field, String value) {
+		checkField(field);
+		int start = fieldStart[field];
+		int length = fieldEnd[field] - start;
+		if (length != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (line[start + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String getString(int field) {
+		checkField(field);
+		return new String(line, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+	}
+
+	/**
+	 * Parses a field as Float.parseFloat would.  Plain decimals like
+	 * "-6.081689" are converted straight from the line buffer; anything else
+	 * falls back to Float.parseFloat.
+	 */
+	public float getFloat(int field) {
+		checkField(field);
+		int start = fieldStart[field];
+		int end = fieldEnd[field];
+		int pos = start;
+
+		boolean negative = false;
+		if (pos < end && (line[pos] == '-' || line[pos] == '+')) {
+			negative = line[pos] == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		for (; pos < end; pos++) {
+			char c = line[pos];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa > (1L << 53)) {
+					// no longer exact as a double
+					return slowFloat(field);
+				}
+				digits++;
+				if (point) {
+					fractionDigits++;
+				}
+			}
+			else if (c == '.' && !point) {
+				point = true;
+			}
+			else {
+				return slowFloat(field);
+			}
+		}
+		if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+			return slowFloat(field);
+		}
+
+		// Both operands are exact doubles, so the quotient is correctly rounded
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		if (value != 0 && (value < Float.MIN_NORMAL || isFloatMidpoint(value))) {
+			// rounding the double to float again could be off by one ulp
+			return slowFloat(field);
+		}
+		float result = (float) value;
+		return negative ? -result : result;
+	}
+
+	public int getInt(int field) {
+		checkField(field);
+		int start = fieldStart[field];
+		int end = fieldEnd[field];
+		int pos = start;
+
+		boolean negative = false;
+		if (pos < end && line[pos] == '-') {
+			negative = true;
+			pos++;
+		}
+		if (pos == end || end - pos > 9) {
+			return Integer.parseInt(getString(field));
+		}
+
+		int value = 0;
+		for (; pos < end; pos++) {
+			char c = line[pos];
+			if (c < '0' || c > '9') {
+				return Integer.parseInt(getString(field));
+			}
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void checkField(int field) {
+		if (field < 0 || field >= fieldCount) {
+			throw new ArrayIndexOutOfBoundsException("Field " + field + " of a line with " + fieldCount + " fields");
+		}
+	}
+
+	private float slowFloat(int field) {
+		return Float.parseFloat(getString(field));
+	}
+
+	/*
+	 * True if the double lies exactly halfway between two adjacent floats.
+	 */
+	private static boolean isFloatMidpoint(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		return (bits & 0x1FFFFFFFL) == 0x10000000L;
+	}
+
+	/*
+	 * Copies the next line into the line buffer, accepting \n, \r and \r\n
+	 * line ends like BufferedReader.readLine.
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		boolean any = false;
+		while (true) {
+			if (blockPos == blockEnd) {
+				blockEnd = reader.read(block, 0, BLOCK_SIZE);
+				blockPos = 0;
+				if (blockEnd <= 0) {
+					blockEnd = 0;
+					return any;
+				}
+			}
+			any = true;
+
+			char c = block[blockPos++];
+			if (c == '\n') {
+				return true;
+			}
+			if (c == '\r') {
+				if (blockPos == blockEnd) {
+					blockEnd = reader.read(block, 0, BLOCK_SIZE);
+					blockPos = 0;
+					if (blockEnd <= 0) {
+						blockEnd = 0;
+						return true;
+					}
+				}
+				if (block[blockPos] == '\n') {
+					blockPos++;
+				}
+				return true;
+			}
+
+			if (lineLength == line.length) {
+				line = Arrays.copyOf(line, line.length * 2);
+			}
+			line[lineLength++] = c;
+		}
+	}
+
+	/*
+	 * A comma splits the line when an even number of quotes follows it, the
+	 * same rule as the lookahead in the old regex.  With balanced quotes that
+	 * is every comma outside quotes; with an odd count it is inverted.
+	 */
+	private void split() {
+		int quotes = 0;
+		for (int i = 0; i < lineLength; i++) {
+			if (line[i] == '"') {
+				quotes++;
+			}
+		}
+
+		fieldCount = 0;
+		int start = 0;
+		int quotesAfter = quotes;
+		for (int i = 0; i < lineLength; i++) {
+			char c = line[i];
+			if (c == '"') {
+				quotesAfter--;
+			}
+			else if (c == ',' && (quotesAfter & 1) == 0) {
+				addField(start, i);
+				start = i + 1;
+			}
+		}
+		addField(start, lineLength);
+
+		// String.split drops trailing empty strings, unless the line is empty
+		if (lineLength > 0) {
+			while (fieldCount > 0 && fieldEnd[fieldCount - 1] == fieldStart[fieldCount - 1]) {
+				fieldCount--;
+			}
+		}
+	}
+
+	private void addField(int start, int end) {
+		if (fieldCount == fieldStart.length) {
+			fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+			fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+		}
+		fieldStart[fieldCount] = start;
+		fieldEnd[fieldCount] = end;
+		fieldCount++;
+	}
+}
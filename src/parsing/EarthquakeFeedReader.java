@@ -0,0 +1,232 @@
+package parsing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+
+/*
+ * Pull parser for the USGS GeoRSS earthquake feed.
+ *
+ * Entries are read one at a time straight off the stream, so only the entry
+ * currently being read is held in memory no matter how large the feed is.
+ * Each PointFeature carries the same event id and title, magnitude, depth,
+ * age, updated and time properties as ParseFeed.parseEarthquake builds from
+ * the DOM.
+ */
+public class EarthquakeFeedReader implements Iterator<PointFeature>, Closeable {
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+	static {
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+
+	private final InputStream input;
+	private final XMLStreamReader xml;
+
+	private PointFeature next;
+	private boolean finished;
+	private int depth;
+
+	// state of the entry currently being read
+	private String idStr;
+	private String pointStr;
+	private String titleStr;
+	private String elevStr;
+	private String ageStr;
+	private String updatedStr;
+	private String summaryStr;
+
+	public EarthquakeFeedReader(InputStream input) {
+		this.input = input;
+		try {
+			xml = FACTORY.createXMLStreamReader(input);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Could not open earthquake feed", e);
+		}
+	}
+
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			next = readEntry();
+		}
+		return next != null;
+	}
+
+	public PointFeature next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		PointFeature point = next;
+		next = null;
+		return point;
+	}
+
+	public void close() throws IOException {
+		finished = true;
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			input.close();
+		}
+	}
+
+	/*
+	 * Advances to the next entry with a location and builds its feature.
+	 * Returns null once the end of the document is reached.
+	 */
+	private PointFeature readEntry() {
+		try {
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					// entries are direct children of the feed element
+					if (depth == 2 && "entry".equals(qualifiedName())) {
+						PointFeature point = readEntryBody();
+						depth--;
+						if (point != null) {
+							return point;
+						}
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Could not read earthquake feed", e);
+		}
+
+		finished = true;
+		return null;
+	}
+
+	/*
+	 * Reads the children of the current entry up to its end tag.  Like the DOM
+	 * version only the first id, point, title, elev, updated and summary children count,
+	 * and the last Age category wins.
+	 */
+	private PointFeature readEntryBody() throws XMLStreamException {
+		idStr = null;
+		pointStr = null;
+		titleStr = null;
+		elevStr = null;
+		ageStr = null;
+		updatedStr = null;
+		summaryStr = null;
+
+		while (true) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				readChild(qualifiedName());
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+
+		Location location = ParseFeed.parseLocation(pointStr);
+		if (location == null) {
+			return null;
+		}
+
+		PointFeature point = new PointFeature(location);
+		point.setId(idStr);
+		if (titleStr != null) {
+			point.putProperty("title", titleStr);
+			point.putProperty("magnitude", ParseFeed.parseMagnitude(titleStr));
+		}
+		point.putProperty("depth", ParseFeed.parseDepth(elevStr));
+		if (ageStr != null) {
+			point.putProperty("age", ageStr);
+		}
+		if (updatedStr != null) {
+			point.putProperty("updated", updatedStr);
+		}
+		String timeStr = ParseFeed.parseEventTime(summaryStr);
+		if (timeStr != null) {
+			point.putProperty("time", timeStr);
+		}
+		return point;
+	}
+
+	/*
+	 * Consumes one direct child of an entry, including its end tag.
+	 */
+	private void readChild(String name) throws XMLStreamException {
+		if ("id".equals(name)) {
+			String text = xml.getElementText();
+			if (idStr == null) {
+				idStr = text;
+			}
+		}
+		else if ("georss:point".equals(name)) {
+			String text = xml.getElementText();
+			if (pointStr == null) {
+				pointStr = text;
+			}
+		}
+		else if ("title".equals(name)) {
+			String text = xml.getElementText();
+			if (titleStr == null) {
+				titleStr = text;
+			}
+		}
+		else if ("georss:elev".equals(name)) {
+			String text = xml.getElementText();
+			if (elevStr == null) {
+				elevStr = text;
+			}
+		}
+		else if ("updated".equals(name)) {
+			String text = xml.getElementText();
+			if (updatedStr == null) {
+				updatedStr = text;
+			}
+		}
+		else if ("summary".equals(name)) {
+			String text = xml.getElementText();
+			if (summaryStr == null) {
+				summaryStr = text;
+			}
+		}
+		else {
+			if ("category".equals(name) && "Age".equals(xml.getAttributeValue(null, "label"))) {
+				ageStr = xml.getAttributeValue(null, "term");
+			}
+			skipElement();
+		}
+	}
+
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private String qualifiedName() {
+		String prefix = xml.getPrefix();
+		String local = xml.getLocalName();
+		return prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+	}
+}
@@ -1,9 +1,13 @@
 package parsing;
 
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.function.Consumer;
 
 import de.fhpotsdam.unfolding.data.Feature;
 import de.fhpotsdam.unfolding.data.PointFeature;
@@ -44,22 +48,19 @@ public class ParseFeed {
 					continue;
 				}
 
+				// Sets the event id, which stays the same when the entry is updated
+				point.setId(getStringVal(itemXML[i], "id"));
+
 				// Sets title if existing
 				String titleStr = getStringVal(itemXML[i], "title");
 				if (titleStr != null) {
 					point.putProperty("title", titleStr);
 					// get magnitude from title
-					point.putProperty("magnitude", Float.parseFloat(titleStr.substring(2, 5)));
+					point.putProperty("magnitude", parseMagnitude(titleStr));
 				}
 
 				// Sets depth(elevation) if existing
-				float depthVal = getFloatVal(itemXML[i], "georss:elev");
-				
-				// NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
-				// get one decimal place when converting to km
-				int interVal = (int)(depthVal/100);
-				depthVal = (float) interVal/10;
-				point.putProperty("depth", Math.abs((depthVal)));
+				point.putProperty("depth", parseDepth(getStringVal(itemXML[i], "georss:elev")));
 				
 
 				// Sets age if existing
@@ -71,6 +72,18 @@ public class ParseFeed {
 						point.putProperty("age", ageStr);
 					}
 				}
+
+				// Sets time of the last update if existing
+				String updatedStr = getStringVal(itemXML[i], "updated");
+				if (updatedStr != null) {
+					point.putProperty("updated", updatedStr);
+				}
+
+				// Sets the time the quake happened if the summary has it
+				String timeStr = parseEventTime(getStringVal(itemXML[i], "summary"));
+				if (timeStr != null) {
+					point.putProperty("time", timeStr);
+				}
 		
 
 			}
@@ -87,22 +100,70 @@ public class ParseFeed {
 	 * @return Location object corresponding to point
 	 */
 	private static Location getLocationFromPoint(XML itemXML) {
-		// set loc to null in case of failure
-		Location loc = null;
-		XML pointXML = itemXML.getChild("georss:point");
-		
-		// set location if existing
-		if (pointXML != null && pointXML.getContent() != null) {
-			String pointStr = pointXML.getContent();
-			String[] latLon = pointStr.split(" ");
-			float lat = Float.valueOf(latLon[0]);
-			float lon = Float.valueOf(latLon[1]);
-
-			loc = new Location(lat, lon);
+		return parseLocation(getStringVal(itemXML, "georss:point"));
+	}
+
+	/*
+	 * Parses the "lat lon" content of a georss:point tag
+	 * 
+	 * @return Location or null if there is no content
+	 */
+	static Location parseLocation(String pointStr) {
+		if (pointStr == null) {
+			return null;
 		}
-		
-		return loc;
-	}	
+
+		int space = pointStr.indexOf(' ');
+		int end = pointStr.indexOf(' ', space + 1);
+		float lat = Float.parseFloat(pointStr.substring(0, space));
+		float lon = Float.parseFloat(end < 0 ? pointStr.substring(space + 1) : pointStr.substring(space + 1, end));
+
+		return new Location(lat, lon);
+	}
+
+	/*
+	 * Gets magnitude from a title like "M 4.4 - 106km NNE of Tobelo, Indonesia"
+	 */
+	static float parseMagnitude(String titleStr) {
+		return Float.parseFloat(titleStr.substring(2, 5));
+	}
+
+	/*
+	 * Gets the event time from the "<dt>Time</dt><dd>2015-08-07 19:22:37 UTC</dd>"
+	 * part of an entry summary, as an ISO-8601 instant like "2015-08-07T19:22:37Z"
+	 *
+	 * @return the time or null if the summary has none
+	 */
+	static String parseEventTime(String summaryStr) {
+		if (summaryStr == null) {
+			return null;
+		}
+
+		String label = "<dt>Time</dt><dd>";
+		int start = summaryStr.indexOf(label);
+		if (start < 0) {
+			return null;
+		}
+		start += label.length();
+		int end = summaryStr.indexOf(" UTC</dd>", start);
+		if (end < 0) {
+			return null;
+		}
+		return summaryStr.substring(start, end).replace(' ', 'T') + "Z";
+	}
+
+	/*
+	 * Converts georss:elev in meters to a positive depth in km
+	 */
+	static float parseDepth(String elevStr) {
+		float depthVal = Float.parseFloat(elevStr);
+
+		// NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
+		// get one decimal place when converting to km
+		int interVal = (int)(depthVal/100);
+		depthVal = (float) interVal/10;
+		return Math.abs(depthVal);
+	}
 	
 	/*
 	 * Get String content from child node.
@@ -121,10 +182,37 @@ public class ParseFeed {
 	}
 	
 	/*
-	 * Get float value from child node
+	 * This method streams a GeoRSS earthquake feed, handing each PointFeature
+	 * to the consumer as soon as its entry has been read.  Memory use stays
+	 * bounded regardless of the size of the feed.
+	 * 
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
+	 * @param consumer - receives each earthquake in feed order
+	 */
+	public static void parseEarthquake(PApplet p, String fileName, Consumer<PointFeature> consumer) {
+		parseEarthquake(openInput(p, fileName), consumer);
+	}
+
+	public static void parseEarthquake(InputStream input, Consumer<PointFeature> consumer) {
+		try (EarthquakeFeedReader reader = new EarthquakeFeedReader(input)) {
+			while (reader.hasNext()) {
+				consumer.accept(reader.next());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Opens a GeoRSS earthquake feed for reading one PointFeature at a time.
+	 * The caller must close the returned reader.
+	 * 
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
 	 */
-	private static float getFloatVal(XML itemXML, String tagName) {
-		return Float.parseFloat(getStringVal(itemXML, tagName));
+	public static EarthquakeFeedReader openEarthquakeFeed(PApplet p, String fileName) {
+		return new EarthquakeFeedReader(openInput(p, fileName));
 	}
 	
 
@@ -139,46 +227,53 @@ public class ParseFeed {
 	 * @param fileName - file name or URL for data source
 	 */
 	public static List<PointFeature> parseAirports(PApplet p, String fileName) {
+		return parseAirports(openInput(p, fileName));
+	}
+
+	/*
+	 * Same as parseAirports(PApplet, String), reading from a stream which is
+	 * closed afterwards.
+	 */
+	public static List<PointFeature> parseAirports(InputStream input) {
 		List<PointFeature> features = new ArrayList<PointFeature>();
 
-		String[] rows = p.loadStrings(fileName);
-		for (String row : rows) {
-			
-			// hot-fix for altitude when lat lon out of place
-			int i = 0;
-			
-			// split row by commas not in quotations
-			String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
-			
-			// get location and create feature
-			//System.out.println(columns[6]);
-			float lat = Float.parseFloat(columns[6]);
-			float lon = Float.parseFloat(columns[7]);
-			
-			Location loc = new Location(lat, lon);
-			PointFeature point = new PointFeature(loc);
-			
-			// set ID to OpenFlights unique identifier
-			point.setId(columns[0]);
-			
-			// get other fields from csv
-			point.addProperty("name", columns[1]);
-			point.putProperty("city", columns[2]);
-			point.putProperty("country", columns[3]);
-			
-			// pretty sure IATA/FAA is used in routes.dat
-			// get airport IATA/FAA code
-			if(!columns[4].equals("")) {
-				point.putProperty("code", columns[4]);
-			}
-			// get airport ICAO code if no IATA
-			else if(!columns[5].equals("")) {
-				point.putProperty("code", columns[5]);
+		try (CsvReader columns = new CsvReader(input)) {
+			while (columns.next()) {
+
+				// hot-fix for altitude when lat lon out of place
+				int i = 0;
+
+				// get location and create feature
+				float lat = columns.getFloat(6);
+				float lon = columns.getFloat(7);
+
+				Location loc = new Location(lat, lon);
+				PointFeature point = new PointFeature(loc);
+
+				// set ID to OpenFlights unique identifier
+				point.setId(columns.getString(0));
+
+				// get other fields from csv
+				point.addProperty("name", columns.getString(1));
+				point.putProperty("city", columns.getString(2));
+				point.putProperty("country", columns.getString(3));
+
+				// pretty sure IATA/FAA is used in routes.dat
+				// get airport IATA/FAA code
+				if(!columns.isEmpty(4)) {
+					point.putProperty("code", columns.getString(4));
+				}
+				// get airport ICAO code if no IATA
+				else if(!columns.isEmpty(5)) {
+					point.putProperty("code", columns.getString(5));
+				}
+
+				point.putProperty("altitude", columns.getString(8 + i));
+
+				features.add(point);
 			}
-			
-			point.putProperty("altitude", columns[8 + i]);
-			
-			features.add(point);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 
 		return features;
@@ -198,33 +293,36 @@ public class ParseFeed {
 	 * @param fileName - file name or URL for data source
 	 */
 	public static List<ShapeFeature> parseRoutes(PApplet p, String fileName) {
+		return parseRoutes(openInput(p, fileName));
+	}
+
+	/*
+	 * Same as parseRoutes(PApplet, String), reading from a stream which is
+	 * closed afterwards.
+	 */
+	public static List<ShapeFeature> parseRoutes(InputStream input) {
 		List<ShapeFeature> routes = new ArrayList<ShapeFeature>();
 		
-		String[] rows = p.loadStrings(fileName);
-		
-		for(String row : rows) {
-			String[] columns = row.split(",");
-			
-			ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
-			
-			// set id to be OpenFlights identifier for source airport
-			
-			// check that both airports on route have OpenFlights Identifier
-			if(!columns[3].equals("\\N") && !columns[5].equals("\\N")){
-				// set "source" property to be OpenFlights identifier for source airport
-				route.putProperty("source", columns[3]);
-				// "destination property" -- OpenFlights identifier
-				route.putProperty("destination", columns[5]);
-				
-				routes.add(route);
+		try (CsvReader columns = new CsvReader(input)) {
+			while (columns.next()) {
+				// check that both airports on route have OpenFlights Identifier
+				if(!columns.fieldEquals(3, "\\N") && !columns.fieldEquals(5, "\\N")){
+					ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
+
+					// set "source" property to be OpenFlights identifier for source airport
+					route.putProperty("source", columns.getString(3));
+					// "destination property" -- OpenFlights identifier
+					route.putProperty("destination", columns.getString(5));
+
+					routes.add(route);
+				}
 			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-			
 		
 		return routes;
 		
-		
-		
 	}
 	
 	
@@ -243,40 +341,55 @@ public class ParseFeed {
 	 * @return A HashMap of country->average age of death
 	 */
 	public static HashMap<String, Float> loadLifeExpectancyFromCSV(PApplet p, String fileName) {
+		return loadLifeExpectancyFromCSV(openInput(p, fileName));
+	}
+
+	/*
+	 * Same as loadLifeExpectancyFromCSV(PApplet, String), reading from a
+	 * stream which is closed afterwards.
+	 */
+	public static HashMap<String, Float> loadLifeExpectancyFromCSV(InputStream input) {
 		// HashMap key: country ID and  data: lifeExp at birth
 		HashMap<String, Float> lifeExpMap = new HashMap<String, Float>();
 
-		// get lines of csv file
-		String[] rows = p.loadStrings(fileName);
-		
 		// Reads country name and population density value from CSV row
-		for (String row : rows) {
-			// split row by commas not in quotations
-			String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
-			
-			// check if there is any life expectancy data from any year, get most recent
-			/*
-			 * EXTENSION: Add code to also get the year the data is from.
-			 * You may want to use a list of Floats as the  values for the HashMap
-			 * and store the year as the second value. (There are many other ways to do this)
-			 */
-			//
-			for(int i = columns.length - 1; i > 3; i--) {
-				
-				// check if value exists for year
-				if(!columns[i].equals("..")) {
-					lifeExpMap.put(columns[3], Float.parseFloat(columns[i]));
-					
-					// break once most recent data is found
-					break;
+		try (CsvReader columns = new CsvReader(input)) {
+			while (columns.next()) {
+				// check if there is any life expectancy data from any year, get most recent
+				/*
+				 * EXTENSION: Add code to also get the year the data is from.
+				 * You may want to use a list of Floats as the  values for the HashMap
+				 * and store the year as the second value. (There are many other ways to do this)
+				 */
+				//
+				for(int i = columns.fieldCount() - 1; i > 3; i--) {
+
+					// check if value exists for year
+					if(!columns.fieldEquals(i, "..")) {
+						lifeExpMap.put(columns.getString(3), columns.getFloat(i));
+
+						// break once most recent data is found
+						break;
+					}
 				}
 			}
-			
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 
 		return lifeExpMap;
 	}
-	
-	
 
-}
\ No newline at end of file
+	/*
+	 * Opens a file in the sketch's data folder or a URL, like createInput
+	 * but failing loudly when it does not exist.
+	 */
+	public static InputStream openInput(PApplet p, String fileName) {
+		InputStream input = p.createInput(fileName);
+		if (input == null) {
+			throw new IllegalArgumentException("Could not open " + fileName);
+		}
+		return input;
+	}
+	
+}